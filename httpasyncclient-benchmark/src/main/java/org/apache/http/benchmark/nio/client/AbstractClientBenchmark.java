@@ -0,0 +1,130 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.protocol.HTTP;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base class for client benchmarks. Starts a {@link LocalServer} and a client
+ * backed by a dedicated {@link PoolingNHttpClientConnectionManager} once per trial.
+ * <p>
+ * Both throughput and sampled latency (including p50 / p99 percentiles) are
+ * reported. Concurrency is controlled with the JMH {@code -t} option, allocation
+ * per request with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public abstract class AbstractClientBenchmark {
+
+    static final int MAX_CONNECTIONS = 256;
+
+    @Param({"0", "1024", "65536"})
+    public int bodySize;
+
+    protected LocalServer server;
+    protected HttpHost target;
+    protected byte[] content;
+    protected PoolingNHttpClientConnectionManager connmgr;
+    protected CloseableHttpAsyncClient httpclient;
+
+    abstract CloseableHttpAsyncClient createClient(PoolingNHttpClientConnectionManager connmgr);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.server = LocalServer.start();
+        this.target = this.server.getTarget();
+        this.content = new byte[this.bodySize];
+        new Random(0).nextBytes(this.content);
+
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(15000)
+                .build();
+        this.connmgr = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig));
+        this.connmgr.setMaxTotal(MAX_CONNECTIONS);
+        this.connmgr.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        this.httpclient = createClient(this.connmgr);
+        this.httpclient.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (this.httpclient != null) {
+            this.httpclient.close();
+        }
+        if (this.server != null) {
+            this.server.shutdown();
+        }
+    }
+
+    HttpRequest createGet(final boolean keepAlive) {
+        final HttpGet httpget = new HttpGet("/random/" + this.bodySize);
+        if (!keepAlive) {
+            httpget.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
+        }
+        return httpget;
+    }
+
+    HttpRequest createPost(final boolean keepAlive) {
+        final HttpPost httppost = new HttpPost("/echo/stuff");
+        httppost.setEntity(new NByteArrayEntity(this.content));
+        if (!keepAlive) {
+            httppost.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
+        }
+        return httppost;
+    }
+
+}
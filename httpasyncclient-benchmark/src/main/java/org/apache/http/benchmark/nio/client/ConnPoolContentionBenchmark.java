@@ -0,0 +1,171 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolLockingPolicy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures contention in the connection pool of {@link PoolingNHttpClientConnectionManager}
+ * by leasing and immediately releasing persistent connections from many threads,
+ * comparing {@link PoolLockingPolicy#GLOBAL} with {@link PoolLockingPolicy#PER_ROUTE}.
+ * Routes are told apart by their local address ({@code 127.0.0.1} to {@code 127.0.0.N}).
+ * Concurrency can be changed with the JMH {@code -t} option. The rate at which new
+ * connections get opened is reported as the secondary result {@code connectionsOpened}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(32)
+public class ConnPoolContentionBenchmark {
+
+    static final int MAX_CONNECTIONS = 1024;
+
+    @Param({"GLOBAL", "PER_ROUTE"})
+    public String lockingPolicy;
+
+    @Param({"1", "16", "64"})
+    public int routeCount;
+
+    private LocalServer server;
+    private PoolingNHttpClientConnectionManager connmgr;
+    private CloseableHttpAsyncClient httpclient;
+    private HttpRoute[] routes;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        final HttpContext context = new BasicHttpContext();
+        int next = COUNT.getAndIncrement();
+
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Counters {
+
+        public long connectionsOpened;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.connectionsOpened = 0;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.server = LocalServer.start();
+        final HttpHost target = new HttpHost("127.0.0.1", this.server.getTarget().getPort(), "http");
+        this.routes = new HttpRoute[this.routeCount];
+        for (int i = 0; i < this.routes.length; i++) {
+            final InetAddress local = InetAddress.getByAddress(
+                    new byte[] {127, 0, (byte) ((i + 1) >> 8), (byte) (i + 1)});
+            this.routes[i] = new HttpRoute(target, local, false);
+        }
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(15000)
+                .build();
+        this.connmgr = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig),
+                null,
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .build(),
+                null,
+                null,
+                -1, TimeUnit.MILLISECONDS,
+                PoolLockingPolicy.valueOf(this.lockingPolicy));
+        this.connmgr.setMaxTotal(MAX_CONNECTIONS);
+        this.connmgr.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        this.connmgr.setPoolStatsLogging(false);
+        // The client runs the I/O reactor
+        this.httpclient = HttpAsyncClients.createMinimal(this.connmgr);
+        this.httpclient.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (this.httpclient != null) {
+            this.httpclient.close();
+        }
+        if (this.server != null) {
+            this.server.shutdown();
+        }
+    }
+
+    @Benchmark
+    public NHttpClientConnection leaseRelease(final ThreadState state, final Counters counters) throws Exception {
+        final HttpRoute route = this.routes[(state.next++ & Integer.MAX_VALUE) % this.routes.length];
+        final NHttpClientConnection conn = this.connmgr.requestConnection(
+                route, null, 0, 0, TimeUnit.MILLISECONDS, null).get();
+        if (!this.connmgr.isRouteComplete(conn)) {
+            counters.connectionsOpened++;
+            this.connmgr.startRoute(conn, route, state.context);
+            this.connmgr.routeComplete(conn, route, state.context);
+        }
+        this.connmgr.releaseConnection(conn, null, -1, TimeUnit.MILLISECONDS);
+        return conn;
+    }
+
+}
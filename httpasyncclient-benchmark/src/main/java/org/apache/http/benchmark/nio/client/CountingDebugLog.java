@@ -0,0 +1,137 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+
+/**
+ * Commons Logging {@link Log} implementation that has debug logging enabled for
+ * {@link PoolingNHttpClientConnectionManager} only and discards all messages.
+ * Messages containing pool statistics are counted, each of them having required
+ * two acquisitions of the pool lock.
+ */
+public class CountingDebugLog implements Log {
+
+    static final AtomicLong POOL_STATS_COUNT = new AtomicLong();
+
+    private final boolean debug;
+
+    public CountingDebugLog(final String name) {
+        super();
+        this.debug = PoolingNHttpClientConnectionManager.class.getName().equals(name);
+    }
+
+    private void count(final Object message) {
+        if (message instanceof String && ((String) message).contains("[total kept alive: ")) {
+            POOL_STATS_COUNT.incrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return this.debug;
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isFatalEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return false;
+    }
+
+    @Override
+    public void trace(final Object message) {
+    }
+
+    @Override
+    public void trace(final Object message, final Throwable t) {
+    }
+
+    @Override
+    public void debug(final Object message) {
+        count(message);
+    }
+
+    @Override
+    public void debug(final Object message, final Throwable t) {
+        count(message);
+    }
+
+    @Override
+    public void info(final Object message) {
+    }
+
+    @Override
+    public void info(final Object message, final Throwable t) {
+    }
+
+    @Override
+    public void warn(final Object message) {
+    }
+
+    @Override
+    public void warn(final Object message, final Throwable t) {
+    }
+
+    @Override
+    public void error(final Object message) {
+    }
+
+    @Override
+    public void error(final Object message, final Throwable t) {
+    }
+
+    @Override
+    public void fatal(final Object message) {
+    }
+
+    @Override
+    public void fatal(final Object message, final Throwable t) {
+    }
+
+}
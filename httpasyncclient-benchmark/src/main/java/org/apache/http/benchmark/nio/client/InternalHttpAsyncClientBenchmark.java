@@ -0,0 +1,62 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Drives {@code InternalHttpAsyncClient.execute}, that is the full protocol stack
+ * of clients created with {@link HttpAsyncClients#custom()}.
+ */
+public class InternalHttpAsyncClientBenchmark extends AbstractClientBenchmark {
+
+    @Param({"true", "false"})
+    public boolean keepAlive;
+
+    @Override
+    CloseableHttpAsyncClient createClient(final PoolingNHttpClientConnectionManager connmgr) {
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connmgr)
+                .build();
+    }
+
+    @Benchmark
+    public HttpResponse get() throws Exception {
+        return this.httpclient.execute(this.target, createGet(this.keepAlive), null).get();
+    }
+
+    @Benchmark
+    public HttpResponse post() throws Exception {
+        return this.httpclient.execute(this.target, createPost(this.keepAlive), null).get();
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.bootstrap.HttpServer;
+import org.apache.http.impl.nio.bootstrap.ServerBootstrap;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.localserver.EchoHandler;
+import org.apache.http.localserver.RandomHandler;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.nio.reactor.ListenerEndpoint;
+
+/**
+ * In-process loopback HTTP server used as the benchmark target. Requests to
+ * {@code /echo/*} are served by {@link EchoHandler} and requests to
+ * {@code /random/<length>} by {@link RandomHandler}.
+ */
+final class LocalServer {
+
+    private final HttpServer server;
+    private final HttpHost target;
+
+    private LocalServer(final HttpServer server, final HttpHost target) {
+        super();
+        this.server = server;
+        this.target = target;
+    }
+
+    public static LocalServer start() throws Exception {
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(15000)
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .build();
+        final HttpServer server = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .setServerInfo("BENCHMARK/1.1")
+                .setIOReactorConfig(ioReactorConfig)
+                .registerHandler("/echo/*", new BasicAsyncRequestHandler(new EchoHandler()))
+                .registerHandler("/random/*", new BasicAsyncRequestHandler(new RandomHandler()))
+                .create();
+        server.start();
+
+        final ListenerEndpoint endpoint = server.getEndpoint();
+        endpoint.waitFor();
+
+        final InetSocketAddress address = (InetSocketAddress) endpoint.getAddress();
+        return new LocalServer(server, new HttpHost("localhost", address.getPort(), "http"));
+    }
+
+    public HttpHost getTarget() {
+        return this.target;
+    }
+
+    public void shutdown() {
+        this.server.shutdown(5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Drives the pipelined {@code execute(HttpHost, List, List, ...)} path. Each
+ * operation sends a batch of {@link #depth} requests over a single connection.
+ */
+public class PipeliningHttpAsyncClientBenchmark extends AbstractClientBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private CloseableHttpPipeliningClient pipeliningClient;
+
+    @Override
+    CloseableHttpAsyncClient createClient(final PoolingNHttpClientConnectionManager connmgr) {
+        this.pipeliningClient = HttpAsyncClients.createPipelining(connmgr);
+        return this.pipeliningClient;
+    }
+
+    private List<HttpRequest> createBatch(final boolean post) {
+        final List<HttpRequest> requests = new ArrayList<HttpRequest>(this.depth);
+        for (int i = 0; i < this.depth; i++) {
+            requests.add(post ? createPost(true) : createGet(true));
+        }
+        return requests;
+    }
+
+    @Benchmark
+    public List<HttpResponse> get() throws Exception {
+        return this.pipeliningClient.execute(this.target, createBatch(false), null).get();
+    }
+
+    @Benchmark
+    public List<HttpResponse> post() throws Exception {
+        return this.pipeliningClient.execute(this.target, createBatch(true), null).get();
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.benchmark.nio.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of pool statistics in the debug log of
+ * {@link PoolingNHttpClientConnectionManager}. Debug logging is enabled for the
+ * connection manager only with messages being discarded by {@link CountingDebugLog}.
+ * The rate of pool lock acquisitions spent on formatting pool statistics is reported
+ * as the secondary result {@code poolStatsLocks}; divided by the throughput it gives
+ * the acquisitions per request.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.http.benchmark.nio.client.CountingDebugLog")
+public class PoolStatsLoggingBenchmark extends AbstractClientBenchmark {
+
+    @Param({"true", "false"})
+    public boolean poolStatsLogging;
+
+    @Override
+    CloseableHttpAsyncClient createClient(final PoolingNHttpClientConnectionManager connmgr) {
+        connmgr.setPoolStatsLogging(this.poolStatsLogging);
+        CountingDebugLog.POOL_STATS_COUNT.set(0);
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connmgr)
+                .build();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Counters {
+
+        public long poolStatsLocks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.poolStatsLocks = 0;
+        }
+
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public HttpResponse get(final Counters counters) throws Exception {
+        final HttpResponse response = this.httpclient.execute(this.target, createGet(true), null).get();
+        // Statistics get logged by I/O dispatch threads as well, so each thread
+        // takes over what has been counted since the last request of any thread
+        counters.poolStatsLocks += 2 * CountingDebugLog.POOL_STATS_COUNT.getAndSet(0);
+        return response;
+    }
+
+}
@@ -26,7 +26,7 @@
  */
 package org.apache.http.impl.client.cache;
 
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,7 +41,9 @@ import org.apache.http.concurrent.FutureCallback;
 
 /**
  * Class used to represent an asynchronous revalidation event, such as with
- * "stale-while-revalidate"
+ * "stale-while-revalidate". The revalidation is reported complete to its
+ * parent from the callback of the revalidation request without blocking
+ * the calling thread.
  */
 class AsynchronousAsyncValidationRequest implements Runnable {
     private final AsynchronousAsyncValidator parent;
@@ -51,11 +53,12 @@ class AsynchronousAsyncValidationRequest implements Runnable {
     private final HttpCacheContext clientContext;
     private final HttpCacheEntry cacheEntry;
     private final String identifier;
+    private final AtomicBoolean completed;
 
     private final Log log = LogFactory.getLog(getClass());
 
     /**
-     * Used internally by {@link AsynchronousValidator} to schedule a
+     * Used internally by {@link AsynchronousAsyncValidator} to schedule a
      * revalidation.
      */
     AsynchronousAsyncValidationRequest(final AsynchronousAsyncValidator parent,
@@ -68,37 +71,43 @@ class AsynchronousAsyncValidationRequest implements Runnable {
         this.clientContext = clientContext;
         this.cacheEntry = cacheEntry;
         this.identifier = identifier;
+        this.completed = new AtomicBoolean(false);
     }
 
     @Override
     public void run() {
-        try {
-            final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+        final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
 
-                @Override
-                public void cancelled() {
-                }
+            @Override
+            public void cancelled() {
+                markComplete();
+            }
 
-                @Override
-                public void completed(final HttpResponse httpResponse) {
-                }
+            @Override
+            public void completed(final HttpResponse httpResponse) {
+                markComplete();
+            }
 
-                @Override
-                public void failed(final Exception e) {
-                    log.debug("Asynchronous revalidation failed", e);
-                }
-            };
-            final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
-            this.cachingAsyncClient.revalidateCacheEntry(future, this.target, this.request,
-                    this.clientContext, this.cacheEntry);
-            future.get();
+            @Override
+            public void failed(final Exception e) {
+                log.debug("Asynchronous revalidation failed", e);
+                markComplete();
+            }
+        };
+        try {
+            this.cachingAsyncClient.revalidateCacheEntry(new BasicFuture<HttpResponse>(callback),
+                    this.target, this.request, this.clientContext, this.cacheEntry);
         } catch (final ProtocolException pe) {
             this.log.error("ProtocolException thrown during asynchronous revalidation", pe);
-        } catch (final ExecutionException e) {
-            this.log.error("Exception thrown during asynchronous revalidation", e.getCause());
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
+            markComplete();
+        } catch (final RuntimeException ex) {
+            this.log.error("Exception thrown during asynchronous revalidation", ex);
+            markComplete();
+        }
+    }
+
+    private void markComplete() {
+        if (this.completed.compareAndSet(false, true)) {
             this.parent.markComplete(this.identifier);
         }
     }
@@ -27,13 +27,9 @@
 package org.apache.http.impl.client.cache;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,91 +40,93 @@ import org.apache.http.client.methods.HttpRequestWrapper;
 
 /**
  * Class used for asynchronous revalidations to be used when the "stale-
- * while-revalidate" directive is present
+ * while-revalidate" directive is present. Revalidations are executed
+ * with the non-blocking client and require no worker threads. The number
+ * of revalidations in progress is bounded by count.
  */
 class AsynchronousAsyncValidator {
     private final CachingHttpAsyncClient cachingAsyncClient;
-    private final ExecutorService executor;
+    private final int maxInflight;
     private final Set<String> queued;
+    private final AtomicInteger inflight;
     private final CacheKeyGenerator cacheKeyGenerator;
 
     private final Log log = LogFactory.getLog(getClass());
 
     /**
      * Create AsynchronousValidator which will make revalidation requests using
-     * the supplied {@link CachingHttpAsyncClient}, and a {@link ThreadPoolExecutor}
-     * generated according to the thread pool settings provided in the given
-     * {@link CacheConfig}.
+     * the supplied {@link CachingHttpAsyncClient}. The maximum number of
+     * revalidations in progress is derived from the worker and queue settings
+     * provided in the given {@link CacheConfig}.
      *
      * @param cachingClient
      *            used to execute asynchronous requests
      * @param config
-     *            specifies thread pool settings. See
-     *            {@link CacheConfig#getAsynchronousWorkersMax()},
-     *            {@link CacheConfig#getAsynchronousWorkersCore()},
-     *            {@link CacheConfig#getAsynchronousWorkerIdleLifetimeSecs()},
+     *            specifies revalidation limits. See
+     *            {@link CacheConfig#getAsynchronousWorkersMax()}
      *            and {@link CacheConfig#getRevalidationQueueSize()}.
      */
     public AsynchronousAsyncValidator(final CachingHttpAsyncClient cachingClient, final CacheConfig config) {
-        this(cachingClient, new ThreadPoolExecutor(config.getAsynchronousWorkersCore(),
-                config.getAsynchronousWorkersMax(), config.getAsynchronousWorkerIdleLifetimeSecs(),
-                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
-                        config.getRevalidationQueueSize())));
+        this(cachingClient, config.getAsynchronousWorkersMax() + config.getRevalidationQueueSize());
     }
 
     /**
      * Create AsynchronousValidator which will make revalidation requests using
-     * the supplied {@link CachingHttpAsyncClient} and {@link ExecutorService}.
+     * the supplied {@link CachingHttpAsyncClient}.
      *
      * @param cachingClient
      *            used to execute asynchronous requests
-     * @param executor
-     *            used to manage a thread pool of revalidation workers
+     * @param maxInflight
+     *            maximum number of revalidations in progress
      */
-    AsynchronousAsyncValidator(final CachingHttpAsyncClient cachingClient, final ExecutorService executor) {
+    AsynchronousAsyncValidator(final CachingHttpAsyncClient cachingClient, final int maxInflight) {
         this.cachingAsyncClient = cachingClient;
-        this.executor = executor;
-        this.queued = new HashSet<String>();
+        this.maxInflight = maxInflight;
+        this.queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.inflight = new AtomicInteger(0);
         this.cacheKeyGenerator = new CacheKeyGenerator();
     }
 
     /**
      * Schedules an asynchronous revalidation
      */
-    public synchronized void revalidateCacheEntry(final HttpHost target, final HttpRequestWrapper request,
+    public void revalidateCacheEntry(final HttpHost target, final HttpRequestWrapper request,
             final HttpCacheContext clientContext, final HttpCacheEntry entry) {
         // getVariantURI will fall back on getURI if no variants exist
         final String uri = this.cacheKeyGenerator.getVariantURI(target, request, entry);
 
-        if (!this.queued.contains(uri)) {
-            final AsynchronousAsyncValidationRequest asyncRevalidationRequest = new AsynchronousAsyncValidationRequest(
-                    this, this.cachingAsyncClient, target, request, clientContext, entry, uri);
-
-            try {
-                this.executor.execute(asyncRevalidationRequest);
-                this.queued.add(uri);
-            } catch (final RejectedExecutionException ree) {
-                this.log.debug("Revalidation for [" + uri + "] not scheduled: " + ree);
-            }
+        if (!this.queued.add(uri)) {
+            return;
+        }
+        if (this.inflight.incrementAndGet() > this.maxInflight) {
+            this.inflight.decrementAndGet();
+            this.queued.remove(uri);
+            this.log.debug("Revalidation for [" + uri + "] not scheduled: too many revalidations in progress");
+            return;
         }
+        final AsynchronousAsyncValidationRequest asyncRevalidationRequest = new AsynchronousAsyncValidationRequest(
+                this, this.cachingAsyncClient, target, request, clientContext, entry, uri);
+        asyncRevalidationRequest.run();
     }
 
     /**
      * Removes an identifier from the internal list of revalidation jobs in
      * progress. This is meant to be called by
-     * {@link AsynchronousValidationRequest#run()} once the revalidation is
+     * {@link AsynchronousAsyncValidationRequest} once the revalidation is
      * complete, using the identifier passed in during constructions.
      */
-    synchronized void markComplete(final String identifier) {
-        this.queued.remove(identifier);
+    void markComplete(final String identifier) {
+        if (this.queued.remove(identifier)) {
+            this.inflight.decrementAndGet();
+        }
     }
 
     Set<String> getScheduledIdentifiers() {
         return Collections.unmodifiableSet(this.queued);
     }
 
-    ExecutorService getExecutor() {
-        return this.executor;
+    int getInflightCount() {
+        return this.inflight.get();
     }
 
 }
@@ -0,0 +1,75 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.util.Args;
+
+/**
+ * Cached variant of a resource, as retrieved from {@link HttpAsyncCache}
+ * for the negotiation of a response with the origin server.
+ *
+ * @since 4.2
+ */
+@Immutable
+public class CacheVariant {
+
+    private final String variantKey;
+    private final String cacheKey;
+    private final HttpCacheEntry entry;
+
+    /**
+     * @param variantKey key of the variant within its parent entry.
+     * @param cacheKey key the variant entry is stored under.
+     * @param entry the variant entry.
+     */
+    public CacheVariant(final String variantKey, final String cacheKey, final HttpCacheEntry entry) {
+        super();
+        this.variantKey = Args.notNull(variantKey, "Variant key");
+        this.cacheKey = Args.notNull(cacheKey, "Cache key");
+        this.entry = Args.notNull(entry, "Cache entry");
+    }
+
+    public String getVariantKey() {
+        return this.variantKey;
+    }
+
+    public String getCacheKey() {
+        return this.cacheKey;
+    }
+
+    public HttpCacheEntry getEntry() {
+        return this.entry;
+    }
+
+    @Override
+    public String toString() {
+        return "[variantKey: " + this.variantKey + "; cacheKey: " + this.cacheKey + "]";
+    }
+
+}
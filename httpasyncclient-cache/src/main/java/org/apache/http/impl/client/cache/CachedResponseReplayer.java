@@ -0,0 +1,213 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Delivers a response generated by the cache to a {@link HttpAsyncResponseConsumer}
+ * the same way a response received from the backend would be delivered: response
+ * head first, followed by the content, which is streamed from the cached resource.
+ * The consumer can suspend and resume content delivery with the {@link IOControl}
+ * interface.
+ */
+class CachedResponseReplayer<T> implements FutureCallback<HttpResponse>, IOControl {
+
+    private final HttpAsyncResponseConsumer<T> responseConsumer;
+    private final HttpContext context;
+    private final BasicFuture<T> future;
+    private final AtomicBoolean pumping;
+
+    private volatile InputStreamContentDecoder decoder;
+    private volatile boolean suspended;
+    private volatile boolean done;
+
+    public CachedResponseReplayer(
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpContext context,
+            final BasicFuture<T> future) {
+        super();
+        this.responseConsumer = responseConsumer;
+        this.context = context;
+        this.future = future;
+        this.pumping = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void completed(final HttpResponse response) {
+        try {
+            final HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                this.decoder = new InputStreamContentDecoder(entity.getContent());
+                // The consumer is expected to receive the content through the decoder only
+                final BasicHttpEntity placeholder = new BasicHttpEntity();
+                placeholder.setContentLength(entity.getContentLength());
+                placeholder.setContentType(entity.getContentType());
+                placeholder.setContentEncoding(entity.getContentEncoding());
+                placeholder.setChunked(entity.isChunked());
+                response.setEntity(placeholder);
+            }
+            this.responseConsumer.responseReceived(response);
+        } catch (final Exception ex) {
+            abort(ex);
+            return;
+        }
+        if (this.decoder == null) {
+            complete();
+        } else {
+            pump();
+        }
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        abort(ex);
+    }
+
+    @Override
+    public void cancelled() {
+        this.done = true;
+        try {
+            this.responseConsumer.cancel();
+        } finally {
+            releaseResources();
+        }
+        this.future.cancel();
+    }
+
+    private void pump() {
+        for (;;) {
+            if (!this.pumping.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                while (!this.suspended && !this.done) {
+                    if (this.future.isCancelled()) {
+                        cancelled();
+                        return;
+                    }
+                    this.responseConsumer.consumeContent(this.decoder, this);
+                    if (this.decoder.isCompleted()) {
+                        complete();
+                    }
+                }
+            } catch (final Exception ex) {
+                abort(ex);
+                return;
+            } finally {
+                this.pumping.set(false);
+            }
+            // Re-check in case input has been requested while still pumping
+            if (this.suspended || this.done) {
+                return;
+            }
+        }
+    }
+
+    private void complete() {
+        this.done = true;
+        final T result;
+        final Exception ex;
+        try {
+            this.responseConsumer.responseCompleted(this.context);
+            result = this.responseConsumer.getResult();
+            ex = this.responseConsumer.getException();
+        } catch (final RuntimeException rex) {
+            abort(rex);
+            return;
+        }
+        releaseResources();
+        if (ex == null) {
+            this.future.completed(result);
+        } else {
+            this.future.failed(ex);
+        }
+    }
+
+    private void abort(final Exception ex) {
+        this.done = true;
+        try {
+            this.responseConsumer.failed(ex);
+        } finally {
+            releaseResources();
+        }
+        this.future.failed(ex);
+    }
+
+    private void releaseResources() {
+        final InputStreamContentDecoder local = this.decoder;
+        if (local != null) {
+            try {
+                local.close();
+            } catch (final IOException ignore) {
+            }
+        }
+        try {
+            this.responseConsumer.close();
+        } catch (final IOException ignore) {
+        }
+    }
+
+    @Override
+    public void requestInput() {
+        this.suspended = false;
+        if (this.decoder != null && !this.done) {
+            pump();
+        }
+    }
+
+    @Override
+    public void suspendInput() {
+        this.suspended = true;
+    }
+
+    @Override
+    public void requestOutput() {
+    }
+
+    @Override
+    public void suspendOutput() {
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (!this.done) {
+            cancelled();
+        }
+    }
+
+}
@@ -26,12 +26,15 @@
  */
 package org.apache.http.impl.client.cache;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -39,6 +42,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpMessage;
 import org.apache.http.HttpRequest;
@@ -64,12 +70,17 @@ import org.apache.http.client.utils.DateUtils;
 import org.apache.http.concurrent.BasicFuture;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
 import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
@@ -89,7 +100,8 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
     private final Map<ProtocolVersion, String> viaHeaders = new HashMap<ProtocolVersion, String>(4);
 
     private final HttpAsyncClient backend;
-    private final HttpCache responseCache;
+    private final HttpAsyncCache responseCache;
+    private final ResourceFactory resourceFactory;
     private final CacheValidityPolicy validityPolicy;
     private final ResponseCachingPolicy responseCachingPolicy;
     private final CachedHttpResponseGenerator responseGenerator;
@@ -106,12 +118,40 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
 
     private final AsynchronousAsyncValidator asynchAsyncRevalidator;
 
+    private final CacheKeyGenerator cacheKeyGenerator = new CacheKeyGenerator();
+    private final Map<String, List<Runnable>> collapsedMisses = new HashMap<String, List<Runnable>>();
+
     private final Log log = LogFactory.getLog(getClass());
 
     CachingHttpAsyncClient(
             final HttpAsyncClient client,
             final HttpCache cache,
             final CacheConfig config) {
+        this(client, new DefaultHttpAsyncCache(cache, null), config);
+    }
+
+    /**
+     * Creates a caching client backed by the given {@link HttpAsyncCache}
+     * implementation, for instance one backed by a non-blocking remote cache.
+     *
+     * @since 4.2
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCache cache,
+            final CacheConfig config) {
+        this(client, cache, new HeapResourceFactory(), config);
+    }
+
+    /**
+     * @param resourceFactory used to spool the content of streamed responses
+     *   while they are received.
+     */
+    CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCache cache,
+            final ResourceFactory resourceFactory,
+            final CacheConfig config) {
         super();
         Args.notNull(client, "HttpClient");
         Args.notNull(cache, "HttpCache");
@@ -120,6 +160,7 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         this.sharedCache = config.isSharedCache();
         this.backend = client;
         this.responseCache = cache;
+        this.resourceFactory = Args.notNull(resourceFactory, "Resource factory");
         this.validityPolicy = new CacheValidityPolicy();
         this.responseCachingPolicy = new ResponseCachingPolicy(this.maxObjectSizeBytes, this.sharedCache, false, config.is303CachingEnabled());
         this.responseGenerator = new CachedHttpResponseGenerator(this.validityPolicy);
@@ -163,7 +204,8 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             final HttpCacheStorage storage,
             final CacheConfig config) {
         this(client,
-                new BasicHttpCache(resourceFactory, storage, config),
+                new DefaultHttpAsyncCache(new BasicHttpCache(resourceFactory, storage, config), null),
+                resourceFactory,
                 config);
     }
 
@@ -176,6 +218,28 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 config);
     }
 
+    /**
+     * Creates a caching client whose cache storage operations are executed by
+     * the given executor. Use this constructor with cache storage slower than
+     * heap memory, such as disk or off-heap storage, to prevent cache reads
+     * and writes from stalling the I/O dispatch threads of the backend client.
+     *
+     * @since 4.2
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final ResourceFactory resourceFactory,
+            final HttpCacheStorage storage,
+            final CacheConfig config,
+            final Executor storageExecutor) {
+        this(client,
+                new DefaultHttpAsyncCache(
+                        new BasicHttpCache(resourceFactory, storage, config),
+                        Args.notNull(storageExecutor, "Storage executor")),
+                resourceFactory,
+                config);
+    }
+
     CachingHttpAsyncClient(
             final HttpAsyncClient backend,
             final CacheValidityPolicy validityPolicy,
@@ -193,7 +257,8 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         this.backend = backend;
         this.validityPolicy = validityPolicy;
         this.responseCachingPolicy = responseCachingPolicy;
-        this.responseCache = responseCache;
+        this.responseCache = new DefaultHttpAsyncCache(responseCache, null);
+        this.resourceFactory = new HeapResourceFactory();
         this.responseGenerator = responseGenerator;
         this.cacheableRequestPolicy = cacheableRequestPolicy;
         this.suitabilityChecker = suitabilityChecker;
@@ -260,8 +325,137 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             final HttpAsyncResponseConsumer<T> responseConsumer,
             final HttpContext context,
             final FutureCallback<T> callback) {
-        this.log.warn("CachingHttpAsyncClient does not support caching for streaming HTTP exchanges");
-        return this.backend.execute(requestProducer, responseConsumer, context, callback);
+        final HttpHost target = requestProducer.getTarget();
+        final HttpRequest originalRequest;
+        try {
+            originalRequest = requestProducer.generateRequest();
+        } catch (final IOException ex) {
+            return failed(requestProducer, responseConsumer, ex, callback);
+        } catch (final HttpException ex) {
+            return failed(requestProducer, responseConsumer, ex, callback);
+        }
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        // Enclosed content produced by the request producer cannot be re-sent
+        if (originalRequest instanceof HttpEntityEnclosingRequest
+                || !this.cacheableRequestPolicy.isServableFromCache(originalRequest)) {
+            log.debug("Request is not servable from cache");
+            flushEntriesInvalidatedByRequest(target, originalRequest, new Runnable() {
+
+                @Override
+                public void run() {
+                    backend.execute(requestProducer, responseConsumer, context,
+                            new ChainedFutureCallback<T>(future));
+                }
+
+            });
+            return future;
+        }
+        closeQuietly(requestProducer);
+
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(originalRequest);
+        final HttpCacheContext clientContext = HttpCacheContext.adapt(
+                context != null ? context : new BasicHttpContext());
+        // Responses generated by the cache are replayed through the response consumer
+        final BasicFuture<HttpResponse> replayFuture = new BasicFuture<HttpResponse>(
+                new CachedResponseReplayer<T>(responseConsumer, clientContext, future));
+        if (!prepareRequest(replayFuture, target, request, clientContext)) {
+            return future;
+        }
+        flushEntriesInvalidatedByRequest(target, request, new Runnable() {
+
+            @Override
+            public void run() {
+                responseCache.getCacheEntry(target, request, new CacheOperationCallback<HttpCacheEntry>(
+                        "Unable to retrieve entries from cache", null) {
+
+                    @Override
+                    public void completed(final HttpCacheEntry entry) {
+                        if (entry != null) {
+                            try {
+                                handleCacheHit(replayFuture, target, request, clientContext, entry);
+                            } catch (final IOException e) {
+                                replayFuture.failed(e);
+                            }
+                        } else {
+                            log.debug("Cache miss");
+                            handleStreamingCacheMiss(
+                                    future, replayFuture, target, request, clientContext, responseConsumer);
+                        }
+                    }
+
+                });
+            }
+
+        });
+        return future;
+    }
+
+    private <T> void handleStreamingCacheMiss(
+            final BasicFuture<T> future,
+            final BasicFuture<HttpResponse> replayFuture,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpAsyncResponseConsumer<T> responseConsumer) {
+        recordCacheMiss(target, request);
+        if (!mayCallBackend(request)) {
+            replayFuture.completed(new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_GATEWAY_TIMEOUT, "Gateway Timeout"));
+            return;
+        }
+        this.responseCache.getVariantCacheEntriesWithEtags(target, request,
+                new CacheOperationCallback<Map<String, CacheVariant>>("Unable to retrieve variant entries from cache", null) {
+
+            @Override
+            public void completed(final Map<String, CacheVariant> variants) {
+                if (variants != null && variants.size() > 0) {
+                    negotiateResponseFromVariants(replayFuture, target, request, clientContext, variants);
+                    return;
+                }
+                final String cacheKey = cacheKeyGenerator.getURI(target, request);
+                final boolean collapsed = joinCollapsedMiss(cacheKey, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        resumeCollapsedRequest(replayFuture, target, request, clientContext, new Runnable() {
+
+                            @Override
+                            public void run() {
+                                callBackend(future, target, request, clientContext, responseConsumer);
+                            }
+
+                        });
+                    }
+
+                });
+                if (!collapsed) {
+                    callBackend(collapsedMissLeader(cacheKey, future), target, request, clientContext, responseConsumer);
+                }
+            }
+
+        });
+    }
+
+    private <T> Future<T> failed(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final Exception ex,
+            final FutureCallback<T> callback) {
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        try {
+            responseConsumer.failed(ex);
+        } finally {
+            closeQuietly(requestProducer);
+            closeQuietly(responseConsumer);
+        }
+        future.failed(ex);
+        return future;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException ignore) {
+        }
     }
 
     @Override
@@ -289,7 +483,55 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             final FutureCallback<HttpResponse> futureCallback) {
         final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(futureCallback);
         final HttpRequestWrapper request = HttpRequestWrapper.wrap(originalRequest);
-        final HttpCacheContext clientContext = HttpCacheContext.adapt(context);
+        final HttpCacheContext clientContext = HttpCacheContext.adapt(
+                context != null ? context : new BasicHttpContext());
+        if (!prepareRequest(future, target, request, clientContext)) {
+            return future;
+        }
+        flushEntriesInvalidatedByRequest(target, request, new Runnable() {
+
+            @Override
+            public void run() {
+                if (!cacheableRequestPolicy.isServableFromCache(request)) {
+                    log.debug("Request is not servable from cache");
+                    callBackend(future, target, request, clientContext);
+                    return;
+                }
+                responseCache.getCacheEntry(target, request, new CacheOperationCallback<HttpCacheEntry>(
+                        "Unable to retrieve entries from cache", null) {
+
+                    @Override
+                    public void completed(final HttpCacheEntry entry) {
+                        if (entry == null) {
+                            log.debug("Cache miss");
+                            handleCacheMiss(future, target, request, clientContext);
+                        } else {
+                            try {
+                                handleCacheHit(future, target, request, clientContext, entry);
+                            } catch (final IOException e) {
+                                future.failed(e);
+                            }
+                        }
+                    }
+
+                });
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Makes the request compliant.
+     *
+     * @return {@code false} if the cache module has already responded to
+     *   the request, {@code true} otherwise.
+     */
+    private boolean prepareRequest(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
         // default response context
         setResponseStatus(clientContext, CacheResponseStatus.CACHE_MISS);
 
@@ -298,44 +540,24 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         if (clientRequestsOurOptions(request)) {
             setResponseStatus(clientContext, CacheResponseStatus.CACHE_MODULE_RESPONSE);
             future.completed(new OptionsHttp11Response());
-            return future;
+            return false;
         }
 
         final HttpResponse fatalErrorResponse = getFatallyNoncompliantResponse(
                 request, clientContext);
         if (fatalErrorResponse != null) {
             future.completed(fatalErrorResponse);
-            return future;
+            return false;
         }
 
         try {
             this.requestCompliance.makeRequestCompliant(request);
         } catch (final ClientProtocolException e) {
             future.failed(e);
-            return future;
+            return false;
         }
         request.addHeader(HeaderConstants.VIA,via);
-
-        flushEntriesInvalidatedByRequest(target, request);
-
-        if (!this.cacheableRequestPolicy.isServableFromCache(request)) {
-            log.debug("Request is not servable from cache");
-            callBackend(future, target, request, clientContext);
-            return future;
-        }
-
-        final HttpCacheEntry entry = satisfyFromCache(target, request);
-        if (entry == null) {
-            log.debug("Cache miss");
-            handleCacheMiss(future, target, request, clientContext);
-        } else {
-            try {
-                handleCacheHit(future, target, request, clientContext, entry);
-            } catch (final IOException e) {
-                future.failed(e);
-            }
-        }
-        return future;
+        return true;
     }
 
     private void handleCacheHit(
@@ -364,12 +586,20 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             callBackend(future, target, request, clientContext);
             return;
         }
+        setCachedResponseContext(clientContext, target, request, out);
+        future.completed(out);
+    }
+
+    private void setCachedResponseContext(
+            final HttpCacheContext clientContext,
+            final HttpHost target,
+            final HttpRequest request,
+            final HttpResponse out) {
         clientContext.setAttribute(HttpClientContext.HTTP_ROUTE, new HttpRoute(target));
         clientContext.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
         clientContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
         clientContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, out);
         clientContext.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.TRUE);
-        future.completed(out);
     }
 
     private void revalidateCacheEntry(
@@ -426,25 +656,145 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             return;
         }
 
-        final Map<String, Variant> variants = getExistingCacheVariants(target, request);
-        if (variants != null && variants.size() > 0) {
-            negotiateResponseFromVariants(future, target, request, clientContext, variants);
-            return;
+        this.responseCache.getVariantCacheEntriesWithEtags(target, request,
+                new CacheOperationCallback<Map<String, CacheVariant>>("Unable to retrieve variant entries from cache", null) {
+
+            @Override
+            public void completed(final Map<String, CacheVariant> variants) {
+                if (variants != null && variants.size() > 0) {
+                    negotiateResponseFromVariants(future, target, request, clientContext, variants);
+                    return;
+                }
+
+                final String cacheKey = cacheKeyGenerator.getURI(target, request);
+                final boolean collapsed = joinCollapsedMiss(cacheKey, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        resumeCollapsedRequest(future, target, request, clientContext, new Runnable() {
+
+                            @Override
+                            public void run() {
+                                callBackend(future, target, request, clientContext);
+                            }
+
+                        });
+                    }
+
+                });
+                if (!collapsed) {
+                    callBackend(collapsedMissLeader(cacheKey, future), target, request, clientContext);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Registers the given continuation with the backend request already in
+     * progress for the same cache key, if any.
+     *
+     * @return {@code true} if the continuation has been registered and will be
+     *   run once the backend request completes, {@code false} if the caller is
+     *   to execute the backend request itself.
+     */
+    private boolean joinCollapsedMiss(final String cacheKey, final Runnable continuation) {
+        synchronized (this.collapsedMisses) {
+            final List<Runnable> waiters = this.collapsedMisses.get(cacheKey);
+            if (waiters == null) {
+                this.collapsedMisses.put(cacheKey, new ArrayList<Runnable>());
+                return false;
+            }
+            this.log.debug("Collapsing request with a backend request already in progress");
+            waiters.add(continuation);
+            return true;
         }
+    }
+
+    /**
+     * Creates a future for the backend request of the first cache miss for
+     * the given cache key. Requests that have been collapsed with it resume
+     * once it completes, after the response has been stored in the cache.
+     */
+    private <T> BasicFuture<T> collapsedMissLeader(final String cacheKey, final BasicFuture<T> future) {
+        return new BasicFuture<T>(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                try {
+                    future.completed(result);
+                } finally {
+                    releaseCollapsedMisses(cacheKey);
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                try {
+                    future.failed(ex);
+                } finally {
+                    releaseCollapsedMisses(cacheKey);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                try {
+                    future.cancel();
+                } finally {
+                    releaseCollapsedMisses(cacheKey);
+                }
+            }
 
-        callBackend(future, target, request, clientContext);
+        });
     }
 
-    private HttpCacheEntry satisfyFromCache(
-            final HttpHost target,
-            final HttpRequest request) {
-        HttpCacheEntry entry = null;
-        try {
-            entry = this.responseCache.getCacheEntry(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to retrieve entries from cache", ioe);
+    private void releaseCollapsedMisses(final String cacheKey) {
+        final List<Runnable> waiters;
+        synchronized (this.collapsedMisses) {
+            waiters = this.collapsedMisses.remove(cacheKey);
+        }
+        if (waiters != null) {
+            for (final Runnable waiter: waiters) {
+                try {
+                    waiter.run();
+                } catch (final RuntimeException ex) {
+                    this.log.warn("Unexpected failure resuming collapsed request", ex);
+                }
+            }
         }
-        return entry;
+    }
+
+    /**
+     * Attempts to serve a collapsed request from the entry stored by the
+     * backend request it has been collapsed with. Runs the fallback if no
+     * suitable entry has been stored, for instance because the response was
+     * not cacheable or a different variant has been selected.
+     */
+    private void resumeCollapsedRequest(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final Runnable fallback) {
+        this.responseCache.getCacheEntry(target, request, new CacheOperationCallback<HttpCacheEntry>(
+                "Unable to retrieve entries from cache", null) {
+
+            @Override
+            public void completed(final HttpCacheEntry entry) {
+                final Date now = getCurrentDate();
+                if (entry == null || !suitabilityChecker.canCachedResponseBeUsed(target, request, entry, now)) {
+                    log.debug("Collapsed request cannot be served from cache; calling backend");
+                    fallback.run();
+                    return;
+                }
+                log.debug("Serving collapsed request from cache");
+                final HttpResponse out = generateCachedResponse(request, clientContext, entry, now);
+                setCachedResponseContext(clientContext, target, request, out);
+                future.completed(out);
+            }
+
+        });
     }
 
     private HttpResponse getFatallyNoncompliantResponse(
@@ -460,18 +810,6 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         return fatalErrorResponse;
     }
 
-    private Map<String, Variant> getExistingCacheVariants(
-            final HttpHost target,
-            final HttpRequest request) {
-        Map<String,Variant> variants = null;
-        try {
-            variants = this.responseCache.getVariantCacheEntriesWithEtags(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to retrieve variant entries from cache", ioe);
-        }
-        return variants;
-    }
-
     private void recordCacheMiss(final HttpHost target, final HttpRequest request) {
         this.cacheMisses.getAndIncrement();
         if (this.log.isDebugEnabled()) {
@@ -494,12 +832,16 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
     }
 
     private void flushEntriesInvalidatedByRequest(final HttpHost target,
-            final HttpRequest request) {
-        try {
-            this.responseCache.flushInvalidatedCacheEntriesFor(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to flush invalidated entries from cache", ioe);
-        }
+            final HttpRequest request, final Runnable next) {
+        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, new CacheOperationCallback<Boolean>(
+                "Unable to flush invalidated entries from cache", Boolean.FALSE) {
+
+            @Override
+            public void completed(final Boolean flushed) {
+                next.run();
+            }
+
+        });
     }
 
     private HttpResponse generateCachedResponse(
@@ -676,19 +1018,63 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             @Override
             public void completed(final HttpResponse httpResponse) {
                 httpResponse.addHeader(HeaderConstants.VIA, generateViaHeader(httpResponse));
-                try {
-                    final CloseableHttpResponse backendResponse = handleBackendResponse(
-                            target, request, requestDate, getCurrentDate(),
-                            Proxies.enhanceResponse(httpResponse));
-                    super.completed(backendResponse);
-                } catch (final IOException e) {
-                    super.failed(e);
-                }
-
+                handleBackendResponse(future, target, request, requestDate, getCurrentDate(),
+                        Proxies.enhanceResponse(httpResponse));
             }
 
         };
-        this.backend.execute(target, request, clientContext, chainedFutureCallback);
+        try {
+            this.backend.execute(target, request, clientContext, chainedFutureCallback);
+        } catch (final RuntimeException ex) {
+            // Fails the leader of collapsed requests as well, releasing them
+            future.failed(ex);
+        }
+    }
+
+    /**
+     * Executes the request against the backend streaming the response content
+     * to the given consumer. The content of a cacheable response is copied to
+     * the cache as it streams through, up to the maximum object size. The
+     * future is completed once the response has been stored.
+     */
+    <T> void callBackend(
+            final BasicFuture<T> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpAsyncResponseConsumer<T> responseConsumer) {
+        this.log.trace("Calling the backend");
+        final CachingResponseConsumer<T> cachingConsumer = new CachingResponseConsumer<T>(
+                responseConsumer, target, request, getCurrentDate());
+        try {
+            this.backend.execute(
+                    new BasicAsyncRequestProducer(target, request),
+                    cachingConsumer,
+                    clientContext,
+                    new ChainedFutureCallback<T>(future) {
+
+                        @Override
+                        public void completed(final T result) {
+                            cachingConsumer.storeResponse(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    future.completed(result);
+                                }
+
+                            });
+                        }
+
+                    });
+        } catch (final RuntimeException ex) {
+            // Fails the leader of collapsed requests as well, releasing them
+            try {
+                cachingConsumer.failed(ex);
+            } finally {
+                closeQuietly(cachingConsumer);
+            }
+            future.failed(ex);
+        }
     }
 
     private boolean revalidationResponseIsTooOld(
@@ -711,8 +1097,13 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             final HttpHost target,
             final HttpRequestWrapper request,
             final HttpCacheContext clientContext,
-            final Map<String, Variant> variants) {
-        final HttpRequest conditionalRequest = this.conditionalRequestBuilder.buildConditionalRequestFromVariants(request, variants);
+            final Map<String, CacheVariant> variants) {
+        final Map<String, Variant> etags = new HashMap<String, Variant>(variants.size());
+        for (final Map.Entry<String, CacheVariant> entry: variants.entrySet()) {
+            final CacheVariant variant = entry.getValue();
+            etags.put(entry.getKey(), new Variant(variant.getVariantKey(), variant.getCacheKey(), variant.getEntry()));
+        }
+        final HttpRequest conditionalRequest = this.conditionalRequestBuilder.buildConditionalRequestFromVariants(request, etags);
 
         final Date requestDate = getCurrentDate();
 
@@ -725,15 +1116,9 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 httpResponse.addHeader(HeaderConstants.VIA, generateViaHeader(httpResponse));
 
                 if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_NOT_MODIFIED) {
-                    try {
-                        future.completed(handleBackendResponse(
-                                target, request, requestDate, responseDate,
-                                Proxies.enhanceResponse(httpResponse)));
-                        return;
-                    } catch (final IOException e) {
-                        future.failed(e);
-                        return;
-                    }
+                    handleBackendResponse(future, target, request, requestDate, responseDate,
+                            Proxies.enhanceResponse(httpResponse));
+                    return;
                 }
 
                 final Header resultEtagHeader = httpResponse.getFirstHeader(HeaderConstants.ETAG);
@@ -744,7 +1129,7 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 }
 
                 final String resultEtag = resultEtagHeader.getValue();
-                final Variant matchingVariant = variants.get(resultEtag);
+                final CacheVariant matchingVariant = variants.get(resultEtag);
                 if (matchingVariant == null) {
                     CachingHttpAsyncClient.this.log.debug("304 response did not contain ETag matching one sent in If-None-Match");
                     callBackend(future, target, request, clientContext);
@@ -760,19 +1145,30 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
 
                 recordCacheUpdate(clientContext);
 
-                final HttpCacheEntry responseEntry = getUpdatedVariantEntry(target,
-                        conditionalRequest, requestDate, responseDate, httpResponse,
-                        matchingVariant, matchedEntry);
+                CachingHttpAsyncClient.this.responseCache.updateVariantCacheEntry(target, conditionalRequest,
+                        matchedEntry, httpResponse, requestDate, responseDate, matchingVariant.getCacheKey(),
+                        new CacheOperationCallback<HttpCacheEntry>("Could not update cache entry", matchedEntry) {
 
-                final HttpResponse resp = CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, responseEntry);
-                tryToUpdateVariantMap(target, request, matchingVariant);
+                    @Override
+                    public void completed(final HttpCacheEntry responseEntry) {
+                        final HttpResponse resp = CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, responseEntry);
+                        CachingHttpAsyncClient.this.responseCache.reuseVariantEntryFor(target, request, matchingVariant,
+                                new CacheOperationCallback<Boolean>("Could not update cache entry to reuse variant", Boolean.FALSE) {
 
-                if (shouldSendNotModifiedResponse(request, responseEntry)) {
-                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(responseEntry));
-                    return;
-                }
+                            @Override
+                            public void completed(final Boolean reused) {
+                                if (shouldSendNotModifiedResponse(request, responseEntry)) {
+                                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(responseEntry));
+                                    return;
+                                }
 
-                future.completed(resp);
+                                future.completed(resp);
+                            }
+
+                        });
+                    }
+
+                });
             }
 
         };
@@ -791,35 +1187,6 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         callBackend(future, target, unconditional, clientContext);
     }
 
-    private HttpCacheEntry getUpdatedVariantEntry(
-            final HttpHost target,
-            final HttpRequest conditionalRequest,
-            final Date requestDate,
-            final Date responseDate,
-            final HttpResponse backendResponse,
-            final Variant matchingVariant,
-            final HttpCacheEntry matchedEntry) {
-        HttpCacheEntry responseEntry = matchedEntry;
-        try {
-            responseEntry = this.responseCache.updateVariantCacheEntry(target, conditionalRequest,
-                    matchedEntry, backendResponse, requestDate, responseDate, matchingVariant.getCacheKey());
-        } catch (final IOException ioe) {
-            this.log.warn("Could not update cache entry", ioe);
-        }
-        return responseEntry;
-    }
-
-    private void tryToUpdateVariantMap(
-            final HttpHost target,
-            final HttpRequest request,
-            final Variant matchingVariant) {
-        try {
-            this.responseCache.reuseVariantEntryFor(target, request, matchingVariant);
-        } catch (final IOException ioe) {
-            this.log.warn("Could not update cache entry to reuse variant", ioe);
-        }
-    }
-
     private boolean shouldSendNotModifiedResponse(
             final HttpRequest request,
             final HttpCacheEntry responseEntry) {
@@ -893,20 +1260,30 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         }
 
         if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-            final HttpCacheEntry updatedEntry;
-            try {
-                updatedEntry = CachingHttpAsyncClient.this.responseCache.updateCacheEntry(target, request, cacheEntry,
-                        httpResponse, requestDate, responseDate);
-            } catch (final IOException e) {
-                future.failed(e);
-                return;
-            }
-            if (CachingHttpAsyncClient.this.suitabilityChecker.isConditional(request)
-                    && CachingHttpAsyncClient.this.suitabilityChecker.allConditionalsMatch(request, updatedEntry, new Date())) {
-                future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(updatedEntry));
-                return;
-            }
-            future.completed(CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, updatedEntry));
+            CachingHttpAsyncClient.this.responseCache.updateCacheEntry(target, request, cacheEntry,
+                    httpResponse, requestDate, responseDate, new FutureCallback<HttpCacheEntry>() {
+
+                @Override
+                public void completed(final HttpCacheEntry updatedEntry) {
+                    if (CachingHttpAsyncClient.this.suitabilityChecker.isConditional(request)
+                            && CachingHttpAsyncClient.this.suitabilityChecker.allConditionalsMatch(request, updatedEntry, new Date())) {
+                        future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(updatedEntry));
+                        return;
+                    }
+                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, updatedEntry));
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    future.failed(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel();
+                }
+
+            });
             return;
         }
 
@@ -919,14 +1296,8 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             return;
         }
 
-        try {
-            final CloseableHttpResponse backendResponse = handleBackendResponse(
-                    target, conditionalRequest, requestDate, responseDate,
-                    Proxies.enhanceResponse(httpResponse));
-            future.completed(backendResponse);
-        } catch (final IOException e) {
-            future.failed(e);
-        }
+        handleBackendResponse(future, target, conditionalRequest, requestDate, responseDate,
+                Proxies.enhanceResponse(httpResponse));
     }
 
     private boolean staleIfErrorAppliesTo(final int statusCode) {
@@ -936,32 +1307,104 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
     }
 
-    CloseableHttpResponse handleBackendResponse(
+    void handleBackendResponse(
+            final BasicFuture<HttpResponse> future,
             final HttpHost target,
             final HttpRequestWrapper request,
             final Date requestDate,
             final Date responseDate,
-            final CloseableHttpResponse backendResponse) throws IOException {
+            final CloseableHttpResponse backendResponse) {
 
         this.log.debug("Handling Backend response");
+        final boolean cacheable;
+        try {
+            cacheable = isCacheableBackendResponse(request, backendResponse);
+        } catch (final IOException e) {
+            future.failed(e);
+            return;
+        }
+        storeBackendResponse(target, request, requestDate, responseDate, backendResponse, cacheable,
+                new FutureCallback<CloseableHttpResponse>() {
+
+            @Override
+            public void completed(final CloseableHttpResponse response) {
+                future.completed(response);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+
+        });
+    }
+
+    /**
+     * Makes the backend response compliant.
+     *
+     * @return {@code true} if the response may be stored in the cache,
+     *   {@code false} otherwise.
+     */
+    private boolean isCacheableBackendResponse(
+            final HttpRequestWrapper request,
+            final HttpResponse backendResponse) throws IOException {
         this.responseCompliance.ensureProtocolCompliance(request, backendResponse);
+        return this.responseCachingPolicy.isResponseCacheable(request, backendResponse);
+    }
 
-        final boolean cacheable = this.responseCachingPolicy.isResponseCacheable(request, backendResponse);
-        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, backendResponse);
-        if (cacheable &&
-            !alreadyHaveNewerCacheEntry(target, request, backendResponse)) {
-            storeRequestIfModifiedSinceFor304Response(request, backendResponse);
-            return this.responseCache.cacheAndReturnResponse(target, request, backendResponse, requestDate,
-                    responseDate);
-        }
-        if (!cacheable) {
-            try {
-                this.responseCache.flushCacheEntriesFor(target, request);
-            } catch (final IOException ioe) {
-                this.log.warn("Unable to flush invalid cache entries", ioe);
+    /**
+     * Flushes cache entries invalidated by the backend response and stores
+     * the response in the cache if it is cacheable and no newer entry
+     * has been stored in the meantime.
+     */
+    private void storeBackendResponse(
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final Date requestDate,
+            final Date responseDate,
+            final CloseableHttpResponse backendResponse,
+            final boolean cacheable,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, backendResponse,
+                new CacheOperationCallback<Boolean>("Unable to flush invalidated entries from cache", Boolean.FALSE) {
+
+            @Override
+            public void completed(final Boolean flushed) {
+                if (!cacheable) {
+                    responseCache.flushCacheEntriesFor(target, request,
+                            new CacheOperationCallback<Boolean>("Unable to flush invalid cache entries", Boolean.FALSE) {
+
+                        @Override
+                        public void completed(final Boolean removed) {
+                            callback.completed(backendResponse);
+                        }
+
+                    });
+                    return;
+                }
+                responseCache.getCacheEntry(target, request,
+                        new CacheOperationCallback<HttpCacheEntry>("Unable to retrieve entries from cache", null) {
+
+                    @Override
+                    public void completed(final HttpCacheEntry existing) {
+                        if (isNewerCacheEntry(existing, backendResponse)) {
+                            callback.completed(backendResponse);
+                            return;
+                        }
+                        storeRequestIfModifiedSinceFor304Response(request, backendResponse);
+                        responseCache.cacheAndReturnResponse(target, request, backendResponse, requestDate,
+                                responseDate, callback);
+                    }
+
+                });
             }
-        }
-        return backendResponse;
+
+        });
     }
 
     /**
@@ -983,16 +1426,9 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         }
     }
 
-    private boolean alreadyHaveNewerCacheEntry(
-            final HttpHost target,
-            final HttpRequest request,
+    private boolean isNewerCacheEntry(
+            final HttpCacheEntry existing,
             final HttpResponse backendResponse) {
-        HttpCacheEntry existing = null;
-        try {
-            existing = this.responseCache.getCacheEntry(target, request);
-        } catch (final IOException ioe) {
-            // nop
-        }
         if (existing == null) {
             return false;
         }
@@ -1009,4 +1445,213 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         return responseDate != null && responseDate.before(entryDate);
     }
 
+    /**
+     * Callback of a cache operation whose failure is not fatal to the request
+     * being executed. The failure is logged and the execution carries on with
+     * the fallback result.
+     */
+    abstract class CacheOperationCallback<T> implements FutureCallback<T> {
+
+        private final String failureMessage;
+        private final T fallback;
+
+        CacheOperationCallback(final String failureMessage, final T fallback) {
+            super();
+            this.failureMessage = failureMessage;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            log.warn(this.failureMessage, ex);
+            completed(this.fallback);
+        }
+
+        @Override
+        public void cancelled() {
+            completed(this.fallback);
+        }
+
+    }
+
+    /**
+     * Passes the backend response through to the response consumer while
+     * spooling the content of cacheable responses into resources of the
+     * resource factory as it arrives. The response is stored in the cache by
+     * {@link #storeResponse(Runnable)} once completed unless its content
+     * exceeds the maximum object size.
+     */
+    class CachingResponseConsumer<T> implements HttpAsyncResponseConsumer<T> {
+
+        private final HttpAsyncResponseConsumer<T> responseConsumer;
+        private final HttpHost target;
+        private final HttpRequestWrapper request;
+        private final Date requestDate;
+
+        private volatile Date responseDate;
+        private volatile HttpResponse cacheResponse;
+        private volatile boolean cacheable;
+        private volatile ResourceSpool sink;
+
+        CachingResponseConsumer(
+                final HttpAsyncResponseConsumer<T> responseConsumer,
+                final HttpHost target,
+                final HttpRequestWrapper request,
+                final Date requestDate) {
+            super();
+            this.responseConsumer = responseConsumer;
+            this.target = target;
+            this.request = request;
+            this.requestDate = requestDate;
+        }
+
+        @Override
+        public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+            this.responseDate = getCurrentDate();
+            response.addHeader(HeaderConstants.VIA, generateViaHeader(response));
+            boolean cacheable = isCacheableBackendResponse(this.request, response);
+            final HttpResponse copy = new BasicHttpResponse(response.getStatusLine());
+            copy.setHeaders(response.getAllHeaders());
+            final HttpEntity entity = response.getEntity();
+            if (cacheable && entity != null) {
+                final long len = entity.getContentLength();
+                if (len > maxObjectSizeBytes) {
+                    log.debug("Response content exceeds the maximum object size; not caching");
+                    cacheable = false;
+                } else {
+                    copy.setEntity(entity);
+                    this.sink = new ResourceSpool(resourceFactory, this.request.getRequestLine().getUri());
+                }
+            }
+            this.cacheResponse = copy;
+            this.cacheable = cacheable;
+            this.responseConsumer.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+            final ResourceSpool spool = this.sink;
+            if (spool != null) {
+                this.responseConsumer.consumeContent(new TeeContentDecoder(decoder, spool), ioctrl);
+                if (spool.length() > maxObjectSizeBytes) {
+                    log.debug("Response content exceeds the maximum object size; not caching");
+                    discardContent();
+                    this.cacheable = false;
+                }
+            } else {
+                this.responseConsumer.consumeContent(decoder, ioctrl);
+            }
+        }
+
+        @Override
+        public void responseCompleted(final HttpContext context) {
+            this.responseConsumer.responseCompleted(context);
+        }
+
+        /**
+         * Stores the completed response in the cache or flushes the entries
+         * it invalidates, then runs the continuation regardless of the outcome.
+         */
+        void storeResponse(final Runnable continuation) {
+            final HttpResponse copy = this.cacheResponse;
+            final ResourceSpool spool = this.sink;
+            this.cacheResponse = null;
+            this.sink = null;
+            if (copy == null) {
+                continuation.run();
+                return;
+            }
+            final HttpEntity entity = copy.getEntity();
+            boolean cacheable = this.cacheable && (entity == null || spool != null);
+            if (entity != null) {
+                InputStreamEntity content = null;
+                if (cacheable) {
+                    try {
+                        content = new InputStreamEntity(spool.getInputStream(), spool.length());
+                        content.setContentType(entity.getContentType());
+                        content.setContentEncoding(entity.getContentEncoding());
+                        content.setChunked(entity.isChunked());
+                    } catch (final IOException ex) {
+                        log.warn("Unable to read spooled response content", ex);
+                        cacheable = false;
+                    }
+                }
+                copy.setEntity(content);
+            }
+            storeBackendResponse(this.target, this.request, this.requestDate, this.responseDate,
+                    Proxies.enhanceResponse(copy), cacheable, new FutureCallback<CloseableHttpResponse>() {
+
+                @Override
+                public void completed(final CloseableHttpResponse response) {
+                    closeQuietly(response);
+                    dispose(spool);
+                    continuation.run();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    log.warn("Unable to store response in cache", ex);
+                    dispose(spool);
+                    continuation.run();
+                }
+
+                @Override
+                public void cancelled() {
+                    dispose(spool);
+                    continuation.run();
+                }
+
+            });
+        }
+
+        private void dispose(final ResourceSpool spool) {
+            if (spool != null) {
+                spool.dispose();
+            }
+        }
+
+        private void discardContent() {
+            final ResourceSpool spool = this.sink;
+            this.sink = null;
+            dispose(spool);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            this.cacheResponse = null;
+            discardContent();
+            this.responseConsumer.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            return this.responseConsumer.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return this.responseConsumer.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.responseConsumer.isDone();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.cacheResponse = null;
+            discardContent();
+            this.responseConsumer.close();
+        }
+
+        @Override
+        public boolean cancel() {
+            this.cacheResponse = null;
+            discardContent();
+            return this.responseConsumer.cancel();
+        }
+
+    }
+
 }
@@ -0,0 +1,232 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpAsyncCache} implementation backed by a {@link HttpCache}.
+ * Cache operations are executed by the given {@link Executor} or, if no
+ * executor is given, by the calling thread. The latter is suitable for
+ * heap based cache storage only.
+ */
+@ThreadSafe // So long as the backing cache is threadsafe
+class DefaultHttpAsyncCache implements HttpAsyncCache {
+
+    private final HttpCache cache;
+    private final Executor executor;
+
+    DefaultHttpAsyncCache(final HttpCache cache, final Executor executor) {
+        super();
+        this.cache = Args.notNull(cache, "HttpCache");
+        this.executor = executor;
+    }
+
+    private <T> Future<T> execute(final Callable<T> operation, final FutureCallback<T> callback) {
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        final Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                final T result;
+                try {
+                    result = operation.call();
+                } catch (final Exception ex) {
+                    future.failed(ex);
+                    return;
+                }
+                future.completed(result);
+            }
+
+        };
+        if (this.executor != null) {
+            try {
+                this.executor.execute(task);
+            } catch (final RejectedExecutionException ex) {
+                future.failed(ex);
+            }
+        } else {
+            task.run();
+        }
+        return future;
+    }
+
+    @Override
+    public Future<Boolean> flushCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Boolean> callback) {
+        return execute(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                cache.flushCacheEntriesFor(host, request);
+                return Boolean.TRUE;
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Boolean> callback) {
+        return execute(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                cache.flushInvalidatedCacheEntriesFor(host, request);
+                return Boolean.TRUE;
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final HttpResponse response,
+            final FutureCallback<Boolean> callback) {
+        return execute(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                cache.flushInvalidatedCacheEntriesFor(host, request, response);
+                return Boolean.TRUE;
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<HttpCacheEntry> getCacheEntry(
+            final HttpHost host, final HttpRequest request, final FutureCallback<HttpCacheEntry> callback) {
+        return execute(new Callable<HttpCacheEntry>() {
+
+            @Override
+            public HttpCacheEntry call() throws Exception {
+                return cache.getCacheEntry(host, request);
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<Map<String, CacheVariant>> getVariantCacheEntriesWithEtags(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Map<String, CacheVariant>> callback) {
+        return execute(new Callable<Map<String, CacheVariant>>() {
+
+            @Override
+            public Map<String, CacheVariant> call() throws Exception {
+                final Map<String, Variant> variants = cache.getVariantCacheEntriesWithEtags(host, request);
+                final Map<String, CacheVariant> result = new HashMap<String, CacheVariant>(variants.size());
+                for (final Map.Entry<String, Variant> entry: variants.entrySet()) {
+                    final Variant variant = entry.getValue();
+                    result.put(entry.getKey(), new CacheVariant(
+                            variant.getVariantKey(), variant.getCacheKey(), variant.getEntry()));
+                }
+                return result;
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<CloseableHttpResponse> cacheAndReturnResponse(
+            final HttpHost host, final HttpRequest request, final CloseableHttpResponse originResponse,
+            final Date requestSent, final Date responseReceived,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        return execute(new Callable<CloseableHttpResponse>() {
+
+            @Override
+            public CloseableHttpResponse call() throws Exception {
+                return cache.cacheAndReturnResponse(host, request, originResponse, requestSent, responseReceived);
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<HttpCacheEntry> updateCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final FutureCallback<HttpCacheEntry> callback) {
+        return execute(new Callable<HttpCacheEntry>() {
+
+            @Override
+            public HttpCacheEntry call() throws Exception {
+                return cache.updateCacheEntry(target, request, stale, originResponse, requestSent, responseReceived);
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<HttpCacheEntry> updateVariantCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final String cacheKey, final FutureCallback<HttpCacheEntry> callback) {
+        return execute(new Callable<HttpCacheEntry>() {
+
+            @Override
+            public HttpCacheEntry call() throws Exception {
+                return cache.updateVariantCacheEntry(
+                        target, request, stale, originResponse, requestSent, responseReceived, cacheKey);
+            }
+
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> reuseVariantEntryFor(
+            final HttpHost target, final HttpRequest req, final CacheVariant variant,
+            final FutureCallback<Boolean> callback) {
+        return execute(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                cache.reuseVariantEntryFor(target, req, new Variant(
+                        variant.getVariantKey(), variant.getCacheKey(), variant.getEntry()));
+                return Boolean.TRUE;
+            }
+
+        }, callback);
+    }
+
+}
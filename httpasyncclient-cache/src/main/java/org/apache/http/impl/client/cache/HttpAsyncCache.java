@@ -0,0 +1,115 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Non-blocking HTTP response cache used by {@link CachingHttpAsyncClient}.
+ * Cache operations complete asynchronously and report their outcome to
+ * the given callback, so that cache storage slower than heap memory does
+ * not block the I/O dispatch threads of the client.
+ * <p>
+ * Implementations must be thread safe and are expected to complete every
+ * returned {@link Future}. A failed operation does not fail the request
+ * being executed; the client falls back to not using the cache for it.
+ *
+ * @since 4.2
+ */
+public interface HttpAsyncCache {
+
+    /**
+     * Clear all matching {@link HttpCacheEntry}s.
+     */
+    Future<Boolean> flushCacheEntriesFor(
+            HttpHost host, HttpRequest request, FutureCallback<Boolean> callback);
+
+    /**
+     * Clear invalidated matching {@link HttpCacheEntry}s.
+     */
+    Future<Boolean> flushInvalidatedCacheEntriesFor(
+            HttpHost host, HttpRequest request, FutureCallback<Boolean> callback);
+
+    /**
+     * Clear any entries that may be invalidated by the given response to
+     * a particular request.
+     */
+    Future<Boolean> flushInvalidatedCacheEntriesFor(
+            HttpHost host, HttpRequest request, HttpResponse response, FutureCallback<Boolean> callback);
+
+    /**
+     * Retrieve matching {@link HttpCacheEntry} from the cache if it exists.
+     */
+    Future<HttpCacheEntry> getCacheEntry(
+            HttpHost host, HttpRequest request, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Retrieve all variants from the cache keyed by their ETag, if there are
+     * no variants then an empty {@link Map} is returned.
+     */
+    Future<Map<String, CacheVariant>> getVariantCacheEntriesWithEtags(
+            HttpHost host, HttpRequest request, FutureCallback<Map<String, CacheVariant>> callback);
+
+    /**
+     * Store a {@link HttpResponse} in the cache if possible, and return it.
+     */
+    Future<CloseableHttpResponse> cacheAndReturnResponse(
+            HttpHost host, HttpRequest request, CloseableHttpResponse originResponse,
+            Date requestSent, Date responseReceived, FutureCallback<CloseableHttpResponse> callback);
+
+    /**
+     * Update a {@link HttpCacheEntry} using a 304 {@link HttpResponse}.
+     */
+    Future<HttpCacheEntry> updateCacheEntry(
+            HttpHost target, HttpRequest request, HttpCacheEntry stale, HttpResponse originResponse,
+            Date requestSent, Date responseReceived, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Update a specific {@link HttpCacheEntry} representing a cached variant
+     * using a 304 {@link HttpResponse}.
+     */
+    Future<HttpCacheEntry> updateVariantCacheEntry(
+            HttpHost target, HttpRequest request, HttpCacheEntry stale, HttpResponse originResponse,
+            Date requestSent, Date responseReceived, String cacheKey, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Specifies cache should reuse the given cached variant to satisfy
+     * requests whose varying headers match those of the given client request.
+     */
+    Future<Boolean> reuseVariantEntryFor(
+            HttpHost target, HttpRequest req, CacheVariant variant, FutureCallback<Boolean> callback);
+
+}
@@ -0,0 +1,98 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.util.Args;
+
+/**
+ * {@link ContentDecoder} that reads content from an {@link InputStream}
+ * such as the content of a cached resource. Content of a
+ * {@link MemoryMappedResource} is transferred straight from the read-only
+ * view of its mapped region rather than through the stream.
+ */
+class InputStreamContentDecoder implements ContentDecoder {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer src;
+
+    private boolean completed;
+
+    public InputStreamContentDecoder(final InputStream instream) {
+        super();
+        Args.notNull(instream, "Input stream");
+        this.channel = Channels.newChannel(instream);
+        this.src = instream instanceof MemoryMappedResource.ByteBufferInputStream ?
+                ((MemoryMappedResource.ByteBufferInputStream) instream).getBuffer() : null;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        Args.notNull(dst, "Byte buffer");
+        if (this.completed) {
+            return -1;
+        }
+        if (this.src != null) {
+            return transfer(dst);
+        }
+        final int bytesRead = this.channel.read(dst);
+        if (bytesRead == -1) {
+            this.completed = true;
+        }
+        return bytesRead;
+    }
+
+    private int transfer(final ByteBuffer dst) {
+        if (!this.src.hasRemaining()) {
+            this.completed = true;
+            return -1;
+        }
+        final int n = Math.min(dst.remaining(), this.src.remaining());
+        final ByteBuffer chunk = this.src.slice();
+        chunk.limit(n);
+        dst.put(chunk);
+        this.src.position(this.src.position() + n);
+        return n;
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return this.completed;
+    }
+
+    public void close() throws IOException {
+        this.completed = true;
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * Fixed size segment file mapped into memory. Regions of the segment are
+ * allocated sequentially and are never overwritten once written, so that
+ * read-only views of them can be handed out without copying. Only the region
+ * allocated last can be extended or trimmed.
+ */
+@ThreadSafe
+class MappedSegment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private int position; // guarded by this
+    private volatile boolean evicted;
+
+    private MappedSegment(final File file, final MappedByteBuffer buffer, final int capacity) {
+        super();
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static MappedSegment create(final File file, final int capacity) throws IOException {
+        boolean mapped = false;
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(capacity);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            mapped = true;
+            return new MappedSegment(file, buffer, capacity);
+        } finally {
+            // The mapping remains valid once the file has been closed
+            raf.close();
+            if (!mapped) {
+                file.delete();
+            }
+        }
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Reserves a region of the given length.
+     *
+     * @return offset of the region or {@code -1} if the segment
+     *   does not have enough space left.
+     */
+    synchronized int allocate(final int len) {
+        if (this.evicted || len > this.capacity - this.position) {
+            return -1;
+        }
+        final int offset = this.position;
+        this.position += len;
+        return offset;
+    }
+
+    /**
+     * Extends the region at the given offset to the new length, provided it is the
+     * region allocated last and the segment has enough space left.
+     */
+    synchronized boolean extend(final int offset, final int len, final int newLen) {
+        if (this.evicted || offset + len != this.position || newLen > this.capacity - offset) {
+            return false;
+        }
+        this.position = offset + newLen;
+        return true;
+    }
+
+    /**
+     * Gives back the unused end of the region at the given offset, provided it is
+     * the region allocated last. The space is lost otherwise.
+     */
+    synchronized void trim(final int offset, final int len, final int usedLen) {
+        if (offset + len == this.position) {
+            this.position = offset + usedLen;
+        }
+    }
+
+    void write(final int offset, final ByteBuffer src) {
+        final ByteBuffer dst = this.buffer.duplicate();
+        dst.position(offset);
+        dst.put(src);
+    }
+
+    void write(final int offset, final byte[] b, final int off, final int len) {
+        final ByteBuffer dst = this.buffer.duplicate();
+        dst.position(offset);
+        dst.put(b, off, len);
+    }
+
+    ByteBuffer slice(final int offset, final int len) {
+        final ByteBuffer src = this.buffer.asReadOnlyBuffer();
+        src.limit(offset + len);
+        src.position(offset);
+        return src.slice();
+    }
+
+    boolean isEvicted() {
+        return this.evicted;
+    }
+
+    /**
+     * Marks the segment as evicted and deletes its file. Views handed out
+     * earlier remain readable until they are garbage collected, as the
+     * file is never truncated while mapped.
+     */
+    void evict() {
+        synchronized (this) {
+            this.evicted = true;
+        }
+        this.file.delete();
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.util.Args;
+
+/**
+ * Cache storage for entries whose content is generated by
+ * {@link MemoryMappedResourceFactory}. The storage keeps an index of
+ * the entry metadata, bounded by {@link CacheConfig#getMaxCacheEntries()},
+ * while the content lives in memory mapped segment files. The storage
+ * registers with the resource factory and purges all entries whose content
+ * resides in a segment as soon as that segment gets evicted, so that the
+ * index does not keep evicted mappings reachable.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class MemoryMappedHttpCacheStorage implements HttpCacheStorage {
+
+    private final EntryIndex entries;
+
+    public MemoryMappedHttpCacheStorage(
+            final CacheConfig config,
+            final MemoryMappedResourceFactory resourceFactory) {
+        super();
+        Args.notNull(config, "Cache config");
+        Args.notNull(resourceFactory, "Resource factory");
+        this.entries = new EntryIndex(config.getMaxCacheEntries());
+        resourceFactory.addEvictionListener(new MemoryMappedResourceFactory.EvictionListener() {
+
+            @Override
+            public void evicted(final MappedSegment segment) {
+                purge(segment);
+            }
+
+        });
+    }
+
+    private static boolean isAvailable(final HttpCacheEntry entry) {
+        final Resource resource = entry.getResource();
+        return !(resource instanceof MemoryMappedResource) || ((MemoryMappedResource) resource).isAvailable();
+    }
+
+    synchronized void purge(final MappedSegment segment) {
+        final Iterator<HttpCacheEntry> it = this.entries.values().iterator();
+        while (it.hasNext()) {
+            final Resource resource = it.next().getResource();
+            if (resource instanceof MemoryMappedResource
+                    && ((MemoryMappedResource) resource).getSegment() == segment) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public synchronized void putEntry(final String url, final HttpCacheEntry entry) throws IOException {
+        this.entries.put(url, entry);
+    }
+
+    @Override
+    public synchronized HttpCacheEntry getEntry(final String url) throws IOException {
+        final HttpCacheEntry entry = this.entries.get(url);
+        // Entries are purged on eviction; this only guards against entries
+        // stored after their segment has been evicted
+        if (entry != null && !isAvailable(entry)) {
+            this.entries.remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized void removeEntry(final String url) throws IOException {
+        this.entries.remove(url);
+    }
+
+    @Override
+    public synchronized void updateEntry(
+            final String url,
+            final HttpCacheUpdateCallback callback) throws IOException {
+        final HttpCacheEntry existing = getEntry(url);
+        this.entries.put(url, callback.update(existing));
+    }
+
+    static class EntryIndex extends LinkedHashMap<String, HttpCacheEntry> {
+
+        private static final long serialVersionUID = -5283420405963155768L;
+
+        private final int maxEntries;
+
+        EntryIndex(final int maxEntries) {
+            super(20, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, HttpCacheEntry> eldest) {
+            return size() > this.maxEntries;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.client.cache.Resource;
+
+/**
+ * Cache resource backed by a region of a memory mapped segment file
+ * managed by {@link MemoryMappedResourceFactory}. The content does not
+ * occupy the Java heap and can be obtained as a read-only {@link ByteBuffer}
+ * without copying.
+ * <p>
+ * The resource becomes unavailable once it has been disposed of or once
+ * its segment has been evicted to keep the total size of mapped segments
+ * within the configured limit.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class MemoryMappedResource implements Resource {
+
+    private static final long serialVersionUID = 4132244415919043397L;
+
+    private final transient MappedSegment segment;
+    private final int offset;
+    private final int len;
+
+    private volatile boolean disposed;
+
+    MemoryMappedResource(final MappedSegment segment, final int offset, final int len) {
+        super();
+        this.segment = segment;
+        this.offset = offset;
+        this.len = len;
+    }
+
+    MappedSegment getSegment() {
+        return this.segment;
+    }
+
+    int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns {@code true} if the content of the resource can still be read.
+     */
+    public boolean isAvailable() {
+        return !this.disposed && !this.segment.isEvicted();
+    }
+
+    /**
+     * Returns a read-only view of the content of the resource. The position
+     * of the returned buffer is zero and its limit is the content length.
+     *
+     * @throws IOException if the resource is no longer available.
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("Resource has been evicted");
+        }
+        return this.segment.slice(this.offset, this.len);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteBufferInputStream(getByteBuffer());
+    }
+
+    @Override
+    public long length() {
+        return this.len;
+    }
+
+    @Override
+    public void dispose() {
+        this.disposed = true;
+    }
+
+    /**
+     * Creates another resource referring to the same content. Regions are
+     * never overwritten, so the content can be shared safely.
+     */
+    MemoryMappedResource duplicate() {
+        return new MemoryMappedResource(this.segment, this.offset, this.len);
+    }
+
+    /**
+     * Serializes the content as a {@link HeapResource}, as the mapped
+     * segment cannot outlive this process.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        final ByteBuffer buffer;
+        try {
+            buffer = getByteBuffer();
+        } catch (final IOException ex) {
+            throw new NotSerializableException(ex.getMessage());
+        }
+        final byte[] b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return new HeapResource(b);
+    }
+
+    static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            super();
+            this.buffer = buffer;
+        }
+
+        /**
+         * Returns the read-only view of the remaining content.
+         */
+        ByteBuffer getBuffer() {
+            return this.buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            return this.buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            final int chunk = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, chunk);
+            return chunk;
+        }
+
+        @Override
+        public long skip(final long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            final int chunk = (int) Math.min(n, this.buffer.remaining());
+            this.buffer.position(this.buffer.position() + chunk);
+            return chunk;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * Generates {@link MemoryMappedResource} instances stored in memory mapped
+ * segment files outside of the Java heap. Large caches therefore do not
+ * add to garbage collection pauses.
+ * <p>
+ * Content is written directly into a region of the current segment without
+ * being buffered on the heap first. A new segment is mapped once
+ * the current one is full, evicting the oldest segments as necessary to keep
+ * the total size of mapped segments within the configured limit. Resources
+ * of evicted segments become unavailable; use this factory with
+ * {@link MemoryMappedHttpCacheStorage}, which purges the cache entries of
+ * a segment as soon as the segment has been evicted.
+ * <p>
+ * Content larger than the segment size is stored in a dedicated segment.
+ * The segment size should therefore be well above the maximum object size
+ * of the cache.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class MemoryMappedResourceFactory implements ResourceFactory {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int MIN_RESERVATION = 8 * 1024;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final LinkedList<MappedSegment> segments;
+    private final List<EvictionListener> evictionListeners;
+
+    private long mappedBytes; // guarded by this
+    private boolean shutdown; // guarded by this
+
+    /**
+     * @param directory directory to create the segment files in.
+     * @param segmentSize size of a segment file in bytes.
+     * @param maxBytes maximum total size of the mapped segment files in bytes.
+     */
+    public MemoryMappedResourceFactory(final File directory, final int segmentSize, final long maxBytes) {
+        super();
+        Args.notNull(directory, "Directory");
+        Args.positive(segmentSize, "Segment size");
+        Args.check(maxBytes >= segmentSize, "Maximum size may not be less than segment size");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.segments = new LinkedList<MappedSegment>();
+        this.evictionListeners = new CopyOnWriteArrayList<EvictionListener>();
+    }
+
+    public MemoryMappedResourceFactory(final File directory, final long maxBytes) {
+        this(directory, DEFAULT_SEGMENT_SIZE, maxBytes);
+    }
+
+    @Override
+    public Resource generate(
+            final String requestId,
+            final InputStream instream,
+            final InputLimit limit) throws IOException {
+        final long max = limit != null ? limit.getValue() : -1;
+        // Content is written straight into a region reserved up front, sized after the
+        // content available so far and grown should more content follow
+        final int available = instream.available();
+        long initial = available > 0 ? available : Math.min(MIN_RESERVATION, this.segmentSize);
+        if (max >= 0 && max < initial) {
+            initial = max;
+        }
+        MemoryMappedResource region = reserve((int) initial);
+        int count = 0;
+        boolean stored = false;
+        try {
+            final byte[] buf = new byte[2048];
+            int l;
+            while ((l = instream.read(buf)) != -1) {
+                if (max >= 0 && count + l > max) {
+                    limit.reached();
+                    // Partial content does not get stored; keep it off the segments
+                    final byte[] partial = new byte[count + l];
+                    region.getSegment().slice(region.getOffset(), count).get(partial, 0, count);
+                    System.arraycopy(buf, 0, partial, count, l);
+                    return new HeapResource(partial);
+                }
+                if (count + l > region.length()) {
+                    region = grow(region, count, count + l);
+                }
+                region.getSegment().write(region.getOffset() + count, buf, 0, l);
+                count += l;
+            }
+            stored = true;
+        } finally {
+            region.getSegment().trim(region.getOffset(), (int) region.length(), stored ? count : 0);
+        }
+        return new MemoryMappedResource(region.getSegment(), region.getOffset(), count);
+    }
+
+    @Override
+    public Resource copy(
+            final String requestId,
+            final Resource resource) throws IOException {
+        if (resource instanceof MemoryMappedResource) {
+            final MemoryMappedResource mappedResource = (MemoryMappedResource) resource;
+            if (mappedResource.isAvailable()) {
+                return mappedResource.duplicate();
+            }
+        }
+        final InputStream instream = resource.getInputStream();
+        try {
+            return generate(requestId, instream, null);
+        } finally {
+            instream.close();
+        }
+    }
+
+    void addEvictionListener(final EvictionListener listener) {
+        Args.notNull(listener, "Eviction listener");
+        this.evictionListeners.add(listener);
+    }
+
+    private void fireEvicted(final List<MappedSegment> evicted) {
+        // Listeners get notified without holding the lock, as they may in turn
+        // hold locks of their own while generating resources
+        for (final MappedSegment segment: evicted) {
+            for (final EvictionListener listener: this.evictionListeners) {
+                listener.evicted(segment);
+            }
+        }
+    }
+
+    /**
+     * Reserves a region of the given length, mapping a new segment if the current
+     * one does not have enough space left.
+     */
+    private MemoryMappedResource reserve(final int len) throws IOException {
+        final List<MappedSegment> evicted = new ArrayList<MappedSegment>(1);
+        MappedSegment segment;
+        int offset;
+        try {
+            synchronized (this) {
+                Asserts.check(!this.shutdown, "Resource factory has been shut down");
+                segment = this.segments.isEmpty() ? null : this.segments.getLast();
+                offset = segment != null ? segment.allocate(len) : -1;
+                if (offset < 0) {
+                    final int size = Math.max(this.segmentSize, len);
+                    while (!this.segments.isEmpty() && this.mappedBytes + size > this.maxBytes) {
+                        final MappedSegment eldest = this.segments.removeFirst();
+                        this.mappedBytes -= eldest.getCapacity();
+                        eldest.evict();
+                        evicted.add(eldest);
+                    }
+                    segment = MappedSegment.create(
+                            File.createTempFile("httpcache-", ".seg", this.directory), size);
+                    this.segments.addLast(segment);
+                    this.mappedBytes += size;
+                    offset = segment.allocate(len);
+                }
+            }
+        } finally {
+            fireEvicted(evicted);
+        }
+        // The region is reserved exclusively, so it can be written without holding the lock
+        return new MemoryMappedResource(segment, offset, len);
+    }
+
+    /**
+     * Grows the given region holding {@code count} bytes so that it can hold at least
+     * {@code required} bytes, extending it in place if possible and moving its content
+     * to a larger region otherwise.
+     */
+    private MemoryMappedResource grow(
+            final MemoryMappedResource region, final int count, final int required) throws IOException {
+        final int capacity = (int) region.length();
+        int len = Math.max(required, Math.min(capacity * 2, this.segmentSize));
+        if (required > this.segmentSize) {
+            len = Math.max(required, capacity * 2);
+        }
+        final MappedSegment segment = region.getSegment();
+        if (segment.extend(region.getOffset(), capacity, len)) {
+            return new MemoryMappedResource(segment, region.getOffset(), len);
+        }
+        final MemoryMappedResource larger = reserve(len);
+        larger.getSegment().write(larger.getOffset(), segment.slice(region.getOffset(), count));
+        segment.trim(region.getOffset(), capacity, 0);
+        return larger;
+    }
+
+    /**
+     * Returns the total size of the currently mapped segment files in bytes.
+     */
+    public synchronized long getMappedBytes() {
+        return this.mappedBytes;
+    }
+
+    /**
+     * Evicts all segments and deletes their files.
+     */
+    public void shutdown() {
+        final List<MappedSegment> evicted;
+        synchronized (this) {
+            if (this.shutdown) {
+                return;
+            }
+            this.shutdown = true;
+            for (final MappedSegment segment: this.segments) {
+                segment.evict();
+            }
+            evicted = new ArrayList<MappedSegment>(this.segments);
+            this.segments.clear();
+            this.mappedBytes = 0;
+        }
+        fireEvicted(evicted);
+    }
+
+    /**
+     * Callback notified of segments having been evicted.
+     */
+    interface EvictionListener {
+
+        void evicted(MappedSegment segment);
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.annotation.NotThreadSafe;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+
+/**
+ * Spools content into {@link Resource}s generated by a {@link ResourceFactory}
+ * as it arrives. Content is collected in a heap buffer of the segment size only,
+ * which is handed over to the resource factory whenever it fills up, so the heap
+ * does not need to hold the entire content unless the resource factory keeps
+ * its resources on the heap.
+ */
+@NotThreadSafe
+class ResourceSpool {
+
+    static final int SEGMENT_SIZE = 32 * 1024;
+
+    private final ResourceFactory resourceFactory;
+    private final String requestId;
+    private final List<Resource> resources;
+    private final byte[] buffer;
+
+    private int pos;
+    private long length;
+    private boolean disposed;
+
+    ResourceSpool(final ResourceFactory resourceFactory, final String requestId, final int segmentSize) {
+        super();
+        this.resourceFactory = resourceFactory;
+        this.requestId = requestId;
+        this.resources = new ArrayList<Resource>();
+        this.buffer = new byte[segmentSize];
+    }
+
+    ResourceSpool(final ResourceFactory resourceFactory, final String requestId) {
+        this(resourceFactory, requestId, SEGMENT_SIZE);
+    }
+
+    /**
+     * Appends the remaining content of the given buffer, leaving its position
+     * unchanged.
+     */
+    void write(final ByteBuffer src) throws IOException {
+        if (this.disposed) {
+            throw new IOException("Resource spool has been disposed of");
+        }
+        final ByteBuffer chunk = src.duplicate();
+        while (chunk.hasRemaining()) {
+            final int n = Math.min(chunk.remaining(), this.buffer.length - this.pos);
+            chunk.get(this.buffer, this.pos, n);
+            this.pos += n;
+            this.length += n;
+            if (this.pos == this.buffer.length) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (this.pos > 0) {
+            this.resources.add(this.resourceFactory.generate(
+                    this.requestId, new ByteArrayInputStream(this.buffer, 0, this.pos), null));
+            this.pos = 0;
+        }
+    }
+
+    long length() {
+        return this.length;
+    }
+
+    /**
+     * Returns the spooled content. No content may be written afterwards.
+     */
+    InputStream getInputStream() throws IOException {
+        flush();
+        final List<InputStream> streams = new ArrayList<InputStream>(this.resources.size());
+        for (final Resource resource: this.resources) {
+            streams.add(resource.getInputStream());
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    void dispose() {
+        if (this.disposed) {
+            return;
+        }
+        this.disposed = true;
+        for (final Resource resource: this.resources) {
+            resource.dispose();
+        }
+        this.resources.clear();
+    }
+
+}
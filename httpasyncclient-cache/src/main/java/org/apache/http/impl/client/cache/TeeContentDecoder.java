@@ -0,0 +1,67 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.nio.ContentDecoder;
+
+/**
+ * {@link ContentDecoder} that copies all content read from the underlying
+ * decoder into a {@link ResourceSpool}.
+ */
+class TeeContentDecoder implements ContentDecoder {
+
+    private final ContentDecoder decoder;
+    private final ResourceSpool sink;
+
+    public TeeContentDecoder(final ContentDecoder decoder, final ResourceSpool sink) {
+        super();
+        this.decoder = decoder;
+        this.sink = sink;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int pos = dst.position();
+        final int bytesRead = this.decoder.read(dst);
+        if (bytesRead > 0) {
+            final ByteBuffer chunk = dst.duplicate();
+            chunk.limit(pos + bytesRead);
+            chunk.position(pos);
+            this.sink.write(chunk);
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return this.decoder.isCompleted();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.BasicFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class TestAsynchronousAsyncValidator {
+
+    private CachingHttpAsyncClient cachingClient;
+    private HttpHost target;
+    private HttpCacheContext context;
+    private HttpCacheEntry entry;
+    private AsynchronousAsyncValidator impl;
+
+    @Before
+    public void setUp() throws Exception {
+        this.cachingClient = Mockito.mock(CachingHttpAsyncClient.class);
+        this.target = new HttpHost("foo.example.com");
+        this.context = HttpCacheContext.create();
+        this.entry = Mockito.mock(HttpCacheEntry.class);
+        this.impl = new AsynchronousAsyncValidator(this.cachingClient, 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BasicFuture<HttpResponse> verifyRevalidation(final HttpRequestWrapper request) throws Exception {
+        final ArgumentCaptor<BasicFuture> futureCaptor = ArgumentCaptor.forClass(BasicFuture.class);
+        Mockito.verify(this.cachingClient).revalidateCacheEntry(
+                futureCaptor.capture(),
+                Matchers.same(this.target),
+                Matchers.same(request),
+                Matchers.same(this.context),
+                Matchers.same(this.entry));
+        return futureCaptor.getValue();
+    }
+
+    @Test
+    public void testRevalidationIsTrackedUntilCompleted() throws Exception {
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet("/stuff"));
+
+        this.impl.revalidateCacheEntry(this.target, request, this.context, this.entry);
+
+        final BasicFuture<HttpResponse> future = verifyRevalidation(request);
+        Assert.assertEquals(1, this.impl.getScheduledIdentifiers().size());
+        Assert.assertEquals(1, this.impl.getInflightCount());
+
+        future.completed(Mockito.mock(HttpResponse.class));
+
+        Assert.assertEquals(0, this.impl.getScheduledIdentifiers().size());
+        Assert.assertEquals(0, this.impl.getInflightCount());
+    }
+
+    @Test
+    public void testFailedRevalidationIsNoLongerTracked() throws Exception {
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet("/stuff"));
+
+        this.impl.revalidateCacheEntry(this.target, request, this.context, this.entry);
+
+        final BasicFuture<HttpResponse> future = verifyRevalidation(request);
+        future.failed(new Exception());
+
+        Assert.assertEquals(0, this.impl.getScheduledIdentifiers().size());
+        Assert.assertEquals(0, this.impl.getInflightCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentRevalidationsOfSameEntryAreDeduplicated() throws Exception {
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet("/stuff"));
+
+        this.impl.revalidateCacheEntry(this.target, request, this.context, this.entry);
+        this.impl.revalidateCacheEntry(this.target, request, this.context, this.entry);
+
+        Mockito.verify(this.cachingClient, Mockito.times(1)).revalidateCacheEntry(
+                Matchers.any(BasicFuture.class),
+                Matchers.any(HttpHost.class),
+                Matchers.any(HttpRequestWrapper.class),
+                Matchers.any(HttpCacheContext.class),
+                Matchers.any(HttpCacheEntry.class));
+        Assert.assertEquals(1, this.impl.getInflightCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRevalidationsAreBoundedByCount() throws Exception {
+        this.impl.revalidateCacheEntry(this.target,
+                HttpRequestWrapper.wrap(new HttpGet("/one")), this.context, this.entry);
+        this.impl.revalidateCacheEntry(this.target,
+                HttpRequestWrapper.wrap(new HttpGet("/two")), this.context, this.entry);
+        this.impl.revalidateCacheEntry(this.target,
+                HttpRequestWrapper.wrap(new HttpGet("/three")), this.context, this.entry);
+
+        Mockito.verify(this.cachingClient, Mockito.times(2)).revalidateCacheEntry(
+                Matchers.any(BasicFuture.class),
+                Matchers.any(HttpHost.class),
+                Matchers.any(HttpRequestWrapper.class),
+                Matchers.any(HttpCacheContext.class),
+                Matchers.any(HttpCacheEntry.class));
+        Assert.assertEquals(2, this.impl.getInflightCount());
+        Assert.assertEquals(2, this.impl.getScheduledIdentifiers().size());
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestCachingHttpAsyncClientStreaming {
+
+    private HttpAsyncClient backend;
+    private CachingHttpAsyncClient impl;
+    private HttpHost target;
+
+    @Before
+    public void setUp() throws Exception {
+        this.backend = Mockito.mock(HttpAsyncClient.class);
+        this.impl = new CachingHttpAsyncClient(this.backend, CacheConfig.custom()
+                .setMaxObjectSize(1024)
+                .build());
+        this.target = new HttpHost("foo.example.com");
+    }
+
+    private static byte[] makeBody(final int len) {
+        final byte[] body = new byte[len];
+        for (int i = 0; i < len; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respondWith(final byte[] body, final boolean contentLength) {
+        Mockito.when(this.backend.execute(
+                Matchers.any(HttpAsyncRequestProducer.class),
+                Matchers.any(HttpAsyncResponseConsumer.class),
+                Matchers.any(HttpContext.class),
+                Matchers.any(FutureCallback.class))).thenAnswer(new Answer<Future<Object>>() {
+
+            @Override
+            public Future<Object> answer(final InvocationOnMock invocation) throws Throwable {
+                return deliver(invocation, body, contentLength);
+            }
+
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Future<Object> deliver(
+            final InvocationOnMock invocation,
+            final byte[] body,
+            final boolean contentLength) throws Exception {
+        final Object[] args = invocation.getArguments();
+        final HttpAsyncResponseConsumer<Object> consumer = (HttpAsyncResponseConsumer<Object>) args[1];
+        final BasicFuture<Object> future = new BasicFuture<Object>((FutureCallback<Object>) args[3]);
+
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setHeader("Date", DateUtils.formatDate(new Date()));
+        response.setHeader("Cache-Control", "max-age=3600");
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        if (contentLength) {
+            response.setHeader("Content-Length", Integer.toString(body.length));
+            entity.setContentLength(body.length);
+        } else {
+            entity.setChunked(true);
+        }
+        response.setEntity(entity);
+
+        consumer.responseReceived(response);
+        final ContentDecoder decoder = new InputStreamContentDecoder(new ByteArrayInputStream(body));
+        final IOControl ioctrl = Mockito.mock(IOControl.class);
+        while (!decoder.isCompleted()) {
+            consumer.consumeContent(decoder, ioctrl);
+        }
+        consumer.responseCompleted(new BasicHttpContext());
+        future.completed(consumer.getResult());
+        consumer.close();
+        return future;
+    }
+
+    private HttpResponse execute(final HttpContext context) throws Exception {
+        final Future<HttpResponse> future = this.impl.execute(
+                new BasicAsyncRequestProducer(this.target, new HttpGet("/stuff")),
+                new BasicAsyncResponseConsumer(),
+                context,
+                null);
+        return future.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void verifyBackendCalls(final int n) {
+        Mockito.verify(this.backend, Mockito.times(n)).execute(
+                Matchers.any(HttpAsyncRequestProducer.class),
+                Matchers.any(HttpAsyncResponseConsumer.class),
+                Matchers.any(HttpContext.class),
+                Matchers.any(FutureCallback.class));
+    }
+
+    @Test
+    public void testStreamingMissIsCachedAndHitIsReplayed() throws Exception {
+        final byte[] body = makeBody(100);
+        respondWith(body, true);
+
+        final HttpResponse response1 = execute(null);
+        Assert.assertEquals(HttpStatus.SC_OK, response1.getStatusLine().getStatusCode());
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(response1.getEntity())));
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = execute(context);
+        Assert.assertEquals(HttpStatus.SC_OK, response2.getStatusLine().getStatusCode());
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(response2.getEntity())));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+
+        verifyBackendCalls(1);
+        Assert.assertEquals(1, this.impl.getCacheMisses());
+        Assert.assertEquals(1, this.impl.getCacheHits());
+    }
+
+    @Test
+    public void testStreamingResponseExceedingMaxObjectSizeIsNotCached() throws Exception {
+        final byte[] body = makeBody(4096);
+        respondWith(body, false);
+
+        final HttpResponse response1 = execute(null);
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(response1.getEntity())));
+        final HttpResponse response2 = execute(null);
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(response2.getEntity())));
+
+        verifyBackendCalls(2);
+        Assert.assertEquals(2, this.impl.getCacheMisses());
+        Assert.assertEquals(0, this.impl.getCacheHits());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentMissesAreCollapsed() throws Exception {
+        final byte[] body = makeBody(100);
+        final List<InvocationOnMock> exchanges = new ArrayList<InvocationOnMock>();
+        Mockito.when(this.backend.execute(
+                Matchers.any(HttpAsyncRequestProducer.class),
+                Matchers.any(HttpAsyncResponseConsumer.class),
+                Matchers.any(HttpContext.class),
+                Matchers.any(FutureCallback.class))).thenAnswer(new Answer<Future<Object>>() {
+
+            @Override
+            public Future<Object> answer(final InvocationOnMock invocation) throws Throwable {
+                exchanges.add(invocation);
+                return new BasicFuture<Object>(null);
+            }
+
+        });
+
+        final Future<HttpResponse> future1 = this.impl.execute(
+                new BasicAsyncRequestProducer(this.target, new HttpGet("/stuff")),
+                new BasicAsyncResponseConsumer(), null, null);
+        final Future<HttpResponse> future2 = this.impl.execute(
+                new BasicAsyncRequestProducer(this.target, new HttpGet("/stuff")),
+                new BasicAsyncResponseConsumer(), null, null);
+
+        Assert.assertEquals(1, exchanges.size());
+        Assert.assertFalse(future1.isDone());
+        Assert.assertFalse(future2.isDone());
+
+        deliver(exchanges.get(0), body, true);
+
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(future1.get().getEntity())));
+        Assert.assertTrue(Arrays.equals(body, EntityUtils.toByteArray(future2.get().getEntity())));
+        Assert.assertEquals(1, exchanges.size());
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testCollapsedMissReleasedWhenBackendThrows() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("I/O reactor stopped");
+        final List<InvocationOnMock> exchanges = new ArrayList<InvocationOnMock>();
+        Mockito.when(this.backend.execute(
+                Matchers.any(HttpAsyncRequestProducer.class),
+                Matchers.any(HttpAsyncResponseConsumer.class),
+                Matchers.any(HttpContext.class),
+                Matchers.any(FutureCallback.class))).thenThrow(failure).thenAnswer(new Answer<Future<Object>>() {
+
+            @Override
+            public Future<Object> answer(final InvocationOnMock invocation) throws Throwable {
+                exchanges.add(invocation);
+                return new BasicFuture<Object>(null);
+            }
+
+        });
+
+        final Future<HttpResponse> future1 = this.impl.execute(
+                new BasicAsyncRequestProducer(this.target, new HttpGet("/stuff")),
+                new BasicAsyncResponseConsumer(), null, null);
+        Assert.assertTrue(future1.isDone());
+        try {
+            future1.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertSame(failure, ex.getCause());
+        }
+
+        // a later miss for the same key is not parked behind the failed request
+        final Future<HttpResponse> future2 = this.impl.execute(
+                new BasicAsyncRequestProducer(this.target, new HttpGet("/stuff")),
+                new BasicAsyncResponseConsumer(), null, null);
+        Assert.assertEquals(1, exchanges.size());
+        deliver(exchanges.get(0), makeBody(100), true);
+        Assert.assertEquals(200, future2.get().getStatusLine().getStatusCode());
+        verifyBackendCalls(2);
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestDefaultHttpAsyncCache {
+
+    private HttpCache cache;
+    private HttpHost target;
+    private HttpGet request;
+    private List<Runnable> tasks;
+    private Executor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.cache = Mockito.mock(HttpCache.class);
+        this.target = new HttpHost("foo.example.com");
+        this.request = new HttpGet("/stuff");
+        this.tasks = new ArrayList<Runnable>();
+        this.executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOperationIsExecutedInline() throws Exception {
+        final HttpCacheEntry entry = Mockito.mock(HttpCacheEntry.class);
+        Mockito.when(this.cache.getCacheEntry(this.target, this.request)).thenReturn(entry);
+        final FutureCallback<HttpCacheEntry> callback = Mockito.mock(FutureCallback.class);
+        final DefaultHttpAsyncCache impl = new DefaultHttpAsyncCache(this.cache, null);
+
+        final Future<HttpCacheEntry> future = impl.getCacheEntry(this.target, this.request, callback);
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertSame(entry, future.get());
+        Mockito.verify(callback).completed(entry);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOperationIsExecutedByExecutor() throws Exception {
+        final HttpCacheEntry entry = Mockito.mock(HttpCacheEntry.class);
+        Mockito.when(this.cache.getCacheEntry(this.target, this.request)).thenReturn(entry);
+        final FutureCallback<HttpCacheEntry> callback = Mockito.mock(FutureCallback.class);
+        final DefaultHttpAsyncCache impl = new DefaultHttpAsyncCache(this.cache, this.executor);
+
+        final Future<HttpCacheEntry> future = impl.getCacheEntry(this.target, this.request, callback);
+
+        Assert.assertFalse(future.isDone());
+        Mockito.verifyZeroInteractions(this.cache, callback);
+        Assert.assertEquals(1, this.tasks.size());
+
+        this.tasks.get(0).run();
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertSame(entry, future.get());
+        Mockito.verify(callback).completed(entry);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOperationFailureIsReported() throws Exception {
+        final IOException ioe = new IOException("Oppsie");
+        Mockito.doThrow(ioe).when(this.cache).flushCacheEntriesFor(this.target, this.request);
+        final FutureCallback<Boolean> callback = Mockito.mock(FutureCallback.class);
+        final DefaultHttpAsyncCache impl = new DefaultHttpAsyncCache(this.cache, this.executor);
+
+        final Future<Boolean> future = impl.flushCacheEntriesFor(this.target, this.request, callback);
+        this.tasks.get(0).run();
+
+        Mockito.verify(callback).failed(ioe);
+        try {
+            future.get();
+            Assert.fail("ExecutionException should have been thrown");
+        } catch (final ExecutionException ex) {
+            Assert.assertSame(ioe, ex.getCause());
+        }
+    }
+
+    @Test
+    public void testVariantsAreExposedAsCacheVariants() throws Exception {
+        final HttpCacheEntry entry = Mockito.mock(HttpCacheEntry.class);
+        final Map<String, Variant> variants = new HashMap<String, Variant>();
+        variants.put("\"etag1\"", new Variant("{Accept-Encoding=gzip}", "http://foo.example.com/stuff", entry));
+        Mockito.when(this.cache.getVariantCacheEntriesWithEtags(this.target, this.request)).thenReturn(variants);
+        final DefaultHttpAsyncCache impl = new DefaultHttpAsyncCache(this.cache, null);
+
+        final Map<String, CacheVariant> result = impl.getVariantCacheEntriesWithEtags(
+                this.target, this.request, null).get();
+
+        Assert.assertEquals(1, result.size());
+        final CacheVariant variant = result.get("\"etag1\"");
+        Assert.assertNotNull(variant);
+        Assert.assertEquals("{Accept-Encoding=gzip}", variant.getVariantKey());
+        Assert.assertEquals("http://foo.example.com/stuff", variant.getCacheKey());
+        Assert.assertSame(entry, variant.getEntry());
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMemoryMappedHttpCacheStorage {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryMappedResourceFactory resourceFactory;
+    private MemoryMappedHttpCacheStorage impl;
+
+    @Before
+    public void setUp() throws Exception {
+        this.resourceFactory = new MemoryMappedResourceFactory(this.folder.getRoot(), 16, 16);
+        this.impl = new MemoryMappedHttpCacheStorage(
+                CacheConfig.custom().setMaxCacheEntries(2).build(), this.resourceFactory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.resourceFactory.shutdown();
+    }
+
+    private HttpCacheEntry makeCacheEntry(final String content) throws Exception {
+        final Resource resource = this.resourceFactory.generate(
+                "id", new ByteArrayInputStream(content.getBytes("US-ASCII")), null);
+        final Date now = new Date();
+        return new HttpCacheEntry(now, now,
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+                new Header[] {}, resource);
+    }
+
+    @Test
+    public void testEntryIsStored() throws Exception {
+        final HttpCacheEntry entry = makeCacheEntry("stuff");
+        this.impl.putEntry("foo", entry);
+
+        Assert.assertSame(entry, this.impl.getEntry("foo"));
+        this.impl.removeEntry("foo");
+        Assert.assertNull(this.impl.getEntry("foo"));
+    }
+
+    @Test
+    public void testEntryIsDiscardedOnceContentIsEvicted() throws Exception {
+        this.impl.putEntry("foo", makeCacheEntry("0123456789"));
+        final HttpCacheEntry entry = makeCacheEntry("abcdefghij");
+        this.impl.putEntry("bar", entry);
+
+        Assert.assertNull(this.impl.getEntry("foo"));
+        Assert.assertSame(entry, this.impl.getEntry("bar"));
+    }
+
+    @Test
+    public void testEntriesArePurgedOnSegmentEviction() throws Exception {
+        this.impl.putEntry("foo", makeCacheEntry("0123456789"));
+        Assert.assertEquals(1, this.impl.size());
+
+        // Generating content evicts the segment of the existing entry
+        final HttpCacheEntry entry = makeCacheEntry("abcdefghij");
+        Assert.assertEquals(0, this.impl.size());
+
+        this.impl.putEntry("bar", entry);
+        Assert.assertEquals(1, this.impl.size());
+        Assert.assertSame(entry, this.impl.getEntry("bar"));
+    }
+
+    @Test
+    public void testEntriesArePurgedOnShutdown() throws Exception {
+        this.impl.putEntry("foo", makeCacheEntry("0123"));
+        this.impl.putEntry("bar", makeCacheEntry("4567"));
+        Assert.assertEquals(2, this.impl.size());
+
+        this.resourceFactory.shutdown();
+        Assert.assertEquals(0, this.impl.size());
+    }
+
+    @Test
+    public void testUpdateSeesNoEvictedEntry() throws Exception {
+        this.impl.putEntry("foo", makeCacheEntry("0123456789"));
+        final HttpCacheEntry entry = makeCacheEntry("abcdefghij");
+
+        this.impl.updateEntry("foo", new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                Assert.assertNull(existing);
+                return entry;
+            }
+
+        });
+        Assert.assertSame(entry, this.impl.getEntry("foo"));
+    }
+
+    @Test
+    public void testNumberOfEntriesIsBounded() throws Exception {
+        this.impl.putEntry("foo", makeCacheEntry("a"));
+        this.impl.putEntry("bar", makeCacheEntry("b"));
+        this.impl.putEntry("baz", makeCacheEntry("c"));
+
+        Assert.assertNull(this.impl.getEntry("foo"));
+        Assert.assertNotNull(this.impl.getEntry("bar"));
+        Assert.assertNotNull(this.impl.getEntry("baz"));
+    }
+
+}
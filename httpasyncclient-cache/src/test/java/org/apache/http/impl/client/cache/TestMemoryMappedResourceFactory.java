@@ -0,0 +1,241 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.util.ByteArrayBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMemoryMappedResourceFactory {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryMappedResourceFactory impl;
+
+    @Before
+    public void setUp() throws Exception {
+        this.impl = new MemoryMappedResourceFactory(this.folder.getRoot(), 16, 32);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.impl.shutdown();
+    }
+
+    private Resource generate(final String content) throws IOException {
+        return this.impl.generate("id", new ByteArrayInputStream(content.getBytes("US-ASCII")), null);
+    }
+
+    private static String read(final Resource resource) throws IOException {
+        final InputStream instream = resource.getInputStream();
+        try {
+            final ByteArrayBuffer buffer = new ByteArrayBuffer(16);
+            int b;
+            while ((b = instream.read()) != -1) {
+                buffer.append(b);
+            }
+            return new String(buffer.toByteArray(), "US-ASCII");
+        } finally {
+            instream.close();
+        }
+    }
+
+    @Test
+    public void testContentIsServedFromSegment() throws Exception {
+        final Resource resource = generate("stuff");
+
+        Assert.assertTrue(resource instanceof MemoryMappedResource);
+        Assert.assertEquals(5, resource.length());
+        Assert.assertEquals("stuff", read(resource));
+        final ByteBuffer buffer = ((MemoryMappedResource) resource).getByteBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(5, buffer.remaining());
+        Assert.assertEquals(16, this.impl.getMappedBytes());
+        Assert.assertEquals(1, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testResourcesArePackedIntoSegments() throws Exception {
+        final Resource r1 = generate("0123456789");
+        final Resource r2 = generate("abcde");
+        final Resource r3 = generate("ABCDE");
+
+        Assert.assertEquals("0123456789", read(r1));
+        Assert.assertEquals("abcde", read(r2));
+        Assert.assertEquals("ABCDE", read(r3));
+        Assert.assertSame(
+                ((MemoryMappedResource) r1).getSegment(),
+                ((MemoryMappedResource) r2).getSegment());
+        Assert.assertNotSame(
+                ((MemoryMappedResource) r1).getSegment(),
+                ((MemoryMappedResource) r3).getSegment());
+        Assert.assertEquals(32, this.impl.getMappedBytes());
+    }
+
+    @Test
+    public void testEldestSegmentIsEvictedWhenFull() throws Exception {
+        final MemoryMappedResource r1 = (MemoryMappedResource) generate("0123456789");
+        final MemoryMappedResource r2 = (MemoryMappedResource) generate("abcdefghij");
+        final MemoryMappedResource r3 = (MemoryMappedResource) generate("ABCDEFGHIJ");
+
+        Assert.assertFalse(r1.isAvailable());
+        Assert.assertTrue(r2.isAvailable());
+        Assert.assertTrue(r3.isAvailable());
+        Assert.assertEquals(32, this.impl.getMappedBytes());
+        Assert.assertEquals(2, this.folder.getRoot().list().length);
+        try {
+            r1.getInputStream();
+            Assert.fail("IOException should have been thrown");
+        } catch (final IOException expected) {
+        }
+    }
+
+    @Test
+    public void testContentLargerThanSegmentGetsDedicatedSegment() throws Exception {
+        final Resource resource = generate("0123456789abcdefghij");
+
+        Assert.assertEquals("0123456789abcdefghij", read(resource));
+        Assert.assertEquals(20, this.impl.getMappedBytes());
+    }
+
+    @Test
+    public void testPartialContentIsNotMapped() throws Exception {
+        final InputLimit limit = new InputLimit(4);
+        final Resource resource = this.impl.generate(
+                "id", new ByteArrayInputStream("0123456789".getBytes("US-ASCII")), limit);
+
+        Assert.assertTrue(limit.isReached());
+        Assert.assertFalse(resource instanceof MemoryMappedResource);
+        Assert.assertEquals("0123456789", read(resource));
+        // The region reserved for the content has been given back
+        final MemoryMappedResource next = (MemoryMappedResource) generate("stuff");
+        Assert.assertEquals(0, next.getOffset());
+        Assert.assertEquals(16, this.impl.getMappedBytes());
+    }
+
+    /**
+     * Stream that does not tell how much content is available and returns it
+     * in small chunks.
+     */
+    static class TrickleInputStream extends InputStream {
+
+        private final InputStream instream;
+
+        TrickleInputStream(final String content) throws IOException {
+            super();
+            this.instream = new ByteArrayInputStream(content.getBytes("US-ASCII"));
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.instream.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return this.instream.read(b, off, Math.min(len, 3));
+        }
+
+    }
+
+    @Test
+    public void testContentOfUnknownLengthGrowsRegionInPlace() throws Exception {
+        final MemoryMappedResource r1 = (MemoryMappedResource) this.impl.generate(
+                "id", new TrickleInputStream("0123456789"), null);
+        final MemoryMappedResource r2 = (MemoryMappedResource) generate("abcde");
+
+        Assert.assertEquals(10, r1.length());
+        Assert.assertEquals("0123456789", read(r1));
+        Assert.assertSame(r1.getSegment(), r2.getSegment());
+        Assert.assertEquals(10, r2.getOffset());
+        Assert.assertEquals(16, this.impl.getMappedBytes());
+    }
+
+    @Test
+    public void testContentOfUnknownLengthMovedToLargerRegion() throws Exception {
+        generate("0123456789");
+        final MemoryMappedResource resource = (MemoryMappedResource) this.impl.generate(
+                "id", new TrickleInputStream("abcdefghijklmnopqrst"), null);
+
+        Assert.assertEquals(20, resource.length());
+        Assert.assertEquals("abcdefghijklmnopqrst", read(resource));
+    }
+
+    @Test
+    public void testContentDecoderReadsMappedRegion() throws Exception {
+        final MemoryMappedResource resource = (MemoryMappedResource) generate("0123456789");
+        final InputStreamContentDecoder decoder = new InputStreamContentDecoder(resource.getInputStream());
+        final ByteBuffer dst = ByteBuffer.allocate(4);
+        final StringBuilder buffer = new StringBuilder();
+        int n;
+        while ((n = decoder.read(dst)) != -1) {
+            Assert.assertTrue(n <= 4);
+            dst.flip();
+            while (dst.hasRemaining()) {
+                buffer.append((char) dst.get());
+            }
+            dst.clear();
+        }
+        Assert.assertTrue(decoder.isCompleted());
+        Assert.assertEquals("0123456789", buffer.toString());
+    }
+
+    @Test
+    public void testCopySharesContent() throws Exception {
+        final MemoryMappedResource resource = (MemoryMappedResource) generate("stuff");
+        final Resource copy = this.impl.copy("id", resource);
+        resource.dispose();
+
+        Assert.assertFalse(resource.isAvailable());
+        Assert.assertEquals("stuff", read(copy));
+        Assert.assertEquals(16, this.impl.getMappedBytes());
+    }
+
+    @Test
+    public void testShutdownDeletesSegments() throws Exception {
+        final MemoryMappedResource resource = (MemoryMappedResource) generate("stuff");
+        this.impl.shutdown();
+
+        Assert.assertFalse(resource.isAvailable());
+        Assert.assertEquals(0, this.impl.getMappedBytes());
+        Assert.assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+}
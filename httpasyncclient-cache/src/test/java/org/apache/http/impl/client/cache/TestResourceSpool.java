@@ -0,0 +1,150 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.util.ByteArrayBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResourceSpool {
+
+    static class RecordingResourceFactory extends HeapResourceFactory {
+
+        final List<Resource> generated = new ArrayList<Resource>();
+        final List<Resource> disposed = new ArrayList<Resource>();
+
+        @Override
+        public Resource generate(
+                final String requestId,
+                final InputStream instream,
+                final InputLimit limit) throws IOException {
+            final Resource resource = super.generate(requestId, instream, limit);
+            this.generated.add(resource);
+            return new Resource() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return resource.getInputStream();
+                }
+
+                @Override
+                public long length() {
+                    return resource.length();
+                }
+
+                @Override
+                public void dispose() {
+                    disposed.add(resource);
+                    resource.dispose();
+                }
+
+            };
+        }
+
+    }
+
+    private RecordingResourceFactory resourceFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.resourceFactory = new RecordingResourceFactory();
+    }
+
+    private static String read(final InputStream instream) throws IOException {
+        try {
+            final ByteArrayBuffer buffer = new ByteArrayBuffer(16);
+            int b;
+            while ((b = instream.read()) != -1) {
+                buffer.append(b);
+            }
+            return new String(buffer.toByteArray(), "US-ASCII");
+        } finally {
+            instream.close();
+        }
+    }
+
+    private static ByteBuffer wrap(final String s) throws IOException {
+        return ByteBuffer.wrap(s.getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void testContentSpooledInSegments() throws Exception {
+        final ResourceSpool spool = new ResourceSpool(this.resourceFactory, "id", 4);
+        spool.write(wrap("0123"));
+        spool.write(wrap("45"));
+        spool.write(wrap("6789a"));
+        Assert.assertEquals(11, spool.length());
+        // full segments are handed over to the resource factory as they fill up
+        Assert.assertEquals(2, this.resourceFactory.generated.size());
+
+        Assert.assertEquals("0123456789a", read(spool.getInputStream()));
+        Assert.assertEquals(3, this.resourceFactory.generated.size());
+    }
+
+    @Test
+    public void testWriteLeavesSourcePositionUnchanged() throws Exception {
+        final ResourceSpool spool = new ResourceSpool(this.resourceFactory, "id", 4);
+        final ByteBuffer src = wrap("012345");
+        src.position(2);
+        spool.write(src);
+        Assert.assertEquals(2, src.position());
+        Assert.assertEquals("2345", read(spool.getInputStream()));
+    }
+
+    @Test
+    public void testEmptySpool() throws Exception {
+        final ResourceSpool spool = new ResourceSpool(this.resourceFactory, "id");
+        Assert.assertEquals(0, spool.length());
+        Assert.assertEquals("", read(spool.getInputStream()));
+        Assert.assertEquals(0, this.resourceFactory.generated.size());
+    }
+
+    @Test
+    public void testDisposeReleasesResources() throws Exception {
+        final ResourceSpool spool = new ResourceSpool(this.resourceFactory, "id", 4);
+        spool.write(wrap("01234567"));
+        spool.dispose();
+        Assert.assertEquals(this.resourceFactory.generated, this.resourceFactory.disposed);
+        try {
+            spool.write(wrap("8"));
+            Assert.fail("IOException expected");
+        } catch (final IOException expected) {
+        }
+    }
+
+}
@@ -46,6 +46,7 @@ import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.RouteTracker;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.ExchangeTimings;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncClientExchangeHandler;
 import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
@@ -79,6 +80,7 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
     private final AtomicReference<HttpResponse> responseRef;
     private final AtomicBoolean completed;
     private final AtomicBoolean closed;
+    private final ExchangeTimings timings;
 
     AbstractClientExchangeHandler(
             final Log log,
@@ -104,16 +106,30 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
         this.responseRef = new AtomicReference<HttpResponse>(null);
         this.completed = new AtomicBoolean(false);
         this.closed = new AtomicBoolean(false);
+        this.timings = new ExchangeTimings();
+        this.localContext.setAttribute(ExchangeTimings.EXCHANGE_TIMINGS, this.timings);
     }
 
     final long getId() {
         return this.id;
     }
 
+    final ExchangeTimings getTimings() {
+        return this.timings;
+    }
+
+    final void markPhase(final ExchangeTimings.Phase phase) {
+        this.timings.mark(phase);
+    }
+
     final boolean isCompleted() {
         return this.completed.get();
     }
 
+    final boolean isClosed() {
+        return this.closed.get();
+    }
+
     final void markCompleted() {
         this.completed.set(true);
     }
@@ -166,6 +182,7 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
                 final HttpRoute route = this.routeRef.get();
                 this.routeTrackerRef.set(new RouteTracker(route));
             } else {
+                this.timings.mark(ExchangeTimings.Phase.ROUTE_COMPLETE);
                 this.log.debug("Connection route already established");
             }
         }
@@ -217,6 +234,7 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
         final HttpRoute route = this.routeRef.get();
         Asserts.check(route != null, "Inconsistent state: HTTP route is null");
         this.connmgr.routeComplete(managedConn, route, this.localContext);
+        this.timings.mark(ExchangeTimings.Phase.ROUTE_COMPLETE);
         this.routeEstablished.set(true);
         this.routeTrackerRef.set(null);
     }
@@ -257,6 +275,11 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
         final NHttpClientConnection localConn = this.managedConnRef.getAndSet(null);
         if (localConn != null) {
             try {
+                // Failures still reported for the discarded connection, such as its
+                // closure, must not be taken for failures of a retried execution
+                if (localConn.getContext().getAttribute(HttpAsyncRequestExecutor.HTTP_HANDLER) == this) {
+                    localConn.getContext().removeAttribute(HttpAsyncRequestExecutor.HTTP_HANDLER);
+                }
                 localConn.shutdown();
                 if (this.log.isDebugEnabled()) {
                     this.log.debug("[exchange: " + this.id + "] connection aborted");
@@ -301,6 +324,7 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
     }
 
     private void connectionAllocated(final NHttpClientConnection managedConn) {
+        this.timings.mark(ExchangeTimings.Phase.CONNECTION_ALLOCATED);
         try {
             if (this.log.isDebugEnabled()) {
                 this.log.debug("[exchange: " + this.id + "] Connection allocated: " + managedConn);
@@ -355,6 +379,7 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
 
         final Object userToken = this.localContext.getUserToken();
         final RequestConfig config = this.localContext.getRequestConfig();
+        this.timings.mark(ExchangeTimings.Phase.CONNECTION_REQUESTED);
         this.connmgr.requestConnection(
                 route,
                 userToken,
@@ -387,6 +412,17 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
 
     abstract boolean executionCancelled();
 
+    /**
+     * Gives the handler a chance to recover from the failure by retrying
+     * the execution.
+     *
+     * @return {@code true} if the execution is going to be retried,
+     *   {@code false} if the handler should fail.
+     */
+    boolean executionRetry(final Exception ex) {
+        return false;
+    }
+
     @Override
     public final void close() {
         if (this.closed.compareAndSet(false, true)) {
@@ -402,6 +438,9 @@ abstract class AbstractClientExchangeHandler<T> implements HttpAsyncClientExchan
 
     @Override
     public final void failed(final Exception ex) {
+        if (!this.closed.get() && executionRetry(ex)) {
+            return;
+        }
         if (this.closed.compareAndSet(false, true)) {
             try {
                 try {
@@ -0,0 +1,193 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.util.Args;
+
+/**
+ * {@link Executor} for running completion callbacks off the I/O dispatch threads.
+ * Tasks are queued in a bounded queue and executed by a fixed number of worker
+ * threads, which take tasks off the queue in batches to reduce the number of
+ * thread wake-ups under load.
+ * <p>
+ * If the queue is full the task is executed by the submitting thread, which throttles
+ * the I/O dispatcher rather than letting the backlog grow without bounds. The number
+ * of such occurrences is reported by {@link #getCallerRunsCount()}.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class BatchingCallbackExecutor implements Executor, Closeable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final BlockingQueue<Runnable> queue;
+    private final int batchSize;
+    private final Thread[] workers;
+    private final AtomicLong callerRunsCount;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new executor and starts its worker threads.
+     *
+     * @param workerCount number of worker threads.
+     * @param capacity maximum number of queued tasks.
+     * @param batchSize maximum number of tasks taken off the queue at once.
+     * @param threadFactory factory of worker threads. May be {@code null}.
+     */
+    public BatchingCallbackExecutor(
+            final int workerCount,
+            final int capacity,
+            final int batchSize,
+            final ThreadFactory threadFactory) {
+        super();
+        Args.positive(workerCount, "Worker count");
+        Args.positive(capacity, "Capacity");
+        Args.positive(batchSize, "Batch size");
+        this.queue = new ArrayBlockingQueue<Runnable>(capacity);
+        this.batchSize = batchSize;
+        this.callerRunsCount = new AtomicLong();
+        final ThreadFactory factory = threadFactory != null ? threadFactory : new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "httpclient-callback-" + this.count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+
+        };
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = factory.newThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    runWorker();
+                }
+
+            });
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Creates a new executor with a single worker thread and default settings.
+     */
+    public BatchingCallbackExecutor() {
+        this(1, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, null);
+    }
+
+    private void runTask(final Runnable task) {
+        try {
+            task.run();
+        } catch (final RuntimeException ex) {
+            this.log.warn("Unexpected exception in callback", ex);
+        }
+    }
+
+    private void runWorker() {
+        final List<Runnable> batch = new ArrayList<Runnable>(this.batchSize);
+        try {
+            while (!this.shutdown) {
+                final Runnable task = this.queue.take();
+                batch.add(task);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                for (int i = 0; i < batch.size(); i++) {
+                    runTask(batch.get(i));
+                }
+                batch.clear();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        // Run tasks remaining after shutdown
+        Runnable task;
+        while ((task = this.queue.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        Args.notNull(task, "Task");
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        if (!this.queue.offer(task)) {
+            this.callerRunsCount.incrementAndGet();
+            runTask(task);
+        }
+    }
+
+    /**
+     * Returns the number of tasks executed by the submitting thread due to
+     * the queue being full.
+     */
+    public long getCallerRunsCount() {
+        return this.callerRunsCount.get();
+    }
+
+    /**
+     * Returns the number of tasks awaiting execution.
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * Shuts down the executor. Tasks already queued are still executed.
+     */
+    @Override
+    public void close() {
+        this.shutdown = true;
+        for (final Thread worker: this.workers) {
+            worker.interrupt();
+        }
+    }
+
+}
@@ -39,7 +39,9 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.Cancellable;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.ComposableFuture;
 import org.apache.http.nio.client.HttpAsyncClient;
 import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
@@ -107,6 +109,87 @@ public abstract class CloseableHttpAsyncClient implements HttpAsyncClient, Close
         return execute(target, request, context, callback);
     }
 
+    /**
+     * Initiates asynchronous HTTP request execution using the given context and
+     * returns a {@link ComposableFuture} whose cancellation aborts the message
+     * exchange.
+     *
+     * @since 4.2
+     */
+    public <T> ComposableFuture<T> submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpContext context,
+            final FutureCallback<T> callback) {
+        final ComposableFuture<T> future = new ComposableFuture<T>(callback);
+        final Future<T> delegate = execute(requestProducer, responseConsumer, context,
+                new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                future.completed(result);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+
+        });
+        future.setDependency(new Cancellable() {
+
+            @Override
+            public boolean cancel() {
+                return delegate.cancel(true);
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Initiates asynchronous HTTP request execution against the given target
+     * using the given context and returns a {@link ComposableFuture} whose
+     * cancellation aborts the message exchange.
+     *
+     * @since 4.2
+     */
+    public ComposableFuture<HttpResponse> submit(
+            final HttpHost target, final HttpRequest request, final HttpContext context,
+            final FutureCallback<HttpResponse> callback) {
+        return submit(
+                HttpAsyncMethods.create(target, request),
+                HttpAsyncMethods.createConsumer(),
+                context != null ? context : HttpClientContext.create(), callback);
+    }
+
+    /**
+     * Initiates asynchronous HTTP request execution using the given context and
+     * returns a {@link ComposableFuture} whose cancellation aborts the message
+     * exchange.
+     *
+     * @since 4.2
+     */
+    public ComposableFuture<HttpResponse> submit(
+            final HttpUriRequest request,
+            final HttpContext context,
+            final FutureCallback<HttpResponse> callback) {
+        final HttpHost target;
+        try {
+            target = determineTarget(request);
+        } catch (final ClientProtocolException ex) {
+            final ComposableFuture<HttpResponse> future = new ComposableFuture<HttpResponse>(callback);
+            future.failed(ex);
+            return future;
+        }
+        return submit(target, request, context, callback);
+    }
+
     private HttpHost determineTarget(final HttpUriRequest request) throws ClientProtocolException {
         Args.notNull(request, "HTTP request");
         // A null target may be acceptable if there is a default target.
@@ -37,6 +37,7 @@ import org.apache.http.annotation.ThreadSafe;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.nio.client.HttpPipeliningClient;
+import org.apache.http.nio.client.HttpPipeliningSession;
 import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
@@ -89,4 +90,31 @@ public abstract class CloseableHttpPipeliningClient
         return execute(target, requestProducers, responseConsumers, context, callback);
     }
 
+    /**
+     * Opens a session that pipelines requests submitted at any time over
+     * a single connection to the given target.
+     *
+     * @param target the target host of the session.
+     * @param maxPipelineDepth maximum number of requests outstanding on
+     *   the connection at any time.
+     * @param context HTTP context shared by all requests of the session.
+     * @return the new session.
+     *
+     * @since 4.2
+     */
+    public abstract HttpPipeliningSession openSession(
+            HttpHost target,
+            int maxPipelineDepth,
+            HttpContext context);
+
+    /**
+     * Opens a session that pipelines requests submitted at any time over
+     * a single connection to the given target.
+     *
+     * @since 4.2
+     */
+    public HttpPipeliningSession openSession(final HttpHost target, final int maxPipelineDepth) {
+        return openSession(target, maxPipelineDepth, HttpClientContext.create());
+    }
+
 }
@@ -42,6 +42,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.ExchangeTimings;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
@@ -59,6 +60,7 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
     private final BasicFuture<T> resultFuture;
     private final InternalClientExec exec;
     private final InternalState state;
+    private final InternalRetryExecutor retryExecutor;
 
     public DefaultClientExchangeHandlerImpl(
             final Log log,
@@ -69,13 +71,15 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
             final NHttpClientConnectionManager connmgr,
             final ConnectionReuseStrategy connReuseStrategy,
             final ConnectionKeepAliveStrategy keepaliveStrategy,
-            final InternalClientExec exec) {
+            final InternalClientExec exec,
+            final InternalRetryExecutor retryExecutor) {
         super(log, localContext, resultFuture, connmgr, connReuseStrategy, keepaliveStrategy);
         this.requestProducer = requestProducer;
         this.responseConsumer = responseConsumer;
         this.resultFuture = resultFuture;
         this.exec = exec;
         this.state = new InternalState(getId(), requestProducer, responseConsumer, localContext);
+        this.retryExecutor = retryExecutor;
     }
 
     @Override
@@ -114,6 +118,52 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
         return cancelled;
     }
 
+    @Override
+    boolean executionRetry(final Exception ex) {
+        if (this.retryExecutor == null || !(ex instanceof IOException) || isCompleted()) {
+            return false;
+        }
+        // Response content may already have been handed over to the consumer
+        if (this.state.getFinalResponse() != null) {
+            return false;
+        }
+        if (!this.requestProducer.isRepeatable() && this.state.isRequestContentProduced()) {
+            return false;
+        }
+        final HttpRequest request = this.state.getMainRequest();
+        if (request == null) {
+            return false;
+        }
+        discardConnection();
+        final int executionCount = this.state.getRetryCount() + 1;
+        this.state.incrementRetryCount();
+        final long delay = this.retryExecutor.retry(
+                request, (IOException) ex, executionCount, this.state.getLocalContext(),
+                new InternalRetryExecutor.RetryTask() {
+
+                    @Override
+                    public void run() {
+                        if (!isClosed()) {
+                            requestConnection();
+                        }
+                    }
+
+                    @Override
+                    public void abort(final Exception cause) {
+                        failed(cause);
+                    }
+
+                });
+        if (delay < 0) {
+            return false;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + getId() + "] I/O exception (" + ex.getClass().getName() +
+                    ") caught: " + ex.getMessage() + "; retrying request in " + delay + " ms");
+        }
+        return true;
+    }
+
     public void start() throws HttpException, IOException {
         final HttpHost target = this.requestProducer.getTarget();
         final HttpRequest original = this.requestProducer.generateRequest();
@@ -122,12 +172,17 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
             ((HttpExecutionAware) original).setCancellable(this);
         }
         this.exec.prepare(target, original, this.state, this);
+        if (this.retryExecutor != null) {
+            this.retryExecutor.requestStarted();
+        }
         requestConnection();
     }
 
     @Override
     public HttpRequest generateRequest() throws IOException, HttpException {
-        return this.exec.generateRequest(this.state, this);
+        final HttpRequest request = this.exec.generateRequest(this.state, this);
+        markPhase(ExchangeTimings.Phase.REQUEST_GENERATED);
+        return request;
     }
 
     @Override
@@ -138,12 +193,14 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
 
     @Override
     public void requestCompleted() {
+        markPhase(ExchangeTimings.Phase.REQUEST_COMPLETED);
         this.exec.requestCompleted(this.state, this);
     }
 
     @Override
     public void responseReceived(
             final HttpResponse response) throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_RECEIVED);
         this.exec.responseReceived(response, this.state, this);
     }
 
@@ -165,6 +222,7 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
 
     @Override
     public void responseCompleted() throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_COMPLETED);
         this.exec.responseCompleted(this.state, this);
 
         if (this.state.getFinalResponse() != null || this.resultFuture.isDone()) {
@@ -0,0 +1,188 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.annotation.Immutable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.nio.client.HttpAsyncRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * Default {@link HttpAsyncRequestRetryHandler} implementation. Retries
+ * idempotent requests (GET, HEAD, PUT, DELETE, OPTIONS and TRACE) up to
+ * the given number of times, backing off exponentially with random jitter.
+ * Requests failed with one of the non-retriable exception classes (by default
+ * {@link InterruptedIOException}, {@link UnknownHostException},
+ * {@link ConnectException} and {@link SSLException}) are not retried.
+ *
+ * @since 4.2
+ */
+@Immutable
+public class DefaultHttpAsyncRequestRetryHandler implements HttpAsyncRequestRetryHandler {
+
+    public static final DefaultHttpAsyncRequestRetryHandler INSTANCE = new DefaultHttpAsyncRequestRetryHandler();
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<String>(
+            Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+    private final int retryCount;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Set<Class<? extends IOException>> nonRetriableClasses;
+    private final Random random;
+
+    protected DefaultHttpAsyncRequestRetryHandler(
+            final int retryCount,
+            final long initialBackoff,
+            final long maxBackoff,
+            final Collection<Class<? extends IOException>> clazzes) {
+        super();
+        Args.notNegative(retryCount, "Retry count");
+        Args.notNegative(initialBackoff, "Initial backoff");
+        Args.notNegative(maxBackoff, "Max backoff");
+        this.retryCount = retryCount;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.nonRetriableClasses = new HashSet<Class<? extends IOException>>();
+        for (final Class<? extends IOException> clazz: clazzes) {
+            this.nonRetriableClasses.add(clazz);
+        }
+        this.random = new Random();
+    }
+
+    /**
+     * Creates a new handler.
+     *
+     * @param retryCount how many times to retry; 0 means no retries.
+     * @param initialBackoff backoff in milliseconds before the first retry.
+     *   Each subsequent retry doubles the backoff.
+     * @param maxBackoff upper limit of the backoff in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public DefaultHttpAsyncRequestRetryHandler(
+            final int retryCount, final long initialBackoff, final long maxBackoff) {
+        this(retryCount, initialBackoff, maxBackoff, Arrays.asList(
+                InterruptedIOException.class,
+                UnknownHostException.class,
+                ConnectException.class,
+                SSLException.class));
+    }
+
+    /**
+     * Creates a new handler that retries up to 3 times with 100 ms initial
+     * and 5 seconds maximum backoff.
+     */
+    public DefaultHttpAsyncRequestRetryHandler() {
+        this(3, 100, 5000);
+    }
+
+    @Override
+    public long retryRequest(
+            final HttpRequest request,
+            final IOException exception,
+            final int executionCount,
+            final HttpContext context) {
+        Args.notNull(request, "HTTP request");
+        Args.notNull(exception, "I/O exception");
+        if (executionCount > this.retryCount) {
+            return -1;
+        }
+        if (this.nonRetriableClasses.contains(exception.getClass())) {
+            return -1;
+        }
+        for (final Class<? extends IOException> rejectException : this.nonRetriableClasses) {
+            if (rejectException.isInstance(exception)) {
+                return -1;
+            }
+        }
+        final HttpRequest original = request instanceof HttpRequestWrapper ?
+                ((HttpRequestWrapper) request).getOriginal() : request;
+        if (original instanceof HttpUriRequest && ((HttpUriRequest) original).isAborted()) {
+            return -1;
+        }
+        if (!handleAsIdempotent(request)) {
+            return -1;
+        }
+        return getBackoff(executionCount);
+    }
+
+    /**
+     * @return {@code true} if the request should be treated as idempotent.
+     */
+    protected boolean handleAsIdempotent(final HttpRequest request) {
+        return isIdempotent(request);
+    }
+
+    static boolean isIdempotent(final HttpRequest request) {
+        final String method = request.getRequestLine().getMethod().toUpperCase(Locale.ROOT);
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+
+    /**
+     * Returns backoff in milliseconds before the given retry attempt: a random
+     * value between half and the full exponential backoff, which keeps clients
+     * that failed at the same moment from retrying in lockstep.
+     */
+    protected long getBackoff(final int executionCount) {
+        if (this.initialBackoff == 0) {
+            return 0;
+        }
+        final int shift = Math.min(Math.max(executionCount - 1, 0), 30);
+        long backoff = this.initialBackoff << shift;
+        if (backoff > this.maxBackoff || backoff <= 0) {
+            backoff = this.maxBackoff;
+        }
+        final long half = backoff / 2;
+        synchronized (this.random) {
+            return half + (long) (this.random.nextDouble() * (backoff - half));
+        }
+    }
+
+    /**
+     * @return the maximum number of times a request will be retried
+     */
+    public int getRetryCount() {
+        return this.retryCount;
+    }
+
+}
@@ -0,0 +1,735 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.RedirectException;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.TunnelRefusedException;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.client.ExchangeTimings;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.protocol.Pipelined;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncClientExchangeHandler} implementation
+ * that supports HTTP message pipelining and executes each pipelined request through
+ * {@link InternalClientExec} with its own {@link InternalState}, which makes
+ * routing via proxies and tunnels, cookie and authentication handling and redirects
+ * available to pipelined requests.
+ * <p>
+ * Requests can be submitted at any time until the handler is shut down and each
+ * request is completed individually. Requests are sent once the route has been
+ * established, up to the maximum pipeline depth. Requests that need to be
+ * executed again, for instance in response to an authentication challenge or
+ * a redirect to the same host, are queued up behind the pending ones. The
+ * connection is released once the handler has been shut down and all requests
+ * have completed.
+ * <p>
+ * If the connection gets closed while requests are awaiting a response,
+ * idempotent requests that can be repeated are re-issued over a new connection
+ * ahead of the pending ones, while the others fail with
+ * {@link ConnectionClosedException}.
+ * <p>
+ * Instances of this class are expected to be accessed by one thread at a time only.
+ * The {@link #submit(HttpAsyncRequestProducer, HttpAsyncResponseConsumer, ComposableFuture)},
+ * {@link #shutdown()} and {@link #cancel()} methods can be called concurrently by
+ * multiple threads.
+ */
+@Pipelined
+class DefaultPipeliningClientExchangeHandlerImpl extends AbstractClientExchangeHandler {
+
+    private static final ExchangeTimings.Phase[] CONNECTION_PHASES = {
+        ExchangeTimings.Phase.CONNECTION_REQUESTED,
+        ExchangeTimings.Phase.CONNECTION_ALLOCATED,
+        ExchangeTimings.Phase.ROUTE_COMPLETE
+    };
+
+    private final HttpHost target;
+    private final int maxPipelineDepth;
+    private final Queue<PipelinedRequest<?>> pendingQueue;
+    private final Queue<PipelinedRequest<?>> inflightQueue;
+    private final Queue<PipelinedRequest<?>> recoveryQueue;
+    private final Queue<HttpRequestWrapper> requestQueue;
+    private final HttpClientContext localContext;
+    private final BasicFuture<Void> resultFuture;
+    private final InternalClientExec exec;
+    private final AtomicBoolean started;
+    private final AtomicBoolean shutdown;
+    private final AtomicBoolean finished;
+
+    private volatile PipelinedRequest<?> outgoing;
+    private volatile PipelinedRequest<?> incoming;
+    private volatile HttpRequestWrapper incomingRequest;
+    private volatile boolean tunnelling;
+    private volatile int inflightCount;
+    private volatile int responseCount;
+    private volatile boolean stalled;
+
+    public DefaultPipeliningClientExchangeHandlerImpl(
+            final Log log,
+            final HttpHost target,
+            final int maxPipelineDepth,
+            final HttpClientContext localContext,
+            final BasicFuture<Void> resultFuture,
+            final NHttpClientConnectionManager connmgr,
+            final ConnectionReuseStrategy connReuseStrategy,
+            final ConnectionKeepAliveStrategy keepaliveStrategy,
+            final InternalClientExec exec) {
+        super(log, localContext, resultFuture, connmgr, connReuseStrategy, keepaliveStrategy);
+        Args.notNull(target, "HTTP target");
+        Args.positive(maxPipelineDepth, "Max pipeline depth");
+        this.target = target;
+        this.maxPipelineDepth = maxPipelineDepth;
+        this.pendingQueue = new ConcurrentLinkedQueue<PipelinedRequest<?>>();
+        this.inflightQueue = new ConcurrentLinkedQueue<PipelinedRequest<?>>();
+        this.recoveryQueue = new ConcurrentLinkedQueue<PipelinedRequest<?>>();
+        this.requestQueue = new ConcurrentLinkedQueue<HttpRequestWrapper>();
+        this.localContext = localContext;
+        this.resultFuture = resultFuture;
+        this.exec = exec;
+        this.started = new AtomicBoolean(false);
+        this.shutdown = new AtomicBoolean(false);
+        this.finished = new AtomicBoolean(false);
+    }
+
+    HttpHost getTarget() {
+        return this.target;
+    }
+
+    boolean isShutdown() {
+        return this.shutdown.get() || isClosed();
+    }
+
+    <T> void submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final ComposableFuture<T> future) {
+        submit(requestProducer, responseConsumer, this.localContext, future);
+    }
+
+    /**
+     * Submits a request to be executed in its own context rather than
+     * that of the exchange.
+     */
+    <T> void submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpClientContext context,
+            final ComposableFuture<T> future) {
+        Args.notNull(requestProducer, "Request producer");
+        Args.notNull(responseConsumer, "Response consumer");
+        Asserts.check(!isShutdown(), "Pipelining session has been closed");
+        final PipelinedRequest<T> request = new PipelinedRequest<T>(
+                new InternalState(getId(), requestProducer, responseConsumer, context),
+                requestProducer, responseConsumer, future);
+        context.setAttribute(ExchangeTimings.EXCHANGE_TIMINGS, request.timings);
+        future.setDependency(request);
+        if (this.started.compareAndSet(false, true)) {
+            // The route of the first request determines that of the session
+            try {
+                prepare(request);
+            } catch (final Exception ex) {
+                request.failed(ex);
+                failed(ex);
+                return;
+            }
+            this.pendingQueue.add(request);
+            requestConnection();
+        } else {
+            this.pendingQueue.add(request);
+            if (isClosed()) {
+                // Raced with session shutdown: the outstanding requests may
+                // already have been failed without this one
+                this.pendingQueue.remove(request);
+                request.failed(new IllegalStateException("Pipelining session has been closed"));
+                return;
+            }
+            final NHttpClientConnection localConn = getConnection();
+            if (localConn != null) {
+                localConn.requestOutput();
+            }
+        }
+    }
+
+    void shutdown() {
+        if (this.shutdown.compareAndSet(false, true)) {
+            endIfDone();
+        }
+    }
+
+    /**
+     * Ends the exchange once it has been shut down and no longer has outstanding
+     * requests, or discards the connection if all the outstanding requests have
+     * been cancelled.
+     */
+    private boolean endIfDone() {
+        if (!this.shutdown.get()) {
+            return false;
+        }
+        if (isIdle()) {
+            finish();
+            return true;
+        }
+        if (allCancelled()) {
+            cancel();
+            return true;
+        }
+        return false;
+    }
+
+    private void prepare(final PipelinedRequest<?> request) throws IOException, HttpException {
+        final HttpRoute route = getRoute();
+        final HttpRequest original = request.requestProducer.generateRequest();
+        if (original instanceof HttpExecutionAware) {
+            ((HttpExecutionAware) original).setCancellable(request);
+        }
+        this.exec.prepare(this.target, original, request.state, this);
+        final HttpRoute newRoute = getRoute();
+        if (route != null && !route.equals(newRoute)) {
+            setRoute(route);
+            throw new ProtocolException("Pipelined requests must share the same route: " +
+                    route + " != " + newRoute);
+        }
+        request.prepared = true;
+    }
+
+    private boolean isIdle() {
+        return this.pendingQueue.isEmpty() && this.inflightQueue.isEmpty()
+                && this.recoveryQueue.isEmpty() && this.outgoing == null && this.incoming == null;
+    }
+
+    private boolean allCancelled() {
+        final PipelinedRequest<?> current = this.incoming;
+        if (current != null && !current.cancelled) {
+            return false;
+        }
+        for (final PipelinedRequest<?> request: this.pendingQueue) {
+            if (!request.cancelled) {
+                return false;
+            }
+        }
+        for (final PipelinedRequest<?> request: this.recoveryQueue) {
+            if (!request.cancelled) {
+                return false;
+            }
+        }
+        for (final PipelinedRequest<?> request: this.inflightQueue) {
+            if (!request.cancelled) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void requestCancelled(final PipelinedRequest<?> request) {
+        request.cancelled = true;
+        endIfDone();
+    }
+
+    private void finish() {
+        if (this.finished.compareAndSet(false, true)) {
+            try {
+                markCompleted();
+                releaseConnection();
+                this.resultFuture.completed(null);
+            } finally {
+                close();
+            }
+        }
+    }
+
+    private void forEachOutstanding(final Callback callback) {
+        final PipelinedRequest<?> current = this.incoming;
+        if (current != null) {
+            callback.execute(current);
+        }
+        for (final PipelinedRequest<?> request: this.inflightQueue) {
+            if (request != current) {
+                callback.execute(request);
+            }
+        }
+        for (final PipelinedRequest<?> request: this.recoveryQueue) {
+            if (!this.inflightQueue.contains(request)) {
+                callback.execute(request);
+            }
+        }
+        for (final PipelinedRequest<?> request: this.pendingQueue) {
+            if (!this.inflightQueue.contains(request)) {
+                callback.execute(request);
+            }
+        }
+    }
+
+    @Override
+    void releaseResources() {
+        forEachOutstanding(new Callback() {
+
+            @Override
+            public void execute(final PipelinedRequest<?> request) {
+                request.releaseResources();
+            }
+
+        });
+        this.pendingQueue.clear();
+        this.inflightQueue.clear();
+        this.recoveryQueue.clear();
+        this.requestQueue.clear();
+    }
+
+    @Override
+    void executionFailed(final Exception ex) {
+        forEachOutstanding(new Callback() {
+
+            @Override
+            public void execute(final PipelinedRequest<?> request) {
+                request.failed(ex);
+            }
+
+        });
+    }
+
+    @Override
+    boolean executionCancelled() {
+        final boolean[] cancelled = new boolean[] { false };
+        forEachOutstanding(new Callback() {
+
+            @Override
+            public void execute(final PipelinedRequest<?> request) {
+                if (request.cancelExecution()) {
+                    cancelled[0] = true;
+                }
+            }
+
+        });
+        this.resultFuture.cancel();
+        return cancelled[0];
+    }
+
+    @Override
+    public HttpRequest generateRequest() throws IOException, HttpException {
+        if (this.tunnelling || this.inflightCount >= this.maxPipelineDepth) {
+            return null;
+        }
+        Queue<PipelinedRequest<?>> queue;
+        PipelinedRequest<?> request;
+        for (;;) {
+            // Requests recovered from a closed connection go first
+            queue = this.recoveryQueue.isEmpty() ? this.pendingQueue : this.recoveryQueue;
+            request = queue.peek();
+            if (request == null) {
+                return null;
+            }
+            if (request.cancelled) {
+                queue.remove(request);
+                request.cancelExecution();
+                request.releaseResources();
+                continue;
+            }
+            if (!request.prepared) {
+                try {
+                    prepare(request);
+                } catch (final HttpException ex) {
+                    queue.remove(request);
+                    request.failed(ex);
+                    continue;
+                } catch (final IOException ex) {
+                    queue.remove(request);
+                    request.failed(ex);
+                    continue;
+                }
+            }
+            break;
+        }
+        Asserts.check(this.outgoing == null, "Inconsistent state: request is being sent");
+        setCurrentRequest(null);
+        this.exec.generateRequest(request.state, this);
+        final HttpRequestWrapper currentRequest = getCurrentRequest();
+        if (isRouteEstablished()) {
+            queue.remove(request);
+        } else {
+            this.tunnelling = true;
+        }
+        this.outgoing = request;
+        this.inflightQueue.add(request);
+        this.inflightCount++;
+        this.requestQueue.add(currentRequest);
+        markPhase(request, ExchangeTimings.Phase.REQUEST_GENERATED);
+        return currentRequest;
+    }
+
+    @Override
+    public void produceContent(
+            final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+        final PipelinedRequest<?> request = this.outgoing;
+        Asserts.check(request != null, "Inconsistent state: request is null");
+        this.exec.produceContent(request.state, encoder, ioctrl);
+    }
+
+    @Override
+    public void requestCompleted() {
+        final PipelinedRequest<?> request = this.outgoing;
+        Asserts.check(request != null, "Inconsistent state: request is null");
+        markPhase(request, ExchangeTimings.Phase.REQUEST_COMPLETED);
+        this.outgoing = null;
+        this.exec.requestCompleted(request.state, this);
+    }
+
+    @Override
+    public void responseReceived(
+            final HttpResponse response) throws IOException, HttpException {
+        Asserts.check(this.incoming == null, "Inconsistent state: response is being received");
+        final PipelinedRequest<?> request = this.inflightQueue.peek();
+        Asserts.check(request != null, "Inconsistent state: request queue is empty");
+        markPhase(request, ExchangeTimings.Phase.RESPONSE_RECEIVED);
+        final HttpRequestWrapper currentRequest = this.requestQueue.poll();
+        this.incoming = request;
+        this.incomingRequest = currentRequest;
+        this.inflightQueue.remove();
+        this.inflightCount--;
+        this.responseCount++;
+        setCurrentRequest(currentRequest);
+        if (request.cancelled) {
+            setCurrentResponse(response);
+        } else {
+            this.exec.responseReceived(response, request.state, this);
+        }
+    }
+
+    @Override
+    public void consumeContent(
+            final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+        final PipelinedRequest<?> request = this.incoming;
+        Asserts.check(request != null, "Inconsistent state: response is null");
+        if (request.cancelled) {
+            final ByteBuffer tmpbuf = request.state.getTmpbuf();
+            tmpbuf.clear();
+            decoder.read(tmpbuf);
+        } else {
+            this.exec.consumeContent(request.state, decoder, ioctrl);
+        }
+    }
+
+    @Override
+    public void responseCompleted() throws IOException, HttpException {
+        final PipelinedRequest<?> request = this.incoming;
+        Asserts.check(request != null, "Inconsistent state: response is null");
+        markPhase(request, ExchangeTimings.Phase.RESPONSE_COMPLETED);
+        final InternalState state = request.state;
+        final boolean routeEstablished = isRouteEstablished();
+        Exception redirectFailure = null;
+        if (state.getRedirect() != null) {
+            redirectFailure = checkRedirect(state.getRedirect());
+            if (redirectFailure != null) {
+                state.setRedirect(null);
+            }
+        }
+        setCurrentRequest(this.incomingRequest);
+        if (request.cancelled) {
+            if (!manageConnectionPersistence()) {
+                releaseConnection();
+            }
+            setCurrentResponse(null);
+        } else {
+            this.exec.responseCompleted(state, this);
+        }
+        this.incoming = null;
+        this.incomingRequest = null;
+
+        if (request.cancelled) {
+            request.cancelExecution();
+            request.releaseResources();
+            if (!routeEstablished) {
+                this.tunnelling = false;
+                discardConnection();
+            }
+        } else if (redirectFailure != null) {
+            request.failed(redirectFailure);
+        } else if (state.getFinalResponse() != null) {
+            if (!routeEstablished) {
+                throw new TunnelRefusedException("CONNECT refused by proxy: " +
+                        state.getFinalResponse().getStatusLine(), state.getFinalResponse());
+            }
+            request.completed();
+        } else if (routeEstablished) {
+            // Authentication challenge or redirect; send the request again
+            this.pendingQueue.add(request);
+        } else {
+            this.tunnelling = false;
+        }
+
+        if (endIfDone()) {
+            return;
+        }
+        final NHttpClientConnection localConn = getConnection();
+        if (localConn != null && localConn.isOpen()) {
+            localConn.requestOutput();
+        } else if (this.inflightQueue.isEmpty() && this.outgoing == null) {
+            this.tunnelling = false;
+            releaseConnection();
+            requestConnection();
+        } else if (!recoverUnanswered()) {
+            failed(new ConnectionClosedException("Connection closed"));
+        }
+    }
+
+    /**
+     * Re-issues idempotent requests that have been sent but not responded to
+     * over a new connection and fails the others, including the one whose
+     * response is being received, if any. The recovery is given up on if the
+     * tunnel to the target has not been established yet or if the previous
+     * connection got closed without a single response either.
+     *
+     * @return {@code true} if the connection closure has been dealt with,
+     *   {@code false} if the execution should fail.
+     */
+    private boolean recoverUnanswered() {
+        if (isClosed() || !isRouteEstablished()) {
+            return false;
+        }
+        if (this.stalled && this.responseCount == 0) {
+            return false;
+        }
+        discardConnection();
+        final ConnectionClosedException cause = new ConnectionClosedException("Connection closed");
+        final PipelinedRequest<?> current = this.incoming;
+        this.incoming = null;
+        this.incomingRequest = null;
+        this.outgoing = null;
+        if (current != null) {
+            current.failed(cause);
+        }
+        int recovered = 0;
+        PipelinedRequest<?> request;
+        while ((request = this.inflightQueue.poll()) != null) {
+            if (request.cancelled) {
+                request.cancelExecution();
+                request.releaseResources();
+            } else if (isRecoverable(request)) {
+                this.recoveryQueue.add(request);
+                recovered++;
+            } else {
+                request.failed(cause);
+            }
+        }
+        this.inflightCount = 0;
+        this.requestQueue.clear();
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + getId() + "] Connection closed; re-issuing " +
+                    recovered + " unanswered request(s)");
+        }
+        this.stalled = this.responseCount == 0;
+        this.responseCount = 0;
+        this.tunnelling = false;
+        if (!endIfDone()) {
+            requestConnection();
+        }
+        return true;
+    }
+
+    private static boolean isRecoverable(final PipelinedRequest<?> request) {
+        final HttpRequest mainRequest = request.state.getMainRequest();
+        return mainRequest != null
+                && DefaultHttpAsyncRequestRetryHandler.isIdempotent(mainRequest)
+                && (request.requestProducer.isRepeatable() || !request.state.isRequestContentProduced());
+    }
+
+    private RedirectException checkRedirect(final HttpUriRequest redirect) {
+        final HttpHost newTarget = URIUtils.extractHost(redirect.getURI());
+        final HttpHost routeTarget = getRoute().getTargetHost();
+        if (newTarget == null
+                || !routeTarget.getHostName().equalsIgnoreCase(newTarget.getHostName())
+                || !routeTarget.getSchemeName().equalsIgnoreCase(newTarget.getSchemeName())
+                || (newTarget.getPort() >= 0 && newTarget.getPort() != routeTarget.getPort())) {
+            return new RedirectException("Pipelined request redirected to another host: " +
+                    redirect.getURI());
+        }
+        return null;
+    }
+
+    @Override
+    public void inputTerminated() {
+        if (!isCompleted()) {
+            if (this.shutdown.get() && isIdle()) {
+                finish();
+            } else if (this.inflightQueue.isEmpty() && this.outgoing == null && this.incoming == null) {
+                this.tunnelling = false;
+                requestConnection();
+            } else if (!recoverUnanswered()) {
+                failed(new ConnectionClosedException("Connection closed"));
+            }
+        } else {
+            close();
+        }
+    }
+
+    public void abortConnection() {
+        discardConnection();
+    }
+
+    /**
+     * Marks the phase on the timings of the request as well as those of the exchange
+     * and has the request inherit the phases of the connection it is executed over.
+     */
+    private void markPhase(final PipelinedRequest<?> request, final ExchangeTimings.Phase phase) {
+        markPhase(phase);
+        final ExchangeTimings connTimings = getTimings();
+        for (final ExchangeTimings.Phase connPhase: CONNECTION_PHASES) {
+            if (connTimings.isReached(connPhase) && !request.timings.isReached(connPhase)) {
+                request.timings.mark(connPhase, connTimings.getNanoTime(connPhase));
+            }
+        }
+        request.timings.mark(phase);
+    }
+
+    interface Callback {
+
+        void execute(PipelinedRequest<?> request);
+
+    }
+
+    class PipelinedRequest<T> implements Cancellable {
+
+        final InternalState state;
+        final HttpAsyncRequestProducer requestProducer;
+        final HttpAsyncResponseConsumer<T> responseConsumer;
+        final BasicFuture<T> future;
+        final ExchangeTimings timings;
+
+        final AtomicBoolean done;
+
+        volatile boolean prepared;
+        volatile boolean cancelled;
+
+        PipelinedRequest(
+                final InternalState state,
+                final HttpAsyncRequestProducer requestProducer,
+                final HttpAsyncResponseConsumer<T> responseConsumer,
+                final BasicFuture<T> future) {
+            this.state = state;
+            this.requestProducer = requestProducer;
+            this.responseConsumer = responseConsumer;
+            this.future = future;
+            this.timings = new ExchangeTimings();
+            this.done = new AtomicBoolean(false);
+        }
+
+        void completed() {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                final T result = this.responseConsumer.getResult();
+                final Exception ex = this.responseConsumer.getException();
+                if (ex == null) {
+                    this.future.completed(result);
+                } else {
+                    this.future.failed(ex);
+                }
+            } finally {
+                releaseResources();
+            }
+        }
+
+        void failed(final Exception ex) {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                this.requestProducer.failed(ex);
+                this.responseConsumer.failed(ex);
+            } finally {
+                try {
+                    releaseResources();
+                } finally {
+                    this.future.failed(ex);
+                }
+            }
+        }
+
+        boolean cancelExecution() {
+            try {
+                return this.responseConsumer.cancel();
+            } finally {
+                this.future.cancel();
+            }
+        }
+
+        void releaseResources() {
+            try {
+                this.requestProducer.close();
+            } catch (final IOException ex) {
+                log.debug("I/O error closing request producer", ex);
+            }
+            try {
+                this.responseConsumer.close();
+            } catch (final IOException ex) {
+                log.debug("I/O error closing response consumer", ex);
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!this.cancelled) {
+                requestCancelled(this);
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+}
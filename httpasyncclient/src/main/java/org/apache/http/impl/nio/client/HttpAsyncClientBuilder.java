@@ -29,13 +29,21 @@ package org.apache.http.impl.nio.client;
 
 import java.net.ProxySelector;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.logging.impl.NoOpLog;
 import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
@@ -63,6 +71,7 @@ import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.DnsResolver;
 import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.conn.ssl.DefaultHostnameVerifier;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
@@ -91,9 +100,13 @@ import org.apache.http.impl.cookie.DefaultCookieSpecProvider;
 import org.apache.http.impl.cookie.IgnoreSpecProvider;
 import org.apache.http.impl.cookie.NetscapeDraftSpecProvider;
 import org.apache.http.impl.cookie.RFC6265CookieSpecProvider;
+import org.apache.http.impl.nio.conn.DispatcherAffinity;
+import org.apache.http.impl.nio.conn.PoolLockingPolicy;
 import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.client.HttpAsyncRequestRetryHandler;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.conn.NoopIOSessionStrategy;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
@@ -106,6 +119,7 @@ import org.apache.http.protocol.RequestContent;
 import org.apache.http.protocol.RequestTargetHost;
 import org.apache.http.protocol.RequestUserAgent;
 import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.Args;
 import org.apache.http.util.TextUtils;
 import org.apache.http.util.VersionInfo;
 
@@ -152,6 +166,8 @@ public class HttpAsyncClientBuilder {
     private SchemeIOSessionStrategy sslStrategy;
     private HostnameVerifier hostnameVerifier;
     private SSLContext sslcontext;
+    private int sslSessionCacheSize = -1;
+    private int sslSessionTimeout = -1;
     private ConnectionReuseStrategy reuseStrategy;
     private ConnectionKeepAliveStrategy keepAliveStrategy;
     private AuthenticationStrategy targetAuthStrategy;
@@ -187,9 +203,27 @@ public class HttpAsyncClientBuilder {
     private boolean cookieManagementDisabled;
     private boolean authCachingDisabled;
     private boolean connectionStateDisabled;
+    private boolean dynamicLoggingDisabled;
 
     private int maxConnTotal = 0;
     private int maxConnPerRoute = 0;
+    private int dispatcherCount = 0;
+
+    private DispatcherAffinity dispatcherAffinity;
+
+    private ConnPoolMetricsListener connPoolMetricsListener;
+    private PoolLockingPolicy poolLockingPolicy;
+    private boolean evictExpiredConnections;
+    private long maxIdleTime;
+    private TimeUnit maxIdleTimeUnit;
+    private Integer validateAfterInactivity;
+    private Map<HttpRoute, Integer> prewarmRoutes;
+    private Executor callbackExecutor;
+    private boolean callbackOffloading;
+    private SlowCallbackMonitor slowCallbackMonitor;
+    private HttpAsyncRequestRetryHandler retryHandler;
+    private RetryBudget retryBudget;
+    private int autoPipeliningDepth;
 
     public static HttpAsyncClientBuilder create() {
         return new HttpAsyncClientBuilder();
@@ -272,6 +306,205 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Makes the connection manager evict expired connections from the pool
+     * as soon as they expire.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see PoolingNHttpClientConnectionManager#setEvictExpiredConnections(boolean)
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder evictExpiredConnections() {
+        this.evictExpiredConnections = true;
+        return this;
+    }
+
+    /**
+     * Makes the connection manager evict connections from the pool once they
+     * have been idle longer than the given time.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see PoolingNHttpClientConnectionManager#setMaxIdleTime(long, TimeUnit)
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder evictIdleConnections(final long maxIdleTime, final TimeUnit maxIdleTimeUnit) {
+        this.maxIdleTime = maxIdleTime;
+        this.maxIdleTimeUnit = maxIdleTimeUnit;
+        return this;
+    }
+
+    /**
+     * Defines the period of inactivity in milliseconds after which pooled
+     * connections are validated before being leased. Non-positive value
+     * disables validation.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see PoolingNHttpClientConnectionManager#setValidateAfterInactivity(int)
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setValidateAfterInactivity(final int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+        return this;
+    }
+
+    /**
+     * Assigns {@link PoolLockingPolicy} of the connection pool. Defaults to
+     * {@link PoolLockingPolicy#GLOBAL}.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setPoolLockingPolicy(final PoolLockingPolicy poolLockingPolicy) {
+        this.poolLockingPolicy = poolLockingPolicy;
+        return this;
+    }
+
+    /**
+     * Assigns {@link ConnPoolMetricsListener} instance to be notified of
+     * connection lease wait, connect and TLS/SSL handshake times.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see org.apache.http.impl.nio.conn.HistogramConnPoolMetrics
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setConnPoolMetricsListener(
+            final ConnPoolMetricsListener connPoolMetricsListener) {
+        this.connPoolMetricsListener = connPoolMetricsListener;
+        return this;
+    }
+
+    /**
+     * Adds a route the client is to open {@code count} connections to as soon as
+     * it is started. Connection setup including the TLS handshake for secure routes
+     * is done in the background; failures are logged and otherwise ignored.
+     * <p>
+     * Please note this value has no effect if a connection manager other than
+     * {@link PoolingNHttpClientConnectionManager} is assigned with the {@link
+     * #setConnectionManager(org.apache.http.nio.conn.NHttpClientConnectionManager)}
+     * method.
+     *
+     * @see PoolingNHttpClientConnectionManager#prewarm(HttpRoute, int, long,
+     *   java.util.concurrent.TimeUnit, org.apache.http.concurrent.FutureCallback)
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder addPrewarmRoute(final HttpRoute route, final int count) {
+        Args.notNull(route, "HTTP route");
+        Args.positive(count, "Connection count");
+        Args.check(!route.isTunnelled(), "Tunnelled routes cannot be pre-warmed");
+        if (this.prewarmRoutes == null) {
+            this.prewarmRoutes = new LinkedHashMap<HttpRoute, Integer>();
+        }
+        this.prewarmRoutes.put(route, Integer.valueOf(count));
+        return this;
+    }
+
+    /**
+     * Assigns {@link Executor} instance to be used for execution of request
+     * completion callbacks. By default callbacks are executed by the I/O dispatch
+     * thread that completed the request, which stalls all other connections handled
+     * by the same dispatcher for the duration of the callback.
+     * <p>
+     * Please note the executor is not shut down when the client is closed.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setCallbackExecutor(final Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    /**
+     * Makes the client execute request completion callbacks using its own
+     * {@link BatchingCallbackExecutor} with default settings, which is shut down
+     * when the client is closed.
+     * <p>
+     * Please note this value can be overridden by the {@link
+     * #setCallbackExecutor(Executor)} method.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder offloadCallbacks() {
+        this.callbackOffloading = true;
+        return this;
+    }
+
+    /**
+     * Assigns {@link SlowCallbackMonitor} instance to keep track of request
+     * completion callbacks executed by I/O dispatch threads that exceeded
+     * the time budget of the monitor. Has no effect on callbacks executed
+     * by a callback executor.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setSlowCallbackMonitor(
+            final SlowCallbackMonitor slowCallbackMonitor) {
+        this.slowCallbackMonitor = slowCallbackMonitor;
+        return this;
+    }
+
+    /**
+     * Assigns {@link HttpAsyncRequestRetryHandler} instance to retry requests
+     * failed with an I/O error. Requests are not retried by default.
+     *
+     * @see DefaultHttpAsyncRequestRetryHandler
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setRetryHandler(
+            final HttpAsyncRequestRetryHandler retryHandler) {
+        this.retryHandler = retryHandler;
+        return this;
+    }
+
+    /**
+     * Assigns {@link RetryBudget} instance shared by all requests executed
+     * by the client. Has no effect unless a retry handler is set. Defaults
+     * to a budget of one retry per five requests.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setRetryBudget(final RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * Enables automatic pipelining of individual requests. Once the connection
+     * pool has run out of connections for a route, requests to that route are
+     * pipelined over connections already open to it, up to the given number of
+     * outstanding requests per connection, instead of waiting for a connection
+     * of their own. Connection pool saturation can only be detected with
+     * connection managers that implement {@link org.apache.http.pool.ConnPoolControl}.
+     * <p>
+     * Pipelined requests are not retried by the retry handler. Unanswered
+     * idempotent requests are re-issued if the connection gets closed, though.
+     * Pipelined requests redirected to a different host fail with
+     * {@link org.apache.http.client.RedirectException}. Requests with a request
+     * configuration of their own and requests executed in a context with a user
+     * token are never pipelined.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder enableAutoPipelining(final int maxPipelineDepth) {
+        this.autoPipeliningDepth = maxPipelineDepth;
+        return this;
+    }
+
     /**
      * Assigns {@link ConnectionReuseStrategy} instance.
      */
@@ -334,6 +567,8 @@ public class HttpAsyncClientBuilder {
      * <p>
      * Please note this value can be overridden by the {@link #setConnectionManager(
      *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see org.apache.http.impl.nio.conn.CachingDnsResolver
      */
     public final HttpAsyncClientBuilder setDnsResolver(final DnsResolver dnsResolver){
         this.dnsResolver = dnsResolver;
@@ -512,6 +747,48 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Assigns the maximum number of TLS/SSL client sessions kept for resumption
+     * by the SSL context. {@code 0} means no limit.
+     * <p>
+     * Resumed sessions complete with an abbreviated handshake when new connections
+     * to the same route are opened. Sessions are cached per peer host and port.
+     * <p>
+     * The setting only applies to the SSL context the builder creates itself. It is
+     * not applied to an {@link SSLContext} assigned with {@link #setSSLContext(SSLContext)}
+     * nor to the JVM wide default context used with {@link #useSystemProperties()},
+     * as those may be shared with other clients. Configure the client session
+     * context of such an SSL context directly instead.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} and the {@link #setSSLStrategy(
+     *   org.apache.http.nio.conn.SchemeIOSessionStrategy)} methods.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setSSLSessionCacheSize(final int sslSessionCacheSize) {
+        this.sslSessionCacheSize = Args.notNegative(sslSessionCacheSize, "SSL session cache size");
+        return this;
+    }
+
+    /**
+     * Assigns the time in seconds cached TLS/SSL client sessions remain eligible
+     * for resumption. {@code 0} means no limit.
+     * <p>
+     * As with {@link #setSSLSessionCacheSize(int)}, the setting only applies to
+     * the SSL context the builder creates itself.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} and the {@link #setSSLStrategy(
+     *   org.apache.http.nio.conn.SchemeIOSessionStrategy)} methods.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setSSLSessionTimeout(final int sslSessionTimeout) {
+        this.sslSessionTimeout = Args.notNegative(sslSessionTimeout, "SSL session timeout");
+        return this;
+    }
+
     /**
      * Assigns {@link X509HostnameVerifier} instance.
      * <p>
@@ -563,6 +840,41 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Assigns the number of I/O dispatcher threads. Overrides
+     * {@link IOReactorConfig#getIoThreadCount()} of the default I/O reactor config.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setDispatcherCount(final int dispatcherCount) {
+        this.dispatcherCount = dispatcherCount;
+        return this;
+    }
+
+    /**
+     * Assigns {@link DispatcherAffinity} policy. If set, the client runs one I/O reactor
+     * per I/O dispatcher and pins connections to dispatchers according to the policy.
+     * Not set by default, in which case connections are distributed among dispatchers
+     * of a single I/O reactor regardless of their route.
+     * <p>
+     * The threads running the I/O reactors and their dispatchers are created with
+     * the {@link #setThreadFactory(ThreadFactory) thread factory}, if assigned.
+     * <p>
+     * Please note this value can be overridden by the {@link #setConnectionManager(
+     *   org.apache.http.nio.conn.NHttpClientConnectionManager)} method.
+     *
+     * @see org.apache.http.impl.nio.conn.AffinityConnectingIOReactor
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder setDispatcherAffinity(final DispatcherAffinity dispatcherAffinity) {
+        this.dispatcherAffinity = dispatcherAffinity;
+        return this;
+    }
+
     /**
      * Assigns default {@link ConnectionConfig}.
      * <p>
@@ -632,6 +944,27 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Resolves whether or not debug logging is enabled once when the client is
+     * built instead of consulting the logging framework in the course of every
+     * request execution. Changes of the log level at runtime will not be picked up
+     * by the client. Connection pool statistics will not be included in the debug
+     * log of the connection manager created by this builder, which otherwise
+     * requires acquiring the pool lock several times per request.
+     * <p>
+     * Please note pool statistics logging can be overridden by the {@link
+     * #setConnectionManager(org.apache.http.nio.conn.NHttpClientConnectionManager)}
+     * method.
+     *
+     * @see PoolingNHttpClientConnectionManager#setPoolStatsLogging(boolean)
+     *
+     * @since 4.2
+     */
+    public final HttpAsyncClientBuilder disableDynamicLogging() {
+        dynamicLoggingDisabled = true;
+        return this;
+    }
+
     /**
      * Use system properties when creating and configuring default
      * implementations.
@@ -641,6 +974,11 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    private static Log resolveLog(final Class<?> clazz) {
+        final Log log = LogFactory.getLog(clazz);
+        return log.isDebugEnabled() ? log : new NoOpLog();
+    }
+
     private static String[] split(final String s) {
         if (TextUtils.isBlank(s)) {
             return null;
@@ -665,6 +1003,16 @@ public class HttpAsyncClientBuilder {
                         sslcontext = SSLContexts.createSystemDefault();
                     } else {
                         sslcontext = SSLContexts.createDefault();
+                        // Session settings must not leak into contexts shared with others
+                        final SSLSessionContext sessionContext = sslcontext.getClientSessionContext();
+                        if (sessionContext != null) {
+                            if (sslSessionCacheSize >= 0) {
+                                sessionContext.setSessionCacheSize(sslSessionCacheSize);
+                            }
+                            if (sslSessionTimeout >= 0) {
+                                sessionContext.setSessionTimeout(sslSessionTimeout);
+                            }
+                        }
                     }
                 }
                 final String[] supportedProtocols = systemProperties ? split(
@@ -678,8 +1026,15 @@ public class HttpAsyncClientBuilder {
                 sslStrategy = new SSLIOSessionStrategy(
                         sslcontext, supportedProtocols, supportedCipherSuites, hostnameVerifier);
             }
+            IOReactorConfig ioReactorConfig = defaultIOReactorConfig != null ?
+                    defaultIOReactorConfig : IOReactorConfig.DEFAULT;
+            if (dispatcherCount > 0) {
+                ioReactorConfig = IOReactorConfig.copy(ioReactorConfig)
+                        .setIoThreadCount(dispatcherCount)
+                        .build();
+            }
             final ConnectingIOReactor ioreactor = IOReactorUtils.create(
-                defaultIOReactorConfig != null ? defaultIOReactorConfig : IOReactorConfig.DEFAULT);
+                    ioReactorConfig, dispatcherAffinity, this.threadFactory);
             final PoolingNHttpClientConnectionManager poolingmgr = new PoolingNHttpClientConnectionManager(
                     ioreactor,
                     null,
@@ -687,10 +1042,29 @@ public class HttpAsyncClientBuilder {
                         .register("http", NoopIOSessionStrategy.INSTANCE)
                         .register("https", sslStrategy)
                         .build(),
-                    this.dnsResolver);
+                    null,
+                    this.dnsResolver,
+                    -1, TimeUnit.MILLISECONDS,
+                    this.poolLockingPolicy);
             if (defaultConnectionConfig != null) {
                 poolingmgr.setDefaultConnectionConfig(defaultConnectionConfig);
             }
+            if (connPoolMetricsListener != null) {
+                poolingmgr.setMetricsListener(connPoolMetricsListener);
+            }
+            if (dynamicLoggingDisabled) {
+                poolingmgr.setPoolStatsLogging(false);
+            }
+            if (evictExpiredConnections) {
+                poolingmgr.setEvictExpiredConnections(true);
+            }
+            if (maxIdleTime > 0) {
+                poolingmgr.setMaxIdleTime(maxIdleTime,
+                        maxIdleTimeUnit != null ? maxIdleTimeUnit : TimeUnit.MILLISECONDS);
+            }
+            if (validateAfterInactivity != null) {
+                poolingmgr.setValidateAfterInactivity(validateAfterInactivity.intValue());
+            }
             if (systemProperties) {
                 String s = System.getProperty("http.keepAlive", "true");
                 if ("true".equalsIgnoreCase(s)) {
@@ -862,6 +1236,7 @@ public class HttpAsyncClientBuilder {
         }
 
         final MainClientExec exec = new MainClientExec(
+            dynamicLoggingDisabled ? resolveLog(MainClientExec.class) : null,
             httpprocessor,
             routePlanner,
             redirectStrategy,
@@ -881,6 +1256,36 @@ public class HttpAsyncClientBuilder {
                 eventHandler = new HttpAsyncRequestExecutor();
             }
         }
+        InternalCallbackDispatcher callbackDispatcher = null;
+        if (this.callbackExecutor != null) {
+            callbackDispatcher = new InternalCallbackDispatcher(
+                    this.callbackExecutor, this.slowCallbackMonitor, false);
+        } else if (this.callbackOffloading) {
+            callbackDispatcher = new InternalCallbackDispatcher(
+                    new BatchingCallbackExecutor(), this.slowCallbackMonitor, true);
+        } else if (this.slowCallbackMonitor != null) {
+            callbackDispatcher = new InternalCallbackDispatcher(
+                    null, this.slowCallbackMonitor, false);
+        }
+        InternalRetryExecutor retryExecutor = null;
+        if (this.retryHandler != null) {
+            retryExecutor = new InternalRetryExecutor(
+                    this.retryHandler,
+                    this.retryBudget != null ? this.retryBudget : new RetryBudget(),
+                    this.threadFactory);
+        }
+        InternalAutoPipeliner autoPipeliner = null;
+        if (this.autoPipeliningDepth > 0) {
+            autoPipeliner = new InternalAutoPipeliner(
+                    dynamicLoggingDisabled ? resolveLog(InternalAutoPipeliner.class) :
+                        LogFactory.getLog(InternalAutoPipeliner.class),
+                    connManager,
+                    reuseStrategy,
+                    keepAliveStrategy,
+                    exec,
+                    routePlanner,
+                    this.autoPipeliningDepth);
+        }
         return new InternalHttpAsyncClient(
             connManager,
             reuseStrategy,
@@ -892,7 +1297,25 @@ public class HttpAsyncClientBuilder {
             authSchemeRegistry,
             defaultCookieStore,
             defaultCredentialsProvider,
-            defaultRequestConfig);
+            defaultRequestConfig,
+            prewarmRoutes != null ? new LinkedHashMap<HttpRoute, Integer>(prewarmRoutes) : null,
+            callbackDispatcher,
+            retryExecutor,
+            autoPipeliner,
+            dynamicLoggingDisabled ? resolveLog(InternalHttpAsyncClient.class) : null);
+    }
+
+    /**
+     * Builds a client that, in addition to regular request execution, can pipeline
+     * a sequence of requests to the same host over a single connection. Pipelined
+     * requests are subject to the same routing, cookie, authentication and redirect
+     * handling as requests executed individually; redirects to a different host fail
+     * the sequence.
+     *
+     * @since 4.2
+     */
+    public CloseableHttpPipeliningClient buildPipelining() {
+        return (CloseableHttpPipeliningClient) build();
     }
 
 }
@@ -174,4 +174,36 @@ public class HttpAsyncClients {
                 .build();
     }
 
+    /**
+     * Creates {@link CloseableHttpPipeliningClient} instance that supports pipelined request
+     * execution. This client does not support authentication and automatic redirects.
+     * <p>
+     * Individual requests executed by this client are automatically pipelined over
+     * connections already open to the same route once the connection manager has
+     * run out of connections for that route, up to the given number of outstanding
+     * requests per connection. This reduces the number of connections and the time
+     * spent waiting for a connection under bursts of requests.
+     * <p>
+     * Please note that clients with a shared connection manager make no attempts to control
+     * its life cycle and dealocation of resources. It is a responibility of the caller to
+     * ensure that the shared connection manager is properly started and shut down when no
+     * longer needed.
+     *
+     * @param maxPipelineDepth maximum number of outstanding requests per pipelined connection.
+     *
+     * @since 4.2
+     */
+    public static CloseableHttpPipeliningClient createAutoPipelining(
+            final NHttpClientConnectionManager connManager,
+            final boolean shared,
+            final int maxPipelineDepth) {
+        Args.notNull(connManager, "Connection manager");
+        Args.positive(maxPipelineDepth, "Max pipeline depth");
+        return MinimalHttpAsyncClientBuilder.create()
+                .setConnectionManager(connManager)
+                .setConnectionManagerShared(shared)
+                .enableAutoPipelining(maxPipelineDepth)
+                .build();
+    }
+
 }
@@ -26,6 +26,10 @@
  */
 package org.apache.http.impl.nio.client;
 
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.http.impl.nio.conn.AffinityConnectingIOReactor;
+import org.apache.http.impl.nio.conn.DispatcherAffinity;
 import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
@@ -44,4 +48,18 @@ final class IOReactorUtils {
         }
     }
 
+    public static ConnectingIOReactor create(
+            final IOReactorConfig config,
+            final DispatcherAffinity affinity,
+            final ThreadFactory threadFactory) {
+        if (affinity == null) {
+            return create(config);
+        }
+        try {
+            return new AffinityConnectingIOReactor(config, affinity, threadFactory);
+        } catch (final IOReactorException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
 }
@@ -0,0 +1,355 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Executes individual requests over pipelined connections, one per
+ * {@link DefaultPipeliningClientExchangeHandlerImpl}, in order to reduce the number
+ * of connections and the time spent waiting for a connection under bursts of
+ * requests to the same route.
+ * <p>
+ * Requests are pipelined only once the connection pool has run out of
+ * connections for their route. Until then they are executed over connections of
+ * their own, which keeps the full exchange handling, including request retries,
+ * in effect for as long as the pool has capacity to spare. Once the pool is
+ * saturated a request is added to the least busy pipelined connection to the
+ * same route, as long as the connection has fewer outstanding requests than the
+ * maximum pipeline depth. Otherwise a new pipelined connection is leased from
+ * the pool. Connections are released back to the pool as soon as they have no
+ * outstanding requests. Connection pool saturation can only be detected with
+ * connection managers that implement {@link ConnPoolControl}; requests are never
+ * pipelined with other connection managers.
+ * <p>
+ * Requests with a request configuration of their own and requests executed
+ * in a context with a user token are not pipelined, as they may require
+ * a route or a connection state of their own. Non-idempotent requests and
+ * requests enclosing an entity are not pipelined either, as they cannot be
+ * safely re-sent should the connection get closed with requests outstanding
+ * (RFC 7230, section 6.3.2).
+ */
+class InternalAutoPipeliner {
+
+    private final Log log;
+    private final NHttpClientConnectionManager connmgr;
+    private final ConnectionReuseStrategy connReuseStrategy;
+    private final ConnectionKeepAliveStrategy keepaliveStrategy;
+    private final InternalClientExec exec;
+    private final HttpRoutePlanner routePlanner;
+    private final int maxPipelineDepth;
+    private final Map<HttpRoute, List<PipelinedConnection>> pipelinedConnections;
+
+    InternalAutoPipeliner(
+            final Log log,
+            final NHttpClientConnectionManager connmgr,
+            final ConnectionReuseStrategy connReuseStrategy,
+            final ConnectionKeepAliveStrategy keepaliveStrategy,
+            final InternalClientExec exec,
+            final HttpRoutePlanner routePlanner,
+            final int maxPipelineDepth) {
+        super();
+        this.log = log;
+        this.connmgr = connmgr;
+        this.connReuseStrategy = connReuseStrategy;
+        this.keepaliveStrategy = keepaliveStrategy;
+        this.exec = exec;
+        this.routePlanner = routePlanner;
+        this.maxPipelineDepth = maxPipelineDepth;
+        this.pipelinedConnections = new HashMap<HttpRoute, List<PipelinedConnection>>();
+    }
+
+    /**
+     * Submits the request for execution over a pipelined connection.
+     *
+     * @return {@code null} if the request has been submitted, or the request
+     *   producer to execute the request with over a connection of its own
+     *   otherwise. The latter replays the request generated in order to
+     *   determine whether the request can be pipelined, if any.
+     */
+    <T> HttpAsyncRequestProducer submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpClientContext localContext,
+            final ComposableFuture<T> future) {
+        final HttpHost target = requestProducer.getTarget();
+        if (localContext.getUserToken() != null || target == null) {
+            return requestProducer;
+        }
+        final HttpRequest request;
+        try {
+            request = requestProducer.generateRequest();
+        } catch (final IOException ex) {
+            return requestProducer;
+        } catch (final HttpException ex) {
+            return requestProducer;
+        }
+        final HttpAsyncRequestProducer generatedProducer = new GeneratedRequestProducer(requestProducer, request);
+        if (request instanceof HttpEntityEnclosingRequest
+                || !DefaultHttpAsyncRequestRetryHandler.isIdempotent(request)) {
+            return generatedProducer;
+        }
+        final HttpRoute route = determineRoute(target, request, localContext);
+        if (route == null) {
+            return generatedProducer;
+        }
+        final PipelinedConnection pipelinedConn;
+        synchronized (this.pipelinedConnections) {
+            pipelinedConn = leasePipelinedConnection(route, localContext);
+            if (pipelinedConn == null) {
+                return generatedProducer;
+            }
+            pipelinedConn.outstanding++;
+        }
+        try {
+            pipelinedConn.handler.submit(generatedProducer, responseConsumer, localContext, future);
+        } catch (final IllegalStateException ex) {
+            // The connection has failed in the meantime
+            releasePipelinedConnection(pipelinedConn);
+            return generatedProducer;
+        }
+        future.addCallback(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                releasePipelinedConnection(pipelinedConn);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                releasePipelinedConnection(pipelinedConn);
+            }
+
+            @Override
+            public void cancelled() {
+                releasePipelinedConnection(pipelinedConn);
+            }
+
+        });
+        return null;
+    }
+
+    private HttpRoute determineRoute(
+            final HttpHost target,
+            final HttpRequest request,
+            final HttpClientContext localContext) {
+        if (this.routePlanner == null) {
+            return new HttpRoute(target);
+        }
+        if (request instanceof Configurable && ((Configurable) request).getConfig() != null) {
+            return null;
+        }
+        try {
+            return this.routePlanner.determineRoute(target, request, localContext);
+        } catch (final HttpException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the least busy pipelined connection to the given route, or a new
+     * one if all pipelined connections are at the maximum pipeline depth.
+     *
+     * @return the pipelined connection or {@code null} if the connection pool
+     *   has not been saturated.
+     */
+    private PipelinedConnection leasePipelinedConnection(
+            final HttpRoute route, final HttpClientContext localContext) {
+        if (!isSaturated(route)) {
+            return null;
+        }
+        List<PipelinedConnection> routeConns = this.pipelinedConnections.get(route);
+        if (routeConns == null) {
+            routeConns = new ArrayList<PipelinedConnection>();
+            this.pipelinedConnections.put(route, routeConns);
+        }
+        PipelinedConnection candidate = null;
+        for (final Iterator<PipelinedConnection> it = routeConns.iterator(); it.hasNext(); ) {
+            final PipelinedConnection pipelinedConn = it.next();
+            if (pipelinedConn.handler.isShutdown()) {
+                it.remove();
+            } else if (pipelinedConn.outstanding < this.maxPipelineDepth
+                    && (candidate == null || pipelinedConn.outstanding < candidate.outstanding)) {
+                candidate = pipelinedConn;
+            }
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Connection pool saturated; pipelining request to " + route);
+        }
+        if (candidate != null) {
+            return candidate;
+        }
+        final HttpClientContext connContext = HttpClientContext.create();
+        connContext.setRequestConfig(localContext.getRequestConfig());
+        final DefaultPipeliningClientExchangeHandlerImpl handler = new DefaultPipeliningClientExchangeHandlerImpl(
+                this.log,
+                route.getTargetHost(),
+                this.maxPipelineDepth,
+                connContext,
+                new BasicFuture<Void>(null),
+                this.connmgr,
+                this.connReuseStrategy,
+                this.keepaliveStrategy,
+                this.exec);
+        final PipelinedConnection pipelinedConn = new PipelinedConnection(route, handler);
+        routeConns.add(pipelinedConn);
+        return pipelinedConn;
+    }
+
+    private void releasePipelinedConnection(final PipelinedConnection pipelinedConn) {
+        final boolean idle;
+        synchronized (this.pipelinedConnections) {
+            pipelinedConn.outstanding--;
+            idle = pipelinedConn.outstanding == 0;
+            if (idle) {
+                final List<PipelinedConnection> routeConns = this.pipelinedConnections.get(pipelinedConn.route);
+                if (routeConns != null) {
+                    routeConns.remove(pipelinedConn);
+                    if (routeConns.isEmpty()) {
+                        this.pipelinedConnections.remove(pipelinedConn.route);
+                    }
+                }
+            }
+        }
+        if (idle) {
+            pipelinedConn.handler.shutdown();
+        }
+    }
+
+    private boolean isSaturated(final HttpRoute route) {
+        if (!(this.connmgr instanceof ConnPoolControl)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final PoolStats stats = ((ConnPoolControl<HttpRoute>) this.connmgr).getStats(route);
+        return stats.getLeased() + stats.getPending() >= stats.getMax();
+    }
+
+    /**
+     * Request producer that replays a request already generated by the original
+     * producer until the request gets reset, so that the request does not
+     * get generated once more by the exchange executing it.
+     */
+    static class GeneratedRequestProducer implements HttpAsyncRequestProducer {
+
+        private final HttpAsyncRequestProducer requestProducer;
+
+        private volatile HttpRequest request;
+
+        GeneratedRequestProducer(final HttpAsyncRequestProducer requestProducer, final HttpRequest request) {
+            super();
+            this.requestProducer = requestProducer;
+            this.request = request;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return this.requestProducer.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            final HttpRequest local = this.request;
+            return local != null ? local : this.requestProducer.generateRequest();
+        }
+
+        @Override
+        public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+            this.requestProducer.produceContent(encoder, ioctrl);
+        }
+
+        @Override
+        public void requestCompleted(final HttpContext context) {
+            this.requestProducer.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            this.requestProducer.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return this.requestProducer.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            this.request = null;
+            this.requestProducer.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.requestProducer.close();
+        }
+
+    }
+
+    static class PipelinedConnection {
+
+        final HttpRoute route;
+        final DefaultPipeliningClientExchangeHandlerImpl handler;
+
+        int outstanding;
+
+        PipelinedConnection(final HttpRoute route, final DefaultPipeliningClientExchangeHandlerImpl handler) {
+            this.route = route;
+            this.handler = handler;
+        }
+
+    }
+
+}
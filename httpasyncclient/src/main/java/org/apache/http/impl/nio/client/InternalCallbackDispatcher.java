@@ -0,0 +1,139 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Hands off completion callbacks to an {@link Executor} if one is configured,
+ * otherwise runs them inline and reports their execution time to
+ * {@link SlowCallbackMonitor}.
+ */
+class InternalCallbackDispatcher implements Closeable {
+
+    private final Executor executor;
+    private final SlowCallbackMonitor monitor;
+    private final boolean executorOwned;
+
+    InternalCallbackDispatcher(
+            final Executor executor,
+            final SlowCallbackMonitor monitor,
+            final boolean executorOwned) {
+        super();
+        this.executor = executor;
+        this.monitor = monitor;
+        this.executorOwned = executorOwned;
+    }
+
+    <T> FutureCallback<T> wrap(final FutureCallback<T> callback) {
+        if (callback == null || (this.executor == null && this.monitor == null)) {
+            return callback;
+        }
+        return new DispatchingFutureCallback<T>(callback);
+    }
+
+    void dispatch(final Runnable task) {
+        if (this.executor != null) {
+            try {
+                this.executor.execute(task);
+                return;
+            } catch (final RejectedExecutionException ex) {
+                // Executor has been shut down; fall back to inline execution
+            }
+        }
+        if (this.monitor != null) {
+            final long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                this.monitor.record(System.nanoTime() - start);
+            }
+        } else {
+            task.run();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.executorOwned && this.executor instanceof Closeable) {
+            ((Closeable) this.executor).close();
+        }
+    }
+
+    class DispatchingFutureCallback<T> implements FutureCallback<T> {
+
+        private final FutureCallback<T> callback;
+
+        DispatchingFutureCallback(final FutureCallback<T> callback) {
+            super();
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(final T result) {
+            dispatch(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.completed(result);
+                }
+
+            });
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            dispatch(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.failed(ex);
+                }
+
+            });
+        }
+
+        @Override
+        public void cancelled() {
+            dispatch(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.cancelled();
+                }
+
+            });
+        }
+
+    }
+
+}
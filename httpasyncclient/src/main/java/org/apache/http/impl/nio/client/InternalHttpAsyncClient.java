@@ -26,9 +26,14 @@
  */
 package org.apache.http.impl.nio.client;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,17 +49,22 @@ import org.apache.http.concurrent.BasicFuture;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.Lookup;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.cookie.CookieSpecProvider;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.client.HttpPipeliningSession;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
 
 class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
 
-    private final Log log = LogFactory.getLog(getClass());
+    private final Log log;
 
     private final NHttpClientConnectionManager connmgr;
     private final ConnectionReuseStrategy connReuseStrategy;
@@ -65,6 +75,11 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
     private final CookieStore cookieStore;
     private final CredentialsProvider credentialsProvider;
     private final RequestConfig defaultConfig;
+    private final Map<HttpRoute, Integer> prewarmRoutes;
+    private final AtomicBoolean prewarmed;
+    private final InternalCallbackDispatcher callbackDispatcher;
+    private final InternalRetryExecutor retryExecutor;
+    private final InternalAutoPipeliner autoPipeliner;
 
     public InternalHttpAsyncClient(
             final NHttpClientConnectionManager connmgr,
@@ -77,8 +92,14 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final Lookup<AuthSchemeProvider> authSchemeRegistry,
             final CookieStore cookieStore,
             final CredentialsProvider credentialsProvider,
-            final RequestConfig defaultConfig) {
+            final RequestConfig defaultConfig,
+            final Map<HttpRoute, Integer> prewarmRoutes,
+            final InternalCallbackDispatcher callbackDispatcher,
+            final InternalRetryExecutor retryExecutor,
+            final InternalAutoPipeliner autoPipeliner,
+            final Log log) {
         super(connmgr, threadFactory, handler);
+        this.log = log != null ? log : LogFactory.getLog(getClass());
         this.connmgr = connmgr;
         this.connReuseStrategy = connReuseStrategy;
         this.keepaliveStrategy = keepaliveStrategy;
@@ -88,6 +109,68 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
         this.cookieStore = cookieStore;
         this.credentialsProvider = credentialsProvider;
         this.defaultConfig = defaultConfig;
+        this.prewarmRoutes = prewarmRoutes;
+        this.prewarmed = new AtomicBoolean(false);
+        this.callbackDispatcher = callbackDispatcher;
+        this.retryExecutor = retryExecutor;
+        this.autoPipeliner = autoPipeliner;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        if (this.prewarmRoutes != null && !this.prewarmRoutes.isEmpty()
+                && this.connmgr instanceof PoolingNHttpClientConnectionManager
+                && this.prewarmed.compareAndSet(false, true)) {
+            final PoolingNHttpClientConnectionManager poolingmgr =
+                    (PoolingNHttpClientConnectionManager) this.connmgr;
+            final int connectTimeout = this.defaultConfig.getConnectTimeout();
+            for (final Map.Entry<HttpRoute, Integer> entry: this.prewarmRoutes.entrySet()) {
+                final HttpRoute route = entry.getKey();
+                poolingmgr.prewarm(route, entry.getValue().intValue(),
+                        connectTimeout > 0 ? connectTimeout : 0, TimeUnit.MILLISECONDS,
+                        new FutureCallback<Integer>() {
+
+                    @Override
+                    public void completed(final Integer result) {
+                    }
+
+                    @Override
+                    public void failed(final Exception ex) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Pre-warming of route " + route + " failed", ex);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                    }
+
+                });
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            if (this.callbackDispatcher != null) {
+                try {
+                    this.callbackDispatcher.close();
+                } catch (final IOException ex) {
+                    this.log.debug("I/O error closing callback executor", ex);
+                }
+            }
+            if (this.retryExecutor != null) {
+                try {
+                    this.retryExecutor.close();
+                } catch (final IOException ex) {
+                    this.log.debug("I/O error closing retry executor", ex);
+                }
+            }
+        }
     }
 
     private void setupContext(final HttpClientContext context) {
@@ -120,23 +203,42 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final HttpAsyncResponseConsumer<T> responseConsumer,
             final HttpContext context,
             final FutureCallback<T> callback) {
+        return submit(requestProducer, responseConsumer, context, callback);
+    }
+
+    @Override
+    public <T> ComposableFuture<T> submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpContext context,
+            final FutureCallback<T> callback) {
         ensureRunning();
-        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        final ComposableFuture<T> future = new ComposableFuture<T>(
+            this.callbackDispatcher != null ? this.callbackDispatcher.wrap(callback) : callback);
         final HttpClientContext localcontext = HttpClientContext.adapt(
             context != null ? context : new BasicHttpContext());
         setupContext(localcontext);
+        HttpAsyncRequestProducer localProducer = requestProducer;
+        if (this.autoPipeliner != null) {
+            localProducer = this.autoPipeliner.submit(requestProducer, responseConsumer, localcontext, future);
+            if (localProducer == null) {
+                return future;
+            }
+        }
 
         @SuppressWarnings("resource")
         final DefaultClientExchangeHandlerImpl<T> handler = new DefaultClientExchangeHandlerImpl<T>(
             this.log,
-            requestProducer,
+            localProducer,
             responseConsumer,
             localcontext,
             future,
             this.connmgr,
             this.connReuseStrategy,
             this.keepaliveStrategy,
-            this.exec);
+            this.exec,
+            this.retryExecutor);
+        future.setDependency(handler);
         try {
             handler.start();
         } catch (final Exception ex) {
@@ -152,7 +254,91 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final List<? extends HttpAsyncResponseConsumer<T>> responseConsumers,
             final HttpContext context,
             final FutureCallback<List<T>> callback) {
-        throw new UnsupportedOperationException("Pipelining not supported");
+        Args.notEmpty(requestProducers, "Request producer list");
+        Args.notEmpty(responseConsumers, "Response consumer list");
+        Args.check(requestProducers.size() == responseConsumers.size(),
+                "Number of request producers does not match that of response consumers");
+        final DefaultPipeliningClientExchangeHandlerImpl handler = createPipeliningHandler(
+                target, Integer.MAX_VALUE, context);
+        final List<ComposableFuture<T>> futures = new ArrayList<ComposableFuture<T>>(requestProducers.size());
+        Exception failure = null;
+        for (int i = 0; i < requestProducers.size(); i++) {
+            final ComposableFuture<T> future = new ComposableFuture<T>();
+            futures.add(future);
+            final HttpAsyncRequestProducer requestProducer = requestProducers.get(i);
+            final HttpAsyncResponseConsumer<T> responseConsumer = responseConsumers.get(i);
+            if (failure == null) {
+                try {
+                    handler.submit(requestProducer, responseConsumer, future);
+                    continue;
+                } catch (final IllegalStateException ex) {
+                    // The session has been closed by an earlier request failing
+                    failure = ex;
+                }
+            }
+            discardRequest(requestProducer, responseConsumer, failure);
+            future.failed(failure);
+        }
+        handler.shutdown();
+        final ComposableFuture<List<T>> future = ComposableFuture.all(futures);
+        final FutureCallback<List<T>> localCallback =
+            this.callbackDispatcher != null ? this.callbackDispatcher.wrap(callback) : callback;
+        if (localCallback != null) {
+            future.addCallback(localCallback);
+        }
+        return future;
+    }
+
+    @Override
+    public HttpPipeliningSession openSession(
+            final HttpHost target,
+            final int maxPipelineDepth,
+            final HttpContext context) {
+        return new InternalPipeliningSession(
+                createPipeliningHandler(target, maxPipelineDepth, context),
+                this.callbackDispatcher);
+    }
+
+    private DefaultPipeliningClientExchangeHandlerImpl createPipeliningHandler(
+            final HttpHost target,
+            final int maxPipelineDepth,
+            final HttpContext context) {
+        ensureRunning();
+        final HttpClientContext localcontext = HttpClientContext.adapt(
+            context != null ? context : new BasicHttpContext());
+        setupContext(localcontext);
+
+        return new DefaultPipeliningClientExchangeHandlerImpl(
+            this.log,
+            target,
+            maxPipelineDepth,
+            localcontext,
+            new BasicFuture<Void>(null),
+            this.connmgr,
+            this.connReuseStrategy,
+            this.keepaliveStrategy,
+            this.exec);
+    }
+
+    private void discardRequest(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<?> responseConsumer,
+            final Exception ex) {
+        try {
+            requestProducer.failed(ex);
+            responseConsumer.failed(ex);
+        } finally {
+            try {
+                requestProducer.close();
+            } catch (final IOException ioex) {
+                this.log.debug("I/O error closing request producer", ioex);
+            }
+            try {
+                responseConsumer.close();
+            } catch (final IOException ioex) {
+                this.log.debug("I/O error closing response consumer", ioex);
+            }
+        }
     }
 
 }
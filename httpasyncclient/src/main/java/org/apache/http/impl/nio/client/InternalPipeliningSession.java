@@ -0,0 +1,101 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.client.HttpPipeliningSession;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+
+/**
+ * {@link HttpPipeliningSession} backed by {@link DefaultPipeliningClientExchangeHandlerImpl}.
+ */
+class InternalPipeliningSession implements HttpPipeliningSession {
+
+    private final DefaultPipeliningClientExchangeHandlerImpl handler;
+    private final InternalCallbackDispatcher callbackDispatcher;
+
+    InternalPipeliningSession(
+            final DefaultPipeliningClientExchangeHandlerImpl handler,
+            final InternalCallbackDispatcher callbackDispatcher) {
+        super();
+        this.handler = handler;
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    @Override
+    public HttpHost getTarget() {
+        return this.handler.getTarget();
+    }
+
+    @Override
+    public <T> ComposableFuture<T> execute(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final FutureCallback<T> callback) {
+        final ComposableFuture<T> future = new ComposableFuture<T>(
+            this.callbackDispatcher != null ? this.callbackDispatcher.wrap(callback) : callback);
+        this.handler.submit(requestProducer, responseConsumer, future);
+        return future;
+    }
+
+    @Override
+    public ComposableFuture<HttpResponse> execute(
+            final HttpRequest request,
+            final FutureCallback<HttpResponse> callback) {
+        return execute(
+                HttpAsyncMethods.create(this.handler.getTarget(), request),
+                HttpAsyncMethods.createConsumer(),
+                callback);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.handler.isShutdown();
+    }
+
+    @Override
+    public void close() {
+        this.handler.shutdown();
+    }
+
+    @Override
+    public boolean cancel() {
+        return this.handler.cancel();
+    }
+
+    @Override
+    public String toString() {
+        return "[target: " + this.handler.getTarget() + "; open: " + isOpen() + "]";
+    }
+
+}
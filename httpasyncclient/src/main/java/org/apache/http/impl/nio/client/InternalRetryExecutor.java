@@ -0,0 +1,161 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.HttpRequest;
+import org.apache.http.nio.client.HttpAsyncRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Decides on retries of failed requests by consulting
+ * {@link HttpAsyncRequestRetryHandler} and {@link RetryBudget} and schedules
+ * retries after their backoff delay without blocking the I/O dispatch thread
+ * the failure was reported on. Retries still scheduled when the executor
+ * gets closed are aborted with a {@link ConnectionClosedException}.
+ */
+class InternalRetryExecutor implements Closeable {
+
+    /**
+     * Task re-executing a failed request.
+     */
+    interface RetryTask extends Runnable {
+
+        /**
+         * Aborts the retry as the executor has been closed.
+         */
+        void abort(Exception ex);
+
+    }
+
+    private final HttpAsyncRequestRetryHandler retryHandler;
+    private final RetryBudget retryBudget;
+    private final ScheduledExecutorService scheduler;
+    private final Set<RetryTask> scheduled;
+
+    private volatile boolean closed;
+
+    InternalRetryExecutor(
+            final HttpAsyncRequestRetryHandler retryHandler,
+            final RetryBudget retryBudget,
+            final ThreadFactory threadFactory) {
+        super();
+        this.retryHandler = retryHandler;
+        this.retryBudget = retryBudget;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory != null ? threadFactory :
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "httpclient-retry");
+                    t.setDaemon(true);
+                    return t;
+                }
+
+            });
+        this.scheduled = Collections.newSetFromMap(new ConcurrentHashMap<RetryTask, Boolean>());
+    }
+
+    void requestStarted() {
+        if (this.retryBudget != null) {
+            this.retryBudget.deposit();
+        }
+    }
+
+    /**
+     * Schedules the given task to retry the failed request if permitted.
+     *
+     * @return the backoff delay in milliseconds or {@code -1} if the request
+     *   is not to be retried.
+     */
+    long retry(
+            final HttpRequest request,
+            final IOException ex,
+            final int executionCount,
+            final HttpContext context,
+            final RetryTask task) {
+        if (this.closed) {
+            return -1;
+        }
+        final long delay = this.retryHandler.retryRequest(request, ex, executionCount, context);
+        if (delay < 0) {
+            return -1;
+        }
+        if (this.retryBudget != null && !this.retryBudget.tryWithdraw()) {
+            return -1;
+        }
+        this.scheduled.add(task);
+        try {
+            this.scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    // Unless the retry has been aborted in the meantime
+                    if (scheduled.remove(task)) {
+                        task.run();
+                    }
+                }
+
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException ignore) {
+            // Client has been shut down
+            this.scheduled.remove(task);
+            return -1;
+        }
+        if (this.closed && this.scheduled.remove(task)) {
+            // Raced with close
+            return -1;
+        }
+        return delay;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.scheduler.shutdownNow();
+        final List<RetryTask> aborted = new ArrayList<RetryTask>(this.scheduled);
+        for (final RetryTask task: aborted) {
+            if (this.scheduled.remove(task)) {
+                task.abort(new ConnectionClosedException("Client has been shut down"));
+            }
+        }
+    }
+
+}
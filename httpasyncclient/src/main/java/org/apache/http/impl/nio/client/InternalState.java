@@ -47,6 +47,7 @@ class InternalState {
     private ByteBuffer tmpbuf;
     private boolean requestContentProduced;
     private int execCount;
+    private int retryCount;
 
     private int redirectCount;
     private HttpUriRequest redirect;
@@ -118,6 +119,14 @@ class InternalState {
         this.execCount++;
     }
 
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void incrementRetryCount() {
+        this.retryCount++;
+    }
+
     public int getRedirectCount() {
         return redirectCount;
     }
@@ -79,7 +79,7 @@ import org.apache.http.protocol.RequestTargetHost;
 
 class MainClientExec implements InternalClientExec {
 
-    private final Log log = LogFactory.getLog(getClass());
+    private final Log log;
 
     private final HttpProcessor httpProcessor;
     private final HttpProcessor proxyHttpProcessor;
@@ -98,7 +98,20 @@ class MainClientExec implements InternalClientExec {
             final AuthenticationStrategy targetAuthStrategy,
             final AuthenticationStrategy proxyAuthStrategy,
             final UserTokenHandler userTokenHandler) {
+        this(null, httpProcessor, routePlanner, redirectStrategy,
+                targetAuthStrategy, proxyAuthStrategy, userTokenHandler);
+    }
+
+    MainClientExec(
+            final Log log,
+            final HttpProcessor httpProcessor,
+            final HttpRoutePlanner routePlanner,
+            final RedirectStrategy redirectStrategy,
+            final AuthenticationStrategy targetAuthStrategy,
+            final AuthenticationStrategy proxyAuthStrategy,
+            final UserTokenHandler userTokenHandler) {
         super();
+        this.log = log != null ? log : LogFactory.getLog(getClass());
         this.httpProcessor = httpProcessor;
         this.proxyHttpProcessor = new ImmutableHttpProcessor(
                 new RequestTargetHost(), new RequestClientConnControl());
@@ -108,7 +121,7 @@ class MainClientExec implements InternalClientExec {
         this.proxyAuthStrategy = proxyAuthStrategy;
         this.userTokenHandler = userTokenHandler;
         this.routeDirector = new BasicRouteDirector();
-        this.authenticator = new HttpAuthenticator(log);
+        this.authenticator = new HttpAuthenticator(LogFactory.getLog(getClass()));
     }
 
     @Override
@@ -384,7 +397,6 @@ class MainClientExec implements InternalClientExec {
             if (this.log.isDebugEnabled()) {
                 this.log.debug("[exchange: " + state.getId() + "] Response processed");
             }
-            handler.releaseConnection();
         } else {
             if (state.getRedirect() != null) {
                 final HttpUriRequest redirect = state.getRedirect();
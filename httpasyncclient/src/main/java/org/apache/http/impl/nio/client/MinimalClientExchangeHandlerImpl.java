@@ -46,6 +46,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.ExchangeTimings;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
@@ -166,6 +167,7 @@ class MinimalClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
         if (config.getSocketTimeout() > 0) {
             localConn.setSocketTimeout(config.getSocketTimeout());
         }
+        markPhase(ExchangeTimings.Phase.REQUEST_GENERATED);
         return getCurrentRequest();
     }
 
@@ -183,6 +185,7 @@ class MinimalClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
 
     @Override
     public void requestCompleted() {
+        markPhase(ExchangeTimings.Phase.REQUEST_COMPLETED);
         if (this.log.isDebugEnabled()) {
             this.log.debug("[exchange: " + getId() + "] Request completed");
         }
@@ -192,6 +195,7 @@ class MinimalClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
     @Override
     public void responseReceived(
             final HttpResponse response) throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_RECEIVED);
         if (this.log.isDebugEnabled()) {
             this.log.debug("[exchange: " + getId() + "] Response received " + response.getStatusLine());
         }
@@ -224,6 +228,7 @@ class MinimalClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
 
     @Override
     public void responseCompleted() throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_COMPLETED);
         manageConnectionPersistence();
         this.responseConsumer.responseCompleted(this.localContext);
         if (this.log.isDebugEnabled()) {
@@ -0,0 +1,204 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.NonRepeatableRequestException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessor;
+
+/**
+ * {@link InternalClientExec} implementation that supports essential HTTP protocol
+ * aspects only, same as {@link MinimalClientExchangeHandlerImpl}: requests are sent
+ * directly to the target host and every response is final.
+ */
+class MinimalClientExec implements InternalClientExec {
+
+    private final Log log;
+    private final HttpProcessor httpProcessor;
+
+    public MinimalClientExec(final Log log, final HttpProcessor httpProcessor) {
+        super();
+        this.log = log;
+        this.httpProcessor = httpProcessor;
+    }
+
+    @Override
+    public void prepare(
+            final HttpHost target,
+            final HttpRequest original,
+            final InternalState state,
+            final AbstractClientExchangeHandler<?> handler) throws IOException, HttpException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] start execution");
+        }
+        final HttpClientContext localContext = state.getLocalContext();
+        if (original instanceof Configurable) {
+            final RequestConfig config = ((Configurable) original).getConfig();
+            if (config != null) {
+                localContext.setRequestConfig(config);
+            }
+        }
+
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(original);
+        final HttpRoute route = new HttpRoute(target);
+        state.setMainRequest(request);
+        handler.setCurrentRequest(request);
+        handler.setRoute(route);
+
+        localContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        localContext.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
+        localContext.setAttribute(HttpClientContext.HTTP_ROUTE, route);
+
+        this.httpProcessor.process(request, localContext);
+    }
+
+    @Override
+    public HttpRequest generateRequest(
+            final InternalState state,
+            final AbstractClientExchangeHandler<?> handler) throws IOException, HttpException {
+        handler.verifytRoute();
+        if (!handler.isRouteEstablished()) {
+            handler.onRouteToTarget();
+            handler.onRouteComplete();
+        }
+
+        final HttpRequestWrapper currentRequest = state.getMainRequest();
+        handler.setCurrentRequest(currentRequest);
+
+        state.incrementExecCount();
+        if (state.getExecCount() > 1) {
+            final HttpAsyncRequestProducer requestProducer = state.getRequestProducer();
+            if (!requestProducer.isRepeatable() && state.isRequestContentProduced()) {
+                throw new NonRepeatableRequestException("Cannot retry request " +
+                        "with a non-repeatable request entity.");
+            }
+            requestProducer.resetRequest();
+        }
+
+        final HttpClientContext localContext = state.getLocalContext();
+        final NHttpClientConnection managedConn = handler.getConnection();
+        localContext.setAttribute(HttpCoreContext.HTTP_CONNECTION, managedConn);
+        final RequestConfig config = localContext.getRequestConfig();
+        if (config.getSocketTimeout() > 0) {
+            managedConn.setSocketTimeout(config.getSocketTimeout());
+        }
+        return currentRequest;
+    }
+
+    @Override
+    public void produceContent(
+            final InternalState state,
+            final ContentEncoder encoder,
+            final IOControl ioctrl) throws IOException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] produce content");
+        }
+        final HttpAsyncRequestProducer requestProducer = state.getRequestProducer();
+        state.setRequestContentProduced();
+        requestProducer.produceContent(encoder, ioctrl);
+        if (encoder.isCompleted()) {
+            requestProducer.resetRequest();
+        }
+    }
+
+    @Override
+    public void requestCompleted(
+            final InternalState state,
+            final AbstractClientExchangeHandler<?> handler) {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] Request completed");
+        }
+        final HttpAsyncRequestProducer requestProducer = state.getRequestProducer();
+        requestProducer.requestCompleted(state.getLocalContext());
+    }
+
+    @Override
+    public void responseReceived(
+            final HttpResponse response,
+            final InternalState state,
+            final AbstractClientExchangeHandler<?> handler) throws IOException, HttpException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] Response received " + response.getStatusLine());
+        }
+        final HttpClientContext localContext = state.getLocalContext();
+        localContext.setAttribute(HttpCoreContext.HTTP_REQUEST, handler.getCurrentRequest());
+        localContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, response);
+        this.httpProcessor.process(response, localContext);
+
+        handler.setCurrentResponse(response);
+        state.setFinalResponse(response);
+
+        final HttpAsyncResponseConsumer<?> responseConsumer = state.getResponseConsumer();
+        responseConsumer.responseReceived(response);
+    }
+
+    @Override
+    public void consumeContent(
+            final InternalState state,
+            final ContentDecoder decoder,
+            final IOControl ioctrl) throws IOException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] Consume content");
+        }
+        final HttpAsyncResponseConsumer<?> responseConsumer = state.getResponseConsumer();
+        responseConsumer.consumeContent(decoder, ioctrl);
+    }
+
+    @Override
+    public void responseCompleted(
+            final InternalState state,
+            final AbstractClientExchangeHandler<?> handler) throws IOException, HttpException {
+        final boolean keepAlive = handler.manageConnectionPersistence();
+        if (!keepAlive) {
+            handler.releaseConnection();
+        }
+        final HttpAsyncResponseConsumer<?> responseConsumer = state.getResponseConsumer();
+        responseConsumer.responseCompleted(state.getLocalContext());
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + state.getId() + "] Response processed");
+        }
+    }
+
+}
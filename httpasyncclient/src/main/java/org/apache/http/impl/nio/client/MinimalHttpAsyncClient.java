@@ -42,6 +42,8 @@ import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.client.HttpPipeliningSession;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
@@ -58,6 +60,7 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
     private final HttpProcessor httpProcessor;
     private final ConnectionReuseStrategy connReuseStrategy;
     private final ConnectionKeepAliveStrategy keepaliveStrategy;
+    private final InternalAutoPipeliner autoPipeliner;
 
     public MinimalHttpAsyncClient(
             final NHttpClientConnectionManager connmgr,
@@ -65,12 +68,32 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final NHttpClientEventHandler eventHandler,
             final HttpProcessor httpProcessor,
             final ConnectionReuseStrategy connReuseStrategy,
-            final ConnectionKeepAliveStrategy keepaliveStrategy) {
+            final ConnectionKeepAliveStrategy keepaliveStrategy,
+            final int maxPipelineDepth) {
         super(connmgr, threadFactory, eventHandler);
         this.connmgr = connmgr;
         this.httpProcessor = httpProcessor;
         this.connReuseStrategy = connReuseStrategy;
         this.keepaliveStrategy = keepaliveStrategy;
+        this.autoPipeliner = maxPipelineDepth > 0 ? new InternalAutoPipeliner(
+                this.log,
+                connmgr,
+                connReuseStrategy,
+                keepaliveStrategy,
+                new MinimalClientExec(this.log, httpProcessor),
+                null,
+                maxPipelineDepth) : null;
+    }
+
+    public MinimalHttpAsyncClient(
+            final NHttpClientConnectionManager connmgr,
+            final ThreadFactory threadFactory,
+            final NHttpClientEventHandler eventHandler,
+            final HttpProcessor httpProcessor,
+            final ConnectionReuseStrategy connReuseStrategy,
+            final ConnectionKeepAliveStrategy keepaliveStrategy) {
+        this(connmgr, threadFactory, eventHandler, httpProcessor,
+                connReuseStrategy, keepaliveStrategy, 0);
     }
 
     public MinimalHttpAsyncClient(
@@ -90,15 +113,31 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final HttpAsyncResponseConsumer<T> responseConsumer,
             final HttpContext context,
             final FutureCallback<T> callback) {
+        return submit(requestProducer, responseConsumer, context, callback);
+    }
+
+    @Override
+    public <T> ComposableFuture<T> submit(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpContext context,
+            final FutureCallback<T> callback) {
         ensureRunning();
-        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        final ComposableFuture<T> future = new ComposableFuture<T>(callback);
         final HttpClientContext localcontext = HttpClientContext.adapt(
             context != null ? context : new BasicHttpContext());
+        HttpAsyncRequestProducer localProducer = requestProducer;
+        if (this.autoPipeliner != null) {
+            localProducer = this.autoPipeliner.submit(requestProducer, responseConsumer, localcontext, future);
+            if (localProducer == null) {
+                return future;
+            }
+        }
 
         @SuppressWarnings("resource")
         final MinimalClientExchangeHandlerImpl<T> handler = new MinimalClientExchangeHandlerImpl<T>(
             this.log,
-            requestProducer,
+            localProducer,
             responseConsumer,
             localcontext,
             future,
@@ -106,6 +145,7 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             this.httpProcessor,
             this.connReuseStrategy,
             this.keepaliveStrategy);
+        future.setDependency(handler);
         try {
             handler.start();
         } catch (final Exception ex) {
@@ -122,7 +162,7 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final HttpContext context,
             final FutureCallback<List<T>> callback) {
         ensureRunning();
-        final BasicFuture<List<T>> future = new BasicFuture<List<T>>(callback);
+        final ComposableFuture<List<T>> future = new ComposableFuture<List<T>>(callback);
         final HttpClientContext localcontext = HttpClientContext.adapt(
                 context != null ? context : new BasicHttpContext());
         @SuppressWarnings("resource")
@@ -137,6 +177,7 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
                 this.httpProcessor,
                 this.connReuseStrategy,
                 this.keepaliveStrategy);
+        future.setDependency(handler);
         try {
             handler.start();
         } catch (final Exception ex) {
@@ -145,4 +186,25 @@ class MinimalHttpAsyncClient extends CloseableHttpAsyncClientBase {
         return future;
     }
 
+    @Override
+    public HttpPipeliningSession openSession(
+            final HttpHost target,
+            final int maxPipelineDepth,
+            final HttpContext context) {
+        ensureRunning();
+        final HttpClientContext localcontext = HttpClientContext.adapt(
+                context != null ? context : new BasicHttpContext());
+        final DefaultPipeliningClientExchangeHandlerImpl handler = new DefaultPipeliningClientExchangeHandlerImpl(
+                this.log,
+                target,
+                maxPipelineDepth,
+                localcontext,
+                new BasicFuture<Void>(null),
+                this.connmgr,
+                this.connReuseStrategy,
+                this.keepaliveStrategy,
+                new MinimalClientExec(this.log, this.httpProcessor));
+        return new InternalPipeliningSession(handler, null);
+    }
+
 }
@@ -65,6 +65,7 @@ class MinimalHttpAsyncClientBuilder {
     private String userAgent;
     private ThreadFactory threadFactory;
     private boolean cookieManagementDisabled;
+    private int maxPipelineDepth;
 
     public static MinimalHttpAsyncClientBuilder create() {
         return new MinimalHttpAsyncClientBuilder();
@@ -113,6 +114,20 @@ class MinimalHttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Enables automatic pipelining of individual requests to the same route
+     * once the connection pool has been saturated.
+     *
+     * @param maxPipelineDepth maximum number of outstanding requests per
+     *   pipelined connection.
+     *
+     * @since 4.2
+     */
+    public final MinimalHttpAsyncClientBuilder enableAutoPipelining(final int maxPipelineDepth) {
+        this.maxPipelineDepth = maxPipelineDepth;
+        return this;
+    }
+
     public MinimalHttpAsyncClient build() {
 
         NHttpClientConnectionManager connManager = this.connManager;
@@ -160,7 +175,8 @@ class MinimalHttpAsyncClientBuilder {
             eventHandler,
             httpprocessor,
             reuseStrategy,
-            keepAliveStrategy);
+            keepAliveStrategy,
+            maxPipelineDepth);
     }
 
 }
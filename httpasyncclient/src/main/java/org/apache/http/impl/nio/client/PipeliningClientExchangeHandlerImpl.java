@@ -50,6 +50,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.ExchangeTimings;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
@@ -63,6 +64,10 @@ import org.apache.http.util.Asserts;
  * {@link org.apache.http.nio.protocol.HttpAsyncClientExchangeHandler} implementation
  * that supports HTTP message pipelining.
  * <p>
+ * If the connection gets closed before all requests have been responded to,
+ * the unanswered requests are re-issued in their original order over a new
+ * connection, provided they are all idempotent and can be repeated.
+ * <p>
  * Instances of this class are expected to be accessed by one thread at a time only.
  * The {@link #cancel()} method can be called concurrently by multiple threads.
  */
@@ -73,6 +78,7 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
     private final Queue<HttpAsyncRequestProducer> requestProducerQueue;
     private final Queue<HttpAsyncResponseConsumer<T>> responseConsumerQueue;
     private final Queue<HttpRequest> requestQueue;
+    private final Queue<HttpAsyncRequestProducer> inflightProducerQueue;
     private final Queue<T> resultQueue;
     private final HttpClientContext localContext;
     private final BasicFuture<List<T>> resultFuture;
@@ -80,6 +86,9 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
     private final AtomicReference<HttpAsyncRequestProducer> requestProducerRef;
     private final AtomicReference<HttpAsyncResponseConsumer<T>> responseConsumerRef;
 
+    private volatile int responseCount;
+    private volatile boolean stalled;
+
     public PipeliningClientExchangeHandlerImpl(
             final Log log,
             final HttpHost target,
@@ -101,6 +110,7 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
         this.requestProducerQueue = new ConcurrentLinkedQueue<HttpAsyncRequestProducer>(requestProducers);
         this.responseConsumerQueue = new ConcurrentLinkedQueue<HttpAsyncResponseConsumer<T>>(responseConsumers);
         this.requestQueue = new ConcurrentLinkedQueue<HttpRequest>();
+        this.inflightProducerQueue = new ConcurrentLinkedQueue<HttpAsyncRequestProducer>();
         this.resultQueue = new ConcurrentLinkedQueue<T>();
         this.localContext = localContext;
         this.resultFuture = resultFuture;
@@ -136,6 +146,9 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
         while (!this.requestProducerQueue.isEmpty()) {
             closeProducer(this.requestProducerQueue.remove());
         }
+        while (!this.inflightProducerQueue.isEmpty()) {
+            closeProducer(this.inflightProducerQueue.remove());
+        }
         while (!this.responseConsumerQueue.isEmpty()) {
             closeConsumer(this.responseConsumerQueue.remove());
         }
@@ -207,8 +220,10 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
         this.httpProcessor.process(currentRequest, this.localContext);
 
         this.requestQueue.add(currentRequest);
+        this.inflightProducerQueue.add(requestProducer);
         setCurrentRequest(currentRequest);
 
+        markPhase(ExchangeTimings.Phase.REQUEST_GENERATED);
         return currentRequest;
     }
 
@@ -228,22 +243,19 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
 
     @Override
     public void requestCompleted() {
+        markPhase(ExchangeTimings.Phase.REQUEST_COMPLETED);
         if (this.log.isDebugEnabled()) {
             this.log.debug("[exchange: " + getId() + "] Request completed");
         }
         final HttpAsyncRequestProducer requestProducer = this.requestProducerRef.getAndSet(null);
         Asserts.check(requestProducer != null, "Inconsistent state: request producer is null");
         requestProducer.requestCompleted(this.localContext);
-        try {
-            requestProducer.close();
-        } catch (final IOException ioex) {
-            this.log.debug(ioex.getMessage(), ioex);
-        }
     }
 
     @Override
     public void responseReceived(
             final HttpResponse response) throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_RECEIVED);
         if (this.log.isDebugEnabled()) {
             this.log.debug("[exchange: " + getId() + "] Response received " + response.getStatusLine());
         }
@@ -256,6 +268,9 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
 
         final HttpRequest request = this.requestQueue.poll();
         Asserts.check(request != null, "Inconsistent state: request queue is empty");
+        // The request has been answered and will not need to be re-issued
+        closeProducer(this.inflightProducerQueue.poll());
+        this.responseCount++;
 
         this.localContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
         this.localContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, response);
@@ -279,6 +294,7 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
 
     @Override
     public void responseCompleted() throws IOException, HttpException {
+        markPhase(ExchangeTimings.Phase.RESPONSE_COMPLETED);
         if (this.log.isDebugEnabled()) {
             this.log.debug("[exchange: " + getId() + "] Response processed");
         }
@@ -310,7 +326,9 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
                 close();
             } else {
                 if (!keepAlive) {
-                    failed(new ConnectionClosedException("Connection closed"));
+                    if (!recoverUnanswered()) {
+                        failed(new ConnectionClosedException("Connection closed"));
+                    }
                 } else {
                     final NHttpClientConnection localConn = getConnection();
                     if (localConn != null) {
@@ -326,9 +344,67 @@ class PipeliningClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandl
         }
     }
 
+    /**
+     * Re-issues requests that have been sent but not responded to over a new
+     * connection, ahead of those that have not been sent yet. This is only
+     * safe if no response is being received, all unanswered requests are
+     * idempotent and their content can be produced again. The recovery is
+     * also given up on if the previous connection got closed without a single
+     * response either.
+     *
+     * @return {@code true} if the unanswered requests are going to be
+     *   re-issued, {@code false} if the execution should fail.
+     */
+    private boolean recoverUnanswered() {
+        if (isClosed() || this.responseConsumerRef.get() != null) {
+            return false;
+        }
+        if (this.stalled && this.responseCount == 0) {
+            return false;
+        }
+        for (final HttpRequest request: this.requestQueue) {
+            if (!DefaultHttpAsyncRequestRetryHandler.isIdempotent(request)) {
+                return false;
+            }
+        }
+        final List<HttpAsyncRequestProducer> unanswered = new ArrayList<HttpAsyncRequestProducer>(
+                this.inflightProducerQueue);
+        for (final HttpAsyncRequestProducer requestProducer: unanswered) {
+            if (!requestProducer.isRepeatable()) {
+                return false;
+            }
+        }
+        try {
+            for (final HttpAsyncRequestProducer requestProducer: unanswered) {
+                requestProducer.resetRequest();
+            }
+        } catch (final IOException ex) {
+            this.log.debug("I/O error resetting request producer", ex);
+            return false;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + getId() + "] Connection closed; re-issuing " +
+                    unanswered.size() + " unanswered request(s)");
+        }
+        this.requestProducerRef.set(null);
+        this.requestQueue.clear();
+        this.inflightProducerQueue.clear();
+        // Preserve the original order of requests and hence that of the results
+        final List<HttpAsyncRequestProducer> requestProducers = new ArrayList<HttpAsyncRequestProducer>(unanswered);
+        requestProducers.addAll(this.requestProducerQueue);
+        this.requestProducerQueue.clear();
+        this.requestProducerQueue.addAll(requestProducers);
+        this.stalled = this.responseCount == 0;
+        this.responseCount = 0;
+        requestConnection();
+        return true;
+    }
+
     @Override
     public void inputTerminated() {
-        failed(new ConnectionClosedException("Connection closed"));
+        if (!recoverUnanswered()) {
+            failed(new ConnectionClosedException("Connection closed"));
+        }
     }
 
     public void abortConnection() {
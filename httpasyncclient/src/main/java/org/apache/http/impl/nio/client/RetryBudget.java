@@ -0,0 +1,127 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.util.Args;
+
+/**
+ * Limits automatic retries to a fraction of the requests executed by a client.
+ * Every request deposits {@code ratio} of a retry into the budget and every
+ * retry withdraws a whole one; a retry is rejected if the budget has less
+ * than one retry left. The budget holds up to {@code reserve} retries and
+ * starts full, so a client with little traffic can still retry occasional
+ * failures while a client facing a wide-spread outage cannot multiply its
+ * load by retrying every failed request.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+    private final AtomicLong rejectedCount;
+
+    /**
+     * @param ratio fraction of requests that may be retried, such as
+     *   {@code 0.1} for one retry per ten requests.
+     * @param reserve number of retries the budget can accumulate.
+     */
+    public RetryBudget(final double ratio, final int reserve) {
+        super();
+        Args.check(ratio >= 0, "Retry ratio may not be negative");
+        Args.positive(reserve, "Retry reserve");
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = reserve * SCALE;
+        this.balance = new AtomicLong(this.capacity);
+        this.rejectedCount = new AtomicLong();
+    }
+
+    /**
+     * Creates a budget allowing one retry per five requests with a reserve
+     * of 10 retries.
+     */
+    public RetryBudget() {
+        this(0.2, 10);
+    }
+
+    void deposit() {
+        for (;;) {
+            final long current = this.balance.get();
+            if (current >= this.capacity) {
+                return;
+            }
+            final long next = Math.min(current + this.deposit, this.capacity);
+            if (this.balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    boolean tryWithdraw() {
+        for (;;) {
+            final long current = this.balance.get();
+            if (current < SCALE) {
+                this.rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (this.balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of retries currently available.
+     */
+    public int getBalance() {
+        return (int) (this.balance.get() / SCALE);
+    }
+
+    /**
+     * Returns the number of retries rejected because the budget was exhausted.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[balance: ").append(getBalance());
+        buf.append("; rejected: ").append(getRejectedCount());
+        buf.append("]");
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.util.Args;
+
+/**
+ * Keeps track of completion callbacks executed on I/O dispatch threads that took
+ * longer than a given time budget. A slow callback stalls all other connections
+ * handled by the same I/O dispatcher, so a non-zero count is a strong hint
+ * callbacks should be offloaded to a separate executor.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class SlowCallbackMonitor {
+
+    private final long budgetNanos;
+    private final AtomicLong callbackCount;
+    private final AtomicLong slowCount;
+    private final AtomicLong maxNanos;
+
+    public SlowCallbackMonitor(final long budget, final TimeUnit tunit) {
+        super();
+        Args.notNegative(budget, "Time budget");
+        Args.notNull(tunit, "Time unit");
+        this.budgetNanos = tunit.toNanos(budget);
+        this.callbackCount = new AtomicLong();
+        this.slowCount = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+    }
+
+    void record(final long nanos) {
+        this.callbackCount.incrementAndGet();
+        if (nanos > this.budgetNanos) {
+            this.slowCount.incrementAndGet();
+        }
+        for (;;) {
+            final long current = this.maxNanos.get();
+            if (nanos <= current || this.maxNanos.compareAndSet(current, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the time budget in the given time unit.
+     */
+    public long getBudget(final TimeUnit tunit) {
+        return tunit.convert(this.budgetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the total number of callbacks executed inline.
+     */
+    public long getCallbackCount() {
+        return this.callbackCount.get();
+    }
+
+    /**
+     * Returns the number of callbacks executed inline that exceeded the time budget.
+     */
+    public long getSlowCount() {
+        return this.slowCount.get();
+    }
+
+    /**
+     * Returns the longest execution time of a callback in the given time unit.
+     */
+    public long getMaxTime(final TimeUnit tunit) {
+        return tunit.convert(this.maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[callbacks: ").append(getCallbackCount());
+        buf.append("; slow: ").append(getSlowCount());
+        buf.append("; max: ").append(getMaxTime(TimeUnit.MICROSECONDS)).append(" us]");
+        return buf.toString();
+    }
+
+}
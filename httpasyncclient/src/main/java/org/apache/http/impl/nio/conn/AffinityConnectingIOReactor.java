@@ -0,0 +1,308 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.util.Args;
+
+/**
+ * {@link ConnectingIOReactor} that runs a number of independent I/O reactors, each
+ * with its own selector and a single I/O dispatcher, and assigns new connections
+ * to them according to a {@link DispatcherAffinity} policy. With route affinity
+ * all connections of a route are served by the same dispatcher thread, which keeps
+ * their state in the same CPU cache and avoids contention between dispatchers.
+ * <p>
+ * The route of a connection is taken from the attachment of the connect request,
+ * as passed by {@link PoolingNHttpClientConnectionManager}. Dispatchers are assigned
+ * to the most recently connected routes only; a route that has not been connected
+ * to for long may be assigned another dispatcher once connected to again.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class AffinityConnectingIOReactor implements ConnectingIOReactor {
+
+    /**
+     * Maximum number of routes dispatchers are assigned to at a time.
+     */
+    static final int MAX_ROUTES = 1024;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConnectingIOReactor[] reactors;
+    private final DispatcherAffinity affinity;
+    private final ThreadFactory threadFactory;
+    private final RouteMap routeMap;
+    private final AtomicInteger counter;
+
+    /**
+     * Creates an instance backed by the given I/O reactors.
+     *
+     * @param reactors I/O reactors. Each is expected to run a single I/O dispatcher.
+     * @param affinity the affinity policy.
+     * @param threadFactory factory of threads running all but the first I/O reactor.
+     *   May be {@code null}, in which case {@link Executors#defaultThreadFactory()}
+     *   is used as for the thread running the first I/O reactor of a client.
+     */
+    public AffinityConnectingIOReactor(
+            final ConnectingIOReactor[] reactors,
+            final DispatcherAffinity affinity,
+            final ThreadFactory threadFactory) {
+        this(reactors, affinity, threadFactory, MAX_ROUTES);
+    }
+
+    AffinityConnectingIOReactor(
+            final ConnectingIOReactor[] reactors,
+            final DispatcherAffinity affinity,
+            final ThreadFactory threadFactory,
+            final int maxRoutes) {
+        super();
+        Args.notNull(reactors, "I/O reactors");
+        Args.check(reactors.length > 0, "At least one I/O reactor is required");
+        this.reactors = reactors.clone();
+        this.affinity = affinity != null ? affinity : DispatcherAffinity.ROUTE;
+        this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+        this.routeMap = new RouteMap(maxRoutes);
+        this.counter = new AtomicInteger();
+    }
+
+    /**
+     * Creates an instance with {@link IOReactorConfig#getIoThreadCount()} I/O reactors,
+     * each of them running a single I/O dispatcher.
+     *
+     * @param config I/O reactor configuration. May be {@code null}.
+     * @param affinity the affinity policy.
+     * @param threadFactory factory of the I/O dispatcher threads and of the threads
+     *   running all but the first I/O reactor. May be {@code null}.
+     */
+    public AffinityConnectingIOReactor(
+            final IOReactorConfig config,
+            final DispatcherAffinity affinity,
+            final ThreadFactory threadFactory) throws IOReactorException {
+        this(createReactors(config != null ? config : IOReactorConfig.DEFAULT, threadFactory),
+                affinity, threadFactory);
+    }
+
+    /**
+     * Creates an instance with {@link IOReactorConfig#getIoThreadCount()} I/O reactors,
+     * each of them running a single I/O dispatcher.
+     */
+    public AffinityConnectingIOReactor(
+            final IOReactorConfig config,
+            final DispatcherAffinity affinity) throws IOReactorException {
+        this(config, affinity, null);
+    }
+
+    private static ConnectingIOReactor[] createReactors(
+            final IOReactorConfig config,
+            final ThreadFactory threadFactory) throws IOReactorException {
+        final IOReactorConfig dispatcherConfig = IOReactorConfig.copy(config).setIoThreadCount(1).build();
+        final ConnectingIOReactor[] reactors = new ConnectingIOReactor[config.getIoThreadCount()];
+        for (int i = 0; i < reactors.length; i++) {
+            // Without a thread factory dispatcher threads get named
+            // the same way as those of a single multi-worker reactor
+            reactors[i] = new DefaultConnectingIOReactor(dispatcherConfig, threadFactory);
+        }
+        return reactors;
+    }
+
+    /**
+     * Returns the number of I/O dispatchers.
+     */
+    public int getDispatcherCount() {
+        return this.reactors.length;
+    }
+
+    public DispatcherAffinity getAffinity() {
+        return this.affinity;
+    }
+
+    private int nextIndex() {
+        return (this.counter.getAndIncrement() & Integer.MAX_VALUE) % this.reactors.length;
+    }
+
+    int selectReactor(final Object attachment) {
+        if (this.reactors.length == 1) {
+            return 0;
+        }
+        if (this.affinity == DispatcherAffinity.ROUTE && attachment instanceof HttpRoute) {
+            synchronized (this.routeMap) {
+                final Integer index = this.routeMap.get(attachment);
+                if (index != null) {
+                    return index.intValue();
+                }
+                final int newIndex = nextIndex();
+                this.routeMap.put((HttpRoute) attachment, Integer.valueOf(newIndex));
+                return newIndex;
+            }
+        }
+        return nextIndex();
+    }
+
+    int getRouteCount() {
+        synchronized (this.routeMap) {
+            return this.routeMap.size();
+        }
+    }
+
+    @Override
+    public SessionRequest connect(
+            final SocketAddress remoteAddress,
+            final SocketAddress localAddress,
+            final Object attachment,
+            final SessionRequestCallback callback) {
+        final int index = selectReactor(attachment);
+        return this.reactors[index].connect(remoteAddress, localAddress, attachment, callback);
+    }
+
+    @Override
+    public IOReactorStatus getStatus() {
+        return this.reactors[0].getStatus();
+    }
+
+    /**
+     * Runs all I/O reactors. The first one is executed by the calling thread, all others
+     * by threads created with the thread factory. The method returns once all reactors
+     * have terminated. If any of them terminates, all others are shut down.
+     */
+    @Override
+    public void execute(final IOEventDispatch eventDispatch) throws IOException {
+        final AtomicReference<IOException> exceptionRef = new AtomicReference<IOException>();
+        final Thread[] threads = new Thread[this.reactors.length - 1];
+        for (int i = 0; i < threads.length; i++) {
+            final ConnectingIOReactor reactor = this.reactors[i + 1];
+            threads[i] = this.threadFactory.newThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        reactor.execute(eventDispatch);
+                    } catch (final IOException ex) {
+                        exceptionRef.compareAndSet(null, ex);
+                    } catch (final RuntimeException ex) {
+                        exceptionRef.compareAndSet(null, new IOException(ex));
+                    } finally {
+                        shutdownQuietly();
+                    }
+                }
+
+            });
+            threads[i].start();
+        }
+        try {
+            this.reactors[0].execute(eventDispatch);
+        } finally {
+            shutdownQuietly();
+            for (final Thread thread: threads) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+        final IOException ex = exceptionRef.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private void shutdownQuietly() {
+        for (final ConnectingIOReactor reactor: this.reactors) {
+            if (reactor.getStatus().compareTo(IOReactorStatus.ACTIVE) <= 0) {
+                try {
+                    reactor.shutdown();
+                } catch (final IOException ex) {
+                    this.log.debug("I/O error shutting down I/O reactor", ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown(final long waitMs) throws IOException {
+        IOException exception = null;
+        for (final ConnectingIOReactor reactor: this.reactors) {
+            try {
+                reactor.shutdown(waitMs);
+            } catch (final IOException ex) {
+                if (exception == null) {
+                    exception = ex;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        shutdown(2000);
+    }
+
+    static class RouteMap extends LinkedHashMap<HttpRoute, Integer> {
+
+        private static final long serialVersionUID = 2416393185469470164L;
+
+        private final int maxRoutes;
+
+        RouteMap(final int maxRoutes) {
+            super(16, 0.75f, true);
+            this.maxRoutes = maxRoutes;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<HttpRoute, Integer> eldest) {
+            return size() > this.maxRoutes;
+        }
+
+    }
+
+}
@@ -26,6 +26,7 @@
  */
 package org.apache.http.impl.nio.conn;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
@@ -38,9 +39,12 @@ import org.apache.http.nio.pool.AbstractNIOConnPool;
 import org.apache.http.nio.pool.NIOConnFactory;
 import org.apache.http.nio.pool.SocketAddressResolver;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.pool.PoolEntry;
+import org.apache.http.pool.PoolEntryCallback;
 
 @ThreadSafe
-class CPool extends AbstractNIOConnPool<HttpRoute, ManagedNHttpClientConnection, CPoolEntry> {
+class CPool extends AbstractNIOConnPool<HttpRoute, ManagedNHttpClientConnection, CPoolEntry>
+        implements InternalConnPool {
 
     private final Log log = LogFactory.getLog(CPool.class);
 
@@ -78,4 +82,23 @@ class CPool extends AbstractNIOConnPool<HttpRoute, ManagedNHttpClientConnection,
         conn.setSocketTimeout(0);
     }
 
+    /**
+     * Please note this method has to enumerate all available entries
+     * while holding the pool lock.
+     */
+    @Override
+    public void evict(final Map<CPoolEntry, Long> entries) {
+        enumAvailable(new PoolEntryCallback<HttpRoute, ManagedNHttpClientConnection>() {
+
+            @Override
+            public void process(final PoolEntry<HttpRoute, ManagedNHttpClientConnection> entry) {
+                final Long updated = entries.get(entry);
+                if (updated != null && updated.longValue() == entry.getUpdated()) {
+                    entry.close();
+                }
+            }
+
+        });
+    }
+
 }
@@ -0,0 +1,271 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.util.Args;
+
+/**
+ * {@link DnsResolver} that caches the results of another resolver.
+ * <p>
+ * Successful lookups are cached for the positive time-to-live, failed lookups
+ * for the negative time-to-live. Entries that are still being looked up
+ * during the last quarter of their time-to-live are refreshed in the background,
+ * so that frequently used host names never have to be resolved on the
+ * connection lease path once they have been looked up for the first time.
+ * If a background refresh fails the previous result is served until it expires.
+ * <p>
+ * Instances of this class can be passed to
+ * {@link org.apache.http.impl.nio.client.HttpAsyncClientBuilder#setDnsResolver(DnsResolver)}
+ * or to {@link PoolingNHttpClientConnectionManager} directly and should be
+ * closed when no longer needed.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class CachingDnsResolver implements DnsResolver, Closeable {
+
+    public static final long DEFAULT_POSITIVE_TTL = 60000;
+    public static final long DEFAULT_NEGATIVE_TTL = 10000;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final DnsResolver dnsResolver;
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final int maxEntries;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final ConcurrentMap<String, CacheEntry> cache;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param dnsResolver the resolver to look up host names with.
+     *   If {@code null} {@link SystemDefaultDnsResolver} will be used.
+     * @param positiveTtl time to cache successful lookups for.
+     * @param negativeTtl time to cache failed lookups for.
+     * @param tunit the time unit of the time-to-live values.
+     * @param maxEntries maximum number of host names to cache.
+     * @param executor executor to run background refreshes with. If {@code null}
+     *   a single daemon thread owned by this resolver will be used.
+     */
+    public CachingDnsResolver(
+            final DnsResolver dnsResolver,
+            final long positiveTtl,
+            final long negativeTtl,
+            final TimeUnit tunit,
+            final int maxEntries,
+            final Executor executor) {
+        super();
+        Args.notNegative(positiveTtl, "Positive TTL");
+        Args.notNegative(negativeTtl, "Negative TTL");
+        Args.positive(maxEntries, "Max entries");
+        final TimeUnit unit = tunit != null ? tunit : TimeUnit.MILLISECONDS;
+        this.dnsResolver = dnsResolver != null ? dnsResolver : SystemDefaultDnsResolver.INSTANCE;
+        this.positiveTtl = unit.toMillis(positiveTtl);
+        this.negativeTtl = unit.toMillis(negativeTtl);
+        this.maxEntries = maxEntries;
+        if (executor != null) {
+            this.executor = executor;
+            this.ownExecutor = null;
+        } else {
+            this.ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "dns-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+
+            });
+            this.executor = this.ownExecutor;
+        }
+        this.cache = new ConcurrentHashMap<String, CacheEntry>();
+    }
+
+    public CachingDnsResolver(
+            final DnsResolver dnsResolver,
+            final long positiveTtl,
+            final long negativeTtl,
+            final TimeUnit tunit) {
+        this(dnsResolver, positiveTtl, negativeTtl, tunit, DEFAULT_MAX_ENTRIES, null);
+    }
+
+    public CachingDnsResolver() {
+        this(null, DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        Args.notNull(host, "Host name");
+        final long now = getCurrentTime();
+        final CacheEntry entry = this.cache.get(host);
+        if (entry != null && now < entry.expiry) {
+            if (entry.addresses != null && now >= entry.refreshTime
+                    && entry.refreshing.compareAndSet(false, true)) {
+                scheduleRefresh(host, entry);
+            }
+            return entry.getResult();
+        }
+        return lookup(host).getResult();
+    }
+
+    private CacheEntry lookup(final String host) {
+        CacheEntry entry;
+        try {
+            final InetAddress[] addresses = this.dnsResolver.resolve(host);
+            entry = new CacheEntry(addresses, null, getCurrentTime(), this.positiveTtl);
+        } catch (final UnknownHostException ex) {
+            entry = new CacheEntry(null, ex, getCurrentTime(), this.negativeTtl);
+        }
+        store(host, entry);
+        return entry;
+    }
+
+    private void store(final String host, final CacheEntry entry) {
+        if (this.cache.size() >= this.maxEntries && !this.cache.containsKey(host)) {
+            purgeExpired();
+            if (this.cache.size() >= this.maxEntries) {
+                return;
+            }
+        }
+        this.cache.put(host, entry);
+    }
+
+    private void scheduleRefresh(final String host, final CacheEntry entry) {
+        try {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    refresh(host, entry);
+                }
+
+            });
+        } catch (final RejectedExecutionException ex) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    void refresh(final String host, final CacheEntry entry) {
+        try {
+            final InetAddress[] addresses = this.dnsResolver.resolve(host);
+            this.cache.replace(host, entry, new CacheEntry(addresses, null, getCurrentTime(), this.positiveTtl));
+        } catch (final UnknownHostException ex) {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Failed to refresh addresses of " + host, ex);
+            }
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Removes entries whose time-to-live has expired.
+     */
+    public void purgeExpired() {
+        final long now = getCurrentTime();
+        final Iterator<Map.Entry<String, CacheEntry>> it = this.cache.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now >= it.next().getValue().expiry) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    @Override
+    public void close() {
+        if (this.ownExecutor != null) {
+            this.ownExecutor.shutdownNow();
+        }
+        this.cache.clear();
+    }
+
+    static class CacheEntry {
+
+        final InetAddress[] addresses;
+        final UnknownHostException exception;
+        final long expiry;
+        final long refreshTime;
+        final AtomicBoolean refreshing;
+
+        CacheEntry(
+                final InetAddress[] addresses,
+                final UnknownHostException exception,
+                final long created,
+                final long ttl) {
+            this.addresses = addresses;
+            this.exception = exception;
+            this.expiry = created + ttl;
+            this.refreshTime = created + ttl - ttl / 4;
+            this.refreshing = new AtomicBoolean(false);
+        }
+
+        InetAddress[] getResult() throws UnknownHostException {
+            if (this.addresses == null) {
+                final UnknownHostException ex = new UnknownHostException(this.exception.getMessage());
+                ex.initCause(this.exception);
+                throw ex;
+            }
+            return this.addresses.clone();
+        }
+
+    }
+
+}
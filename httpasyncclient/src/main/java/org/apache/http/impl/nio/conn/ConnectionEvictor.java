@@ -0,0 +1,285 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.nio.reactor.IOSession;
+
+/**
+ * Closes pooled connections once they expire or have been idle longer than
+ * the maximum idle time. Released connections are kept in an index ordered by
+ * the time they become due for eviction. When an eviction sweep runs only the
+ * due connections are passed to the pool, which closes those that are still
+ * available and have not been released again since they were indexed.
+ * <p>
+ * No thread of its own is used. The socket timeout of the I/O session of an
+ * indexed connection is set to the time remaining until it becomes due, so the
+ * timeout check of the I/O reactor reports the session once it is due and the
+ * sweep runs on the I/O dispatcher thread from {@link #timeout(IOSession)}.
+ * Eviction is therefore accurate to the select interval of the I/O reactor.
+ * The socket timeout in effect before the connection got indexed is restored
+ * when it gets leased again.
+ * <p>
+ * The index holds at most one entry per pooled connection, which gets replaced
+ * when the connection is released again.
+ */
+@ThreadSafe
+class ConnectionEvictor {
+
+    static final String DUE_ENTRY = "http.nio.eviction-due";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final InternalConnPool pool;
+    private final ConcurrentSkipListSet<DueEntry> index;
+    private final ConcurrentMap<CPoolEntry, DueEntry> indexed;
+    private final AtomicLong sequence;
+
+    private volatile boolean evictExpired;
+    private volatile long maxIdleTime;
+    private volatile boolean shutdown;
+
+    ConnectionEvictor(final InternalConnPool pool) {
+        super();
+        this.pool = pool;
+        this.index = new ConcurrentSkipListSet<DueEntry>();
+        this.indexed = new ConcurrentHashMap<CPoolEntry, DueEntry>();
+        this.sequence = new AtomicLong();
+    }
+
+    boolean isEvictExpired() {
+        return this.evictExpired;
+    }
+
+    void setEvictExpired(final boolean evictExpired) {
+        this.evictExpired = evictExpired;
+    }
+
+    long getMaxIdleTime() {
+        return this.maxIdleTime;
+    }
+
+    void setMaxIdleTime(final long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    private boolean isEnabled() {
+        return !this.shutdown && (this.evictExpired || this.maxIdleTime > 0);
+    }
+
+    private long getDueTime(final CPoolEntry entry, final long updated) {
+        long due = Long.MAX_VALUE;
+        if (this.evictExpired) {
+            due = entry.getExpiry();
+        }
+        final long maxIdle = this.maxIdleTime;
+        if (maxIdle > 0 && updated + maxIdle < due) {
+            due = updated + maxIdle;
+        }
+        return due;
+    }
+
+    private static IOSession getSession(final CPoolEntry entry) {
+        final IOSession session = entry.getConnection().getIOSession();
+        return session != null && !session.isClosed() ? session : null;
+    }
+
+    private static int getRemaining(final long due) {
+        final long remaining = due - System.currentTimeMillis();
+        // A socket timeout of zero would disable the timeout check
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    /**
+     * Indexes an entry that has just been released back to the pool.
+     */
+    void released(final CPoolEntry entry) {
+        if (!isEnabled()) {
+            return;
+        }
+        final IOSession session = getSession(entry);
+        if (session == null) {
+            return;
+        }
+        final long updated = entry.getUpdated();
+        final long due = getDueTime(entry, updated);
+        if (due == Long.MAX_VALUE) {
+            return;
+        }
+        final Object armed = session.getAttribute(DUE_ENTRY);
+        final int socketTimeout = armed instanceof DueEntry ?
+                ((DueEntry) armed).socketTimeout : session.getSocketTimeout();
+        final DueEntry dueEntry = new DueEntry(due, this.sequence.incrementAndGet(), entry, updated, socketTimeout);
+        final DueEntry previous = this.indexed.put(entry, dueEntry);
+        if (previous != null) {
+            this.index.remove(previous);
+        }
+        this.index.add(dueEntry);
+        session.setAttribute(DUE_ENTRY, dueEntry);
+        session.setSocketTimeout(getRemaining(due));
+    }
+
+    /**
+     * Removes an entry that is about to be leased from the index and restores
+     * the socket timeout of its session.
+     */
+    void leased(final CPoolEntry entry) {
+        final DueEntry dueEntry = this.indexed.remove(entry);
+        if (dueEntry != null) {
+            this.index.remove(dueEntry);
+        }
+        // The session may still be armed if the entry has just been swept
+        final IOSession session = getSession(entry);
+        if (session != null) {
+            restore(session);
+        }
+    }
+
+    private static void restore(final IOSession session) {
+        final Object armed = session.removeAttribute(DUE_ENTRY);
+        if (armed instanceof DueEntry) {
+            session.setSocketTimeout(((DueEntry) armed).socketTimeout);
+        }
+    }
+
+    /**
+     * Handles a timeout of the given I/O session reported by the I/O reactor.
+     *
+     * @return {@code true} if the timeout was caused by an indexed connection
+     *   becoming due and has been handled, {@code false} if the timeout is to
+     *   be handled as a regular socket timeout.
+     */
+    boolean timeout(final IOSession session) {
+        final Object attribute = session.getAttribute(DUE_ENTRY);
+        if (!(attribute instanceof DueEntry)) {
+            return false;
+        }
+        if (this.shutdown) {
+            return false;
+        }
+        final DueEntry dueEntry = (DueEntry) attribute;
+        if (this.indexed.get(dueEntry.entry) != dueEntry) {
+            // Swept without being evicted
+            restore(session);
+            return true;
+        }
+        if (dueEntry.due > System.currentTimeMillis()) {
+            session.setSocketTimeout(getRemaining(dueEntry.due));
+            return true;
+        }
+        evict();
+        return true;
+    }
+
+    void evict() {
+        if (this.shutdown) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Map<CPoolEntry, Long> candidates = new HashMap<CPoolEntry, Long>();
+        for (;;) {
+            final Iterator<DueEntry> due = this.index.iterator();
+            if (!due.hasNext()) {
+                break;
+            }
+            final DueEntry dueEntry = due.next();
+            if (dueEntry.due > now) {
+                break;
+            }
+            if (!this.index.remove(dueEntry)) {
+                // Replaced by a later release
+                continue;
+            }
+            this.indexed.remove(dueEntry.entry, dueEntry);
+            if (dueEntry.entry.getUpdated() == dueEntry.updated && !dueEntry.entry.isClosed()) {
+                candidates.put(dueEntry.entry, Long.valueOf(dueEntry.updated));
+            }
+        }
+        if (!candidates.isEmpty()) {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Evicting up to " + candidates.size() + " idle connection(s)");
+            }
+            this.pool.evict(candidates);
+        }
+    }
+
+    void shutdown() {
+        this.shutdown = true;
+        this.index.clear();
+        this.indexed.clear();
+    }
+
+    int getIndexSize() {
+        return this.index.size();
+    }
+
+    static class DueEntry implements Comparable<DueEntry> {
+
+        final long due;
+        final long seq;
+        final CPoolEntry entry;
+        final long updated;
+        final int socketTimeout;
+
+        DueEntry(
+                final long due,
+                final long seq,
+                final CPoolEntry entry,
+                final long updated,
+                final int socketTimeout) {
+            super();
+            this.due = due;
+            this.seq = seq;
+            this.entry = entry;
+            this.updated = updated;
+            this.socketTimeout = socketTimeout;
+        }
+
+        @Override
+        public int compareTo(final DueEntry other) {
+            if (this.due != other.due) {
+                return this.due < other.due ? -1 : 1;
+            }
+            if (this.seq != other.seq) {
+                return this.seq < other.seq ? -1 : 1;
+            }
+            return 0;
+        }
+
+    }
+
+}
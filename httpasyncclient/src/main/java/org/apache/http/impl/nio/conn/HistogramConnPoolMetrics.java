@@ -0,0 +1,275 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
+
+/**
+ * Default implementation of {@link ConnPoolMetricsListener} that maintains
+ * per route {@link LatencyHistogram}s of lease wait, connect and TLS/SSL
+ * handshake times along with pending request and timeout counts. Full and
+ * abbreviated (resumed) TLS/SSL handshakes are recorded separately.
+ * <p>
+ * Metrics can be used to size per route connection limits based on actual
+ * pool behavior. For instance, a high lease wait time combined with a low
+ * connect time usually means the per route maximum is too low.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class HistogramConnPoolMetrics implements ConnPoolMetricsListener {
+
+    private final ConcurrentMap<HttpRoute, RouteMetrics> routeMap;
+
+    public HistogramConnPoolMetrics() {
+        super();
+        this.routeMap = new ConcurrentHashMap<HttpRoute, RouteMetrics>();
+    }
+
+    private RouteMetrics getOrCreate(final HttpRoute route) {
+        RouteMetrics metrics = this.routeMap.get(route);
+        if (metrics == null) {
+            final RouteMetrics newMetrics = new RouteMetrics();
+            metrics = this.routeMap.putIfAbsent(route, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public void leaseRequested(final HttpRoute route) {
+        final RouteMetrics metrics = getOrCreate(route);
+        final int pending = metrics.pending.incrementAndGet();
+        for (;;) {
+            final int current = metrics.maxPending.get();
+            if (pending <= current || metrics.maxPending.compareAndSet(current, pending)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void leaseCompleted(final HttpRoute route, final long waitNanos) {
+        final RouteMetrics metrics = getOrCreate(route);
+        metrics.pending.decrementAndGet();
+        metrics.leaseWait.record(waitNanos);
+    }
+
+    @Override
+    public void leaseFailed(final HttpRoute route, final long waitNanos, final boolean timeout) {
+        final RouteMetrics metrics = getOrCreate(route);
+        metrics.pending.decrementAndGet();
+        metrics.leaseFailures.incrementAndGet();
+        if (timeout) {
+            metrics.leaseTimeouts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectCompleted(final HttpRoute route, final long connectNanos) {
+        getOrCreate(route).connectTime.record(connectNanos);
+    }
+
+    @Override
+    public void connectFailed(final HttpRoute route, final long connectNanos, final boolean timeout) {
+        final RouteMetrics metrics = getOrCreate(route);
+        metrics.connectFailures.incrementAndGet();
+        if (timeout) {
+            metrics.connectTimeouts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void handshakeCompleted(final HttpRoute route, final long handshakeNanos, final boolean resumed) {
+        final RouteMetrics metrics = getOrCreate(route);
+        if (resumed) {
+            metrics.resumedHandshakeTime.record(handshakeNanos);
+        } else {
+            metrics.handshakeTime.record(handshakeNanos);
+        }
+    }
+
+    /**
+     * Returns all routes metrics have been recorded for.
+     */
+    public Set<HttpRoute> getRoutes() {
+        return Collections.unmodifiableSet(this.routeMap.keySet());
+    }
+
+    /**
+     * Returns metrics of the given route or {@code null} if none have been recorded.
+     */
+    public RouteMetrics getMetrics(final HttpRoute route) {
+        return this.routeMap.get(route);
+    }
+
+    /**
+     * Discards metrics of all routes.
+     */
+    public void clear() {
+        this.routeMap.clear();
+    }
+
+    @Override
+    public String toString() {
+        return this.routeMap.toString();
+    }
+
+    /**
+     * Metrics of an individual route.
+     */
+    @ThreadSafe
+    public static class RouteMetrics {
+
+        private final LatencyHistogram leaseWait;
+        private final LatencyHistogram connectTime;
+        private final LatencyHistogram handshakeTime;
+        private final LatencyHistogram resumedHandshakeTime;
+        private final AtomicInteger pending;
+        private final AtomicInteger maxPending;
+        private final AtomicLong leaseFailures;
+        private final AtomicLong leaseTimeouts;
+        private final AtomicLong connectFailures;
+        private final AtomicLong connectTimeouts;
+
+        RouteMetrics() {
+            super();
+            this.leaseWait = new LatencyHistogram();
+            this.connectTime = new LatencyHistogram();
+            this.handshakeTime = new LatencyHistogram();
+            this.resumedHandshakeTime = new LatencyHistogram();
+            this.pending = new AtomicInteger();
+            this.maxPending = new AtomicInteger();
+            this.leaseFailures = new AtomicLong();
+            this.leaseTimeouts = new AtomicLong();
+            this.connectFailures = new AtomicLong();
+            this.connectTimeouts = new AtomicLong();
+        }
+
+        /**
+         * Returns the histogram of lease wait times in nanoseconds of successful
+         * connection requests.
+         */
+        public LatencyHistogram getLeaseWait() {
+            return this.leaseWait;
+        }
+
+        /**
+         * Returns the histogram of connect times in nanoseconds.
+         */
+        public LatencyHistogram getConnectTime() {
+            return this.connectTime;
+        }
+
+        /**
+         * Returns the histogram of full TLS/SSL handshake times in nanoseconds.
+         */
+        public LatencyHistogram getHandshakeTime() {
+            return this.handshakeTime;
+        }
+
+        /**
+         * Returns the histogram of abbreviated TLS/SSL handshake times in
+         * nanoseconds of connections that resumed a previous session.
+         */
+        public LatencyHistogram getResumedHandshakeTime() {
+            return this.resumedHandshakeTime;
+        }
+
+        /**
+         * Returns the number of connection requests currently waiting for a lease.
+         */
+        public int getPending() {
+            return this.pending.get();
+        }
+
+        /**
+         * Returns the highest number of connection requests ever waiting for a lease
+         * at the same time.
+         */
+        public int getMaxPending() {
+            return this.maxPending.get();
+        }
+
+        /**
+         * Returns the number of failed or cancelled connection requests.
+         */
+        public long getLeaseFailures() {
+            return this.leaseFailures.get();
+        }
+
+        /**
+         * Returns the number of connection requests failed due to a timeout.
+         */
+        public long getLeaseTimeouts() {
+            return this.leaseTimeouts.get();
+        }
+
+        /**
+         * Returns the number of failed connects.
+         */
+        public long getConnectFailures() {
+            return this.connectFailures.get();
+        }
+
+        /**
+         * Returns the number of timed out connects.
+         */
+        public long getConnectTimeouts() {
+            return this.connectTimeouts.get();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("[lease wait: ").append(this.leaseWait);
+            buf.append("; connect: ").append(this.connectTime);
+            buf.append("; handshake: ").append(this.handshakeTime);
+            buf.append("; resumed handshake: ").append(this.resumedHandshakeTime);
+            buf.append("; pending: ").append(this.pending.get());
+            buf.append(" (max ").append(this.maxPending.get()).append(")");
+            buf.append("; lease failures: ").append(this.leaseFailures.get());
+            buf.append(" (timeouts ").append(this.leaseTimeouts.get()).append(")");
+            buf.append("; connect failures: ").append(this.connectFailures.get());
+            buf.append(" (timeouts ").append(this.connectTimeouts.get()).append(")]");
+            return buf.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPool;
+import org.apache.http.pool.ConnPoolControl;
+
+/**
+ * Connection pool operations used by {@link PoolingNHttpClientConnectionManager}.
+ */
+interface InternalConnPool extends ConnPool<HttpRoute, CPoolEntry>, ConnPoolControl<HttpRoute> {
+
+    Future<CPoolEntry> lease(
+            HttpRoute route, Object state,
+            long connectTimeout, long leaseTimeout, TimeUnit tunit,
+            FutureCallback<CPoolEntry> callback);
+
+    void closeIdle(long idletime, TimeUnit tunit);
+
+    void closeExpired();
+
+    /**
+     * Closes the given entries if they are available and have not been
+     * updated since the given time.
+     *
+     * @param entries entries mapped to the time of their last update.
+     */
+    void evict(Map<CPoolEntry, Long> entries);
+
+    Set<HttpRoute> getRoutes();
+
+    void shutdown(long waitMs) throws IOException;
+
+}
@@ -0,0 +1,172 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.util.Args;
+
+/**
+ * Lock-free histogram of non-negative {@code long} values such as latencies
+ * in nanoseconds. Values are counted in logarithmic buckets with four linear
+ * sub-buckets per power of two, which bounds the relative error of reported
+ * percentiles to 25% while keeping the memory footprint constant.
+ * <p>
+ * Recording a value never blocks. Statistics read while values are being recorded
+ * may not reflect a consistent snapshot.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        super();
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.total = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int msb = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int sub = index % SUB_BUCKETS;
+        final long lower = (long) (SUB_BUCKETS | sub) << (msb - SUB_BUCKET_BITS);
+        final long upper = lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+        return upper >= lower ? upper : Long.MAX_VALUE;
+    }
+
+    /**
+     * Records the given value. Negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        final long v = value > 0 ? value : 0;
+        this.buckets.incrementAndGet(bucketIndex(v));
+        this.count.incrementAndGet();
+        this.total.addAndGet(v);
+        for (;;) {
+            final long current = this.max.get();
+            if (v <= current || this.max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the largest recorded value or {@code 0} if no values have been recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the arithmetic mean of recorded values or {@code 0} if no values
+     * have been recorded.
+     */
+    public double getMean() {
+        final long n = this.count.get();
+        return n > 0 ? (double) this.total.get() / n : 0;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of recorded values
+     * or {@code 0} if no values have been recorded.
+     *
+     * @param percentile percentile in the range of {@code 0} to {@code 100}.
+     */
+    public long getPercentile(final double percentile) {
+        Args.check(percentile >= 0 && percentile <= 100, "Percentile must be within [0, 100]");
+        final long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        final long currentMax = this.max.get();
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += this.buckets.get(i);
+            if (cumulative >= rank) {
+                return Math.min(bucketUpperBound(i), currentMax);
+            }
+        }
+        return currentMax;
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[count: ").append(getCount());
+        buf.append("; mean: ").append((long) getMean());
+        buf.append("; p50: ").append(getPercentile(50));
+        buf.append("; p99: ").append(getPercentile(99));
+        buf.append("; max: ").append(getMax()).append("]");
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.ConfigData;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.pool.NIOConnFactory;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+
+/**
+ * {@link ConnectingIOReactor} decorator that connects to multihomed hosts
+ * represented by {@link MultihomeInetSocketAddress} by trying their addresses
+ * in turn. The next address is tried as soon as the previous attempt fails or
+ * after the configured connect delay has elapsed, whichever comes first.
+ * The first attempt to succeed wins and all other attempts get cancelled.
+ * Sessions of attempts that connect after the winner are bound to a connection
+ * created by the connection factory and closed right away, as the I/O event
+ * dispatch expects every session it is notified of to carry a connection.
+ * <p>
+ * All other addresses are passed to the underlying I/O reactor as is.
+ * <p>
+ * If a {@link ConnPoolMetricsListener} is configured, the time it takes
+ * to connect to a route, including all fallback attempts, is reported to it.
+ */
+@ThreadSafe
+class MultihomeConnectingIOReactor implements ConnectingIOReactor {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConnectingIOReactor ioreactor;
+    private final ConfigData configData;
+    private final NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory;
+
+    private ScheduledExecutorService scheduler;
+
+    MultihomeConnectingIOReactor(
+            final ConnectingIOReactor ioreactor,
+            final ConfigData configData,
+            final NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory) {
+        super();
+        this.ioreactor = ioreactor;
+        this.configData = configData;
+        this.connFactory = connFactory;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "multihome-connect");
+                    t.setDaemon(true);
+                    return t;
+                }
+
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            this.scheduler = executor;
+        }
+        return this.scheduler;
+    }
+
+    private synchronized void shutdownScheduler() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    private static void cancelAll(final List<SessionRequest> attempts) {
+        for (final SessionRequest attempt: attempts) {
+            attempt.cancel();
+        }
+    }
+
+    /**
+     * Discards the session of an attempt that has connected after another
+     * attempt has already won. The I/O reactor dispatches the session once
+     * the attempt callback returns and the dispatch expects a connection to be
+     * bound to it, so a connection is created and closed in its place.
+     */
+    private void discard(final SessionRequest attempt, final Object attachment) {
+        final IOSession session = attempt.getSession();
+        if (session == null) {
+            return;
+        }
+        if (this.connFactory != null && attachment instanceof HttpRoute
+                && session.getAttribute(IOEventDispatch.CONNECTION_KEY) == null) {
+            try {
+                final ManagedNHttpClientConnection conn = this.connFactory.create((HttpRoute) attachment, session);
+                conn.shutdown();
+            } catch (final IOException ex) {
+                this.log.debug("I/O exception discarding connection", ex);
+            }
+        }
+        session.close();
+    }
+
+    @Override
+    public SessionRequest connect(
+            final SocketAddress remoteAddress,
+            final SocketAddress localAddress,
+            final Object attachment,
+            final SessionRequestCallback originalCallback) {
+        final ConnPoolMetricsListener metricsListener = this.configData.getMetricsListener();
+        final SessionRequestCallback callback;
+        if (metricsListener != null && attachment instanceof HttpRoute) {
+            callback = new MetricsSessionRequestCallback(
+                    (HttpRoute) attachment, metricsListener, originalCallback);
+        } else {
+            callback = originalCallback;
+        }
+        if (remoteAddress instanceof MultihomeInetSocketAddress) {
+            final InetSocketAddress[] addresses = ((MultihomeInetSocketAddress) remoteAddress).getAddresses();
+            if (addresses.length > 1) {
+                final MultihomeSessionRequest request = new MultihomeSessionRequest(
+                        addresses, localAddress, attachment, callback,
+                        this.configData.getMultihomeConnectDelay());
+                request.connectNext();
+                return request;
+            }
+        }
+        return this.ioreactor.connect(remoteAddress, localAddress, attachment, callback);
+    }
+
+    @Override
+    public IOReactorStatus getStatus() {
+        return this.ioreactor.getStatus();
+    }
+
+    @Override
+    public void execute(final IOEventDispatch eventDispatch) throws IOException {
+        this.ioreactor.execute(eventDispatch);
+    }
+
+    @Override
+    public void shutdown(final long waitMs) throws IOException {
+        shutdownScheduler();
+        this.ioreactor.shutdown(waitMs);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        shutdownScheduler();
+        this.ioreactor.shutdown();
+    }
+
+    static class MetricsSessionRequestCallback implements SessionRequestCallback {
+
+        private final HttpRoute route;
+        private final ConnPoolMetricsListener metricsListener;
+        private final SessionRequestCallback callback;
+        private final long startNanos;
+
+        MetricsSessionRequestCallback(
+                final HttpRoute route,
+                final ConnPoolMetricsListener metricsListener,
+                final SessionRequestCallback callback) {
+            super();
+            this.route = route;
+            this.metricsListener = metricsListener;
+            this.callback = callback;
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void completed(final SessionRequest request) {
+            this.metricsListener.connectCompleted(this.route, System.nanoTime() - this.startNanos);
+            if (this.callback != null) {
+                this.callback.completed(request);
+            }
+        }
+
+        @Override
+        public void failed(final SessionRequest request) {
+            this.metricsListener.connectFailed(this.route, System.nanoTime() - this.startNanos,
+                    request.getException() instanceof SocketTimeoutException);
+            if (this.callback != null) {
+                this.callback.failed(request);
+            }
+        }
+
+        @Override
+        public void timeout(final SessionRequest request) {
+            this.metricsListener.connectFailed(this.route, System.nanoTime() - this.startNanos, true);
+            if (this.callback != null) {
+                this.callback.timeout(request);
+            }
+        }
+
+        @Override
+        public void cancelled(final SessionRequest request) {
+            if (this.callback != null) {
+                this.callback.cancelled(request);
+            }
+        }
+
+    }
+
+    class MultihomeSessionRequest implements SessionRequest, SessionRequestCallback {
+
+        private final InetSocketAddress[] addresses;
+        private final SocketAddress localAddress;
+        private final Object attachment;
+        private final SessionRequestCallback callback;
+        private final int connectDelay;
+        private final List<SessionRequest> attempts;
+
+        private int index;
+        private int outstanding;
+        private int connectTimeout;
+        private ScheduledFuture<?> scheduledAttempt;
+        private volatile SessionRequest winner;
+        private IOException exception;
+        private volatile boolean completed;
+
+        MultihomeSessionRequest(
+                final InetSocketAddress[] addresses,
+                final SocketAddress localAddress,
+                final Object attachment,
+                final SessionRequestCallback callback,
+                final int connectDelay) {
+            super();
+            this.addresses = addresses;
+            this.localAddress = localAddress;
+            this.attachment = attachment;
+            this.callback = callback;
+            this.connectDelay = connectDelay;
+            this.attempts = new ArrayList<SessionRequest>(addresses.length);
+        }
+
+        void connectNext() {
+            synchronized (this) {
+                if (this.completed || this.index >= this.addresses.length) {
+                    return;
+                }
+                if (this.scheduledAttempt != null) {
+                    this.scheduledAttempt.cancel(false);
+                    this.scheduledAttempt = null;
+                }
+                final InetSocketAddress address = this.addresses[this.index++];
+                if (log.isDebugEnabled()) {
+                    log.debug("Connecting to " + address + " (attempt " + this.index +
+                            " of " + this.addresses.length + ")");
+                }
+                this.outstanding++;
+                final SessionRequest attempt = ioreactor.connect(address, this.localAddress, this.attachment, this);
+                attempt.setConnectTimeout(this.connectTimeout);
+                this.attempts.add(attempt);
+                if (this.index < this.addresses.length) {
+                    this.scheduledAttempt = getScheduler().schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                connectNext();
+                            } catch (final RuntimeException ex) {
+                                attemptFailed(null, new IOException(ex.getMessage()));
+                            }
+                        }
+
+                    }, this.connectDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private List<SessionRequest> complete() {
+            this.completed = true;
+            if (this.scheduledAttempt != null) {
+                this.scheduledAttempt.cancel(false);
+                this.scheduledAttempt = null;
+            }
+            final List<SessionRequest> pending = new ArrayList<SessionRequest>(this.attempts.size());
+            for (final SessionRequest attempt: this.attempts) {
+                if (attempt != this.winner) {
+                    pending.add(attempt);
+                }
+            }
+            notifyAll();
+            return pending;
+        }
+
+        private void attemptFailed(final SessionRequest attempt, final IOException ex) {
+            final boolean fallback;
+            synchronized (this) {
+                if (this.completed) {
+                    return;
+                }
+                if (attempt != null) {
+                    this.outstanding--;
+                }
+                this.exception = ex;
+                fallback = this.index < this.addresses.length;
+                if (!fallback && this.outstanding > 0) {
+                    return;
+                }
+                if (!fallback) {
+                    complete();
+                }
+            }
+            if (fallback) {
+                connectNext();
+            } else if (ex instanceof SocketTimeoutException) {
+                this.callback.timeout(this);
+            } else {
+                this.callback.failed(this);
+            }
+        }
+
+        @Override
+        public void completed(final SessionRequest attempt) {
+            final List<SessionRequest> pending;
+            synchronized (this) {
+                if (this.completed) {
+                    discard(attempt, this.attachment);
+                    return;
+                }
+                this.winner = attempt;
+                pending = complete();
+            }
+            // Cancel the losing attempts before the winner gets dispatched
+            cancelAll(pending);
+            this.callback.completed(this);
+        }
+
+        @Override
+        public void failed(final SessionRequest attempt) {
+            if (log.isDebugEnabled()) {
+                log.debug("Connect to " + attempt.getRemoteAddress() + " failed", attempt.getException());
+            }
+            attemptFailed(attempt, attempt.getException());
+        }
+
+        @Override
+        public void timeout(final SessionRequest attempt) {
+            if (log.isDebugEnabled()) {
+                log.debug("Connect to " + attempt.getRemoteAddress() + " timed out");
+            }
+            attemptFailed(attempt, new SocketTimeoutException(
+                    "Timeout connecting to " + attempt.getRemoteAddress()));
+        }
+
+        @Override
+        public void cancelled(final SessionRequest attempt) {
+            final List<SessionRequest> pending;
+            synchronized (this) {
+                if (this.completed) {
+                    return;
+                }
+                pending = complete();
+            }
+            cancelAll(pending);
+            this.callback.cancelled(this);
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            final SessionRequest local = this.winner;
+            return local != null ? local.getRemoteAddress() : this.addresses[0];
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return this.localAddress;
+        }
+
+        @Override
+        public Object getAttachment() {
+            return this.attachment;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return this.completed;
+        }
+
+        @Override
+        public IOSession getSession() {
+            // Must not hold this lock: the winning attempt is locked by the
+            // I/O dispatcher while it cancels the losing attempts
+            final SessionRequest local = this.winner;
+            return local != null ? local.getSession() : null;
+        }
+
+        @Override
+        public synchronized IOException getException() {
+            return this.winner != null ? null : this.exception;
+        }
+
+        @Override
+        public synchronized void waitFor() throws InterruptedException {
+            while (!this.completed) {
+                wait();
+            }
+        }
+
+        @Override
+        public synchronized int getConnectTimeout() {
+            return this.connectTimeout;
+        }
+
+        @Override
+        public synchronized void setConnectTimeout(final int timeout) {
+            this.connectTimeout = timeout;
+            for (final SessionRequest attempt: this.attempts) {
+                attempt.setConnectTimeout(timeout);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            final List<SessionRequest> pending;
+            synchronized (this) {
+                if (this.completed) {
+                    return;
+                }
+                pending = complete();
+            }
+            cancelAll(pending);
+            this.callback.cancelled(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * {@link InetSocketAddress} that represents the primary address of a multihomed
+ * host while carrying all other resolved addresses of the same host as fallbacks.
+ * <p>
+ * Addresses are ordered the way they are expected to be tried, alternating
+ * between IPv6 and IPv4 starting with the family of the first resolved address.
+ */
+class MultihomeInetSocketAddress extends InetSocketAddress {
+
+    private static final long serialVersionUID = 7829327315328546367L;
+
+    private final InetSocketAddress[] addresses;
+
+    MultihomeInetSocketAddress(final InetAddress[] resolved, final int port) {
+        super(resolved[0], port);
+        final List<InetAddress> sorted = interleave(resolved);
+        this.addresses = new InetSocketAddress[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            this.addresses[i] = new InetSocketAddress(sorted.get(i), port);
+        }
+    }
+
+    static List<InetAddress> interleave(final InetAddress[] resolved) {
+        final boolean preferIPv6 = resolved[0] instanceof Inet6Address;
+        final LinkedList<InetAddress> preferred = new LinkedList<InetAddress>();
+        final LinkedList<InetAddress> other = new LinkedList<InetAddress>();
+        for (final InetAddress address: resolved) {
+            if ((address instanceof Inet6Address) == preferIPv6) {
+                preferred.add(address);
+            } else {
+                other.add(address);
+            }
+        }
+        final List<InetAddress> sorted = new ArrayList<InetAddress>(resolved.length);
+        while (!preferred.isEmpty() || !other.isEmpty()) {
+            if (!preferred.isEmpty()) {
+                sorted.add(preferred.removeFirst());
+            }
+            if (!other.isEmpty()) {
+                sorted.add(other.removeFirst());
+            }
+        }
+        return sorted;
+    }
+
+    public InetSocketAddress[] getAddresses() {
+        return this.addresses;
+    }
+
+}
@@ -30,14 +30,24 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpHost;
 import org.apache.http.annotation.ThreadSafe;
 import org.apache.http.concurrent.BasicFuture;
@@ -53,6 +63,7 @@ import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.conn.DefaultSchemePortResolver;
 import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
 import org.apache.http.nio.conn.ManagedNHttpClientConnection;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.conn.NHttpConnectionFactory;
@@ -66,6 +77,7 @@ import org.apache.http.nio.reactor.IOEventDispatch;
 import org.apache.http.nio.reactor.IOSession;
 import org.apache.http.pool.ConnPoolControl;
 import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Args;
 import org.apache.http.util.Asserts;
@@ -95,11 +107,17 @@ public class PoolingNHttpClientConnectionManager
     private final Log log = LogFactory.getLog(getClass());
 
     static final String IOSESSION_FACTORY_REGISTRY = "http.iosession-factory-registry";
+    static final String SSL_SESSION_ESTABLISHED = "http.nio.ssl-session-established";
 
     private final ConnectingIOReactor ioreactor;
     private final ConfigData configData;
-    private final CPool pool;
+    private final InternalConnPool pool;
+    private final ConnectionEvictor evictor;
     private final Registry<SchemeIOSessionStrategy> iosessionFactoryRegistry;
+    private final SchemePortResolver schemePortResolver;
+
+    private volatile boolean poolStatsLogging = true;
+    private volatile int validateAfterInactivity = 2000;
 
     private static Registry<SchemeIOSessionStrategy> getDefaultRegistry() {
         return RegistryBuilder.<SchemeIOSessionStrategy>create()
@@ -154,27 +172,56 @@ public class PoolingNHttpClientConnectionManager
             final SchemePortResolver schemePortResolver,
             final DnsResolver dnsResolver,
             final long timeToLive, final TimeUnit tunit) {
+        this(ioreactor, connFactory, iosessionFactoryRegistry, schemePortResolver, dnsResolver,
+            timeToLive, tunit, PoolLockingPolicy.GLOBAL);
+    }
+
+    /**
+     * @since 4.2
+     */
+    public PoolingNHttpClientConnectionManager(
+            final ConnectingIOReactor ioreactor,
+            final NHttpConnectionFactory<ManagedNHttpClientConnection> connFactory,
+            final Registry<SchemeIOSessionStrategy> iosessionFactoryRegistry,
+            final SchemePortResolver schemePortResolver,
+            final DnsResolver dnsResolver,
+            final long timeToLive, final TimeUnit tunit,
+            final PoolLockingPolicy lockingPolicy) {
         super();
         Args.notNull(ioreactor, "I/O reactor");
         Args.notNull(iosessionFactoryRegistry, "I/O session factory registry");
         this.ioreactor = ioreactor;
         this.configData = new ConfigData();
-        this.pool = new CPool(ioreactor,
-            new InternalConnectionFactory(this.configData, connFactory),
-            new InternalAddressResolver(schemePortResolver, dnsResolver),
-            2, 20, timeToLive, tunit != null ? tunit : TimeUnit.MILLISECONDS);
+        final InternalConnectionFactory internalConnFactory = new InternalConnectionFactory(
+            this.configData, connFactory);
+        final MultihomeConnectingIOReactor connector = new MultihomeConnectingIOReactor(
+            ioreactor, this.configData, internalConnFactory);
+        final InternalAddressResolver addressResolver = new InternalAddressResolver(
+            schemePortResolver, dnsResolver, this.configData);
+        if (lockingPolicy == PoolLockingPolicy.PER_ROUTE) {
+            this.pool = new StripedCPool(connector, internalConnFactory, addressResolver,
+                2, 20, timeToLive, tunit != null ? tunit : TimeUnit.MILLISECONDS);
+        } else {
+            this.pool = new CPool(connector, internalConnFactory, addressResolver,
+                2, 20, timeToLive, tunit != null ? tunit : TimeUnit.MILLISECONDS);
+        }
+        this.evictor = new ConnectionEvictor(this.pool);
         this.iosessionFactoryRegistry = iosessionFactoryRegistry;
+        this.schemePortResolver = schemePortResolver != null ? schemePortResolver :
+            DefaultSchemePortResolver.INSTANCE;
     }
 
     PoolingNHttpClientConnectionManager(
             final ConnectingIOReactor ioreactor,
-            final CPool pool,
+            final InternalConnPool pool,
             final Registry<SchemeIOSessionStrategy> iosessionFactoryRegistry) {
         super();
         this.ioreactor = ioreactor;
         this.configData = new ConfigData();
         this.pool = pool;
+        this.evictor = new ConnectionEvictor(pool);
         this.iosessionFactoryRegistry = iosessionFactoryRegistry;
+        this.schemePortResolver = DefaultSchemePortResolver.INSTANCE;
     }
 
     @Override
@@ -188,11 +235,12 @@ public class PoolingNHttpClientConnectionManager
 
     @Override
     public void execute(final IOEventDispatch eventDispatch) throws IOException {
-        this.ioreactor.execute(eventDispatch);
+        this.ioreactor.execute(new InternalIOEventDispatch(eventDispatch));
     }
 
     public void shutdown(final long waitMs) throws IOException {
         this.log.debug("Connection manager is shutting down");
+        this.evictor.shutdown();
         this.pool.shutdown(waitMs);
         this.log.debug("Connection manager shut down");
     }
@@ -200,6 +248,7 @@ public class PoolingNHttpClientConnectionManager
     @Override
     public void shutdown() throws IOException {
         this.log.debug("Connection manager is shutting down");
+        this.evictor.shutdown();
         this.pool.shutdown(2000);
         this.log.debug("Connection manager shut down");
     }
@@ -214,6 +263,9 @@ public class PoolingNHttpClientConnectionManager
     }
 
     private String formatStats(final HttpRoute route) {
+        if (!this.poolStatsLogging) {
+            return "";
+        }
         final StringBuilder buf = new StringBuilder();
         final PoolStats totals = this.pool.getTotalStats();
         final PoolStats stats = this.pool.getStats(route);
@@ -244,6 +296,18 @@ public class PoolingNHttpClientConnectionManager
             final long leaseTimeout,
             final TimeUnit tunit,
             final FutureCallback<NHttpClientConnection> callback) {
+        return requestConnection(route, state, connectTimeout, leaseTimeout, tunit, callback,
+                this.configData.getMetricsListener());
+    }
+
+    private Future<NHttpClientConnection> requestConnection(
+            final HttpRoute route,
+            final Object state,
+            final long connectTimeout,
+            final long leaseTimeout,
+            final TimeUnit tunit,
+            final FutureCallback<NHttpClientConnection> callback,
+            final ConnPoolMetricsListener metricsListener) {
         Args.notNull(route, "HTTP route");
         if (this.log.isDebugEnabled()) {
             this.log.debug("Connection request: " + format(route, state) + formatStats(route));
@@ -262,9 +326,13 @@ public class PoolingNHttpClientConnectionManager
                     " protocol is not supported"));
             return future;
         }
-        this.pool.lease(route, state,
-                connectTimeout, leaseTimeout, tunit != null ? tunit : TimeUnit.MILLISECONDS,
-                new InternalPoolEntryCallback(future));
+        if (metricsListener != null) {
+            metricsListener.leaseRequested(route);
+        }
+        final InternalPoolEntryCallback poolEntryCallback = new InternalPoolEntryCallback(
+                future, route, state, connectTimeout, leaseTimeout,
+                tunit != null ? tunit : TimeUnit.MILLISECONDS, metricsListener);
+        poolEntryCallback.lease();
         return future;
     }
 
@@ -299,7 +367,11 @@ public class PoolingNHttpClientConnectionManager
                     }
                 }
             } finally {
-                this.pool.release(entry, conn.isOpen() && entry.isRouteComplete());
+                final boolean reusable = conn.isOpen() && entry.isRouteComplete();
+                this.pool.release(entry, reusable);
+                if (reusable) {
+                    this.evictor.released(entry);
+                }
                 if (this.log.isDebugEnabled()) {
                     this.log.debug("Connection released: " + format(entry) + formatStats(entry.getRoute()));
                 }
@@ -322,6 +394,18 @@ public class PoolingNHttpClientConnectionManager
             final NHttpClientConnection managedConn,
             final HttpRoute route,
             final HttpContext context) throws IOException {
+        startRoute(managedConn, route, context, null);
+    }
+
+    /**
+     * Returns {@code true} if the connection has been upgraded to TLS/SSL, in which
+     * case the handshake callback, if given, gets notified once the handshake is over.
+     */
+    private boolean startRoute(
+            final NHttpClientConnection managedConn,
+            final HttpRoute route,
+            final HttpContext context,
+            final FutureCallback<SSLSession> handshakeCallback) throws IOException {
         Args.notNull(managedConn, "Managed connection");
         Args.notNull(route, "HTTP route");
         final HttpHost host;
@@ -341,9 +425,44 @@ public class PoolingNHttpClientConnectionManager
                 final CPoolEntry entry = CPoolProxy.getPoolEntry(managedConn);
                 final ManagedNHttpClientConnection conn = entry.getConnection();
                 final IOSession ioSession = conn.getIOSession();
-                final IOSession currentSession = sf.upgrade(host, ioSession);
+                final ConnPoolMetricsListener metricsListener = this.configData.getMetricsListener();
+                if (metricsListener != null || handshakeCallback != null) {
+                    ioSession.setAttribute(SSLIOSessionStrategy.HANDSHAKE_CALLBACK,
+                            new InternalHandshakeCallback(route, metricsListener, handshakeCallback));
+                }
+                final IOSession currentSession = sf.upgrade(resolvePort(host), ioSession);
                 conn.bind(currentSession);
+                if (currentSession.isClosed()) {
+                    // The session may have been closed before the callback was set,
+                    // in which case it would never be notified on disconnect
+                    handshakeAborted(currentSession);
+                }
             }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives the host an explicit port, which TLS/SSL session caching relies upon.
+     */
+    private HttpHost resolvePort(final HttpHost host) throws UnsupportedSchemeException {
+        if (host.getPort() >= 0) {
+            return host;
+        }
+        final int port = this.schemePortResolver.resolve(host);
+        return host.getAddress() != null ?
+            new HttpHost(host.getAddress(), host.getHostName(), port, host.getSchemeName()) :
+            new HttpHost(host.getHostName(), port, host.getSchemeName());
+    }
+
+    private static void handshakeAborted(final IOSession iosession) {
+        @SuppressWarnings("unchecked")
+        final FutureCallback<SSLSession> handshakeCallback =
+                (FutureCallback<SSLSession>) iosession.removeAttribute(SSLIOSessionStrategy.HANDSHAKE_CALLBACK);
+        if (handshakeCallback != null) {
+            handshakeCallback.failed(new ConnectionClosedException(
+                    "Connection closed before TLS/SSL handshake completed"));
         }
     }
 
@@ -368,7 +487,7 @@ public class PoolingNHttpClientConnectionManager
         synchronized (managedConn) {
             final CPoolEntry entry = CPoolProxy.getPoolEntry(managedConn);
             final ManagedNHttpClientConnection conn = entry.getConnection();
-            final IOSession currentSession = sf.upgrade(host, conn.getIOSession());
+            final IOSession currentSession = sf.upgrade(resolvePort(host), conn.getIOSession());
             conn.bind(currentSession);
         }
     }
@@ -473,30 +592,440 @@ public class PoolingNHttpClientConnectionManager
         this.configData.setConnectionConfig(host, connectionConfig);
     }
 
+    /**
+     * @since 4.2
+     */
+    public boolean isMultihomeConnect() {
+        return this.configData.isMultihomeConnect();
+    }
+
+    /**
+     * Enables or disables multihome connect. If enabled and the target host (or proxy)
+     * resolves to more than one address, the pool falls back to the remaining addresses
+     * when a connect fails or does not complete within the multihome connect delay.
+     * Addresses are tried alternating between IPv6 and IPv4. Disabled by default,
+     * in which case only the first resolved address is ever used.
+     *
+     * @since 4.2
+     */
+    public void setMultihomeConnect(final boolean multihomeConnect) {
+        this.configData.setMultihomeConnect(multihomeConnect);
+    }
+
+    /**
+     * @since 4.2
+     */
+    public int getMultihomeConnectDelay() {
+        return this.configData.getMultihomeConnectDelay();
+    }
+
+    /**
+     * Defines the head start in milliseconds given to a connection attempt before
+     * a parallel attempt to the next resolved address is started. Default: 250 ms.
+     *
+     * @since 4.2
+     */
+    public void setMultihomeConnectDelay(final int multihomeConnectDelay) {
+        Args.notNegative(multihomeConnectDelay, "Multihome connect delay");
+        this.configData.setMultihomeConnectDelay(multihomeConnectDelay);
+    }
+
+    /**
+     * @since 4.2
+     */
+    public boolean isPoolStatsLogging() {
+        return this.poolStatsLogging;
+    }
+
+    /**
+     * @since 4.2
+     */
+    public boolean isEvictExpiredConnections() {
+        return this.evictor.isEvictExpired();
+    }
+
+    /**
+     * Enables or disables eviction of expired connections from the pool as soon as
+     * they expire. Released connections are indexed by their expiry time and get
+     * closed by the I/O reactor once they are due, within its select interval, so
+     * the pool does not need to be scanned periodically by calling
+     * {@link #closeExpiredConnections()} and no additional thread is needed.
+     * Disabled by default.
+     * <p>
+     * Please note the setting only applies to connections released after
+     * it has been changed.
+     *
+     * @since 4.2
+     */
+    public void setEvictExpiredConnections(final boolean evictExpired) {
+        this.evictor.setEvictExpired(evictExpired);
+    }
+
+    /**
+     * @since 4.2
+     */
+    public long getMaxIdleTime(final TimeUnit tunit) {
+        Args.notNull(tunit, "Time unit");
+        return tunit.convert(this.evictor.getMaxIdleTime(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the time after which idle connections are evicted from the pool. Works
+     * the same way as {@link #setEvictExpiredConnections(boolean)} and replaces
+     * periodic calls to {@link #closeIdleConnections(long, TimeUnit)}. A value of zero
+     * or less disables eviction of idle connections, which is the default.
+     * <p>
+     * Please note the setting only applies to connections released after
+     * it has been changed.
+     *
+     * @since 4.2
+     */
+    public void setMaxIdleTime(final long maxIdleTime, final TimeUnit tunit) {
+        Args.notNull(tunit, "Time unit");
+        this.evictor.setMaxIdleTime(maxIdleTime > 0 ? tunit.toMillis(maxIdleTime) : 0);
+    }
+
+    /**
+     * Returns the period of inactivity in milliseconds after which pooled
+     * connections are validated before being leased. A non-positive value means
+     * connections are never validated.
+     *
+     * @since 4.2
+     */
+    public int getValidateAfterInactivity() {
+        return this.validateAfterInactivity;
+    }
+
+    /**
+     * Defines the period of inactivity in milliseconds after which pooled
+     * connections are validated before being leased. A connection found closed
+     * or stale is discarded and another one is leased in its place instead of
+     * failing the request it was leased for. Non-positive value disables
+     * validation. Defaults to 2 seconds.
+     *
+     * @since 4.2
+     */
+    public void setValidateAfterInactivity(final int ms) {
+        this.validateAfterInactivity = ms;
+    }
+
+    private boolean validate(final CPoolEntry entry) {
+        final int validateAfter = this.validateAfterInactivity;
+        // Entries of connections never released yet have no update time
+        final long lastUsed = Math.max(entry.getUpdated(), entry.getCreated());
+        if (validateAfter <= 0 || lastUsed + validateAfter > System.currentTimeMillis()) {
+            return true;
+        }
+        final ManagedNHttpClientConnection conn = entry.getConnection();
+        return conn.isOpen() && !conn.isStale() && !isHalfClosed(conn);
+    }
+
+    /**
+     * Probes the socket channel of an idle connection with a non-blocking read.
+     * The I/O reactor may not have processed an end of stream or a reset sent
+     * by the peer yet; the read picks it up immediately. Any data read off an
+     * idle connection, be it a premature response or a TLS close notification,
+     * also means the connection cannot be re-used.
+     */
+    private boolean isHalfClosed(final ManagedNHttpClientConnection conn) {
+        final IOSession iosession = conn.getIOSession();
+        final ByteChannel channel = iosession != null ? iosession.channel() : null;
+        if (channel == null) {
+            return false;
+        }
+        if (channel instanceof SelectableChannel && ((SelectableChannel) channel).isBlocking()) {
+            return false;
+        }
+        try {
+            return channel.read(ByteBuffer.allocate(1)) != 0;
+        } catch (final IOException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("I/O error probing connection " + conn + ": " + ex.getMessage());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Enables or disables inclusion of pool statistics in the debug log. Formatting
+     * pool statistics requires acquiring the pool lock several times per connection
+     * request and release, which may cause contention when debug logging is enabled
+     * under load. Enabled by default.
+     *
+     * @since 4.2
+     */
+    public void setPoolStatsLogging(final boolean poolStatsLogging) {
+        this.poolStatsLogging = poolStatsLogging;
+    }
+
+    /**
+     * @since 4.2
+     */
+    public ConnPoolMetricsListener getMetricsListener() {
+        return this.configData.getMetricsListener();
+    }
+
+    /**
+     * Assigns {@link ConnPoolMetricsListener} to be notified of lease wait, connect
+     * and TLS/SSL handshake times. No metrics are recorded by default.
+     *
+     * @see HistogramConnPoolMetrics
+     *
+     * @since 4.2
+     */
+    public void setMetricsListener(final ConnPoolMetricsListener metricsListener) {
+        this.configData.setMetricsListener(metricsListener);
+    }
+
+    static boolean isTimeout(final Exception ex) {
+        return ex instanceof TimeoutException || ex instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Opens up to {@code count} connections to the given route ahead of time so that
+     * subsequent requests do not have to pay the cost of connection setup. Connections
+     * are leased in parallel, the route is completed and then all connections are
+     * released back to the pool as available. Connections already kept alive in the
+     * pool count towards the total.
+     * <p>
+     * For secure routes connections are only released once the TLS/SSL handshake
+     * has completed; connections whose handshake fails are discarded. Pre-warm
+     * leases are not reported to the {@link ConnPoolMetricsListener}, unlike
+     * connects and handshakes.
+     * <p>
+     * The number of connections is capped by the per route maximum. Tunnelled routes
+     * cannot be pre-warmed as their completion requires a {@code CONNECT} exchange.
+     * <p>
+     * The future completes with the number of connections available to the route
+     * once pre-warming is over, or fails if none could be established.
+     *
+     * @param route the route to pre-warm.
+     * @param count number of connections to open.
+     * @param connectTimeout connect and lease timeout.
+     * @param tunit the time unit of the timeout.
+     * @param callback future callback. May be {@code null}.
+     *
+     * @since 4.2
+     */
+    public Future<Integer> prewarm(
+            final HttpRoute route,
+            final int count,
+            final long connectTimeout,
+            final TimeUnit tunit,
+            final FutureCallback<Integer> callback) {
+        Args.notNull(route, "HTTP route");
+        Args.positive(count, "Connection count");
+        Args.check(!route.isTunnelled(), "Tunnelled routes cannot be pre-warmed");
+        final BasicFuture<Integer> future = new BasicFuture<Integer>(callback);
+        final int n = Math.min(count, this.pool.getMaxPerRoute(route));
+        if (n <= 0) {
+            future.completed(Integer.valueOf(0));
+            return future;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Pre-warming " + n + " connection(s): " + format(route, null));
+        }
+        final InternalPrewarmCallback prewarmCallback = new InternalPrewarmCallback(route, n, future);
+        for (int i = 0; i < n; i++) {
+            // Pre-warm leases are not reported to the metrics listener as they do not
+            // reflect the demand for connections
+            requestConnection(route, null, connectTimeout, connectTimeout, tunit, prewarmCallback, null);
+        }
+        return future;
+    }
+
+    /**
+     * Opens up to {@code count} connections to the given route without a connect
+     * or lease timeout.
+     *
+     * @see #prewarm(HttpRoute, int, long, TimeUnit, FutureCallback)
+     *
+     * @since 4.2
+     */
+    public Future<Integer> prewarm(final HttpRoute route, final int count) {
+        return prewarm(route, count, 0, TimeUnit.MILLISECONDS, null);
+    }
+
+    class InternalPrewarmCallback implements FutureCallback<NHttpClientConnection> {
+
+        private final HttpRoute route;
+        private final BasicFuture<Integer> future;
+        private final List<NHttpClientConnection> connections;
+
+        private int outstanding;
+        private Exception lastException;
+
+        InternalPrewarmCallback(
+                final HttpRoute route,
+                final int count,
+                final BasicFuture<Integer> future) {
+            super();
+            this.route = route;
+            this.future = future;
+            this.connections = new ArrayList<NHttpClientConnection>(count);
+            this.outstanding = count;
+        }
+
+        @Override
+        public void completed(final NHttpClientConnection managedConn) {
+            if (isRouteComplete(managedConn)) {
+                done(managedConn, null);
+                return;
+            }
+            final HttpContext context = new BasicHttpContext();
+            final FutureCallback<SSLSession> handshakeCallback = new FutureCallback<SSLSession>() {
+
+                @Override
+                public void completed(final SSLSession sslsession) {
+                    routeComplete(managedConn, route, context);
+                    done(managedConn, null);
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    discard(managedConn, ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    discard(managedConn, null);
+                }
+
+            };
+            try {
+                if (startRoute(managedConn, this.route, context, handshakeCallback)) {
+                    // The SSL session only sends its hello once an I/O event is requested;
+                    // normally the exchange executed over the connection does that
+                    managedConn.requestOutput();
+                } else {
+                    routeComplete(managedConn, this.route, context);
+                    done(managedConn, null);
+                }
+            } catch (final IOException ex) {
+                // The handshake callback is not notified if the upgrade fails
+                discard(managedConn, ex);
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            done(null, ex);
+        }
+
+        @Override
+        public void cancelled() {
+            done(null, null);
+        }
+
+        private void discard(final NHttpClientConnection managedConn, final Exception ex) {
+            try {
+                managedConn.shutdown();
+            } catch (final IOException ignore) {
+            }
+            releaseConnection(managedConn, null, 0, TimeUnit.MILLISECONDS);
+            done(null, ex);
+        }
+
+        private void done(final NHttpClientConnection managedConn, final Exception ex) {
+            final List<NHttpClientConnection> completed;
+            final Exception failure;
+            synchronized (this) {
+                if (managedConn != null) {
+                    this.connections.add(managedConn);
+                }
+                if (ex != null) {
+                    this.lastException = ex;
+                }
+                this.outstanding--;
+                if (this.outstanding > 0) {
+                    return;
+                }
+                completed = this.connections;
+                failure = this.lastException;
+            }
+            // Connections are held until all leases are over so that none gets re-used
+            // by a subsequent lease of the same pre-warm request
+            for (final NHttpClientConnection conn: completed) {
+                releaseConnection(conn, null, 0, TimeUnit.MILLISECONDS);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Pre-warmed " + completed.size() + " connection(s): " + format(this.route, null));
+            }
+            if (completed.isEmpty() && failure != null) {
+                this.future.failed(failure);
+            } else {
+                this.future.completed(Integer.valueOf(completed.size()));
+            }
+        }
+
+    }
+
     class InternalPoolEntryCallback implements FutureCallback<CPoolEntry> {
 
         private final BasicFuture<NHttpClientConnection> future;
+        private final HttpRoute route;
+        private final Object state;
+        private final long connectTimeout;
+        private final long leaseTimeout;
+        private final TimeUnit tunit;
+        private final ConnPoolMetricsListener metricsListener;
+        private final long startNanos;
 
         public InternalPoolEntryCallback(
-                final BasicFuture<NHttpClientConnection> future) {
+                final BasicFuture<NHttpClientConnection> future,
+                final HttpRoute route,
+                final Object state,
+                final long connectTimeout,
+                final long leaseTimeout,
+                final TimeUnit tunit,
+                final ConnPoolMetricsListener metricsListener) {
             super();
             this.future = future;
+            this.route = route;
+            this.state = state;
+            this.connectTimeout = connectTimeout;
+            this.leaseTimeout = leaseTimeout;
+            this.tunit = tunit;
+            this.metricsListener = metricsListener;
+            this.startNanos = metricsListener != null ? System.nanoTime() : 0;
+        }
+
+        void lease() {
+            pool.lease(this.route, this.state, this.connectTimeout, this.leaseTimeout, this.tunit, this);
         }
 
         @Override
         public void completed(final CPoolEntry entry) {
             Asserts.check(entry.getConnection() != null, "Pool entry with no connection");
+            evictor.leased(entry);
+            if (!validate(entry)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Connection " + format(entry) + " is stale; requesting another one");
+                }
+                pool.release(entry, false);
+                if (!this.future.isDone()) {
+                    lease();
+                }
+                return;
+            }
+            if (this.metricsListener != null) {
+                this.metricsListener.leaseCompleted(this.route, System.nanoTime() - this.startNanos);
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Connection leased: " + format(entry) + formatStats(entry.getRoute()));
             }
             final NHttpClientConnection managedConn = CPoolProxy.newProxy(entry);
             if (!this.future.completed(managedConn)) {
                 pool.release(entry, true);
+                evictor.released(entry);
             }
         }
 
         @Override
         public void failed(final Exception ex) {
+            if (this.metricsListener != null) {
+                this.metricsListener.leaseFailed(this.route, System.nanoTime() - this.startNanos, isTimeout(ex));
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Connection request failed", ex);
             }
@@ -505,20 +1034,120 @@ public class PoolingNHttpClientConnectionManager
 
         @Override
         public void cancelled() {
+            if (this.metricsListener != null) {
+                this.metricsListener.leaseFailed(this.route, System.nanoTime() - this.startNanos, false);
+            }
             log.debug("Connection request cancelled");
             this.future.cancel(true);
         }
 
     }
 
+    /**
+     * Routes I/O session timeouts caused by pooled connections becoming due
+     * for eviction to the connection evictor.
+     */
+    class InternalIOEventDispatch implements IOEventDispatch {
+
+        private final IOEventDispatch eventDispatch;
+
+        InternalIOEventDispatch(final IOEventDispatch eventDispatch) {
+            super();
+            this.eventDispatch = eventDispatch;
+        }
+
+        @Override
+        public void connected(final IOSession session) {
+            this.eventDispatch.connected(session);
+        }
+
+        @Override
+        public void inputReady(final IOSession session) {
+            this.eventDispatch.inputReady(session);
+        }
+
+        @Override
+        public void outputReady(final IOSession session) {
+            this.eventDispatch.outputReady(session);
+        }
+
+        @Override
+        public void timeout(final IOSession session) {
+            if (!evictor.timeout(session)) {
+                this.eventDispatch.timeout(session);
+            }
+        }
+
+        @Override
+        public void disconnected(final IOSession session) {
+            handshakeAborted(session);
+            this.eventDispatch.disconnected(session);
+        }
+
+    }
+
+    static class InternalHandshakeCallback implements FutureCallback<SSLSession> {
+
+        private final HttpRoute route;
+        private final ConnPoolMetricsListener metricsListener;
+        private final FutureCallback<SSLSession> callback;
+        private final long startNanos;
+
+        InternalHandshakeCallback(
+                final HttpRoute route,
+                final ConnPoolMetricsListener metricsListener,
+                final FutureCallback<SSLSession> callback) {
+            super();
+            this.route = route;
+            this.metricsListener = metricsListener;
+            this.callback = callback;
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void completed(final SSLSession sslsession) {
+            if (this.metricsListener != null) {
+                // An abbreviated handshake yields the very session cached by an earlier
+                // full handshake, which was marked once that handshake completed
+                final boolean resumed = sslsession.getValue(SSL_SESSION_ESTABLISHED) != null;
+                if (!resumed) {
+                    sslsession.putValue(SSL_SESSION_ESTABLISHED, Boolean.TRUE);
+                }
+                this.metricsListener.handshakeCompleted(this.route, System.nanoTime() - this.startNanos, resumed);
+            }
+            if (this.callback != null) {
+                this.callback.completed(sslsession);
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            if (this.callback != null) {
+                this.callback.failed(ex);
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            if (this.callback != null) {
+                this.callback.cancelled();
+            }
+        }
+
+    }
+
     static class ConfigData {
 
         private final Map<HttpHost, ConnectionConfig> connectionConfigMap;
         private volatile ConnectionConfig defaultConnectionConfig;
+        private volatile boolean multihomeConnect;
+        private volatile int multihomeConnectDelay;
+        private volatile ConnPoolMetricsListener metricsListener;
 
         ConfigData() {
             super();
             this.connectionConfigMap = new ConcurrentHashMap<HttpHost, ConnectionConfig>();
+            this.multihomeConnectDelay = 250;
         }
 
         public ConnectionConfig getDefaultConnectionConfig() {
@@ -537,6 +1166,30 @@ public class PoolingNHttpClientConnectionManager
             this.connectionConfigMap.put(host, connectionConfig);
         }
 
+        public boolean isMultihomeConnect() {
+            return this.multihomeConnect;
+        }
+
+        public void setMultihomeConnect(final boolean multihomeConnect) {
+            this.multihomeConnect = multihomeConnect;
+        }
+
+        public int getMultihomeConnectDelay() {
+            return this.multihomeConnectDelay;
+        }
+
+        public void setMultihomeConnectDelay(final int multihomeConnectDelay) {
+            this.multihomeConnectDelay = multihomeConnectDelay;
+        }
+
+        public ConnPoolMetricsListener getMetricsListener() {
+            return this.metricsListener;
+        }
+
+        public void setMetricsListener(final ConnPoolMetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+        }
+
     }
 
     static class InternalConnectionFactory implements NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> {
@@ -580,15 +1233,24 @@ public class PoolingNHttpClientConnectionManager
 
         private final SchemePortResolver schemePortResolver;
         private final DnsResolver dnsResolver;
+        private final ConfigData configData;
 
         public InternalAddressResolver(
                 final SchemePortResolver schemePortResolver,
-                final DnsResolver dnsResolver) {
+                final DnsResolver dnsResolver,
+                final ConfigData configData) {
             super();
             this.schemePortResolver = schemePortResolver != null ? schemePortResolver :
                 DefaultSchemePortResolver.INSTANCE;
             this.dnsResolver = dnsResolver != null ? dnsResolver :
                     SystemDefaultDnsResolver.INSTANCE;
+            this.configData = configData != null ? configData : new ConfigData();
+        }
+
+        public InternalAddressResolver(
+                final SchemePortResolver schemePortResolver,
+                final DnsResolver dnsResolver) {
+            this(schemePortResolver, dnsResolver, null);
         }
 
         @Override
@@ -606,6 +1268,9 @@ public class PoolingNHttpClientConnectionManager
             }
             final int port = this.schemePortResolver.resolve(host);
             final InetAddress[] addresses = this.dnsResolver.resolve(host.getHostName());
+            if (addresses.length > 1 && this.configData.isMultihomeConnect()) {
+                return new MultihomeInetSocketAddress(addresses, port);
+            }
             return new InetSocketAddress(addresses[0], port);
         }
 
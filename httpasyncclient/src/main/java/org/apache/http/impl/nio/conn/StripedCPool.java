@@ -0,0 +1,807 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.pool.NIOConnFactory;
+import org.apache.http.nio.pool.SocketAddressResolver;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+import org.apache.http.util.LangUtils;
+
+/**
+ * Connection pool that keeps the state of each route separately instead of
+ * guarding all state with a single pool lock like {@link CPool} does.
+ * Idle connections of a route are kept in a lock-free LIFO stack, connection
+ * limits are enforced with atomic counters and pending lease requests are
+ * queued per route. Leasing or releasing a connection of one route therefore
+ * never contends with operations on other routes.
+ * <p>
+ * If the total connection limit has been reached, a request for a route with
+ * no idle connections evicts an idle connection of another route to make room,
+ * same as {@link CPool}. Lease requests with a state object prefer idle connections
+ * with an equal state or no state at all.
+ */
+@ThreadSafe
+class StripedCPool implements InternalConnPool {
+
+    private final Log log = LogFactory.getLog(StripedCPool.class);
+
+    private final ConnectingIOReactor ioreactor;
+    private final NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory;
+    private final SocketAddressResolver<HttpRoute> addressResolver;
+    private final long timeToLive;
+    private final TimeUnit tunit;
+    private final ConcurrentMap<HttpRoute, RoutePool> routeToPool;
+    private final ConcurrentMap<HttpRoute, Integer> maxPerRoute;
+    private final AtomicInteger totalAllocated;
+    private final AtomicInteger waitingCount;
+    private final AtomicBoolean isShutDown;
+
+    private volatile int defaultMaxPerRoute;
+    private volatile int maxTotal;
+
+    public StripedCPool(
+            final ConnectingIOReactor ioreactor,
+            final NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory,
+            final SocketAddressResolver<HttpRoute> addressResolver,
+            final int defaultMaxPerRoute, final int maxTotal,
+            final long timeToLive, final TimeUnit tunit) {
+        super();
+        Args.notNull(ioreactor, "I/O reactor");
+        Args.notNull(connFactory, "Connection factory");
+        Args.notNull(addressResolver, "Address resolver");
+        Args.positive(defaultMaxPerRoute, "Max per route value");
+        Args.positive(maxTotal, "Max total value");
+        this.ioreactor = ioreactor;
+        this.connFactory = connFactory;
+        this.addressResolver = addressResolver;
+        this.timeToLive = timeToLive;
+        this.tunit = tunit;
+        this.routeToPool = new ConcurrentHashMap<HttpRoute, RoutePool>();
+        this.maxPerRoute = new ConcurrentHashMap<HttpRoute, Integer>();
+        this.totalAllocated = new AtomicInteger();
+        this.waitingCount = new AtomicInteger();
+        this.isShutDown = new AtomicBoolean(false);
+        this.defaultMaxPerRoute = defaultMaxPerRoute;
+        this.maxTotal = maxTotal;
+    }
+
+    public boolean isShutdown() {
+        return this.isShutDown.get();
+    }
+
+    @Override
+    public void shutdown(final long waitMs) throws IOException {
+        if (this.isShutDown.compareAndSet(false, true)) {
+            for (final RoutePool pool: this.routeToPool.values()) {
+                for (final LeaseRequest request: pool.connecting) {
+                    final SessionRequest sessionRequest = request.sessionRequest;
+                    if (sessionRequest != null) {
+                        sessionRequest.cancel();
+                    }
+                }
+                LeaseRequest request;
+                while ((request = pool.waiting.poll()) != null) {
+                    this.waitingCount.decrementAndGet();
+                    request.future.cancel();
+                }
+                for (final CPoolEntry entry: pool.available.popAll()) {
+                    entry.close();
+                }
+                for (final CPoolEntry entry: pool.leased) {
+                    entry.close();
+                }
+            }
+            this.ioreactor.shutdown(waitMs);
+        }
+    }
+
+    private RoutePool getPool(final HttpRoute route) {
+        RoutePool pool = this.routeToPool.get(route);
+        if (pool == null) {
+            final RoutePool newPool = new RoutePool(route);
+            pool = this.routeToPool.putIfAbsent(route, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    private CPoolEntry createEntry(final HttpRoute route, final ManagedNHttpClientConnection conn) {
+        final CPoolEntry entry =  new CPoolEntry(this.log, conn.getId(), route, conn, this.timeToLive, this.tunit);
+        entry.setSocketTimeout(conn.getSocketTimeout());
+        return entry;
+    }
+
+    private void onLease(final CPoolEntry entry) {
+        final NHttpClientConnection conn = entry.getConnection();
+        conn.setSocketTimeout(entry.getSocketTimeout());
+    }
+
+    private void onRelease(final CPoolEntry entry) {
+        final NHttpClientConnection conn = entry.getConnection();
+        entry.setSocketTimeout(conn.getSocketTimeout());
+        conn.setSocketTimeout(0);
+    }
+
+    @Override
+    public Future<CPoolEntry> lease(
+            final HttpRoute route, final Object state,
+            final long connectTimeout, final long leaseTimeout, final TimeUnit tunit,
+            final FutureCallback<CPoolEntry> callback) {
+        Args.notNull(route, "Route");
+        Args.notNull(tunit, "Time unit");
+        Asserts.check(!this.isShutDown.get(), "Connection pool shut down");
+        final BasicFuture<CPoolEntry> future = new BasicFuture<CPoolEntry>(callback);
+        final long deadline = leaseTimeout > 0 ? System.currentTimeMillis() + tunit.toMillis(leaseTimeout) : 0;
+        final LeaseRequest request = new LeaseRequest(route, state,
+                connectTimeout > 0 ? tunit.toMillis(connectTimeout) : 0, deadline, future);
+        final RoutePool pool = getPool(route);
+        if (!processRequest(pool, request)) {
+            this.waitingCount.incrementAndGet();
+            pool.waiting.add(request);
+            processWaiting(pool);
+        }
+        return future;
+    }
+
+    @Override
+    public Future<CPoolEntry> lease(
+            final HttpRoute route, final Object state,
+            final FutureCallback<CPoolEntry> callback) {
+        return lease(route, state, -1, -1, TimeUnit.MILLISECONDS, callback);
+    }
+
+    @Override
+    public void release(final CPoolEntry entry, final boolean reusable) {
+        if (entry == null) {
+            return;
+        }
+        final RoutePool pool = this.routeToPool.get(entry.getRoute());
+        if (pool == null || !pool.leased.remove(entry)) {
+            return;
+        }
+        pool.leasedCount.decrementAndGet();
+        if (reusable && !this.isShutDown.get() && !entry.isClosed()) {
+            onRelease(entry);
+            pool.pushAvailable(entry);
+            if (this.isShutDown.get()) {
+                // Lost the race with shutdown
+                for (final CPoolEntry available: pool.available.popAll()) {
+                    available.close();
+                }
+            }
+        } else {
+            entry.close();
+            free(pool);
+        }
+        processWaiting(pool);
+        processStarved();
+    }
+
+    /**
+     * Attempts to serve the request with an idle connection or by opening
+     * a new one.
+     *
+     * @return {@code true} if the request has been served or is being connected,
+     *   {@code false} if it needs to wait for a connection to be released.
+     */
+    private boolean processRequest(final RoutePool pool, final LeaseRequest request) {
+        final CPoolEntry entry = obtainAvailable(pool, request.state);
+        if (entry != null) {
+            leased(pool, request, entry);
+            return true;
+        }
+        if (reserve(pool)) {
+            connect(pool, request);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Serves lease requests waiting for a connection of the given route
+     * in the order they were made until a request cannot be served.
+     */
+    private void processWaiting(final RoutePool pool) {
+        final long now = System.currentTimeMillis();
+        LeaseRequest request;
+        while ((request = pool.waiting.peek()) != null) {
+            if (request.future.isDone()) {
+                dequeue(pool, request);
+                continue;
+            }
+            if (request.deadline != 0 && request.deadline <= now) {
+                if (dequeue(pool, request)) {
+                    request.future.failed(new TimeoutException("Connection lease request time out"));
+                }
+                continue;
+            }
+            final CPoolEntry entry = obtainAvailable(pool, request.state);
+            if (entry != null) {
+                if (dequeue(pool, request)) {
+                    leased(pool, request, entry);
+                } else {
+                    pool.pushAvailable(entry);
+                }
+                continue;
+            }
+            if (reserve(pool)) {
+                if (dequeue(pool, request)) {
+                    connect(pool, request);
+                } else {
+                    free(pool);
+                }
+                continue;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Serves lease requests of other routes that may be waiting for the total
+     * number of connections to drop below the limit.
+     */
+    private void processStarved() {
+        if (this.waitingCount.get() > 0) {
+            for (final RoutePool pool: this.routeToPool.values()) {
+                if (!pool.waiting.isEmpty()) {
+                    processWaiting(pool);
+                }
+            }
+        }
+    }
+
+    private boolean dequeue(final RoutePool pool, final LeaseRequest request) {
+        if (pool.waiting.remove(request)) {
+            this.waitingCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void leased(final RoutePool pool, final LeaseRequest request, final CPoolEntry entry) {
+        pool.leased.add(entry);
+        pool.leasedCount.incrementAndGet();
+        onLease(entry);
+        if (!request.future.completed(entry)) {
+            release(entry, true);
+        }
+    }
+
+    private CPoolEntry obtainAvailable(final RoutePool pool, final Object state) {
+        final long now = System.currentTimeMillis();
+        List<CPoolEntry> mismatched = null;
+        CPoolEntry found = null;
+        CPoolEntry entry;
+        while ((entry = pool.popAvailable()) != null) {
+            if (entry.isClosed() || entry.isExpired(now)) {
+                entry.close();
+                free(pool);
+                continue;
+            }
+            final Object entryState = entry.getState();
+            if (entryState == null || LangUtils.equals(entryState, state)) {
+                found = entry;
+                break;
+            }
+            if (mismatched == null) {
+                mismatched = new ArrayList<CPoolEntry>(2);
+            }
+            mismatched.add(entry);
+        }
+        if (mismatched != null) {
+            if (found == null && pool.allocated.get() >= getMaxPerRoute(pool.route)) {
+                // Make room for a new connection with a matching state
+                mismatched.remove(mismatched.size() - 1).close();
+                free(pool);
+            }
+            for (int i = mismatched.size() - 1; i >= 0; i--) {
+                pool.pushAvailable(mismatched.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reserves a connection slot for the given route, evicting an idle
+     * connection of another route if the total limit has been reached.
+     */
+    private boolean reserve(final RoutePool pool) {
+        final int max = getMaxPerRoute(pool.route);
+        for (;;) {
+            final int allocated = pool.allocated.get();
+            if (allocated >= max) {
+                return false;
+            }
+            if (pool.allocated.compareAndSet(allocated, allocated + 1)) {
+                break;
+            }
+        }
+        for (;;) {
+            final int total = this.totalAllocated.get();
+            if (total >= this.maxTotal) {
+                if (!evictIdle()) {
+                    pool.allocated.decrementAndGet();
+                    return false;
+                }
+                continue;
+            }
+            if (this.totalAllocated.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean evictIdle() {
+        for (final RoutePool pool: this.routeToPool.values()) {
+            final CPoolEntry entry = pool.popAvailable();
+            if (entry != null) {
+                entry.close();
+                free(pool);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void free(final RoutePool pool) {
+        pool.allocated.decrementAndGet();
+        this.totalAllocated.decrementAndGet();
+    }
+
+    private void connect(final RoutePool pool, final LeaseRequest request) {
+        final HttpRoute route = pool.route;
+        final SocketAddress localAddress;
+        final SocketAddress remoteAddress;
+        try {
+            remoteAddress = this.addressResolver.resolveRemoteAddress(route);
+            localAddress = this.addressResolver.resolveLocalAddress(route);
+        } catch (final IOException ex) {
+            free(pool);
+            request.future.failed(ex);
+            return;
+        }
+        pool.pendingCount.incrementAndGet();
+        pool.connecting.add(request);
+        final SessionRequest sessionRequest;
+        try {
+            sessionRequest = this.ioreactor.connect(
+                    remoteAddress, localAddress, route, new InternalSessionRequestCallback(pool, request));
+        } catch (final RuntimeException ex) {
+            if (connectDone(pool, request)) {
+                free(pool);
+            }
+            throw ex;
+        }
+        sessionRequest.setConnectTimeout(request.connectTimeout < Integer.MAX_VALUE ?
+                (int) request.connectTimeout : Integer.MAX_VALUE);
+        request.sessionRequest = sessionRequest;
+        if (this.isShutDown.get()) {
+            sessionRequest.cancel();
+        }
+    }
+
+    private boolean connectDone(final RoutePool pool, final LeaseRequest request) {
+        if (pool.connecting.remove(request)) {
+            pool.pendingCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void connectFailed(final RoutePool pool, final LeaseRequest request, final Exception ex) {
+        if (connectDone(pool, request)) {
+            free(pool);
+            if (ex != null) {
+                request.future.failed(ex);
+            } else {
+                request.future.cancel();
+            }
+            processWaiting(pool);
+            processStarved();
+        }
+    }
+
+    private void connectCompleted(final RoutePool pool, final LeaseRequest request, final SessionRequest sessionRequest) {
+        if (!connectDone(pool, request)) {
+            return;
+        }
+        final ManagedNHttpClientConnection conn;
+        try {
+            conn = this.connFactory.create(pool.route, sessionRequest.getSession());
+        } catch (final IOException ex) {
+            free(pool);
+            request.future.failed(ex);
+            processWaiting(pool);
+            processStarved();
+            return;
+        }
+        final CPoolEntry entry = createEntry(pool.route, conn);
+        if (this.isShutDown.get()) {
+            entry.close();
+            free(pool);
+            request.future.cancel();
+            return;
+        }
+        leased(pool, request, entry);
+    }
+
+    @Override
+    public void closeIdle(final long idletime, final TimeUnit tunit) {
+        Args.notNull(tunit, "Time unit");
+        long time = tunit.toMillis(idletime);
+        if (time < 0) {
+            time = 0;
+        }
+        final long deadline = System.currentTimeMillis() - time;
+        for (final RoutePool pool: this.routeToPool.values()) {
+            closeAvailable(pool, new EntryFilter() {
+
+                @Override
+                public boolean matches(final CPoolEntry entry) {
+                    return entry.getUpdated() <= deadline;
+                }
+
+            });
+        }
+        processStarved();
+    }
+
+    @Override
+    public void closeExpired() {
+        final long now = System.currentTimeMillis();
+        for (final RoutePool pool: this.routeToPool.values()) {
+            closeAvailable(pool, new EntryFilter() {
+
+                @Override
+                public boolean matches(final CPoolEntry entry) {
+                    return entry.isExpired(now);
+                }
+
+            });
+        }
+        processStarved();
+    }
+
+    @Override
+    public void evict(final Map<CPoolEntry, Long> entries) {
+        final Set<HttpRoute> routes = new HashSet<HttpRoute>();
+        for (final CPoolEntry entry: entries.keySet()) {
+            routes.add(entry.getRoute());
+        }
+        final EntryFilter filter = new EntryFilter() {
+
+            @Override
+            public boolean matches(final CPoolEntry entry) {
+                final Long updated = entries.get(entry);
+                return updated != null && updated.longValue() == entry.getUpdated();
+            }
+
+        };
+        for (final HttpRoute route: routes) {
+            final RoutePool pool = this.routeToPool.get(route);
+            if (pool != null) {
+                closeAvailable(pool, filter);
+            }
+        }
+        processStarved();
+    }
+
+    private void closeAvailable(final RoutePool pool, final EntryFilter filter) {
+        final List<CPoolEntry> entries = pool.available.popAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+        pool.availableCount.addAndGet(-entries.size());
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final CPoolEntry entry = entries.get(i);
+            if (entry.isClosed() || filter.matches(entry)) {
+                entry.close();
+                free(pool);
+            } else {
+                pool.pushAvailable(entry);
+            }
+        }
+    }
+
+    @Override
+    public void setMaxTotal(final int max) {
+        Args.positive(max, "Max value");
+        this.maxTotal = max;
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return this.maxTotal;
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(final int max) {
+        Args.positive(max, "Max value");
+        this.defaultMaxPerRoute = max;
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return this.defaultMaxPerRoute;
+    }
+
+    @Override
+    public void setMaxPerRoute(final HttpRoute route, final int max) {
+        Args.notNull(route, "Route");
+        Args.positive(max, "Max value");
+        this.maxPerRoute.put(route, Integer.valueOf(max));
+    }
+
+    @Override
+    public int getMaxPerRoute(final HttpRoute route) {
+        Args.notNull(route, "Route");
+        final Integer v = this.maxPerRoute.get(route);
+        return v != null ? v.intValue() : this.defaultMaxPerRoute;
+    }
+
+    @Override
+    public PoolStats getTotalStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        for (final RoutePool pool: this.routeToPool.values()) {
+            leased += pool.leasedCount.get();
+            pending += pool.pendingCount.get();
+            available += pool.availableCount.get();
+        }
+        return new PoolStats(leased, pending, available, this.maxTotal);
+    }
+
+    @Override
+    public PoolStats getStats(final HttpRoute route) {
+        Args.notNull(route, "Route");
+        final RoutePool pool = this.routeToPool.get(route);
+        if (pool == null) {
+            return new PoolStats(0, 0, 0, getMaxPerRoute(route));
+        }
+        return new PoolStats(
+                pool.leasedCount.get(),
+                pool.pendingCount.get(),
+                pool.availableCount.get(),
+                getMaxPerRoute(route));
+    }
+
+    @Override
+    public Set<HttpRoute> getRoutes() {
+        return new HashSet<HttpRoute>(this.routeToPool.keySet());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append("[total: ").append(this.totalAllocated.get());
+        buffer.append("][waiting: ").append(this.waitingCount.get());
+        buffer.append("][routes: ").append(this.routeToPool.size());
+        buffer.append("]");
+        return buffer.toString();
+    }
+
+    interface EntryFilter {
+
+        boolean matches(CPoolEntry entry);
+
+    }
+
+    static class LeaseRequest {
+
+        final HttpRoute route;
+        final Object state;
+        final long connectTimeout;
+        final long deadline;
+        final BasicFuture<CPoolEntry> future;
+
+        volatile SessionRequest sessionRequest;
+
+        LeaseRequest(
+                final HttpRoute route,
+                final Object state,
+                final long connectTimeout,
+                final long deadline,
+                final BasicFuture<CPoolEntry> future) {
+            super();
+            this.route = route;
+            this.state = state;
+            this.connectTimeout = connectTimeout;
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+    }
+
+    /**
+     * Treiber stack of idle pool entries.
+     */
+    static class EntryStack {
+
+        static class Node {
+
+            final CPoolEntry entry;
+            final Node next;
+
+            Node(final CPoolEntry entry, final Node next) {
+                this.entry = entry;
+                this.next = next;
+            }
+
+        }
+
+        private final AtomicReference<Node> head = new AtomicReference<Node>();
+
+        void push(final CPoolEntry entry) {
+            for (;;) {
+                final Node current = this.head.get();
+                if (this.head.compareAndSet(current, new Node(entry, current))) {
+                    return;
+                }
+            }
+        }
+
+        CPoolEntry pop() {
+            for (;;) {
+                final Node current = this.head.get();
+                if (current == null) {
+                    return null;
+                }
+                if (this.head.compareAndSet(current, current.next)) {
+                    return current.entry;
+                }
+            }
+        }
+
+        /**
+         * Removes all entries, most recently pushed first.
+         */
+        List<CPoolEntry> popAll() {
+            Node node = this.head.getAndSet(null);
+            if (node == null) {
+                return Collections.emptyList();
+            }
+            final List<CPoolEntry> entries = new ArrayList<CPoolEntry>();
+            while (node != null) {
+                entries.add(node.entry);
+                node = node.next;
+            }
+            return entries;
+        }
+
+    }
+
+    static class RoutePool {
+
+        final HttpRoute route;
+        final EntryStack available;
+        final Set<CPoolEntry> leased;
+        final Set<LeaseRequest> connecting;
+        final ConcurrentLinkedQueue<LeaseRequest> waiting;
+        // leased + available + connecting
+        final AtomicInteger allocated;
+        final AtomicInteger leasedCount;
+        final AtomicInteger availableCount;
+        final AtomicInteger pendingCount;
+
+        RoutePool(final HttpRoute route) {
+            super();
+            this.route = route;
+            this.available = new EntryStack();
+            this.leased = Collections.newSetFromMap(new ConcurrentHashMap<CPoolEntry, Boolean>());
+            this.connecting = Collections.newSetFromMap(new ConcurrentHashMap<LeaseRequest, Boolean>());
+            this.waiting = new ConcurrentLinkedQueue<LeaseRequest>();
+            this.allocated = new AtomicInteger();
+            this.leasedCount = new AtomicInteger();
+            this.availableCount = new AtomicInteger();
+            this.pendingCount = new AtomicInteger();
+        }
+
+        void pushAvailable(final CPoolEntry entry) {
+            this.availableCount.incrementAndGet();
+            this.available.push(entry);
+        }
+
+        CPoolEntry popAvailable() {
+            final CPoolEntry entry = this.available.pop();
+            if (entry != null) {
+                this.availableCount.decrementAndGet();
+            }
+            return entry;
+        }
+
+    }
+
+    class InternalSessionRequestCallback implements SessionRequestCallback {
+
+        private final RoutePool pool;
+        private final LeaseRequest request;
+
+        InternalSessionRequestCallback(final RoutePool pool, final LeaseRequest request) {
+            super();
+            this.pool = pool;
+            this.request = request;
+        }
+
+        @Override
+        public void completed(final SessionRequest sessionRequest) {
+            connectCompleted(this.pool, this.request, sessionRequest);
+        }
+
+        @Override
+        public void failed(final SessionRequest sessionRequest) {
+            connectFailed(this.pool, this.request, sessionRequest.getException());
+        }
+
+        @Override
+        public void timeout(final SessionRequest sessionRequest) {
+            connectFailed(this.pool, this.request, new SocketTimeoutException(
+                    "Timeout connecting to [" + sessionRequest.getRemoteAddress() + "]"));
+        }
+
+        @Override
+        public void cancelled(final SessionRequest sessionRequest) {
+            connectFailed(this.pool, this.request, null);
+        }
+
+    }
+
+}
@@ -0,0 +1,373 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.Args;
+
+/**
+ * {@link BasicFuture} that can be composed with other futures without blocking
+ * a thread. Further {@link FutureCallback}s can be added at any time and derived
+ * futures can be created with {@link #transform(Function)}, {@link #compose(Function)}
+ * and {@link #all(List)}.
+ * <p>
+ * Cancellation propagates upstream: cancelling a future cancels the operation
+ * it depends upon. For futures returned by the HTTP client that is the message
+ * exchange itself, which causes the connection in use to be released (and shut down)
+ * immediately. Cancelling a derived future cancels all futures it has been derived
+ * from that are still pending.
+ *
+ * @param <T> the future result type.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public class ComposableFuture<T> extends BasicFuture<T> {
+
+    /**
+     * Function applied to the result of a future.
+     *
+     * @param <I> the input type.
+     * @param <O> the output type.
+     */
+    public interface Function<I, O> {
+
+        O apply(I input) throws Exception;
+
+    }
+
+    private final CallbackChain<T> callbacks;
+
+    private volatile Cancellable dependency;
+
+    private ComposableFuture(final CallbackChain<T> callbacks) {
+        super(callbacks);
+        this.callbacks = callbacks;
+    }
+
+    public ComposableFuture(final FutureCallback<T> callback) {
+        this(new CallbackChain<T>(callback));
+    }
+
+    public ComposableFuture() {
+        this(new CallbackChain<T>(null));
+    }
+
+    /**
+     * Sets the operation this future depends upon. The operation is cancelled
+     * when this future is cancelled, or immediately if this future has already
+     * been cancelled.
+     */
+    public void setDependency(final Cancellable dependency) {
+        this.dependency = dependency;
+        if (dependency != null && isCancelled()) {
+            dependency.cancel();
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            final Cancellable local = this.dependency;
+            if (local != null) {
+                local.cancel();
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Adds a callback to be notified of completion of this future.
+     * The callback is notified immediately by the calling thread if this
+     * future has already completed.
+     */
+    public ComposableFuture<T> addCallback(final FutureCallback<? super T> callback) {
+        Args.notNull(callback, "Future callback");
+        this.callbacks.add(callback);
+        return this;
+    }
+
+    /**
+     * Returns a future completed with the result of the given function applied
+     * to the result of this future.
+     */
+    public <U> ComposableFuture<U> transform(final Function<? super T, ? extends U> function) {
+        Args.notNull(function, "Function");
+        final ComposableFuture<U> future = new ComposableFuture<U>();
+        future.setDependency(this);
+        addCallback(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                final U output;
+                try {
+                    output = function.apply(result);
+                } catch (final Exception ex) {
+                    future.failed(ex);
+                    return;
+                }
+                future.completed(output);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Returns a future completed with the result of the future created by the given
+     * function from the result of this future. This method can be used to chain
+     * message exchanges that depend on the outcome of one another.
+     */
+    public <U> ComposableFuture<U> compose(
+            final Function<? super T, ? extends ComposableFuture<U>> function) {
+        Args.notNull(function, "Function");
+        final ComposableFuture<U> future = new ComposableFuture<U>();
+        future.setDependency(this);
+        addCallback(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                final ComposableFuture<U> next;
+                try {
+                    next = function.apply(result);
+                } catch (final Exception ex) {
+                    future.failed(ex);
+                    return;
+                }
+                if (next == null) {
+                    future.completed(null);
+                    return;
+                }
+                future.setDependency(next);
+                next.addCallback(new ForwardingCallback<U>(future));
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Returns a future completed with the results of all the given futures in the same
+     * order. The future fails (or is cancelled) as soon as any of the given futures fails
+     * (or is cancelled), in which case the remaining ones are cancelled.
+     */
+    public static <T> ComposableFuture<List<T>> all(final List<? extends ComposableFuture<? extends T>> futures) {
+        Args.notNull(futures, "Futures");
+        final ComposableFuture<List<T>> future = new ComposableFuture<List<T>>();
+        final int count = futures.size();
+        if (count == 0) {
+            future.completed(Collections.<T>emptyList());
+            return future;
+        }
+        final List<ComposableFuture<? extends T>> dependencies =
+                new ArrayList<ComposableFuture<? extends T>>(futures);
+        future.setDependency(new Cancellable() {
+
+            @Override
+            public boolean cancel() {
+                boolean cancelled = false;
+                for (final ComposableFuture<? extends T> dependency: dependencies) {
+                    cancelled |= dependency.cancel();
+                }
+                return cancelled;
+            }
+
+        });
+        final AtomicReferenceArray<T> results = new AtomicReferenceArray<T>(count);
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            dependencies.get(i).addCallback(new FutureCallback<T>() {
+
+                @Override
+                public void completed(final T result) {
+                    results.set(index, result);
+                    if (remaining.decrementAndGet() == 0) {
+                        @SuppressWarnings("unchecked")
+                        final T[] array = (T[]) new Object[count];
+                        for (int n = 0; n < count; n++) {
+                            array[n] = results.get(n);
+                        }
+                        future.completed(Arrays.asList(array));
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    if (future.failed(ex)) {
+                        cancelAll(dependencies);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel();
+                }
+
+            });
+        }
+        return future;
+    }
+
+    private static void cancelAll(final List<? extends ComposableFuture<?>> futures) {
+        for (final ComposableFuture<?> future: futures) {
+            future.cancel();
+        }
+    }
+
+    static class ForwardingCallback<T> implements FutureCallback<T> {
+
+        private final BasicFuture<T> future;
+
+        ForwardingCallback(final BasicFuture<T> future) {
+            super();
+            this.future = future;
+        }
+
+        @Override
+        public void completed(final T result) {
+            this.future.completed(result);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            this.future.failed(ex);
+        }
+
+        @Override
+        public void cancelled() {
+            this.future.cancel();
+        }
+
+    }
+
+    /**
+     * Dispatches the outcome of the future to a list of callbacks and replays it
+     * to callbacks added later.
+     */
+    static class CallbackChain<T> implements FutureCallback<T> {
+
+        private final List<FutureCallback<? super T>> callbacks;
+
+        private boolean done;
+        private T result;
+        private Exception ex;
+        private boolean cancelled;
+
+        CallbackChain(final FutureCallback<T> callback) {
+            super();
+            this.callbacks = new ArrayList<FutureCallback<? super T>>(2);
+            if (callback != null) {
+                this.callbacks.add(callback);
+            }
+        }
+
+        void add(final FutureCallback<? super T> callback) {
+            synchronized (this) {
+                if (!this.done) {
+                    this.callbacks.add(callback);
+                    return;
+                }
+            }
+            if (this.cancelled) {
+                callback.cancelled();
+            } else if (this.ex != null) {
+                callback.failed(this.ex);
+            } else {
+                callback.completed(this.result);
+            }
+        }
+
+        private List<FutureCallback<? super T>> complete(
+                final T result, final Exception ex, final boolean cancelled) {
+            synchronized (this) {
+                this.done = true;
+                this.result = result;
+                this.ex = ex;
+                this.cancelled = cancelled;
+                final List<FutureCallback<? super T>> pending =
+                        new ArrayList<FutureCallback<? super T>>(this.callbacks);
+                this.callbacks.clear();
+                return pending;
+            }
+        }
+
+        @Override
+        public void completed(final T result) {
+            for (final FutureCallback<? super T> callback: complete(result, null, false)) {
+                callback.completed(result);
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            for (final FutureCallback<? super T> callback: complete(null, ex, false)) {
+                callback.failed(ex);
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            for (final FutureCallback<? super T> callback: complete(null, null, true)) {
+                callback.cancelled();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * Timestamps of the individual phases of an HTTP exchange, as measured by
+ * {@link System#nanoTime()}. An instance is bound to the execution context of every
+ * exchange under the {@link #EXCHANGE_TIMINGS} attribute and can be used to attribute
+ * the latency of a slow request to the time spent waiting for a connection from the pool,
+ * establishing the connection route or waiting for the server.
+ * <p>
+ * If a phase is passed more than once in the course of an exchange (for instance when
+ * a redirect or an authentication challenge is followed) the time of the most recent
+ * occurrence is retained. Pipelined requests are timed individually and share the
+ * connection phases of the connection they are executed over.
+ *
+ * @since 4.2
+ */
+@ThreadSafe
+public final class ExchangeTimings {
+
+    /**
+     * Attribute name of an {@link ExchangeTimings} object that represents
+     * the phase timestamps of the actual exchange.
+     */
+    public static final String EXCHANGE_TIMINGS = "http.exchange-timings";
+
+    /**
+     * Phases of an HTTP exchange in the order they are normally passed.
+     */
+    public enum Phase {
+
+        /** A connection has been requested from the connection manager. */
+        CONNECTION_REQUESTED,
+        /** A connection has been leased from the connection manager. */
+        CONNECTION_ALLOCATED,
+        /** The connection route has been fully established. */
+        ROUTE_COMPLETE,
+        /** The request message head has been generated. */
+        REQUEST_GENERATED,
+        /** The request message has been fully sent. */
+        REQUEST_COMPLETED,
+        /** The response message head has been received. */
+        RESPONSE_RECEIVED,
+        /** The response message has been fully received. */
+        RESPONSE_COMPLETED
+
+    }
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final AtomicLongArray timestamps;
+
+    public ExchangeTimings() {
+        super();
+        final Phase[] phases = Phase.values();
+        this.timestamps = new AtomicLongArray(phases.length);
+        for (int i = 0; i < phases.length; i++) {
+            this.timestamps.set(i, UNSET);
+        }
+    }
+
+    /**
+     * Returns the {@link ExchangeTimings} bound to the given context or
+     * {@code null} if not present.
+     */
+    public static ExchangeTimings get(final HttpContext context) {
+        Args.notNull(context, "HTTP context");
+        final Object obj = context.getAttribute(EXCHANGE_TIMINGS);
+        return obj instanceof ExchangeTimings ? (ExchangeTimings) obj : null;
+    }
+
+    /**
+     * Records the current time as the timestamp of the given phase.
+     */
+    public void mark(final Phase phase) {
+        this.timestamps.set(phase.ordinal(), System.nanoTime());
+    }
+
+    /**
+     * Records the given {@link System#nanoTime()} timestamp as that of the given phase.
+     */
+    public void mark(final Phase phase, final long nanoTime) {
+        Args.notNull(phase, "Phase");
+        this.timestamps.set(phase.ordinal(), nanoTime);
+    }
+
+    /**
+     * Determines whether or not the given phase has been reached.
+     */
+    public boolean isReached(final Phase phase) {
+        Args.notNull(phase, "Phase");
+        return this.timestamps.get(phase.ordinal()) != UNSET;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} timestamp of the given phase.
+     *
+     * @throws IllegalStateException if the phase has not been reached.
+     */
+    public long getNanoTime(final Phase phase) {
+        Args.notNull(phase, "Phase");
+        final long timestamp = this.timestamps.get(phase.ordinal());
+        if (timestamp == UNSET) {
+            throw new IllegalStateException("Phase " + phase + " has not been reached");
+        }
+        return timestamp;
+    }
+
+    /**
+     * Returns time elapsed between two phases in the given time unit
+     * or {@code -1} if either of the phases has not been reached.
+     */
+    public long getDuration(final Phase from, final Phase to, final TimeUnit tunit) {
+        Args.notNull(from, "Phase");
+        Args.notNull(to, "Phase");
+        Args.notNull(tunit, "Time unit");
+        final long start = this.timestamps.get(from.ordinal());
+        final long end = this.timestamps.get(to.ordinal());
+        if (start == UNSET || end == UNSET) {
+            return -1;
+        }
+        return tunit.convert(end - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent waiting for a connection from the pool
+     * or {@code -1} if not known.
+     */
+    public long getPoolWait(final TimeUnit tunit) {
+        return getDuration(Phase.CONNECTION_REQUESTED, Phase.CONNECTION_ALLOCATED, tunit);
+    }
+
+    /**
+     * Returns the time spent establishing the connection route (TLS/SSL upgrade,
+     * tunnelling) or {@code -1} if not known.
+     */
+    public long getRouteSetup(final TimeUnit tunit) {
+        return getDuration(Phase.CONNECTION_ALLOCATED, Phase.ROUTE_COMPLETE, tunit);
+    }
+
+    /**
+     * Returns the time elapsed between the request having been fully sent and
+     * the response head having been received, or {@code -1} if not known.
+     */
+    public long getServerTime(final TimeUnit tunit) {
+        return getDuration(Phase.REQUEST_COMPLETED, Phase.RESPONSE_RECEIVED, tunit);
+    }
+
+    /**
+     * Returns the total time of the exchange or {@code -1} if not known.
+     */
+    public long getTotal(final TimeUnit tunit) {
+        return getDuration(Phase.CONNECTION_REQUESTED, Phase.RESPONSE_COMPLETED, tunit);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[pool wait: ").append(getPoolWait(TimeUnit.MICROSECONDS));
+        buf.append("; route setup: ").append(getRouteSetup(TimeUnit.MICROSECONDS));
+        buf.append("; server: ").append(getServerTime(TimeUnit.MICROSECONDS));
+        buf.append("; total: ").append(getTotal(TimeUnit.MICROSECONDS)).append(" (us)]");
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client;
+
+import java.io.IOException;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A handler for determining if a request should be retried after a
+ * connection level I/O failure and how long to back off before the retry.
+ * <p>
+ * Implementations of this interface must be thread-safe. Access to shared
+ * data must be synchronized as methods of this interface may be executed
+ * from multiple threads.
+ *
+ * @since 4.2
+ */
+public interface HttpAsyncRequestRetryHandler {
+
+    /**
+     * Determines if a request should be retried after the given exception
+     * occurred during execution.
+     * <p>
+     * Retries are scheduled asynchronously; implementations must not block.
+     *
+     * @param request the request that failed.
+     * @param exception the exception that occurred.
+     * @param executionCount the number of times this request has been
+     *   attempted so far.
+     * @param context the context for the request execution.
+     * @return delay in milliseconds before the request is retried or
+     *   a negative value if the request should not be retried.
+     */
+    long retryRequest(HttpRequest request, IOException exception, int executionCount, HttpContext context);
+
+}
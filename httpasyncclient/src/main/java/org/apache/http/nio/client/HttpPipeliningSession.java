@@ -0,0 +1,108 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client;
+
+import java.io.Closeable;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+
+/**
+ * A sequence of requests pipelined over a single connection to one target host.
+ * Requests can be submitted at any time while earlier ones are still in flight.
+ * Each request is represented by its own future, which completes as soon as its
+ * response has been processed. At most the configured maximum number of
+ * requests are outstanding on the connection at any time; requests beyond
+ * that limit are queued until earlier responses arrive.
+ * <p>
+ * Sessions are thread-safe.
+ *
+ * @since 4.2
+ */
+public interface HttpPipeliningSession extends Closeable, Cancellable {
+
+    /**
+     * Returns the target host of this session.
+     */
+    HttpHost getTarget();
+
+    /**
+     * Appends a request to the session.
+     * <p>
+     * The request producer passed to this method will be used to generate
+     * a request message and stream out its content without buffering it
+     * in memory. The response consumer passed to this method will be used
+     * to process a response message without buffering its content in memory.
+     *
+     * @param <T> the result type of request execution.
+     * @param requestProducer request producer callback.
+     * @param responseConsumer response consumer callback.
+     * @param callback future callback.
+     * @return future representing pending completion of the request.
+     * @throws IllegalStateException if the session has been closed.
+     */
+    <T> ComposableFuture<T> execute(
+            HttpAsyncRequestProducer requestProducer,
+            HttpAsyncResponseConsumer<T> responseConsumer,
+            FutureCallback<T> callback);
+
+    /**
+     * Appends a request to the session.
+     *
+     * @param request request to execute.
+     * @param callback future callback.
+     * @return future representing pending completion of the request.
+     * @throws IllegalStateException if the session has been closed.
+     */
+    ComposableFuture<HttpResponse> execute(
+            HttpRequest request,
+            FutureCallback<HttpResponse> callback);
+
+    /**
+     * Returns {@code true} if the session accepts new requests.
+     */
+    boolean isOpen();
+
+    /**
+     * Stops the session from accepting new requests. The connection is
+     * released back to the pool once all outstanding requests have completed.
+     */
+    @Override
+    void close();
+
+    /**
+     * Cancels all outstanding requests and discards the connection.
+     */
+    @Override
+    boolean cancel();
+
+}
@@ -0,0 +1,96 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.conn;
+
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Listener notified of connection pool events relevant for capacity planning
+ * such as the time connection requests wait for a lease and the time it takes
+ * to establish new connections. All durations are expressed in nanoseconds.
+ * <p>
+ * Implementations of this interface are expected to be thread safe and very
+ * cheap as they get invoked on the I/O dispatch thread and by request execution
+ * threads in the course of every connection request.
+ *
+ * @since 4.2
+ */
+public interface ConnPoolMetricsListener {
+
+    /**
+     * Triggered when a connection lease has been requested for the given route.
+     */
+    void leaseRequested(HttpRoute route);
+
+    /**
+     * Triggered when a connection lease request has been fulfilled.
+     *
+     * @param route the route.
+     * @param waitNanos time elapsed since the lease has been requested.
+     */
+    void leaseCompleted(HttpRoute route, long waitNanos);
+
+    /**
+     * Triggered when a connection lease request has failed or has been cancelled.
+     *
+     * @param route the route.
+     * @param waitNanos time elapsed since the lease has been requested.
+     * @param timeout {@code true} if the request failed due to a connection request
+     *   or connect timeout.
+     */
+    void leaseFailed(HttpRoute route, long waitNanos, boolean timeout);
+
+    /**
+     * Triggered when a new connection has been established.
+     *
+     * @param route the route.
+     * @param connectNanos time elapsed since the connect has been initiated.
+     */
+    void connectCompleted(HttpRoute route, long connectNanos);
+
+    /**
+     * Triggered when a new connection could not be established.
+     *
+     * @param route the route.
+     * @param connectNanos time elapsed since the connect has been initiated.
+     * @param timeout {@code true} if the connect timed out.
+     */
+    void connectFailed(HttpRoute route, long connectNanos, boolean timeout);
+
+    /**
+     * Triggered when the TLS/SSL handshake of a new connection has completed
+     * and the session has been verified.
+     *
+     * @param route the route.
+     * @param handshakeNanos time elapsed since the transport has been upgraded
+     *   to TLS/SSL.
+     * @param resumed {@code true} if a previous TLS/SSL session has been resumed
+     *   with an abbreviated handshake, {@code false} if a full handshake took place.
+     */
+    void handshakeCompleted(HttpRoute route, long handshakeNanos, boolean resumed);
+
+}
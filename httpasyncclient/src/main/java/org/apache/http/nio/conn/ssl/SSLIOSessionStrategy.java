@@ -40,6 +40,7 @@ import javax.net.ssl.SSLSession;
 import javax.security.auth.x500.X500Principal;
 
 import org.apache.http.HttpHost;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
 import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
 import org.apache.http.conn.ssl.DefaultHostnameVerifier;
@@ -63,6 +64,20 @@ import org.apache.http.util.TextUtils;
  */
 public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
 
+    /**
+     * Name of the {@link IOSession} attribute holding an optional
+     * {@code FutureCallback<SSLSession>} to be notified once the TLS/SSL handshake
+     * has completed and the session has been verified, or has failed verification.
+     * The attribute is removed once the callback has been notified.
+     * <p>
+     * The strategy itself cannot tell when a handshake is aborted otherwise, as
+     * the session then simply gets closed. The pooling connection manager notifies
+     * a callback still attached to a disconnected session of the failure.
+     *
+     * @since 4.2
+     */
+    public static final String HANDSHAKE_CALLBACK = "http.nio.ssl-handshake-callback";
+
     @Deprecated
     public static final X509HostnameVerifier ALLOW_ALL_HOSTNAME_VERIFIER =
             new AllowAllHostnameVerifier();
@@ -162,6 +177,9 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
     @Override
     public SSLIOSession upgrade(final HttpHost host, final IOSession iosession) throws IOException {
         Asserts.check(!(iosession instanceof SSLIOSession), "I/O session is already upgraded to TLS/SSL");
+        // JSSE keys its client session cache by peer host and port. Sessions can only
+        // be resumed if the host has an explicit port, which the connection manager
+        // resolves from the route.
         final SSLIOSession ssliosession = new SSLIOSession(
             iosession,
             SSLMode.CLIENT,
@@ -185,7 +203,20 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
                 public void verify(
                         final IOSession iosession,
                         final SSLSession sslsession) throws SSLException {
-                    verifySession(host, iosession, sslsession);
+                    @SuppressWarnings("unchecked")
+                    final FutureCallback<SSLSession> handshakeCallback =
+                            (FutureCallback<SSLSession>) iosession.removeAttribute(HANDSHAKE_CALLBACK);
+                    try {
+                        verifySession(host, iosession, sslsession);
+                    } catch (final SSLException ex) {
+                        if (handshakeCallback != null) {
+                            handshakeCallback.failed(ex);
+                        }
+                        throw ex;
+                    }
+                    if (handshakeCallback != null) {
+                        handshakeCallback.completed(sslsession);
+                    }
                 }
 
         });
@@ -0,0 +1,115 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDefaultHttpAsyncRequestRetryHandler {
+
+    private final HttpContext context = new BasicHttpContext();
+
+    @Test
+    public void testRetryIdempotent() throws Exception {
+        final DefaultHttpAsyncRequestRetryHandler retryHandler = new DefaultHttpAsyncRequestRetryHandler(3, 100, 1000);
+        final HttpRequest request = HttpRequestWrapper.wrap(new HttpGet("/"));
+        final IOException ex = new ConnectionClosedException("Connection closed");
+
+        final long delay1 = retryHandler.retryRequest(request, ex, 1, context);
+        Assert.assertTrue(delay1 >= 50 && delay1 <= 100);
+        final long delay2 = retryHandler.retryRequest(request, ex, 2, context);
+        Assert.assertTrue(delay2 >= 100 && delay2 <= 200);
+        final long delay3 = retryHandler.retryRequest(request, ex, 3, context);
+        Assert.assertTrue(delay3 >= 200 && delay3 <= 400);
+        Assert.assertTrue(retryHandler.retryRequest(request, ex, 4, context) < 0);
+    }
+
+    @Test
+    public void testBackoffCapped() throws Exception {
+        final DefaultHttpAsyncRequestRetryHandler retryHandler = new DefaultHttpAsyncRequestRetryHandler(100, 100, 1000);
+        final HttpRequest request = new HttpGet("/");
+        final long delay = retryHandler.retryRequest(request, new IOException(), 50, context);
+        Assert.assertTrue(delay >= 500 && delay <= 1000);
+    }
+
+    @Test
+    public void testNoRetryNonIdempotent() throws Exception {
+        final DefaultHttpAsyncRequestRetryHandler retryHandler = new DefaultHttpAsyncRequestRetryHandler();
+        final HttpRequest request = HttpRequestWrapper.wrap(new HttpPost("/"));
+        Assert.assertTrue(retryHandler.retryRequest(request, new IOException(), 1, context) < 0);
+    }
+
+    @Test
+    public void testNoRetryNonRetriableException() throws Exception {
+        final DefaultHttpAsyncRequestRetryHandler retryHandler = new DefaultHttpAsyncRequestRetryHandler();
+        final HttpRequest request = new HttpGet("/");
+        Assert.assertTrue(retryHandler.retryRequest(request, new SocketTimeoutException(), 1, context) < 0);
+        Assert.assertTrue(retryHandler.retryRequest(request, new ConnectException(), 1, context) < 0);
+    }
+
+    @Test
+    public void testNoRetryAborted() throws Exception {
+        final DefaultHttpAsyncRequestRetryHandler retryHandler = new DefaultHttpAsyncRequestRetryHandler();
+        final HttpGet original = new HttpGet("/");
+        original.abort();
+        final HttpRequest request = HttpRequestWrapper.wrap(original);
+        Assert.assertTrue(retryHandler.retryRequest(request, new IOException(), 1, context) < 0);
+    }
+
+    @Test
+    public void testRetryBudget() throws Exception {
+        final RetryBudget retryBudget = new RetryBudget(0.5, 2);
+        Assert.assertEquals(2, retryBudget.getBalance());
+        Assert.assertTrue(retryBudget.tryWithdraw());
+        Assert.assertTrue(retryBudget.tryWithdraw());
+        Assert.assertFalse(retryBudget.tryWithdraw());
+        Assert.assertEquals(1, retryBudget.getRejectedCount());
+
+        retryBudget.deposit();
+        Assert.assertFalse(retryBudget.tryWithdraw());
+        retryBudget.deposit();
+        Assert.assertTrue(retryBudget.tryWithdraw());
+        Assert.assertEquals(2, retryBudget.getRejectedCount());
+
+        for (int i = 0; i < 100; i++) {
+            retryBudget.deposit();
+        }
+        Assert.assertEquals(2, retryBudget.getBalance());
+    }
+
+}
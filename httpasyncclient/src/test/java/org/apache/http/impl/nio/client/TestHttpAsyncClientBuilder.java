@@ -0,0 +1,73 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.http.ssl.SSLContexts;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpAsyncClientBuilder {
+
+    @Test
+    public void testSSLSessionSettingsNotAppliedToSuppliedContext() throws Exception {
+        final SSLContext sslcontext = SSLContexts.createDefault();
+        final SSLSessionContext sessionContext = sslcontext.getClientSessionContext();
+        final int cacheSize = sessionContext.getSessionCacheSize();
+        final int timeout = sessionContext.getSessionTimeout();
+
+        final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setSSLContext(sslcontext)
+                .setSSLSessionCacheSize(cacheSize + 1)
+                .setSSLSessionTimeout(timeout + 1)
+                .build();
+        client.close();
+
+        Assert.assertEquals(cacheSize, sessionContext.getSessionCacheSize());
+        Assert.assertEquals(timeout, sessionContext.getSessionTimeout());
+    }
+
+    @Test
+    public void testSSLSessionSettingsNotAppliedToSystemDefaultContext() throws Exception {
+        final SSLSessionContext sessionContext = SSLContext.getDefault().getClientSessionContext();
+        final int cacheSize = sessionContext.getSessionCacheSize();
+        final int timeout = sessionContext.getSessionTimeout();
+
+        final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .useSystemProperties()
+                .setSSLSessionCacheSize(cacheSize + 1)
+                .setSSLSessionTimeout(timeout + 1)
+                .build();
+        client.close();
+
+        Assert.assertEquals(cacheSize, sessionContext.getSessionCacheSize());
+        Assert.assertEquals(timeout, sessionContext.getSessionTimeout());
+    }
+
+}
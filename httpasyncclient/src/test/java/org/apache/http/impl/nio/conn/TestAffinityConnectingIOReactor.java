@@ -0,0 +1,169 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class TestAffinityConnectingIOReactor {
+
+    @Mock
+    private ConnectingIOReactor reactor1;
+    @Mock
+    private ConnectingIOReactor reactor2;
+    @Mock
+    private ConnectingIOReactor reactor3;
+    @Mock
+    private SessionRequestCallback callback;
+
+    private ConnectingIOReactor[] reactors;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        reactors = new ConnectingIOReactor[] {reactor1, reactor2, reactor3};
+    }
+
+    @Test
+    public void testRouteAffinity() throws Exception {
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.ROUTE, null);
+        Assert.assertEquals(3, ioreactor.getDispatcherCount());
+
+        final HttpRoute route1 = new HttpRoute(new HttpHost("host1"));
+        final HttpRoute route2 = new HttpRoute(new HttpHost("host2"));
+        final int index1 = ioreactor.selectReactor(route1);
+        final int index2 = ioreactor.selectReactor(route2);
+        Assert.assertTrue(index1 != index2);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(index1, ioreactor.selectReactor(route1));
+            Assert.assertEquals(index2, ioreactor.selectReactor(new HttpRoute(new HttpHost("host2"))));
+        }
+    }
+
+    @Test
+    public void testConnectionAffinity() throws Exception {
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.CONNECTION, null);
+
+        final HttpRoute route = new HttpRoute(new HttpHost("host1"));
+        final InetSocketAddress address = new InetSocketAddress("localhost", 80);
+        for (int i = 0; i < 6; i++) {
+            ioreactor.connect(address, null, route, callback);
+        }
+
+        Mockito.verify(reactor1, Mockito.times(2)).connect(address, null, route, callback);
+        Mockito.verify(reactor2, Mockito.times(2)).connect(address, null, route, callback);
+        Mockito.verify(reactor3, Mockito.times(2)).connect(address, null, route, callback);
+    }
+
+    @Test
+    public void testConnectRouteAffinity() throws Exception {
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.ROUTE, null);
+
+        final HttpRoute route = new HttpRoute(new HttpHost("host1"));
+        final InetSocketAddress address = new InetSocketAddress("localhost", 80);
+        for (int i = 0; i < 6; i++) {
+            ioreactor.connect(address, null, route, callback);
+        }
+
+        Mockito.verify(reactor1, Mockito.times(6)).connect(address, null, route, callback);
+        Mockito.verify(reactor2, Mockito.never()).connect(address, null, route, callback);
+        Mockito.verify(reactor3, Mockito.never()).connect(address, null, route, callback);
+    }
+
+    @Test
+    public void testRouteMapIsBounded() throws Exception {
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.ROUTE, null, 2);
+
+        final HttpRoute route1 = new HttpRoute(new HttpHost("host1"));
+        final int index1 = ioreactor.selectReactor(route1);
+        for (int i = 0; i < 10; i++) {
+            ioreactor.selectReactor(new HttpRoute(new HttpHost("otherhost" + i)));
+            // Recently used routes keep their dispatcher
+            Assert.assertEquals(index1, ioreactor.selectReactor(route1));
+            Assert.assertTrue(ioreactor.getRouteCount() <= 2);
+        }
+    }
+
+    @Test
+    public void testReactorsRunByThreadFactory() throws Exception {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, "test-reactor-" + threadCount.incrementAndGet());
+            }
+
+        };
+        Mockito.when(reactor1.getStatus()).thenReturn(IOReactorStatus.SHUT_DOWN);
+        Mockito.when(reactor2.getStatus()).thenReturn(IOReactorStatus.SHUT_DOWN);
+        Mockito.when(reactor3.getStatus()).thenReturn(IOReactorStatus.SHUT_DOWN);
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.ROUTE, threadFactory);
+        final IOEventDispatch eventDispatch = Mockito.mock(IOEventDispatch.class);
+
+        ioreactor.execute(eventDispatch);
+
+        Assert.assertEquals(2, threadCount.get());
+        Mockito.verify(reactor1).execute(eventDispatch);
+        Mockito.verify(reactor2).execute(eventDispatch);
+        Mockito.verify(reactor3).execute(eventDispatch);
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final AffinityConnectingIOReactor ioreactor = new AffinityConnectingIOReactor(
+                reactors, DispatcherAffinity.ROUTE, null);
+        Mockito.when(reactor1.getStatus()).thenReturn(IOReactorStatus.ACTIVE);
+
+        Assert.assertEquals(IOReactorStatus.ACTIVE, ioreactor.getStatus());
+        ioreactor.shutdown(500);
+
+        Mockito.verify(reactor1).shutdown(500);
+        Mockito.verify(reactor2).shutdown(500);
+        Mockito.verify(reactor3).shutdown(500);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class TestCachingDnsResolver {
+
+    static class TestCachingDnsResolverImpl extends CachingDnsResolver {
+
+        long now;
+
+        TestCachingDnsResolverImpl(final DnsResolver dnsResolver, final Executor executor) {
+            super(dnsResolver, 1000, 100, TimeUnit.MILLISECONDS, 2, executor);
+        }
+
+        @Override
+        long getCurrentTime() {
+            return this.now;
+        }
+
+    }
+
+    @Mock
+    private DnsResolver dnsResolver;
+    @Mock
+    private Executor executor;
+
+    private InetAddress ip1;
+    private InetAddress ip2;
+    private TestCachingDnsResolverImpl resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        ip1 = InetAddress.getByAddress(new byte[] {10, 0, 0, 10});
+        ip2 = InetAddress.getByAddress(new byte[] {10, 0, 0, 11});
+        resolver = new TestCachingDnsResolverImpl(dnsResolver, executor);
+    }
+
+    @Test
+    public void testPositiveCaching() throws Exception {
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip1});
+
+        Assert.assertArrayEquals(new InetAddress[] {ip1}, resolver.resolve("somehost"));
+        resolver.now = 500;
+        Assert.assertArrayEquals(new InetAddress[] {ip1}, resolver.resolve("somehost"));
+        Mockito.verify(dnsResolver, Mockito.times(1)).resolve("somehost");
+
+        resolver.now = 1000;
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip2});
+        Assert.assertArrayEquals(new InetAddress[] {ip2}, resolver.resolve("somehost"));
+        Mockito.verify(dnsResolver, Mockito.times(2)).resolve("somehost");
+        Mockito.verify(executor, Mockito.never()).execute(Matchers.<Runnable>any());
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        Mockito.when(dnsResolver.resolve("somehost")).thenThrow(new UnknownHostException("somehost"));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("somehost");
+                Assert.fail("UnknownHostException expected");
+            } catch (final UnknownHostException expected) {
+            }
+        }
+        Mockito.verify(dnsResolver, Mockito.times(1)).resolve("somehost");
+
+        resolver.now = 100;
+        try {
+            resolver.resolve("somehost");
+            Assert.fail("UnknownHostException expected");
+        } catch (final UnknownHostException expected) {
+        }
+        Mockito.verify(dnsResolver, Mockito.times(2)).resolve("somehost");
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip1});
+        resolver.resolve("somehost");
+
+        resolver.now = 800;
+        Assert.assertArrayEquals(new InetAddress[] {ip1}, resolver.resolve("somehost"));
+        Assert.assertArrayEquals(new InetAddress[] {ip1}, resolver.resolve("somehost"));
+        final ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(executor, Mockito.times(1)).execute(refreshCaptor.capture());
+        Mockito.verify(dnsResolver, Mockito.times(1)).resolve("somehost");
+
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip2});
+        refreshCaptor.getValue().run();
+        Mockito.verify(dnsResolver, Mockito.times(2)).resolve("somehost");
+
+        resolver.now = 1500;
+        Assert.assertArrayEquals(new InetAddress[] {ip2}, resolver.resolve("somehost"));
+        Mockito.verify(dnsResolver, Mockito.times(2)).resolve("somehost");
+    }
+
+    @Test
+    public void testFailedRefreshKeepsEntry() throws Exception {
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip1});
+        resolver.resolve("somehost");
+
+        resolver.now = 800;
+        resolver.resolve("somehost");
+        final ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(executor).execute(refreshCaptor.capture());
+
+        Mockito.when(dnsResolver.resolve("somehost")).thenThrow(new UnknownHostException("somehost"));
+        refreshCaptor.getValue().run();
+
+        resolver.now = 900;
+        Assert.assertArrayEquals(new InetAddress[] {ip1}, resolver.resolve("somehost"));
+        Mockito.verify(executor, Mockito.times(2)).execute(Matchers.<Runnable>any());
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        Mockito.when(dnsResolver.resolve(Matchers.anyString())).thenReturn(new InetAddress[] {ip1});
+        resolver.resolve("host1");
+        resolver.resolve("host2");
+        resolver.resolve("host3");
+        resolver.resolve("host3");
+        Mockito.verify(dnsResolver, Mockito.times(2)).resolve("host3");
+
+        resolver.now = 1000;
+        resolver.resolve("host3");
+        resolver.resolve("host3");
+        Mockito.verify(dnsResolver, Mockito.times(3)).resolve("host3");
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.reactor.IOSession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestConnectionEvictor {
+
+    @Mock
+    private InternalConnPool pool;
+    @Mock
+    private Log log;
+
+    private HttpRoute route;
+    private ConnectionEvictor evictor;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        route = new HttpRoute(new HttpHost("somehost", 80));
+        evictor = new ConnectionEvictor(pool);
+    }
+
+    private static IOSession createSession() {
+        final IOSession session = Mockito.mock(IOSession.class);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        Mockito.doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                final Object[] args = invocation.getArguments();
+                attributes.put((String) args[0], args[1]);
+                return null;
+            }
+
+        }).when(session).setAttribute(Matchers.anyString(), Matchers.anyObject());
+        Mockito.when(session.getAttribute(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+
+        });
+        Mockito.when(session.removeAttribute(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return attributes.remove(invocation.getArguments()[0]);
+            }
+
+        });
+        Mockito.when(Integer.valueOf(session.getSocketTimeout())).thenReturn(Integer.valueOf(5000));
+        return session;
+    }
+
+    private CPoolEntry createEntry(final String id, final long keepalive) {
+        final IOSession session = createSession();
+        final ManagedNHttpClientConnection conn = Mockito.mock(ManagedNHttpClientConnection.class);
+        Mockito.when(Boolean.valueOf(conn.isOpen())).thenReturn(Boolean.TRUE);
+        Mockito.when(conn.getIOSession()).thenReturn(session);
+        final CPoolEntry entry = new CPoolEntry(log, id, route, conn, -1, TimeUnit.MILLISECONDS);
+        entry.updateExpiry(keepalive, TimeUnit.MILLISECONDS);
+        return entry;
+    }
+
+    private static IOSession getSession(final CPoolEntry entry) {
+        return entry.getConnection().getIOSession();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Map<CPoolEntry, Long> captureEvicted() {
+        final ArgumentCaptor<Map<CPoolEntry, Long>> entriesCaptor = (ArgumentCaptor) ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(pool).evict(entriesCaptor.capture());
+        return entriesCaptor.getValue();
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        final CPoolEntry entry = createEntry("1", 1000);
+        evictor.released(entry);
+        Mockito.verify(getSession(entry), Mockito.never()).setSocketTimeout(Matchers.anyInt());
+        Assert.assertEquals(0, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testNoExpiryNotIndexed() throws Exception {
+        evictor.setEvictExpired(true);
+        final CPoolEntry entry = createEntry("1", 0);
+        evictor.released(entry);
+        Mockito.verify(getSession(entry), Mockito.never()).setSocketTimeout(Matchers.anyInt());
+        Assert.assertEquals(0, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testReleasedArmsSessionTimeout() throws Exception {
+        evictor.setEvictExpired(true);
+        final CPoolEntry entry = createEntry("1", 60000);
+        evictor.released(entry);
+
+        final ArgumentCaptor<Integer> timeoutCaptor = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(getSession(entry)).setSocketTimeout(timeoutCaptor.capture().intValue());
+        final int timeout = timeoutCaptor.getValue().intValue();
+        Assert.assertTrue(timeout > 0 && timeout <= 60000);
+        Assert.assertNotNull(getSession(entry).getAttribute(ConnectionEvictor.DUE_ENTRY));
+    }
+
+    @Test
+    public void testEvictExpired() throws Exception {
+        evictor.setEvictExpired(true);
+        final CPoolEntry entry1 = createEntry("1", 1);
+        final CPoolEntry entry2 = createEntry("2", 60000);
+        evictor.released(entry2);
+        evictor.released(entry1);
+
+        Thread.sleep(10);
+        Assert.assertTrue(evictor.timeout(getSession(entry1)));
+
+        final Map<CPoolEntry, Long> entries = captureEvicted();
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(Long.valueOf(entry1.getUpdated()), entries.get(entry1));
+        Assert.assertEquals(1, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        evictor.setMaxIdleTime(1);
+        final CPoolEntry entry = createEntry("1", 0);
+        evictor.released(entry);
+
+        Thread.sleep(10);
+        Assert.assertTrue(evictor.timeout(getSession(entry)));
+
+        Assert.assertTrue(captureEvicted().containsKey(entry));
+        Assert.assertEquals(0, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testTimeoutBeforeDueRearms() throws Exception {
+        evictor.setMaxIdleTime(60000);
+        final CPoolEntry entry = createEntry("1", 0);
+        evictor.released(entry);
+
+        Assert.assertTrue(evictor.timeout(getSession(entry)));
+
+        Mockito.verify(pool, Mockito.never()).evict(Matchers.<Map<CPoolEntry, Long>>any());
+        Mockito.verify(getSession(entry), Mockito.times(2)).setSocketTimeout(Matchers.anyInt());
+        Assert.assertEquals(1, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testReleasedAgainNotEvicted() throws Exception {
+        evictor.setMaxIdleTime(1);
+        final CPoolEntry entry = createEntry("1", 0);
+        evictor.released(entry);
+
+        Thread.sleep(10);
+        // updated since indexed
+        entry.updateExpiry(0, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(evictor.timeout(getSession(entry)));
+
+        Mockito.verify(pool, Mockito.never()).evict(Matchers.<Map<CPoolEntry, Long>>any());
+    }
+
+    @Test
+    public void testReleasedAgainReplacesIndexEntry() throws Exception {
+        evictor.setMaxIdleTime(60000);
+        final CPoolEntry entry = createEntry("1", 0);
+        for (int i = 0; i < 10; i++) {
+            entry.updateExpiry(0, TimeUnit.MILLISECONDS);
+            evictor.released(entry);
+        }
+        Assert.assertEquals(1, evictor.getIndexSize());
+        evictor.released(createEntry("2", 0));
+        Assert.assertEquals(2, evictor.getIndexSize());
+
+        // the socket timeout in effect before the first release is restored
+        evictor.leased(entry);
+        Mockito.verify(getSession(entry)).setSocketTimeout(5000);
+        Assert.assertEquals(1, evictor.getIndexSize());
+    }
+
+    @Test
+    public void testLeasedRestoresSocketTimeout() throws Exception {
+        evictor.setMaxIdleTime(60000);
+        final CPoolEntry entry = createEntry("1", 0);
+        evictor.released(entry);
+
+        evictor.leased(entry);
+
+        final IOSession session = getSession(entry);
+        Mockito.verify(session).setSocketTimeout(5000);
+        Assert.assertNull(session.getAttribute(ConnectionEvictor.DUE_ENTRY));
+        Assert.assertEquals(0, evictor.getIndexSize());
+        // regular socket timeouts are left to the I/O event dispatch
+        Assert.assertFalse(evictor.timeout(session));
+    }
+
+    @Test
+    public void testSweptSessionRestored() throws Exception {
+        evictor.setMaxIdleTime(1);
+        final CPoolEntry entry1 = createEntry("1", 0);
+        final CPoolEntry entry2 = createEntry("2", 0);
+        evictor.released(entry1);
+        evictor.released(entry2);
+        entry2.updateExpiry(0, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(10);
+        Assert.assertTrue(evictor.timeout(getSession(entry1)));
+        Assert.assertEquals(0, evictor.getIndexSize());
+
+        // entry2 was swept without being evicted
+        final IOSession session = getSession(entry2);
+        Assert.assertTrue(evictor.timeout(session));
+        Mockito.verify(session).setSocketTimeout(5000);
+        Assert.assertNull(session.getAttribute(ConnectionEvictor.DUE_ENTRY));
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        evictor.setEvictExpired(true);
+        final CPoolEntry entry1 = createEntry("1", 1);
+        evictor.released(entry1);
+        evictor.shutdown();
+        Assert.assertEquals(0, evictor.getIndexSize());
+
+        Thread.sleep(10);
+        Assert.assertFalse(evictor.timeout(getSession(entry1)));
+        Mockito.verify(pool, Mockito.never()).evict(Matchers.<Map<CPoolEntry, Long>>any());
+
+        final CPoolEntry entry2 = createEntry("2", 1);
+        evictor.released(entry2);
+        Mockito.verify(getSession(entry2), Mockito.never()).setSocketTimeout(Matchers.anyInt());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketBounds() throws Exception {
+        final long[] values = new long[] {0, 1, 3, 4, 5, 7, 8, 9, 100, 1000, 123456789L, Long.MAX_VALUE};
+        for (final long value: values) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            final long upper = LatencyHistogram.bucketUpperBound(index);
+            Assert.assertTrue(value <= upper);
+            Assert.assertTrue(upper - value <= value / 4);
+            if (index > 0) {
+                Assert.assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getMean(), 0.0d);
+        Assert.assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5d, histogram.getMean(), 0.001d);
+        final long p50 = histogram.getPercentile(50);
+        Assert.assertTrue(p50 >= 500 && p50 <= 625);
+        final long p99 = histogram.getPercentile(99);
+        Assert.assertTrue(p99 >= 990 && p99 <= 1000);
+        Assert.assertEquals(1, histogram.getPercentile(0));
+        Assert.assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testNegativeValue() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-10);
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidPercentile() throws Exception {
+        new LatencyHistogram().getPercentile(101);
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.DefaultNHttpClientConnection;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.ConfigData;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.InternalConnectionFactory;
+import org.apache.http.impl.nio.reactor.AbstractIODispatch;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.pool.NIOConnFactory;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class TestMultihomeConnectingIOReactor {
+
+    @Mock
+    private ConnectingIOReactor ioreactor;
+    @Mock
+    private SessionRequestCallback callback;
+    @Mock
+    private SessionRequest attempt1;
+    @Mock
+    private SessionRequest attempt2;
+    @Mock
+    private IOSession session1;
+    @Mock
+    private IOSession session2;
+    @Mock
+    private NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory;
+    @Mock
+    private ManagedNHttpClientConnection conn;
+    @Captor
+    private ArgumentCaptor<SessionRequestCallback> attemptCallbackCaptor;
+
+    private InetSocketAddress address1;
+    private InetSocketAddress address2;
+    private MultihomeInetSocketAddress remoteAddress;
+    private MultihomeConnectingIOReactor multihomeReactor;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        final InetAddress ip1 = InetAddress.getByAddress(new byte[] {10, 0, 0, 10});
+        final InetAddress ip2 = InetAddress.getByAddress(new byte[] {10, 0, 0, 11});
+        this.address1 = new InetSocketAddress(ip1, 80);
+        this.address2 = new InetSocketAddress(ip2, 80);
+        this.remoteAddress = new MultihomeInetSocketAddress(new InetAddress[] {ip1, ip2}, 80);
+
+        Mockito.when(ioreactor.connect(
+                Matchers.eq(address1),
+                Matchers.<SocketAddress>any(),
+                Matchers.any(),
+                Matchers.<SessionRequestCallback>any())).thenReturn(attempt1);
+        Mockito.when(ioreactor.connect(
+                Matchers.eq(address2),
+                Matchers.<SocketAddress>any(),
+                Matchers.any(),
+                Matchers.<SessionRequestCallback>any())).thenReturn(attempt2);
+        Mockito.when(attempt1.getSession()).thenReturn(session1);
+        Mockito.when(attempt2.getSession()).thenReturn(session2);
+
+        final ConfigData configData = new ConfigData();
+        configData.setMultihomeConnectDelay(60000);
+        this.multihomeReactor = new MultihomeConnectingIOReactor(ioreactor, configData, connFactory);
+    }
+
+    @Test
+    public void testSingleAddressPassedThrough() throws Exception {
+        final SessionRequest request = multihomeReactor.connect(address1, null, "stuff", callback);
+
+        Assert.assertSame(attempt1, request);
+        Mockito.verify(ioreactor).connect(address1, null, "stuff", callback);
+    }
+
+    @Test
+    public void testFallbackOnConnectFailure() throws Exception {
+        final SessionRequest request = multihomeReactor.connect(remoteAddress, null, "stuff", callback);
+        request.setConnectTimeout(1000);
+
+        Mockito.verify(ioreactor).connect(
+                Matchers.eq(address1), (SocketAddress) Matchers.isNull(), Matchers.eq("stuff"),
+                attemptCallbackCaptor.capture());
+        Mockito.verify(attempt1).setConnectTimeout(1000);
+        Mockito.verify(ioreactor, Mockito.never()).connect(
+                Matchers.eq(address2), Matchers.<SocketAddress>any(), Matchers.any(),
+                Matchers.<SessionRequestCallback>any());
+
+        final SessionRequestCallback attemptCallback = attemptCallbackCaptor.getValue();
+        Mockito.when(attempt1.getException()).thenReturn(new IOException("Connection refused"));
+        attemptCallback.failed(attempt1);
+
+        Mockito.verify(ioreactor).connect(
+                Matchers.eq(address2), (SocketAddress) Matchers.isNull(), Matchers.eq("stuff"),
+                Matchers.same(attemptCallback));
+        Mockito.verify(attempt2).setConnectTimeout(1000);
+        Mockito.verify(callback, Mockito.never()).failed(Matchers.<SessionRequest>any());
+
+        attemptCallback.completed(attempt2);
+
+        Mockito.verify(callback).completed(request);
+        Assert.assertTrue(request.isCompleted());
+        Assert.assertSame(session2, request.getSession());
+        Assert.assertNull(request.getException());
+    }
+
+    @Test
+    public void testAllAttemptsFailed() throws Exception {
+        final SessionRequest request = multihomeReactor.connect(remoteAddress, null, "stuff", callback);
+
+        Mockito.verify(ioreactor).connect(
+                Matchers.eq(address1), (SocketAddress) Matchers.isNull(), Matchers.eq("stuff"),
+                attemptCallbackCaptor.capture());
+        final SessionRequestCallback attemptCallback = attemptCallbackCaptor.getValue();
+        Mockito.when(attempt1.getException()).thenReturn(new IOException("Connection refused"));
+        attemptCallback.failed(attempt1);
+        final IOException ex = new IOException("No route to host");
+        Mockito.when(attempt2.getException()).thenReturn(ex);
+        attemptCallback.failed(attempt2);
+
+        Mockito.verify(callback).failed(request);
+        Assert.assertTrue(request.isCompleted());
+        Assert.assertNull(request.getSession());
+        Assert.assertSame(ex, request.getException());
+    }
+
+    @Test
+    public void testLateAttemptDiscarded() throws Exception {
+        final HttpRoute route = new HttpRoute(new HttpHost("somehost"));
+        Mockito.when(connFactory.create(route, session1)).thenReturn(conn);
+        final SessionRequest request = multihomeReactor.connect(remoteAddress, null, route, callback);
+
+        Mockito.verify(ioreactor).connect(
+                Matchers.eq(address1), (SocketAddress) Matchers.isNull(), Matchers.eq(route),
+                attemptCallbackCaptor.capture());
+        final SessionRequestCallback attemptCallback = attemptCallbackCaptor.getValue();
+        Mockito.when(attempt1.getException()).thenReturn(new IOException("Connection refused"));
+        attemptCallback.failed(attempt1);
+        attemptCallback.completed(attempt2);
+        attemptCallback.completed(attempt1);
+
+        Mockito.verify(callback, Mockito.times(1)).completed(request);
+        Mockito.verify(attempt1).cancel();
+        Mockito.verify(connFactory).create(route, session1);
+        Mockito.verify(conn).shutdown();
+        Mockito.verify(session1).close();
+        Mockito.verify(session2, Mockito.never()).close();
+    }
+
+    @Test
+    public void testRacingAttemptsDoNotTerminateReactor() throws Exception {
+        final ServerSocket serversocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final int port = serversocket.getLocalPort();
+        final ConfigData configData = new ConfigData();
+        configData.setMultihomeConnectDelay(0);
+        final InternalConnectionFactory internalConnFactory = new InternalConnectionFactory(configData, null);
+        final DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(
+                IOReactorConfig.custom().setIoThreadCount(1).build());
+        final MultihomeConnectingIOReactor connector = new MultihomeConnectingIOReactor(
+                ioReactor, configData, internalConnFactory);
+        final Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    ioReactor.execute(new ManagedConnectionDispatch());
+                } catch (final IOException ignore) {
+                }
+            }
+
+        });
+        t.start();
+        try {
+            // Both addresses accept, so the losing attempt frequently connects as well
+            final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+            final HttpRoute route = new HttpRoute(new HttpHost("localhost", port));
+            for (int i = 0; i < 20; i++) {
+                final SessionRequest request = connector.connect(
+                        new MultihomeInetSocketAddress(new InetAddress[] {loopback, loopback}, port),
+                        null, route, new BindingSessionRequestCallback(internalConnFactory, route));
+                request.waitFor();
+                Assert.assertNotNull(request.getSession());
+                request.getSession().close();
+            }
+            Thread.sleep(500);
+            Assert.assertEquals(IOReactorStatus.ACTIVE, ioReactor.getStatus());
+            Assert.assertTrue(t.isAlive());
+        } finally {
+            connector.shutdown(1000);
+            serversocket.close();
+        }
+    }
+
+    /**
+     * Binds a connection to the session of the winning attempt the way
+     * the connection pool does.
+     */
+    static class BindingSessionRequestCallback implements SessionRequestCallback {
+
+        private final InternalConnectionFactory connFactory;
+        private final HttpRoute route;
+
+        BindingSessionRequestCallback(final InternalConnectionFactory connFactory, final HttpRoute route) {
+            super();
+            this.connFactory = connFactory;
+            this.route = route;
+        }
+
+        @Override
+        public void completed(final SessionRequest request) {
+            try {
+                this.connFactory.create(this.route, request.getSession());
+            } catch (final IOException ex) {
+                request.getSession().close();
+            }
+        }
+
+        @Override
+        public void failed(final SessionRequest request) {
+        }
+
+        @Override
+        public void timeout(final SessionRequest request) {
+        }
+
+        @Override
+        public void cancelled(final SessionRequest request) {
+        }
+
+    }
+
+    /**
+     * Dispatch that, like the client's, refuses sessions without a connection
+     * created by the connection manager.
+     */
+    static class ManagedConnectionDispatch extends AbstractIODispatch<DefaultNHttpClientConnection> {
+
+        @Override
+        protected DefaultNHttpClientConnection createConnection(final IOSession session) {
+            throw new IllegalStateException("Connection must be created by connection manager");
+        }
+
+        @Override
+        protected void onConnected(final DefaultNHttpClientConnection conn) {
+        }
+
+        @Override
+        protected void onClosed(final DefaultNHttpClientConnection conn) {
+        }
+
+        @Override
+        protected void onException(final DefaultNHttpClientConnection conn, final IOException ex) {
+        }
+
+        @Override
+        protected void onInputReady(final DefaultNHttpClientConnection conn) {
+        }
+
+        @Override
+        protected void onOutputReady(final DefaultNHttpClientConnection conn) {
+        }
+
+        @Override
+        protected void onTimeout(final DefaultNHttpClientConnection conn) {
+        }
+
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final SessionRequest request = multihomeReactor.connect(remoteAddress, null, "stuff", callback);
+        request.cancel();
+
+        Mockito.verify(attempt1).cancel();
+        Mockito.verify(callback).cancelled(request);
+        Assert.assertTrue(request.isCompleted());
+
+        request.cancel();
+        Mockito.verify(callback, Mockito.times(1)).cancelled(request);
+    }
+
+}
@@ -28,12 +28,19 @@ package org.apache.http.impl.nio.conn;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 import java.util.Calendar;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
 
 import org.apache.commons.logging.Log;
+import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpHost;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.ConnectionConfig;
@@ -47,10 +54,13 @@ import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.ConfigD
 import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.InternalAddressResolver;
 import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager.InternalConnectionFactory;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
 import org.apache.http.nio.conn.ManagedNHttpClientConnection;
 import org.apache.http.nio.conn.NHttpConnectionFactory;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
 import org.apache.http.nio.reactor.IOSession;
 import org.apache.http.nio.reactor.SessionRequest;
 import org.apache.http.protocol.BasicHttpContext;
@@ -70,7 +80,7 @@ public class TestPoolingHttpClientAsyncConnectionManager {
     @Mock
     private ConnectingIOReactor ioreactor;
     @Mock
-    private CPool pool;
+    private InternalConnPool pool;
     @Mock
     private SchemeIOSessionStrategy noopStrategy;
     @Mock
@@ -158,6 +168,120 @@ public class TestPoolingHttpClientAsyncConnectionManager {
         Assert.assertEquals(cal.getTimeInMillis(), poolentry.getExpiry());
     }
 
+    @Test
+    public void testRequestConnectionStaleAfterInactivity() throws Exception {
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+        connman.setValidateAfterInactivity(1);
+        final Future<NHttpClientConnection> future = connman.requestConnection(
+            route, "some state", 1000L, 2000L, TimeUnit.MILLISECONDS, connCallback);
+        Assert.assertNotNull(future);
+
+        Mockito.verify(pool).lease(
+                Matchers.same(route),
+                Matchers.eq("some state"),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final FutureCallback<CPoolEntry> callaback = poolEntryCallbackCaptor.getValue();
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolentry.markRouteComplete();
+        Thread.sleep(10);
+        Mockito.when(conn.isOpen()).thenReturn(Boolean.TRUE);
+        Mockito.when(conn.isStale()).thenReturn(Boolean.TRUE);
+        callaback.completed(poolentry);
+
+        Assert.assertFalse(future.isDone());
+        Mockito.verify(pool).release(poolentry, false);
+        Mockito.verify(pool, Mockito.times(2)).lease(
+                Matchers.same(route),
+                Matchers.eq("some state"),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                Matchers.same(callaback));
+
+        final ManagedNHttpClientConnection conn2 = Mockito.mock(ManagedNHttpClientConnection.class);
+        Mockito.when(conn2.isOpen()).thenReturn(Boolean.TRUE);
+        final CPoolEntry poolentry2 = new CPoolEntry(log, "some-id2", route, conn2, -1, TimeUnit.MILLISECONDS);
+        poolentry2.markRouteComplete();
+        callaback.completed(poolentry2);
+
+        Assert.assertTrue(future.isDone());
+        Mockito.verify(connCallback).completed(Matchers.<NHttpClientConnection>any());
+    }
+
+    @Test
+    public void testRequestConnectionHalfClosedAfterInactivity() throws Exception {
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+        connman.setValidateAfterInactivity(1);
+        final Future<NHttpClientConnection> future = connman.requestConnection(
+            route, "some state", 1000L, 2000L, TimeUnit.MILLISECONDS, connCallback);
+        Assert.assertNotNull(future);
+
+        Mockito.verify(pool).lease(
+                Matchers.same(route),
+                Matchers.eq("some state"),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final FutureCallback<CPoolEntry> callaback = poolEntryCallbackCaptor.getValue();
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolentry.markRouteComplete();
+        Thread.sleep(10);
+        final ByteChannel channel = Mockito.mock(ByteChannel.class);
+        Mockito.when(channel.read(Matchers.any(ByteBuffer.class))).thenReturn(-1);
+        Mockito.when(iosession.channel()).thenReturn(channel);
+        Mockito.when(conn.getIOSession()).thenReturn(iosession);
+        Mockito.when(conn.isOpen()).thenReturn(Boolean.TRUE);
+        callaback.completed(poolentry);
+
+        Assert.assertFalse(future.isDone());
+        Mockito.verify(channel).read(Matchers.any(ByteBuffer.class));
+        Mockito.verify(pool).release(poolentry, false);
+        Mockito.verify(pool, Mockito.times(2)).lease(
+                Matchers.same(route),
+                Matchers.eq("some state"),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                Matchers.same(callaback));
+    }
+
+    @Test
+    public void testRequestConnectionNotValidatedBeforeInactivity() throws Exception {
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+        connman.setValidateAfterInactivity(60000);
+        final Future<NHttpClientConnection> future = connman.requestConnection(
+            route, "some state", 1000L, 2000L, TimeUnit.MILLISECONDS, connCallback);
+        Assert.assertNotNull(future);
+
+        Mockito.verify(pool).lease(
+                Matchers.same(route),
+                Matchers.eq("some state"),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final FutureCallback<CPoolEntry> callaback = poolEntryCallbackCaptor.getValue();
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolentry.markRouteComplete();
+        Mockito.when(conn.isStale()).thenReturn(Boolean.TRUE);
+        callaback.completed(poolentry);
+
+        Assert.assertTrue(future.isDone());
+        Mockito.verify(conn, Mockito.never()).isStale();
+        Mockito.verify(pool, Mockito.never()).release(poolentry, false);
+        Mockito.verify(connCallback).completed(Matchers.<NHttpClientConnection>any());
+    }
+
     @Test
     public void testReleaseConnectionIncompleteRoute() throws Exception {
         final HttpHost target = new HttpHost("localhost");
@@ -598,4 +722,336 @@ public class TestPoolingHttpClientAsyncConnectionManager {
         Assert.assertEquals(8888, address.getPort());
     }
 
+    @Test
+    public void testPrewarm() throws Exception {
+        final HttpHost target = new HttpHost("somehost", 443, "https");
+        final HttpRoute route = new HttpRoute(target, null, true);
+
+        Mockito.when(pool.getMaxPerRoute(route)).thenReturn(5);
+        Mockito.when(conn.getIOSession()).thenReturn(iosession);
+        Mockito.when(sslStrategy.upgrade(target, iosession)).thenReturn(iosession);
+        Mockito.when(conn.isOpen()).thenReturn(Boolean.TRUE);
+
+        final Future<Integer> future = connman.prewarm(route, 2, 1000L, TimeUnit.MILLISECONDS, null);
+        Assert.assertNotNull(future);
+
+        Mockito.verify(pool, Mockito.times(2)).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(1000L),
+                Matchers.eq(1000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry1 = new CPoolEntry(log, "id1", route, conn, -1, TimeUnit.MILLISECONDS);
+        final CPoolEntry poolentry2 = new CPoolEntry(log, "id2", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolEntryCallbackCaptor.getAllValues().get(0).completed(poolentry1);
+        poolEntryCallbackCaptor.getAllValues().get(1).completed(poolentry2);
+
+        Mockito.verify(sslStrategy, Mockito.times(2)).upgrade(target, iosession);
+        Mockito.verify(conn, Mockito.times(2)).requestOutput();
+        final ArgumentCaptor<Object> handshakeCallbackCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(iosession, Mockito.times(2)).setAttribute(
+                Matchers.eq(SSLIOSessionStrategy.HANDSHAKE_CALLBACK), handshakeCallbackCaptor.capture());
+        final SSLSession sslsession = Mockito.mock(SSLSession.class);
+
+        handshakeCallback(handshakeCallbackCaptor, 0).completed(sslsession);
+
+        Assert.assertFalse(future.isDone());
+        Assert.assertTrue(poolentry1.isRouteComplete());
+        Mockito.verify(pool, Mockito.never()).release(Matchers.<CPoolEntry>any(), Matchers.anyBoolean());
+
+        handshakeCallback(handshakeCallbackCaptor, 1).completed(sslsession);
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(Integer.valueOf(2), future.get());
+        Assert.assertTrue(poolentry1.isRouteComplete());
+        Assert.assertTrue(poolentry2.isRouteComplete());
+        Mockito.verify(pool).release(poolentry1, true);
+        Mockito.verify(pool).release(poolentry2, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FutureCallback<SSLSession> handshakeCallback(
+            final ArgumentCaptor<Object> captor, final int index) {
+        return (FutureCallback<SSLSession>) captor.getAllValues().get(index);
+    }
+
+    @Test
+    public void testPrewarmHandshakeFailed() throws Exception {
+        final HttpHost target = new HttpHost("somehost", 443, "https");
+        final HttpRoute route = new HttpRoute(target, null, true);
+
+        Mockito.when(pool.getMaxPerRoute(route)).thenReturn(5);
+        Mockito.when(conn.getIOSession()).thenReturn(iosession);
+        Mockito.when(sslStrategy.upgrade(target, iosession)).thenReturn(iosession);
+        Mockito.when(conn.isOpen()).thenReturn(Boolean.TRUE);
+
+        final Future<Integer> future = connman.prewarm(route, 1, 1000L, TimeUnit.MILLISECONDS, null);
+
+        Mockito.verify(pool).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(1000L),
+                Matchers.eq(1000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "id1", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolEntryCallbackCaptor.getValue().completed(poolentry);
+
+        Assert.assertFalse(future.isDone());
+
+        final ArgumentCaptor<Object> handshakeCallbackCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(iosession).setAttribute(
+                Matchers.eq(SSLIOSessionStrategy.HANDSHAKE_CALLBACK), handshakeCallbackCaptor.capture());
+        final Exception failure = new SSLException("handshake failed");
+        handshakeCallback(handshakeCallbackCaptor, 0).failed(failure);
+
+        Assert.assertTrue(future.isDone());
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertSame(failure, ex.getCause());
+        }
+        Assert.assertFalse(poolentry.isRouteComplete());
+        Mockito.verify(conn).shutdown();
+        Mockito.verify(pool).release(poolentry, false);
+    }
+
+    @Test
+    public void testHandshakeCallbackNotifiedOnDisconnect() throws Exception {
+        final IOEventDispatch eventDispatch = Mockito.mock(IOEventDispatch.class);
+        @SuppressWarnings("unchecked")
+        final FutureCallback<SSLSession> handshakeCallback = Mockito.mock(FutureCallback.class);
+        Mockito.when(iosession.removeAttribute(SSLIOSessionStrategy.HANDSHAKE_CALLBACK)).thenReturn(
+                handshakeCallback);
+
+        connman.execute(eventDispatch);
+        final ArgumentCaptor<IOEventDispatch> dispatchCaptor = ArgumentCaptor.forClass(IOEventDispatch.class);
+        Mockito.verify(ioreactor).execute(dispatchCaptor.capture());
+        dispatchCaptor.getValue().disconnected(iosession);
+
+        Mockito.verify(handshakeCallback).failed(Matchers.any(ConnectionClosedException.class));
+        Mockito.verify(eventDispatch).disconnected(iosession);
+    }
+
+    @Test
+    public void testPrewarmLeasesNotReported() throws Exception {
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        connman.setMetricsListener(metricsListener);
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+
+        Mockito.when(pool.getMaxPerRoute(route)).thenReturn(1);
+        Mockito.when(conn.isOpen()).thenReturn(Boolean.TRUE);
+
+        final Future<Integer> future = connman.prewarm(route, 1);
+
+        Mockito.verify(pool).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(0L),
+                Matchers.eq(0L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "id1", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolEntryCallbackCaptor.getValue().completed(poolentry);
+
+        Assert.assertEquals(Integer.valueOf(1), future.get());
+        Mockito.verifyZeroInteractions(metricsListener);
+    }
+
+    @Test
+    public void testPrewarmCappedByMaxPerRoute() throws Exception {
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+
+        Mockito.when(pool.getMaxPerRoute(route)).thenReturn(1);
+
+        connman.prewarm(route, 10);
+
+        Mockito.verify(pool, Mockito.times(1)).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(0L),
+                Matchers.eq(0L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                Matchers.<FutureCallback<CPoolEntry>>any());
+    }
+
+    @Test(expected=ExecutionException.class)
+    public void testPrewarmFailed() throws Exception {
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+
+        Mockito.when(pool.getMaxPerRoute(route)).thenReturn(2);
+
+        final Future<Integer> future = connman.prewarm(route, 2);
+
+        Mockito.verify(pool, Mockito.times(2)).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(0L),
+                Matchers.eq(0L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        poolEntryCallbackCaptor.getAllValues().get(0).failed(new Exception());
+        poolEntryCallbackCaptor.getAllValues().get(1).failed(new Exception());
+
+        Assert.assertTrue(future.isDone());
+        future.get();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPrewarmTunnelledRoute() throws Exception {
+        final HttpHost target = new HttpHost("somehost", 443, "https");
+        final HttpHost proxy = new HttpHost("someproxy", 8080);
+        final HttpRoute route = new HttpRoute(target, null, proxy, true);
+
+        connman.prewarm(route, 1);
+    }
+
+    @Test
+    public void testRequestConnectionMetrics() throws Exception {
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        connman.setMetricsListener(metricsListener);
+
+        final HttpHost target = new HttpHost("localhost");
+        final HttpRoute route = new HttpRoute(target);
+        final Future<NHttpClientConnection> future1 = connman.requestConnection(
+            route, null, 1000L, 2000L, TimeUnit.MILLISECONDS, null);
+        final Future<NHttpClientConnection> future2 = connman.requestConnection(
+            route, null, 1000L, 2000L, TimeUnit.MILLISECONDS, null);
+
+        Mockito.verify(metricsListener, Mockito.times(2)).leaseRequested(route);
+        Mockito.verify(pool, Mockito.times(2)).lease(
+                Matchers.same(route),
+                Matchers.isNull(),
+                Matchers.eq(1000L),
+                Matchers.eq(2000L),
+                Matchers.eq(TimeUnit.MILLISECONDS),
+                poolEntryCallbackCaptor.capture());
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        poolEntryCallbackCaptor.getAllValues().get(0).completed(poolentry);
+        poolEntryCallbackCaptor.getAllValues().get(1).failed(new TimeoutException());
+
+        Assert.assertTrue(future1.isDone());
+        Assert.assertTrue(future2.isDone());
+        Mockito.verify(metricsListener).leaseCompleted(Matchers.same(route), Matchers.anyLong());
+        Mockito.verify(metricsListener).leaseFailed(Matchers.same(route), Matchers.anyLong(), Matchers.eq(true));
+    }
+
+    @Test
+    public void testStartRouteHandshakeMetrics() throws Exception {
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        connman.setMetricsListener(metricsListener);
+
+        final HttpHost target = new HttpHost("somehost", 443, "https");
+        final HttpRoute route = new HttpRoute(target);
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        final NHttpClientConnection managedConn = CPoolProxy.newProxy(poolentry);
+
+        Mockito.when(conn.getIOSession()).thenReturn(iosession);
+        Mockito.when(sslStrategy.upgrade(target, iosession)).thenReturn(iosession);
+
+        connman.startRoute(managedConn, route, new BasicHttpContext());
+
+        final ArgumentCaptor<Object> callbackCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(iosession).setAttribute(
+                Matchers.eq(SSLIOSessionStrategy.HANDSHAKE_CALLBACK), callbackCaptor.capture());
+        @SuppressWarnings("unchecked")
+        final FutureCallback<SSLSession> handshakeCallback = (FutureCallback<SSLSession>) callbackCaptor.getValue();
+        final SSLSession sslsession = Mockito.mock(SSLSession.class);
+        handshakeCallback.completed(sslsession);
+
+        Mockito.verify(metricsListener).handshakeCompleted(
+                Matchers.same(route), Matchers.anyLong(), Matchers.eq(false));
+        Mockito.verify(sslsession).putValue(
+                PoolingNHttpClientConnectionManager.SSL_SESSION_ESTABLISHED, Boolean.TRUE);
+    }
+
+    @Test
+    public void testStartRouteResumedHandshakeMetrics() throws Exception {
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        connman.setMetricsListener(metricsListener);
+
+        final HttpHost target = new HttpHost("somehost", 443, "https");
+        final HttpRoute route = new HttpRoute(target);
+        final Log log = Mockito.mock(Log.class);
+        final CPoolEntry poolentry = new CPoolEntry(log, "some-id", route, conn, -1, TimeUnit.MILLISECONDS);
+        final NHttpClientConnection managedConn = CPoolProxy.newProxy(poolentry);
+
+        Mockito.when(conn.getIOSession()).thenReturn(iosession);
+        Mockito.when(sslStrategy.upgrade(target, iosession)).thenReturn(iosession);
+
+        connman.startRoute(managedConn, route, new BasicHttpContext());
+
+        final ArgumentCaptor<Object> callbackCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(iosession).setAttribute(
+                Matchers.eq(SSLIOSessionStrategy.HANDSHAKE_CALLBACK), callbackCaptor.capture());
+        @SuppressWarnings("unchecked")
+        final FutureCallback<SSLSession> handshakeCallback = (FutureCallback<SSLSession>) callbackCaptor.getValue();
+        final SSLSession sslsession = Mockito.mock(SSLSession.class);
+        Mockito.when(sslsession.getValue(PoolingNHttpClientConnectionManager.SSL_SESSION_ESTABLISHED))
+                .thenReturn(Boolean.TRUE);
+        handshakeCallback.completed(sslsession);
+
+        Mockito.verify(metricsListener).handshakeCompleted(
+                Matchers.same(route), Matchers.anyLong(), Matchers.eq(true));
+    }
+
+    @Test
+    public void testResolveRemoteAddressMultihome() throws Exception {
+        final ConfigData configData = new ConfigData();
+        configData.setMultihomeConnect(true);
+        final InternalAddressResolver addressResolver = new InternalAddressResolver(
+                schemePortResolver, dnsResolver, configData);
+
+        final HttpHost target = new HttpHost("somehost", 80);
+        final HttpRoute route = new HttpRoute(target);
+
+        Mockito.when(schemePortResolver.resolve(target)).thenReturn(123);
+        final InetAddress ip6a = InetAddress.getByName("::1");
+        final InetAddress ip6b = InetAddress.getByName("fe80::1");
+        final InetAddress ip4a = InetAddress.getByAddress(new byte[] {10, 0, 0, 10});
+        final InetAddress ip4b = InetAddress.getByAddress(new byte[] {10, 0, 0, 11});
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip6a, ip6b, ip4a, ip4b});
+
+        final InetSocketAddress address = (InetSocketAddress) addressResolver.resolveRemoteAddress(route);
+
+        Assert.assertTrue(address instanceof MultihomeInetSocketAddress);
+        Assert.assertEquals(ip6a, address.getAddress());
+        Assert.assertEquals(123, address.getPort());
+        final InetSocketAddress[] addresses = ((MultihomeInetSocketAddress) address).getAddresses();
+        Assert.assertEquals(4, addresses.length);
+        Assert.assertEquals(ip6a, addresses[0].getAddress());
+        Assert.assertEquals(ip4a, addresses[1].getAddress());
+        Assert.assertEquals(ip6b, addresses[2].getAddress());
+        Assert.assertEquals(ip4b, addresses[3].getAddress());
+    }
+
+    @Test
+    public void testResolveRemoteAddressMultihomeDisabled() throws Exception {
+        final InternalAddressResolver addressResolver = new InternalAddressResolver(
+                schemePortResolver, dnsResolver, new ConfigData());
+
+        final HttpHost target = new HttpHost("somehost", 80);
+        final HttpRoute route = new HttpRoute(target);
+
+        Mockito.when(schemePortResolver.resolve(target)).thenReturn(123);
+        final InetAddress ip1 = InetAddress.getByAddress(new byte[] {10, 0, 0, 10});
+        final InetAddress ip2 = InetAddress.getByAddress(new byte[] {10, 0, 0, 11});
+        Mockito.when(dnsResolver.resolve("somehost")).thenReturn(new InetAddress[] {ip1, ip2});
+
+        final InetSocketAddress address = (InetSocketAddress) addressResolver.resolveRemoteAddress(route);
+
+        Assert.assertFalse(address instanceof MultihomeInetSocketAddress);
+        Assert.assertEquals(ip1, address.getAddress());
+    }
+
 }
@@ -0,0 +1,278 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.pool.NIOConnFactory;
+import org.apache.http.nio.pool.SocketAddressResolver;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.pool.PoolStats;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class TestStripedCPool {
+
+    @Mock
+    private ConnectingIOReactor ioreactor;
+    @Mock
+    private NIOConnFactory<HttpRoute, ManagedNHttpClientConnection> connFactory;
+    @Mock
+    private SocketAddressResolver<HttpRoute> addressResolver;
+    @Mock
+    private SessionRequest sessionRequest;
+    @Mock
+    private IOSession iosession;
+    @Mock
+    private ManagedNHttpClientConnection conn1;
+    @Mock
+    private ManagedNHttpClientConnection conn2;
+
+    private HttpRoute route1;
+    private HttpRoute route2;
+    private StripedCPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        route1 = new HttpRoute(new HttpHost("somehost", 80));
+        route2 = new HttpRoute(new HttpHost("otherhost", 80));
+        Mockito.when(addressResolver.resolveRemoteAddress(Matchers.<HttpRoute>any())).thenReturn(
+                new InetSocketAddress("localhost", 80));
+        Mockito.when(ioreactor.connect(
+                Matchers.<SocketAddress>any(),
+                Matchers.<SocketAddress>any(),
+                Matchers.any(),
+                Matchers.<SessionRequestCallback>any())).thenReturn(sessionRequest);
+        Mockito.when(sessionRequest.getSession()).thenReturn(iosession);
+        Mockito.when(connFactory.create(Matchers.<HttpRoute>any(), Matchers.<IOSession>any()))
+                .thenReturn(conn1, conn2);
+        Mockito.when(conn1.getId()).thenReturn("c1");
+        Mockito.when(conn1.isOpen()).thenReturn(Boolean.TRUE);
+        Mockito.when(conn2.getId()).thenReturn("c2");
+        Mockito.when(conn2.isOpen()).thenReturn(Boolean.TRUE);
+        pool = new StripedCPool(ioreactor, connFactory, addressResolver, 2, 20, -1, TimeUnit.MILLISECONDS);
+    }
+
+    private SessionRequestCallback verifyConnect(final HttpRoute route, final int times) {
+        final ArgumentCaptor<SessionRequestCallback> callbackCaptor =
+                ArgumentCaptor.forClass(SessionRequestCallback.class);
+        Mockito.verify(ioreactor, Mockito.times(times)).connect(
+                Matchers.<SocketAddress>any(),
+                Matchers.<SocketAddress>any(),
+                Matchers.eq(route),
+                callbackCaptor.capture());
+        return callbackCaptor.getValue();
+    }
+
+    @Test
+    public void testLeaseNewConnection() throws Exception {
+        final Future<CPoolEntry> future = pool.lease(route1, null, 1000, 0, TimeUnit.MILLISECONDS, null);
+        Assert.assertFalse(future.isDone());
+        Mockito.verify(sessionRequest).setConnectTimeout(1000);
+
+        PoolStats stats = pool.getStats(route1);
+        Assert.assertEquals(1, stats.getPending());
+
+        verifyConnect(route1, 1).completed(sessionRequest);
+        Assert.assertTrue(future.isDone());
+        final CPoolEntry entry = future.get();
+        Assert.assertSame(conn1, entry.getConnection());
+
+        stats = pool.getStats(route1);
+        Assert.assertEquals(1, stats.getLeased());
+        Assert.assertEquals(0, stats.getPending());
+        Assert.assertEquals(0, stats.getAvailable());
+    }
+
+    @Test
+    public void testReleaseAndReuse() throws Exception {
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        final CPoolEntry entry = future1.get();
+        pool.release(entry, true);
+
+        final PoolStats stats = pool.getStats(route1);
+        Assert.assertEquals(0, stats.getLeased());
+        Assert.assertEquals(1, stats.getAvailable());
+
+        final Future<CPoolEntry> future2 = pool.lease(route1, null, null);
+        Assert.assertTrue(future2.isDone());
+        Assert.assertSame(entry, future2.get());
+        verifyConnect(route1, 1);
+    }
+
+    @Test
+    public void testStateMismatch() throws Exception {
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        final CPoolEntry entry = future1.get();
+        entry.setState("some-user");
+        pool.release(entry, true);
+
+        final Future<CPoolEntry> future2 = pool.lease(route1, "other-user", null);
+        Assert.assertFalse(future2.isDone());
+        verifyConnect(route1, 2);
+        Assert.assertEquals(1, pool.getStats(route1).getAvailable());
+    }
+
+    @Test
+    public void testMaxPerRoute() throws Exception {
+        pool.setMaxPerRoute(route1, 1);
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        final Future<CPoolEntry> future2 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        Assert.assertTrue(future1.isDone());
+        Assert.assertFalse(future2.isDone());
+
+        final CPoolEntry entry = future1.get();
+        pool.release(entry, true);
+        Assert.assertTrue(future2.isDone());
+        Assert.assertSame(entry, future2.get());
+    }
+
+    @Test
+    public void testMaxTotalEvictsIdleConnection() throws Exception {
+        pool.setMaxTotal(1);
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        final CPoolEntry entry1 = future1.get();
+
+        final Future<CPoolEntry> future2 = pool.lease(route2, null, null);
+        Assert.assertFalse(future2.isDone());
+        Mockito.verify(ioreactor, Mockito.never()).connect(
+                Matchers.<SocketAddress>any(),
+                Matchers.<SocketAddress>any(),
+                Matchers.eq(route2),
+                Matchers.<SessionRequestCallback>any());
+
+        pool.release(entry1, true);
+        Mockito.verify(conn1).close();
+        verifyConnect(route2, 1).completed(sessionRequest);
+        Assert.assertTrue(future2.isDone());
+        Assert.assertSame(conn2, future2.get().getConnection());
+
+        final PoolStats totals = pool.getTotalStats();
+        Assert.assertEquals(1, totals.getLeased());
+        Assert.assertEquals(0, totals.getAvailable());
+    }
+
+    @Test
+    public void testReleaseNonReusable() throws Exception {
+        pool.setMaxPerRoute(route1, 1);
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        final Future<CPoolEntry> future2 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        pool.release(future1.get(), false);
+        Mockito.verify(conn1).close();
+        verifyConnect(route1, 2).completed(sessionRequest);
+        Assert.assertSame(conn2, future2.get().getConnection());
+    }
+
+    @Test
+    public void testConnectTimeout() throws Exception {
+        final Future<CPoolEntry> future = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).timeout(sessionRequest);
+        Assert.assertTrue(future.isDone());
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof SocketTimeoutException);
+        }
+        final PoolStats stats = pool.getStats(route1);
+        Assert.assertEquals(0, stats.getPending());
+        Assert.assertEquals(0, stats.getLeased());
+    }
+
+    @Test
+    public void testLeaseTimeout() throws Exception {
+        pool.setMaxPerRoute(route1, 1);
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        final Future<CPoolEntry> future2 = pool.lease(route1, null, 0, 1, TimeUnit.MILLISECONDS, null);
+        Thread.sleep(10);
+        pool.closeExpired();
+        Assert.assertFalse(future1.isDone());
+        Assert.assertTrue(future2.isDone());
+        try {
+            future2.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCloseIdle() throws Exception {
+        final Future<CPoolEntry> future = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        final CPoolEntry entry = future.get();
+        entry.updateExpiry(0, TimeUnit.MILLISECONDS);
+        pool.release(entry, true);
+        Thread.sleep(10);
+        pool.closeIdle(1, TimeUnit.MILLISECONDS);
+        Mockito.verify(conn1).close();
+        Assert.assertEquals(0, pool.getStats(route1).getAvailable());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final Future<CPoolEntry> future1 = pool.lease(route1, null, null);
+        verifyConnect(route1, 1).completed(sessionRequest);
+        future1.get();
+        pool.lease(route2, null, null);
+
+        pool.shutdown(500);
+        Mockito.verify(conn1).close();
+        Mockito.verify(sessionRequest).cancel();
+        Mockito.verify(ioreactor).shutdown(500);
+        try {
+            pool.lease(route1, null, null);
+            Assert.fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+        }
+    }
+
+}
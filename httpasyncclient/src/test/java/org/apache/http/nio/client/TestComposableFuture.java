@@ -0,0 +1,177 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class TestComposableFuture {
+
+    @Test
+    public void testCallbackAddedAfterCompletion() throws Exception {
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        future.completed("stuff");
+        @SuppressWarnings("unchecked")
+        final FutureCallback<String> callback = Mockito.mock(FutureCallback.class);
+        future.addCallback(callback);
+        Mockito.verify(callback).completed("stuff");
+    }
+
+    @Test
+    public void testCancelPropagatesToDependency() throws Exception {
+        final Cancellable dependency = Mockito.mock(Cancellable.class);
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        future.setDependency(dependency);
+        Assert.assertTrue(future.cancel(true));
+        Assert.assertFalse(future.cancel(true));
+        Mockito.verify(dependency, Mockito.times(1)).cancel();
+    }
+
+    @Test
+    public void testDependencySetAfterCancel() throws Exception {
+        final Cancellable dependency = Mockito.mock(Cancellable.class);
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        future.cancel(true);
+        future.setDependency(dependency);
+        Mockito.verify(dependency).cancel();
+    }
+
+    @Test
+    public void testCompletionDoesNotCancelDependency() throws Exception {
+        final Cancellable dependency = Mockito.mock(Cancellable.class);
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        future.setDependency(dependency);
+        future.completed("stuff");
+        Assert.assertFalse(future.cancel(true));
+        Mockito.verify(dependency, Mockito.never()).cancel();
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        final ComposableFuture<Integer> length = future.transform(new ComposableFuture.Function<String, Integer>() {
+
+            @Override
+            public Integer apply(final String input) {
+                return Integer.valueOf(input.length());
+            }
+
+        });
+        Assert.assertFalse(length.isDone());
+        future.completed("stuff");
+        Assert.assertTrue(length.isDone());
+        Assert.assertEquals(Integer.valueOf(5), length.get());
+    }
+
+    @Test
+    public void testTransformFailure() throws Exception {
+        final ComposableFuture<String> future = new ComposableFuture<String>();
+        final ComposableFuture<Integer> length = future.transform(new ComposableFuture.Function<String, Integer>() {
+
+            @Override
+            public Integer apply(final String input) throws Exception {
+                throw new IllegalStateException("Oppsie");
+            }
+
+        });
+        future.completed("stuff");
+        try {
+            length.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testComposeCancelPropagates() throws Exception {
+        final ComposableFuture<String> first = new ComposableFuture<String>();
+        final ComposableFuture<String> second = new ComposableFuture<String>();
+        final ComposableFuture<String> composed = first.compose(
+                new ComposableFuture.Function<String, ComposableFuture<String>>() {
+
+            @Override
+            public ComposableFuture<String> apply(final String input) {
+                return second;
+            }
+
+        });
+        first.completed("stuff");
+        Assert.assertFalse(composed.isDone());
+        composed.cancel(true);
+        Assert.assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        final ComposableFuture<String> f1 = new ComposableFuture<String>();
+        final ComposableFuture<String> f2 = new ComposableFuture<String>();
+        final ComposableFuture<List<String>> all = ComposableFuture.all(Arrays.asList(f1, f2));
+        f2.completed("two");
+        Assert.assertFalse(all.isDone());
+        f1.completed("one");
+        Assert.assertTrue(all.isDone());
+        Assert.assertEquals(Arrays.asList("one", "two"), all.get());
+    }
+
+    @Test
+    public void testAllFailureCancelsRemaining() throws Exception {
+        final Cancellable dependency = Mockito.mock(Cancellable.class);
+        final ComposableFuture<String> f1 = new ComposableFuture<String>();
+        final ComposableFuture<String> f2 = new ComposableFuture<String>();
+        f2.setDependency(dependency);
+        final ComposableFuture<List<String>> all = ComposableFuture.all(Arrays.asList(f1, f2));
+        f1.failed(new IllegalStateException());
+        Assert.assertTrue(all.isDone());
+        Assert.assertTrue(f2.isCancelled());
+        Mockito.verify(dependency).cancel();
+    }
+
+    @Test
+    public void testAllCancelPropagates() throws Exception {
+        final ComposableFuture<String> f1 = new ComposableFuture<String>();
+        final ComposableFuture<String> f2 = new ComposableFuture<String>();
+        final ComposableFuture<List<String>> all = ComposableFuture.all(Arrays.asList(f1, f2));
+        @SuppressWarnings("unchecked")
+        final FutureCallback<List<String>> callback = Mockito.mock(FutureCallback.class);
+        all.addCallback(callback);
+        all.cancel(true);
+        Assert.assertTrue(f1.isCancelled());
+        Assert.assertTrue(f2.isCancelled());
+        Mockito.verify(callback).cancelled();
+        Mockito.verify(callback, Mockito.never()).completed(Matchers.<List<String>>any());
+    }
+
+}
@@ -27,13 +27,18 @@
 package org.apache.http.nio.client.integration;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.localserver.HttpAsyncTestBase;
 import org.apache.http.HttpEntity;
@@ -41,14 +46,22 @@ import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.BatchingCallbackExecutor;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.client.SlowCallbackMonitor;
 import org.apache.http.localserver.EchoHandler;
 import org.apache.http.localserver.RandomHandler;
 import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.ComposableFuture;
+import org.apache.http.nio.client.ExchangeTimings;
 import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.client.util.HttpAsyncClientUtils;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
 import org.apache.http.nio.entity.NByteArrayEntity;
 import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
 import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
@@ -59,6 +72,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
 
 @RunWith(Parameterized.class)
 public class TestHttpAsync extends HttpAsyncTestBase {
@@ -255,6 +270,195 @@ public class TestHttpAsync extends HttpAsyncTestBase {
         Assert.assertEquals(200, response3.getStatusLine().getStatusCode());
     }
 
+    @Test
+    public void testIdleConnectionEvicted() throws Exception {
+        this.connMgr.setMaxIdleTime(200, TimeUnit.MILLISECONDS);
+        final HttpHost target = start();
+        for (int i = 0; i < 2; i++) {
+            final HttpGet httpget = new HttpGet("/random/2048");
+            final Future<HttpResponse> future = this.httpclient.execute(target, httpget, null);
+            final HttpResponse response = future.get();
+            Assert.assertNotNull(response);
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+        Assert.assertEquals(1, this.connMgr.getTotalStats().getAvailable());
+
+        // evicted by the I/O reactor within its select interval
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.connMgr.getTotalStats().getAvailable() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, this.connMgr.getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        final HttpHost target = start();
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+        final boolean secure = "https".equals(target.getSchemeName());
+        final HttpRoute route = new HttpRoute(target, null, secure);
+
+        final Future<Integer> future = this.connMgr.prewarm(route, 2, 5000, TimeUnit.MILLISECONDS, null);
+        Assert.assertEquals(Integer.valueOf(2), future.get());
+        Assert.assertEquals(2, this.connMgr.getStats(route).getAvailable());
+        // Connections to secure routes are only released once their handshake is over
+        Mockito.verify(metricsListener, Mockito.times(secure ? 2 : 0)).handshakeCompleted(
+                Matchers.eq(route), Matchers.anyLong(), Matchers.anyBoolean());
+        Mockito.verify(metricsListener, Mockito.never()).leaseRequested(Matchers.<HttpRoute>any());
+
+        final HttpGet httpget = new HttpGet("/random/2048");
+        final HttpResponse response = this.httpclient.execute(target, httpget, null).get();
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        // The request is served over one of the pre-warmed connections
+        Mockito.verify(metricsListener, Mockito.times(2)).connectCompleted(
+                Matchers.eq(route), Matchers.anyLong());
+    }
+
+    @Test
+    public void testSessionResumed() throws Exception {
+        final HttpHost target = start();
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+        final boolean secure = "https".equals(target.getSchemeName());
+
+        for (int i = 0; i < 2; i++) {
+            final HttpGet httpget = new HttpGet("/random/2048");
+            final HttpResponse response = this.httpclient.execute(target, httpget, null).get();
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            EntityUtils.consume(response.getEntity());
+            this.connMgr.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        }
+        Mockito.verify(metricsListener, Mockito.times(secure ? 1 : 0)).handshakeCompleted(
+                Matchers.<HttpRoute>any(), Matchers.anyLong(), Matchers.eq(false));
+        Mockito.verify(metricsListener, Mockito.times(secure ? 1 : 0)).handshakeCompleted(
+                Matchers.<HttpRoute>any(), Matchers.anyLong(), Matchers.eq(true));
+    }
+
+    @Test
+    public void testExchangeTimings() throws Exception {
+        final HttpHost target = start();
+        final HttpGet httpget = new HttpGet("/random/2048");
+        final HttpClientContext context = HttpClientContext.create();
+        final Future<HttpResponse> future = this.httpclient.execute(target, httpget, context, null);
+        final HttpResponse response = future.get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+
+        final ExchangeTimings timings = ExchangeTimings.get(context);
+        Assert.assertNotNull(timings);
+        for (final ExchangeTimings.Phase phase: ExchangeTimings.Phase.values()) {
+            Assert.assertTrue(phase.name(), timings.isReached(phase));
+        }
+        Assert.assertTrue(timings.getPoolWait(TimeUnit.NANOSECONDS) >= 0);
+        Assert.assertTrue(timings.getRouteSetup(TimeUnit.NANOSECONDS) >= 0);
+        Assert.assertTrue(timings.getServerTime(TimeUnit.NANOSECONDS) >= 0);
+        Assert.assertTrue(timings.getTotal(TimeUnit.NANOSECONDS) >= timings.getServerTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testSubmitFanOut() throws Exception {
+        final HttpHost target = start();
+        final List<ComposableFuture<HttpResponse>> futures = new ArrayList<ComposableFuture<HttpResponse>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(this.httpclient.submit(target, new HttpGet("/random/2048"), null, null));
+        }
+        final ComposableFuture<List<HttpResponse>> all = ComposableFuture.all(futures);
+        final ComposableFuture<Integer> count = all.transform(
+                new ComposableFuture.Function<List<HttpResponse>, Integer>() {
+
+            @Override
+            public Integer apply(final List<HttpResponse> responses) {
+                int n = 0;
+                for (final HttpResponse response: responses) {
+                    if (response.getStatusLine().getStatusCode() == 200) {
+                        n++;
+                    }
+                }
+                return Integer.valueOf(n);
+            }
+
+        });
+        Assert.assertEquals(Integer.valueOf(3), count.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCallbackExecutor() throws Exception {
+        final BatchingCallbackExecutor executor = new BatchingCallbackExecutor();
+        try {
+            this.clientBuilder.setCallbackExecutor(executor);
+            final HttpHost target = start();
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<Thread> callbackThread = new AtomicReference<Thread>();
+            final HttpGet httpget = new HttpGet("/random/2048");
+            this.httpclient.execute(target, httpget, new FutureCallback<HttpResponse>() {
+
+                @Override
+                public void completed(final HttpResponse result) {
+                    callbackThread.set(Thread.currentThread());
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void cancelled() {
+                    latch.countDown();
+                }
+
+            });
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertNotNull(callbackThread.get());
+            Assert.assertTrue(callbackThread.get().getName().startsWith("httpclient-callback-"));
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testSlowCallbackMonitor() throws Exception {
+        final SlowCallbackMonitor monitor = new SlowCallbackMonitor(0, TimeUnit.NANOSECONDS);
+        this.clientBuilder.setSlowCallbackMonitor(monitor);
+        final HttpHost target = start();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final HttpGet httpget = new HttpGet("/random/2048");
+        this.httpclient.execute(target, httpget, new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(final HttpResponse result) {
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                latch.countDown();
+            }
+
+            @Override
+            public void cancelled() {
+                latch.countDown();
+            }
+
+        });
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // the monitor is updated once the callback has returned
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (monitor.getCallbackCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, monitor.getCallbackCount());
+        Assert.assertEquals(1, monitor.getSlowCount());
+        Assert.assertTrue(monitor.getMaxTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
     @Test
     public void testClientCloseloseQuietly() throws Exception {
         final HttpHost target = start();
@@ -26,32 +26,47 @@
  */
 package org.apache.http.nio.client.integration;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.localserver.AbstractAsyncTest;
 import org.apache.http.localserver.EchoHandler;
 import org.apache.http.localserver.RandomHandler;
+import org.apache.http.nio.client.ExchangeTimings;
+import org.apache.http.nio.client.HttpPipeliningSession;
+import org.apache.http.nio.conn.ConnPoolMetricsListener;
 import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Assert;
@@ -60,6 +75,8 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
 
 @RunWith(Parameterized.class)
 public class TestHttpAsyncPipelining extends AbstractAsyncTest {
@@ -219,12 +236,376 @@ public class TestHttpAsyncPipelining extends AbstractAsyncTest {
             Assert.assertNotNull(c1.getResult());
             Assert.assertTrue(c2.isDone());
             Assert.assertNotNull(c2.getResult());
+            // Unanswered idempotent requests are re-issued over a new connection
             Assert.assertTrue(c3.isDone());
-            Assert.assertNull(c3.getResult());
+            Assert.assertNotNull(c3.getResult());
             Assert.assertTrue(c4.isDone());
-            Assert.assertNull(c4.getResult());
+            Assert.assertNotNull(c4.getResult());
         }
 
     }
 
+    @Test
+    public void testPipelinedGetsFullProtocolStack() throws Exception {
+        this.serverBootstrap.registerHandler("/redirect/*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                response.setStatusCode(HttpStatus.SC_MOVED_TEMPORARILY);
+                response.addHeader("Location", "/random/1024");
+            }
+
+        }));
+        final HttpHost target = start();
+
+        final CloseableHttpPipeliningClient fullclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .buildPipelining();
+        fullclient.start();
+        try {
+            final Queue<Future<List<HttpResponse>>> queue = new ConcurrentLinkedQueue<Future<List<HttpResponse>>>();
+            for (int i = 0; i < 10; i++) {
+                final HttpRequest httpget1 = new HttpGet("/random/512");
+                final HttpRequest httpget2 = new HttpGet("/redirect/");
+                final HttpRequest httpget3 = new HttpGet("/random/2048");
+                queue.add(fullclient.execute(target, Arrays.asList(httpget1, httpget2, httpget3), null));
+            }
+
+            while (!queue.isEmpty()) {
+                final Future<List<HttpResponse>> future = queue.remove();
+                final List<HttpResponse> responses = future.get();
+                Assert.assertNotNull(responses);
+                Assert.assertEquals(3, responses.size());
+                final HttpResponse response1 = responses.get(0);
+                Assert.assertEquals(200, response1.getStatusLine().getStatusCode());
+                Assert.assertEquals(512, EntityUtils.toByteArray(response1.getEntity()).length);
+                final HttpResponse response2 = responses.get(1);
+                Assert.assertEquals(200, response2.getStatusLine().getStatusCode());
+                Assert.assertEquals(1024, EntityUtils.toByteArray(response2.getEntity()).length);
+                final HttpResponse response3 = responses.get(2);
+                Assert.assertEquals(200, response3.getStatusLine().getStatusCode());
+                Assert.assertEquals(2048, EntityUtils.toByteArray(response3.getEntity()).length);
+            }
+        } finally {
+            fullclient.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedBatchFailsWhenFirstRequestCannotBePrepared() throws Exception {
+        final HttpHost target = start();
+
+        final CloseableHttpPipeliningClient fullclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .buildPipelining();
+        fullclient.start();
+        try {
+            final HttpAsyncRequestProducer producer1 = Mockito.mock(HttpAsyncRequestProducer.class);
+            Mockito.when(producer1.getTarget()).thenReturn(target);
+            Mockito.when(producer1.generateRequest()).thenThrow(new HttpException("Oppsie"));
+            final HttpAsyncRequestProducer producer2 = HttpAsyncMethods.create(target, new HttpGet("/random/512"));
+            final HttpAsyncResponseConsumer<HttpResponse> consumer1 = HttpAsyncMethods.createConsumer();
+            final HttpAsyncResponseConsumer<HttpResponse> consumer2 = HttpAsyncMethods.createConsumer();
+
+            final Future<List<HttpResponse>> future = fullclient.execute(target,
+                    Arrays.asList(producer1, producer2),
+                    Arrays.asList(consumer1, consumer2), null);
+            try {
+                future.get();
+                Assert.fail("ExecutionException expected");
+            } catch (final ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof HttpException);
+            }
+            Assert.assertTrue(consumer2.isDone());
+            Assert.assertNotNull(consumer2.getException());
+        } finally {
+            fullclient.close();
+        }
+    }
+
+    @Test
+    public void testPipeliningSession() throws Exception {
+        final HttpHost target = start();
+
+        final CloseableHttpPipeliningClient fullclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .buildPipelining();
+        fullclient.start();
+        try {
+            final HttpPipeliningSession session = fullclient.openSession(target, 4);
+            Assert.assertTrue(session.isOpen());
+            final Future<HttpResponse> future1 = session.execute(new HttpGet("/random/512"), null);
+            final HttpResponse response1 = future1.get();
+            Assert.assertEquals(200, response1.getStatusLine().getStatusCode());
+            Assert.assertEquals(512, EntityUtils.toByteArray(response1.getEntity()).length);
+
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 1; i <= 20; i++) {
+                futures.add(session.execute(new HttpGet("/random/" + (i * 100)), null));
+            }
+            for (int i = 1; i <= 20; i++) {
+                final HttpResponse response = futures.get(i - 1).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                Assert.assertEquals(i * 100, EntityUtils.toByteArray(response.getEntity()).length);
+            }
+
+            session.close();
+            Assert.assertFalse(session.isOpen());
+            try {
+                session.execute(new HttpGet("/random/512"), null);
+                Assert.fail("IllegalStateException expected");
+            } catch (final IllegalStateException expected) {
+            }
+        } finally {
+            fullclient.close();
+        }
+    }
+
+    @Test
+    public void testMinimalPipeliningSession() throws Exception {
+        final HttpHost target = start();
+
+        final HttpPipeliningSession session = this.httpclient.openSession(target, 4);
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 1; i <= 10; i++) {
+                futures.add(session.execute(new HttpGet("/random/" + (i * 100)), null));
+            }
+            for (int i = 1; i <= 10; i++) {
+                final HttpResponse response = futures.get(i - 1).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                Assert.assertEquals(i * 100, EntityUtils.toByteArray(response.getEntity()).length);
+            }
+        } finally {
+            session.close();
+        }
+        Assert.assertFalse(session.isOpen());
+    }
+
+    private void registerClosingHandler(final int maxRequestsPerConnection) {
+        final AtomicInteger count = new AtomicInteger(0);
+        this.serverBootstrap.registerHandler("/closing/*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                response.setStatusCode(HttpStatus.SC_OK);
+                response.setEntity(new StringEntity(request.getRequestLine().getUri()));
+                if (count.incrementAndGet() % maxRequestsPerConnection == 0) {
+                    response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+                }
+            }
+
+        }));
+    }
+
+    private static void assertClosingResponses(final List<HttpResponse> responses) throws IOException {
+        Assert.assertNotNull(responses);
+        Assert.assertEquals(10, responses.size());
+        for (int i = 0; i < 10; i++) {
+            final HttpResponse response = responses.get(i);
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals("/closing/" + i, EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    @Test
+    public void testPipelinedGetsRecoveredAfterConnectionClose() throws Exception {
+        registerClosingHandler(3);
+        final HttpHost target = start();
+
+        final List<HttpRequest> requests = new ArrayList<HttpRequest>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new HttpGet("/closing/" + i));
+        }
+        final Future<List<HttpResponse>> future = this.httpclient.execute(target, requests, null);
+        assertClosingResponses(future.get());
+    }
+
+    @Test
+    public void testPipelinedGetsFullProtocolStackRecoveredAfterConnectionClose() throws Exception {
+        registerClosingHandler(3);
+        final HttpHost target = start();
+
+        final CloseableHttpPipeliningClient fullclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .buildPipelining();
+        fullclient.start();
+        try {
+            final List<HttpRequest> requests = new ArrayList<HttpRequest>();
+            for (int i = 0; i < 10; i++) {
+                requests.add(new HttpGet("/closing/" + i));
+            }
+            final Future<List<HttpResponse>> future = fullclient.execute(target, requests, null);
+            assertClosingResponses(future.get());
+        } finally {
+            fullclient.close();
+        }
+    }
+
+    @Test
+    public void testAutoPipelinedGets() throws Exception {
+        final HttpHost target = start();
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+
+        final CloseableHttpPipeliningClient autoclient = HttpAsyncClients.createAutoPipelining(
+                this.connMgr, true, 5);
+        autoclient.start();
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 1; i <= 20; i++) {
+                futures.add(autoclient.execute(target, new HttpGet("/random/" + (i * 100)), null));
+            }
+            for (int i = 1; i <= 20; i++) {
+                final HttpResponse response = futures.get(i - 1).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                Assert.assertEquals(i * 100, EntityUtils.toByteArray(response.getEntity()).length);
+            }
+        } finally {
+            autoclient.close();
+        }
+        // Pipelined requests share the lease of their connection
+        Mockito.verify(metricsListener, Mockito.atMost(10)).leaseRequested(Matchers.<HttpRoute>any());
+    }
+
+    @Test
+    public void testAutoPipelinedGetsTimedIndividually() throws Exception {
+        final HttpHost target = start();
+        final CloseableHttpPipeliningClient autoclient = HttpAsyncClients.createAutoPipelining(
+                this.connMgr, true, 5);
+        autoclient.start();
+        try {
+            final List<HttpClientContext> contexts = new ArrayList<HttpClientContext>();
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < 10; i++) {
+                final HttpClientContext context = HttpClientContext.create();
+                contexts.add(context);
+                futures.add(autoclient.execute(target, new HttpGet("/random/1024"), context, null));
+            }
+            final Set<ExchangeTimings> distinct = new HashSet<ExchangeTimings>();
+            for (int i = 0; i < 10; i++) {
+                final HttpResponse response = futures.get(i).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                final ExchangeTimings timings = ExchangeTimings.get(contexts.get(i));
+                Assert.assertNotNull(timings);
+                for (final ExchangeTimings.Phase phase: ExchangeTimings.Phase.values()) {
+                    Assert.assertTrue(phase.name(), timings.isReached(phase));
+                }
+                Assert.assertTrue(timings.getServerTime(TimeUnit.NANOSECONDS) >= 0);
+                distinct.add(timings);
+            }
+            Assert.assertEquals(10, distinct.size());
+        } finally {
+            autoclient.close();
+        }
+    }
+
+    @Test
+    public void testAutoPipeliningSkipsNonIdempotentRequests() throws Exception {
+        final HttpHost target = start();
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+
+        final CloseableHttpPipeliningClient autoclient = HttpAsyncClients.createAutoPipelining(
+                this.connMgr, true, 5);
+        autoclient.start();
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < 10; i++) {
+                final HttpPost httppost = new HttpPost("/echo/");
+                httppost.setEntity(new StringEntity("stuff " + i));
+                futures.add(autoclient.execute(target, httppost, null));
+            }
+            for (int i = 0; i < 10; i++) {
+                final HttpResponse response = futures.get(i).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                Assert.assertEquals("stuff " + i, EntityUtils.toString(response.getEntity()));
+            }
+        } finally {
+            autoclient.close();
+        }
+        // Every request has been executed over a connection of its own lease
+        Mockito.verify(metricsListener, Mockito.times(10)).leaseRequested(Matchers.<HttpRoute>any());
+    }
+
+    @Test
+    public void testAutoPipelinedGetsFullProtocolStack() throws Exception {
+        this.serverBootstrap.registerHandler("/redirect/*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                response.setStatusCode(HttpStatus.SC_MOVED_TEMPORARILY);
+                response.addHeader("Location", "/random/1024");
+            }
+
+        }));
+        final HttpHost target = start();
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+
+        final CloseableHttpPipeliningClient autoclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .enableAutoPipelining(5)
+                .buildPipelining();
+        autoclient.start();
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(autoclient.execute(target, new HttpGet(i % 2 == 0 ? "/random/512" : "/redirect/"), null));
+            }
+            for (int i = 0; i < 20; i++) {
+                final HttpResponse response = futures.get(i).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                Assert.assertEquals(i % 2 == 0 ? 512 : 1024, EntityUtils.toByteArray(response.getEntity()).length);
+            }
+        } finally {
+            autoclient.close();
+        }
+        // Pipelined requests share the lease of their connection
+        Mockito.verify(metricsListener, Mockito.atMost(10)).leaseRequested(Matchers.<HttpRoute>any());
+    }
+
+    @Test
+    public void testAutoPipeliningRequiresSaturatedPool() throws Exception {
+        final HttpHost target = start();
+        this.connMgr.setDefaultMaxPerRoute(20);
+        final ConnPoolMetricsListener metricsListener = Mockito.mock(ConnPoolMetricsListener.class);
+        this.connMgr.setMetricsListener(metricsListener);
+
+        final CloseableHttpPipeliningClient autoclient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connMgr)
+                .setConnectionManagerShared(true)
+                .enableAutoPipelining(5)
+                .buildPipelining();
+        autoclient.start();
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(autoclient.execute(target, new HttpGet("/random/512"), null));
+            }
+            for (int i = 0; i < 10; i++) {
+                final HttpResponse response = futures.get(i).get();
+                Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            }
+        } finally {
+            autoclient.close();
+        }
+        // The pool never ran out of connections, so no request has been pipelined
+        Mockito.verify(metricsListener, Mockito.times(10)).leaseRequested(Matchers.<HttpRoute>any());
+    }
+
 }
@@ -0,0 +1,164 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.integration;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncRequestRetryHandler;
+import org.apache.http.impl.nio.client.RetryBudget;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpAsyncRetries extends HttpAsyncTestBase {
+
+    /**
+     * Resets the connection of the first given number of requests
+     * and responds normally to the others.
+     */
+    static class ResettingHandler implements HttpAsyncRequestHandler<HttpRequest> {
+
+        private final int resets;
+        private final AtomicInteger count;
+
+        ResettingHandler(final int resets) {
+            super();
+            this.resets = resets;
+            this.count = new AtomicInteger();
+        }
+
+        int getCount() {
+            return this.count.get();
+        }
+
+        @Override
+        public HttpAsyncRequestConsumer<HttpRequest> processRequest(
+                final HttpRequest request,
+                final HttpContext context) throws HttpException, IOException {
+            if (this.count.incrementAndGet() <= this.resets) {
+                final HttpConnection conn = (HttpConnection) context.getAttribute(
+                        HttpCoreContext.HTTP_CONNECTION);
+                conn.shutdown();
+            }
+            return new BasicAsyncRequestConsumer();
+        }
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpAsyncExchange httpExchange,
+                final HttpContext context) throws HttpException, IOException {
+            final HttpResponse response = httpExchange.getResponse();
+            response.setEntity(new NStringEntity("all is well", ContentType.TEXT_PLAIN));
+            httpExchange.submitResponse();
+        }
+
+    }
+
+    @Test
+    public void testRequestRetriedAfterConnectionReset() throws Exception {
+        final ResettingHandler handler = new ResettingHandler(2);
+        this.serverBootstrap.registerHandler("*", handler);
+        this.clientBuilder.setRetryHandler(new DefaultHttpAsyncRequestRetryHandler(3, 10, 100));
+        final HttpHost target = start();
+
+        final Future<HttpResponse> future = this.httpclient.execute(target, new HttpGet("/"), null);
+        final HttpResponse response = future.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("all is well", EntityUtils.toString(response.getEntity()));
+        Assert.assertEquals(3, handler.getCount());
+    }
+
+    @Test
+    public void testRetryBudgetStopsRetries() throws Exception {
+        final ResettingHandler handler = new ResettingHandler(Integer.MAX_VALUE);
+        this.serverBootstrap.registerHandler("*", handler);
+        final RetryBudget retryBudget = new RetryBudget(0, 1);
+        this.clientBuilder.setRetryHandler(new DefaultHttpAsyncRequestRetryHandler(5, 10, 100));
+        this.clientBuilder.setRetryBudget(retryBudget);
+        final HttpHost target = start();
+
+        final Future<HttpResponse> future = this.httpclient.execute(target, new HttpGet("/"), null);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException should have been thrown");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IOException);
+        }
+        // The original request and the single retry the budget allows for
+        Assert.assertEquals(2, handler.getCount());
+        Assert.assertEquals(0, retryBudget.getBalance());
+        Assert.assertEquals(1, retryBudget.getRejectedCount());
+    }
+
+    @Test
+    public void testScheduledRetryAbortedOnClose() throws Exception {
+        final ResettingHandler handler = new ResettingHandler(Integer.MAX_VALUE);
+        this.serverBootstrap.registerHandler("*", handler);
+        this.clientBuilder.setRetryHandler(new DefaultHttpAsyncRequestRetryHandler(3, 60000, 60000));
+        final HttpHost target = start();
+
+        final Future<HttpResponse> future = this.httpclient.execute(target, new HttpGet("/"), null);
+        for (int i = 0; i < 50 && handler.getCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, handler.getCount());
+        Thread.sleep(500);
+        Assert.assertFalse(future.isDone());
+
+        this.httpclient.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException should have been thrown");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof ConnectionClosedException);
+        }
+        Assert.assertEquals(1, handler.getCount());
+    }
+
+}